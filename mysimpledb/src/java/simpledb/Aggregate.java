@@ -175,6 +175,12 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // Actually perform the aggregation
+        if (it == null && child instanceof ParallelSeqScan) {
+            // let the scan's workers compute partial aggregates
+            it = ((ParallelSeqScan) child).aggregate(afield, gfield, aop);
+            if (it != null)
+                it.open();
+        }
         if (it == null) {
             while (child.hasNext()) {
                 Tuple t = child.next();
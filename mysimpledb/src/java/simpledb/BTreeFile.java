@@ -0,0 +1,641 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on an INT_TYPE field of a heap table. Its
+ * leaves hold (key, page number, slot) entries for the tuples of the table,
+ * in the order described in {@link BTreePage}, and are linked left to right
+ * so a range is read by finding its first entry and following the links.
+ * Page 0 is a META page holding the number of the root page.
+ * <p/>
+ * All pages are read and modified through the buffer pool, so index
+ * updates are locked, logged and rolled back with the table updates of
+ * the same transaction. Readers take shared locks on the pages on their
+ * way down; writers take a shared lock on the path and an exclusive one on
+ * the leaf, upgrading the path pages only when a split reaches them.
+ * Deletes do not merge pages; an emptied leaf stays in the chain until the
+ * index is rebuilt with {@link #build()}.
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements IndexFile {
+
+	/** Underlying OS file. */
+	private File osFile;
+
+	/** The indexed table. */
+	private int tableId;
+
+	/** The indexed field of the table. */
+	private int keyField;
+
+	/** Description of the index entries. */
+	private TupleDesc td;
+
+	/** Whether the index matches the table on disk. */
+	private IndexStamp stamp;
+
+
+	/**
+	 * Constructs the index on one field of a table. The table must be in the
+	 * catalog and stored in a HeapFile; if f is empty, the index is empty until {@link #build()} is
+	 * called or entries are inserted.
+	 *
+	 * @param f the file that stores the index
+	 * @param tableId the indexed table
+	 * @param keyField the index of the indexed field, which must be an
+	 *                 INT_TYPE field
+	 */
+	public BTreeFile(File f, int tableId, int keyField) {
+		if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+			throw new IllegalArgumentException("only heap tables can be indexed");
+		}
+		TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+		if (tableTd.getFieldType(keyField) != Type.INT_TYPE) {
+			throw new IllegalArgumentException("B+ tree keys must be INT_TYPE");
+		}
+		this.osFile = f;
+		this.tableId = tableId;
+		this.keyField = keyField;
+		this.td = new TupleDesc(
+				new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+				new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+		this.stamp = new IndexStamp(f, tableId);
+	} // end BTreeFile(File, int, int)
+
+
+	/**
+	 * @return the file backing this index on disk
+	 */
+	public File getFile() {
+		return osFile;
+	} // end getFile()
+
+
+	/**
+	 * @see DbFile#getId()
+	 */
+	public int getId() {
+		return osFile.getAbsoluteFile().hashCode();
+	} // end getId()
+
+
+	/**
+	 * Returns the TupleDesc of the index entries: the key, then the page
+	 * number and slot of the tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	} // end getTupleDesc()
+
+
+	/**
+	 * @see IndexFile#getTableId()
+	 */
+	public int getTableId() {
+		return tableId;
+	} // end getTableId()
+
+
+	/**
+	 * @see IndexFile#getKeyField()
+	 */
+	public int getKeyField() {
+		return keyField;
+	} // end getKeyField()
+
+
+	/**
+	 * A B+ tree answers equality and range predicates.
+	 */
+	public boolean supports(Predicate.Op op) {
+		return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+	} // end supports(Predicate.Op)
+
+
+	/**
+	 * A lookup reads the META page and one page per level of the tree,
+	 * whose height is estimated from the size of the file.
+	 */
+	public int lookupPages() {
+		int fanout = BTreePage.internalCapacity() + 1;
+		int levels = 1;
+		for (long reach = 1; reach < numPages() - 1; reach *= fanout) {
+			levels++;
+		}
+		return 1 + levels;
+	} // end lookupPages()
+
+
+	/**
+	 * @see DbFile#readPage(PageId)
+	 */
+	public Page readPage(PageId pid) {
+		return readPages(pid, 1).get(0);
+	} // end readPage(PageId)
+
+
+	/**
+	 * @see DbFile#readPages(PageId, int)
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		int ps = BufferPool.getPageSize();
+		if (count < 1 || first.pageNumber() < 0
+				|| first.pageNumber() + count > numPages()) {
+			throw new IllegalArgumentException("page(s) not in file");
+		}
+
+		ArrayList<Page> rv = new ArrayList<Page>(count);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(osFile, "r");
+			try {
+				byte[] data = new byte[ps * count];
+				raf.seek((long) first.pageNumber() * ps);
+				raf.readFully(data);
+				for (int i = 0; i < count; i++) {
+					rv.add(new BTreePage(new BTreePageId(getId(),
+							first.pageNumber() + i),
+							Arrays.copyOfRange(data, i * ps, (i + 1) * ps)));
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("error when reading file");
+		}
+		return rv;
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * @see DbFile#writePage(Page)
+	 */
+	public void writePage(Page page) throws IOException {
+		stamp.invalidate();
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+		raf.write(page.getPageData());
+		raf.close();
+	} // end writePage(Page)
+
+
+	/**
+	 * Returns the number of pages in this index.
+	 */
+	public int numPages() {
+		return (int) (osFile.length() / BufferPool.getPageSize());
+	} // end numPages()
+
+
+	/**
+	 * @return whether the index is known to match its table, i.e., it was
+	 *         built or flushed after the table's file last changed
+	 */
+	public boolean isCurrent() {
+		return numPages() > 0 && stamp.matches();
+	} // end isCurrent()
+
+
+	/**
+	 * Records that the index matches its table as it is on disk; called
+	 * once the buffer pool has flushed all pages.
+	 */
+	public void markCurrent() throws IOException {
+		stamp.write();
+	} // end markCurrent()
+
+
+	/**
+	 * Writes the META page and an empty root leaf if the file is empty.
+	 */
+	private synchronized void init() throws IOException {
+		if (numPages() > 0) return;
+		BTreePage meta = new BTreePage(new BTreePageId(getId(), 0),
+				BTreePage.createEmptyPageData());
+		meta.initMeta(1);
+		writePage(meta);
+		BTreePage leaf = new BTreePage(new BTreePageId(getId(), 1),
+				BTreePage.createEmptyPageData());
+		leaf.initLeaf(-1);
+		writePage(leaf);
+	} // end init()
+
+
+	/**
+	 * Appends a FREE page to the file, like HeapFile does when it runs out
+	 * of room.
+	 *
+	 * @return the number of the new page
+	 */
+	private synchronized int allocatePage() throws IOException {
+		int pgNo = numPages();
+		writePage(new BTreePage(new BTreePageId(getId(), pgNo),
+				BTreePage.createEmptyPageData()));
+		return pgNo;
+	} // end allocatePage()
+
+
+	/**
+	 * Fetches a page of this index through the buffer pool.
+	 */
+	private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (BTreePage) Database.getBufferPool().getPage(tid,
+				new BTreePageId(getId(), pgNo), perm);
+	} // end getPage(TransactionId, int, Permissions)
+
+
+	/**
+	 * @see IndexFile#insertEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return insert(tid, ((IntField) t.getField(keyField)).getValue(),
+				rid.getPageId().pageNumber(), rid.tupleno());
+	} // end insertEntry(TransactionId, Tuple)
+
+
+	/**
+	 * @see IndexFile#deleteEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return delete(tid, ((IntField) t.getField(keyField)).getValue(),
+				rid.getPageId().pageNumber(), rid.tupleno());
+	} // end deleteEntry(TransactionId, Tuple)
+
+
+	/**
+	 * Inserts an index entry, given as a tuple of getTupleDesc().
+	 *
+	 * @see DbFile#insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return insert(tid, ((IntField) t.getField(0)).getValue(),
+				((IntField) t.getField(1)).getValue(),
+				((IntField) t.getField(2)).getValue());
+	} // end insertTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Deletes an index entry, given as a tuple of getTupleDesc().
+	 *
+	 * @see DbFile#deleteTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		try {
+			return delete(tid, ((IntField) t.getField(0)).getValue(),
+					((IntField) t.getField(1)).getValue(),
+					((IntField) t.getField(2)).getValue());
+		} catch (IOException e) {
+			throw new DbException("could not initialize index: " + e.getMessage());
+		}
+	} // end deleteTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Walks down from the root to the leaf where an entry belongs, taking
+	 * shared locks.
+	 *
+	 * @param path receives the numbers of the internal pages passed,
+	 *             root first
+	 * @return the number of the leaf
+	 */
+	private int findLeaf(TransactionId tid, int key, int pg, int slot,
+			ArrayList<Integer> path)
+			throws DbException, IOException, TransactionAbortedException {
+		init();
+		int pgNo = getPage(tid, 0, Permissions.READ_ONLY).getRoot();
+		BTreePage page = getPage(tid, pgNo, Permissions.READ_ONLY);
+		while (page.getKind() == BTreePage.INTERNAL) {
+			if (path != null) path.add(pgNo);
+			pgNo = page.getChild(page.childIndex(key, pg, slot));
+			page = getPage(tid, pgNo, Permissions.READ_ONLY);
+		}
+		return pgNo;
+	} // end findLeaf(TransactionId, int, int, int, ArrayList<Integer>)
+
+
+	/**
+	 * Inserts the entry (key, pg, slot), splitting the pages on the way up
+	 * that overflow.
+	 *
+	 * @return the pages modified
+	 */
+	private ArrayList<Page> insert(TransactionId tid, int key, int pg, int slot)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Integer> path = new ArrayList<Integer>();
+		int leafNo = findLeaf(tid, key, pg, slot, path);
+		BTreePage leaf = getPage(tid, leafNo, Permissions.READ_WRITE);
+
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		dirtied.add(leaf);
+		if (!leaf.isFull()) {
+			leaf.insertEntry(key, pg, slot);
+			return dirtied;
+		}
+
+		// split the leaf, then insert into the half the entry belongs to
+		BTreePage right = getPage(tid, allocatePage(), Permissions.READ_WRITE);
+		dirtied.add(right);
+		leaf.splitLeafInto(right);
+		if (BTreePage.compare(key, pg, slot,
+				right.getKey(0), right.getPage(0), right.getSlot(0)) < 0) {
+			leaf.insertEntry(key, pg, slot);
+		} else {
+			right.insertEntry(key, pg, slot);
+		}
+
+		// push separators up while the parents overflow
+		int sk = right.getKey(0), sp = right.getPage(0), ss = right.getSlot(0);
+		int newChild = right.getId().pageNumber();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			BTreePage parent = getPage(tid, path.get(i), Permissions.READ_WRITE);
+			dirtied.add(parent);
+			if (!parent.isFull()) {
+				parent.insertSeparator(sk, sp, ss, newChild);
+				return dirtied;
+			}
+
+			BTreePage sibling = getPage(tid, allocatePage(), Permissions.READ_WRITE);
+			dirtied.add(sibling);
+			parent.splitInternalInto(sibling);
+			int mid = parent.size();
+			int mk = parent.getKey(mid), mp = parent.getPage(mid), ms = parent.getSlot(mid);
+			if (BTreePage.compare(sk, sp, ss, mk, mp, ms) < 0) {
+				parent.insertSeparator(sk, sp, ss, newChild);
+			} else {
+				sibling.insertSeparator(sk, sp, ss, newChild);
+			}
+			sk = mk;
+			sp = mp;
+			ss = ms;
+			newChild = sibling.getId().pageNumber();
+		}
+
+		// the root split: grow the tree by one level
+		int oldRoot = path.isEmpty() ? leafNo : path.get(0);
+		BTreePage root = getPage(tid, allocatePage(), Permissions.READ_WRITE);
+		dirtied.add(root);
+		root.initInternal(oldRoot);
+		root.insertSeparator(sk, sp, ss, newChild);
+		BTreePage meta = getPage(tid, 0, Permissions.READ_WRITE);
+		dirtied.add(meta);
+		meta.setRoot(root.getId().pageNumber());
+		return dirtied;
+	} // end insert(TransactionId, int, int, int)
+
+
+	/**
+	 * Deletes the entry (key, pg, slot).
+	 *
+	 * @return the pages modified
+	 * @throws DbException if there is no such entry
+	 */
+	private ArrayList<Page> delete(TransactionId tid, int key, int pg, int slot)
+			throws DbException, IOException, TransactionAbortedException {
+		int leafNo = findLeaf(tid, key, pg, slot, null);
+		BTreePage leaf = getPage(tid, leafNo, Permissions.READ_WRITE);
+		int i = leaf.lowerBound(key, pg, slot);
+		if (i == leaf.size() || BTreePage.compare(key, pg, slot,
+				leaf.getKey(i), leaf.getPage(i), leaf.getSlot(i)) != 0) {
+			throw new DbException("no index entry for tuple");
+		}
+		leaf.removeEntry(i);
+
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		dirtied.add(leaf);
+		return dirtied;
+	} // end delete(TransactionId, int, int, int)
+
+
+	/**
+	 * Rebuilds the index from the table: the entries of all tuples are
+	 * sorted and packed into full leaves, and the internal levels are
+	 * built on top of them. The pages are written straight to the file,
+	 * so the index and the table must not be in use meanwhile.
+	 */
+	public synchronized void build()
+			throws IOException, DbException, TransactionAbortedException {
+		// collect the entries of the table's tuples
+		ArrayList<int[]> entries = new ArrayList<int[]>();
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			entries.add(new int[] {((IntField) t.getField(keyField)).getValue(),
+					t.getRecordId().getPageId().pageNumber(),
+					t.getRecordId().tupleno()});
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		Collections.sort(entries, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				return BTreePage.compare(a[0], a[1], a[2], b[0], b[1], b[2]);
+			}
+		});
+
+		Database.getBufferPool().discardPages(getId(), 0);
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.setLength(0);
+		raf.close();
+
+		// the leaves, from page 1 on; level holds each page's number and
+		// first entry
+		int pgNo = 1;
+		ArrayList<int[]> level = new ArrayList<int[]>();
+		int cap = BTreePage.leafCapacity();
+		int numLeaves = Math.max(1, (entries.size() + cap - 1) / cap);
+		for (int l = 0; l < numLeaves; l++, pgNo++) {
+			BTreePage leaf = new BTreePage(new BTreePageId(getId(), pgNo),
+					BTreePage.createEmptyPageData());
+			leaf.initLeaf(l + 1 < numLeaves ? pgNo + 1 : -1);
+			for (int i = l * cap; i < Math.min((l + 1) * cap, entries.size()); i++) {
+				int[] e = entries.get(i);
+				leaf.append(e[0], e[1], e[2], 0);
+			}
+			writePage(leaf);
+			int[] first = (leaf.size() > 0) ? entries.get(l * cap) : new int[3];
+			level.add(new int[] {pgNo, first[0], first[1], first[2]});
+		}
+
+		// internal levels until one page is left
+		cap = BTreePage.internalCapacity() + 1;
+		while (level.size() > 1) {
+			ArrayList<int[]> upper = new ArrayList<int[]>();
+			for (int start = 0; start < level.size(); start += cap, pgNo++) {
+				BTreePage page = new BTreePage(new BTreePageId(getId(), pgNo),
+						BTreePage.createEmptyPageData());
+				int[] first = level.get(start);
+				page.initInternal(first[0]);
+				for (int i = start + 1; i < Math.min(start + cap, level.size()); i++) {
+					int[] c = level.get(i);
+					page.append(c[1], c[2], c[3], c[0]);
+				}
+				writePage(page);
+				upper.add(new int[] {pgNo, first[1], first[2], first[3]});
+			}
+			level = upper;
+		}
+
+		BTreePage meta = new BTreePage(new BTreePageId(getId(), 0),
+				BTreePage.createEmptyPageData());
+		meta.initMeta(level.get(0)[0]);
+		writePage(meta);
+		stamp.write();
+	} // end build()
+
+
+	/**
+	 * Returns an iterator over all entries, in order.
+	 *
+	 * @see DbFile#iterator(TransactionId)
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new BTreeFileIterator(tid, Predicate.Op.GREATER_THAN_OR_EQ,
+				Integer.MIN_VALUE);
+	} // end iterator(TransactionId)
+
+
+	/**
+	 * @see IndexFile#iterator(TransactionId, Predicate.Op, Field)
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+		if (!supports(op)) {
+			throw new UnsupportedOperationException("B+ tree cannot answer " + op);
+		}
+		return new BTreeFileIterator(tid, op, ((IntField) key).getValue());
+	} // end iterator(TransactionId, Predicate.Op, Field)
+
+
+	/**
+	 * Iterator over the entries whose keys satisfy a predicate. It finds the
+	 * first entry with a search from the root, then follows the leaf links.
+	 * It remembers the last entry it returned rather than a position, so
+	 * the transaction may insert and delete entries while it iterates.
+	 */
+	private class BTreeFileIterator implements DbFileIterator {
+
+		private TransactionId tid;
+		private Predicate.Op op;
+		private int key;
+
+		/** Leaf that holds, or precedes, the next entry. */
+		private int leafNo;
+
+		/** The last entry returned, or the bound to start from. */
+		private int lastKey, lastPage, lastSlot;
+
+		/** Whether the last* fields hold a returned entry. */
+		private boolean started;
+
+		private Tuple next;
+		private boolean opened;
+
+
+		private BTreeFileIterator(TransactionId tid, Predicate.Op op, int key) {
+			this.tid = tid;
+			this.op = op;
+			this.key = key;
+			this.opened = false;
+		} // end BTreeFileIterator(TransactionId, Predicate.Op, int)
+
+
+		public void open() throws DbException, TransactionAbortedException {
+			// the smallest entry that may satisfy the predicate
+			lastPage = lastSlot = Integer.MIN_VALUE;
+			switch (op) {
+			case EQUALS:
+			case GREATER_THAN_OR_EQ:
+				lastKey = key;
+				break;
+			case GREATER_THAN:
+				lastKey = key;
+				lastPage = lastSlot = Integer.MAX_VALUE;
+				break;
+			default:
+				lastKey = Integer.MIN_VALUE;
+			}
+			started = false;
+			next = null;
+			try {
+				leafNo = findLeaf(tid, lastKey, lastPage, lastSlot, null);
+			} catch (IOException e) {
+				throw new DbException("could not initialize index: " + e.getMessage());
+			}
+			opened = true;
+		} // end open()
+
+
+		/**
+		 * @return the next satisfying entry, or null if there is none
+		 */
+		private Tuple fetchNext() throws DbException, TransactionAbortedException {
+			while (true) {
+				BTreePage leaf = getPage(tid, leafNo, Permissions.READ_ONLY);
+				int i = leaf.lowerBound(lastKey, lastPage, lastSlot);
+				if (started && i < leaf.size() && BTreePage.compare(lastKey,
+						lastPage, lastSlot, leaf.getKey(i), leaf.getPage(i),
+						leaf.getSlot(i)) == 0) {
+					i++;		// already returned
+				}
+				if (i < leaf.size()) {
+					int k = leaf.getKey(i);
+					if ((op == Predicate.Op.EQUALS && k > key)
+							|| (op == Predicate.Op.LESS_THAN && k >= key)
+							|| (op == Predicate.Op.LESS_THAN_OR_EQ && k > key)) {
+						return null;
+					}
+					lastKey = k;
+					lastPage = leaf.getPage(i);
+					lastSlot = leaf.getSlot(i);
+					started = true;
+
+					Tuple t = new Tuple(td);
+					t.setField(0, new IntField(lastKey));
+					t.setField(1, new IntField(lastPage));
+					t.setField(2, new IntField(lastSlot));
+					return t;
+				}
+				if (leaf.getNext() < 0) return null;
+				leafNo = leaf.getNext();
+			}
+		} // end fetchNext()
+
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (!opened) return false;
+			if (next == null) next = fetchNext();
+			return next != null;
+		} // end hasNext()
+
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext()) throw new NoSuchElementException("no more entries");
+			Tuple rv = next;
+			next = null;
+			return rv;
+		} // end next()
+
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		} // end rewind()
+
+
+		public void close() {
+			next = null;
+			opened = false;
+		} // end close()
+	} // end BTreeFileIterator
+
+} // end BTreeFile
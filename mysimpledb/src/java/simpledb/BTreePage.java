@@ -0,0 +1,451 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage is a page of a {@link BTreeFile}. Index entries are
+ * (key, page number, slot) triples that point at a tuple of the indexed
+ * table; they are ordered by key, then page number, then slot, so every
+ * entry is unique even when keys repeat.
+ * <p/>
+ * Every page starts with a kind byte, then:
+ * <ul>
+ * <li>META (page 0 only): the int number of the root page;</li>
+ * <li>LEAF: an int entry count n, the int number of the next leaf (-1 for
+ * the last leaf), then n entries of three ints each;</li>
+ * <li>INTERNAL: an int separator count n, an unused int, n + 1 int child
+ * page numbers, then n separator entries of three ints each.
+ * Child i holds the entries e with separator i-1 &lt;= e &lt; separator i.</li>
+ * </ul>
+ * A page of all zeroes is a FREE page that has not been set up yet.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+	static final byte FREE = 0;
+	static final byte META = 1;
+	static final byte LEAF = 2;
+	static final byte INTERNAL = 3;
+
+	/** Size of the kind byte and the two ints that follow it. */
+	private static final int HEADER_SIZE = 9;
+
+	final BTreePageId pid;
+
+	private byte kind;
+
+	/** META: the root page. LEAF: the next leaf. */
+	private int link;
+
+	/** Number of entries (LEAF) or separators (INTERNAL). */
+	private int n;
+
+	/** The entries or separators. */
+	private final int[] keys, pages, slots;
+
+	/** INTERNAL: the n + 1 children. */
+	private final int[] children;
+
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	private TransactionId lastTrnsctnToDirty;
+
+
+	/**
+	 * Creates a BTreePage from a set of bytes of data read from disk.
+	 *
+	 * @param id the id of this page
+	 * @param data the contents of the page
+	 */
+	public BTreePage(BTreePageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.lastTrnsctnToDirty = null;
+
+		int cap = Math.max(leafCapacity(), internalCapacity());
+		keys = new int[cap];
+		pages = new int[cap];
+		slots = new int[cap];
+		children = new int[internalCapacity() + 1];
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		kind = dis.readByte();
+		n = dis.readInt();
+		link = dis.readInt();
+		if (kind == INTERNAL) {
+			for (int i = 0; i <= n; i++) {
+				children[i] = dis.readInt();
+			}
+		}
+		if (kind == LEAF || kind == INTERNAL) {
+			for (int i = 0; i < n; i++) {
+				keys[i] = dis.readInt();
+				pages[i] = dis.readInt();
+				slots[i] = dis.readInt();
+			}
+		}
+		dis.close();
+
+		setBeforeImage();
+	} // end BTreePage(BTreePageId, byte[])
+
+
+	/**
+	 * @return the number of entries that fit on a leaf page
+	 */
+	public static int leafCapacity() {
+		return (BufferPool.getPageSize() - HEADER_SIZE) / 12;
+	} // end leafCapacity()
+
+
+	/**
+	 * @return the number of separators that fit on an internal page
+	 */
+	public static int internalCapacity() {
+		return (BufferPool.getPageSize() - HEADER_SIZE - 4) / 16;
+	} // end internalCapacity()
+
+
+	/**
+	 * Static method to generate a byte array corresponding to a FREE page.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];	// all 0
+	} // end createEmptyPageData()
+
+
+	/**
+	 * Compares entry (k1, p1, s1) to entry (k2, p2, s2).
+	 *
+	 * @return a negative number, zero, or a positive number as the first
+	 * entry is less than, equal to, or greater than the second
+	 */
+	static int compare(int k1, int p1, int s1, int k2, int p2, int s2) {
+		if (k1 != k2) return k1 < k2 ? -1 : 1;
+		if (p1 != p2) return p1 < p2 ? -1 : 1;
+		if (s1 != s2) return s1 < s2 ? -1 : 1;
+		return 0;
+	} // end compare(int, int, int, int, int, int)
+
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public BTreePage getBeforeImage() {
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new BTreePage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	} // end getBeforeImage()
+
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	} // end setBeforeImage()
+
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public BTreePageId getId() {
+		return pid;
+	} // end getId()
+
+
+	/**
+	 * Generates a byte array representing the contents of this page, which
+	 * the BTreePage constructor turns back into an identical page.
+	 */
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeByte(kind);
+			dos.writeInt(n);
+			dos.writeInt(link);
+			if (kind == INTERNAL) {
+				for (int i = 0; i <= n; i++) {
+					dos.writeInt(children[i]);
+				}
+			}
+			if (kind == LEAF || kind == INTERNAL) {
+				for (int i = 0; i < n; i++) {
+					dos.writeInt(keys[i]);
+					dos.writeInt(pages[i]);
+					dos.writeInt(slots[i]);
+				}
+			}
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	} // end getPageData()
+
+
+	/**
+	 * @return the kind of this page: FREE, META, LEAF or INTERNAL
+	 */
+	public byte getKind() {
+		return kind;
+	} // end getKind()
+
+
+	/**
+	 * Turns this page into the META page.
+	 *
+	 * @param root the number of the root page
+	 */
+	void initMeta(int root) {
+		kind = META;
+		n = 0;
+		link = root;
+	} // end initMeta(int)
+
+
+	/**
+	 * Turns this page into an empty leaf.
+	 *
+	 * @param next the number of the next leaf, or -1
+	 */
+	void initLeaf(int next) {
+		kind = LEAF;
+		n = 0;
+		link = next;
+	} // end initLeaf(int)
+
+
+	/**
+	 * Turns this page into an internal page with a single child.
+	 *
+	 * @param child the number of the child page
+	 */
+	void initInternal(int child) {
+		kind = INTERNAL;
+		n = 0;
+		link = 0;
+		children[0] = child;
+	} // end initInternal(int)
+
+
+	/**
+	 * @return META: the root page number
+	 */
+	public int getRoot() {
+		return link;
+	} // end getRoot()
+
+
+	/**
+	 * Sets the root page number of the META page.
+	 */
+	void setRoot(int root) {
+		link = root;
+	} // end setRoot(int)
+
+
+	/**
+	 * @return LEAF: the number of the next leaf, or -1 for the last leaf
+	 */
+	public int getNext() {
+		return link;
+	} // end getNext()
+
+
+	/**
+	 * @return the number of entries (LEAF) or separators (INTERNAL)
+	 */
+	public int size() {
+		return n;
+	} // end size()
+
+
+	/**
+	 * @return whether another entry or separator does not fit on this page
+	 */
+	public boolean isFull() {
+		return n >= (kind == LEAF ? leafCapacity() : internalCapacity());
+	} // end isFull()
+
+
+	public int getKey(int i) {
+		return keys[i];
+	} // end getKey(int)
+
+
+	public int getPage(int i) {
+		return pages[i];
+	} // end getPage(int)
+
+
+	public int getSlot(int i) {
+		return slots[i];
+	} // end getSlot(int)
+
+
+	/**
+	 * @return INTERNAL: the number of child i
+	 */
+	public int getChild(int i) {
+		return children[i];
+	} // end getChild(int)
+
+
+	/**
+	 * LEAF: returns the position of the first entry that is not less than
+	 * the given one (n if there is none).
+	 */
+	public int lowerBound(int key, int pg, int slot) {
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(keys[mid], pages[mid], slots[mid], key, pg, slot) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	} // end lowerBound(int, int, int)
+
+
+	/**
+	 * INTERNAL: returns the position of the child that holds the given
+	 * entry, i.e., the number of separators not greater than it.
+	 */
+	public int childIndex(int key, int pg, int slot) {
+		int lo = 0, hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(keys[mid], pages[mid], slots[mid], key, pg, slot) <= 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	} // end childIndex(int, int, int)
+
+
+	/**
+	 * LEAF: inserts an entry at its place. The page must not be full.
+	 */
+	void insertEntry(int key, int pg, int slot) {
+		int i = lowerBound(key, pg, slot);
+		shiftRight(i);
+		keys[i] = key;
+		pages[i] = pg;
+		slots[i] = slot;
+		n++;
+	} // end insertEntry(int, int, int)
+
+
+	/**
+	 * LEAF: removes entry i.
+	 */
+	void removeEntry(int i) {
+		System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+		System.arraycopy(pages, i + 1, pages, i, n - i - 1);
+		System.arraycopy(slots, i + 1, slots, i, n - i - 1);
+		n--;
+	} // end removeEntry(int)
+
+
+	/**
+	 * INTERNAL: inserts a separator and, right after it, the child holding
+	 * the entries from the separator on. The page must not be full.
+	 */
+	void insertSeparator(int key, int pg, int slot, int child) {
+		int i = childIndex(key, pg, slot);
+		shiftRight(i);
+		System.arraycopy(children, i + 1, children, i + 2, n - i);
+		keys[i] = key;
+		pages[i] = pg;
+		slots[i] = slot;
+		children[i + 1] = child;
+		n++;
+	} // end insertSeparator(int, int, int, int)
+
+
+	/**
+	 * Appends an entry (LEAF) or a separator and its right child (INTERNAL)
+	 * after the last one; used when pages are filled in order.
+	 */
+	void append(int key, int pg, int slot, int child) {
+		keys[n] = key;
+		pages[n] = pg;
+		slots[n] = slot;
+		if (kind == INTERNAL) children[n + 1] = child;
+		n++;
+	} // end append(int, int, int, int)
+
+
+	/**
+	 * LEAF: moves the upper half of the entries to an empty leaf, which is
+	 * linked in after this one. The new leaf's first entry separates the two.
+	 *
+	 * @param right an empty page that becomes the new leaf
+	 */
+	void splitLeafInto(BTreePage right) {
+		int half = n / 2;
+		right.initLeaf(link);
+		for (int i = half; i < n; i++) {
+			right.append(keys[i], pages[i], slots[i], 0);
+		}
+		n = half;
+		link = right.pid.pageNumber();
+	} // end splitLeafInto(BTreePage)
+
+
+	/**
+	 * INTERNAL: moves the separators and children above the middle
+	 * separator to an empty page. The middle separator is removed from
+	 * both pages; it is left in position size() for the caller to push up
+	 * to the parent.
+	 *
+	 * @param right an empty page that becomes the new internal page
+	 */
+	void splitInternalInto(BTreePage right) {
+		int mid = n / 2;
+		right.initInternal(children[mid + 1]);
+		for (int i = mid + 1; i < n; i++) {
+			right.append(keys[i], pages[i], slots[i], children[i + 1]);
+		}
+		n = mid;
+	} // end splitInternalInto(BTreePage)
+
+
+	/**
+	 * Makes room at position i of the entries or separators.
+	 */
+	private void shiftRight(int i) {
+		System.arraycopy(keys, i, keys, i + 1, n - i);
+		System.arraycopy(pages, i, pages, i + 1, n - i);
+		System.arraycopy(slots, i, slots, i + 1, n - i);
+	} // end shiftRight(int)
+
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		lastTrnsctnToDirty = dirty ? tid : null;
+	} // end markDirty(boolean, TransactionId)
+
+
+	public TransactionId isDirty() {
+		return lastTrnsctnToDirty;
+	} // end isDirty()
+
+} // end BTreePage
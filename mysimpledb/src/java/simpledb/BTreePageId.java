@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Unique identifier for BTreePage objects: a page of a {@link BTreeFile}.
+ */
+public class BTreePageId implements PageId {
+
+	private int tableId;
+
+	private int pgNo;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableId the id of the index file the page belongs to
+	 * @param pgNo the number of the page within the index file
+	 */
+	public BTreePageId(int tableId, int pgNo) {
+		this.tableId = tableId;
+		this.pgNo = pgNo;
+	}
+
+
+	public int getTableId() {
+		return tableId;
+	}
+
+
+	public int pageNumber() {
+		return pgNo;
+	}
+
+
+	public int hashCode() {
+		return tableId * 31 + pgNo;
+	}
+
+
+	public boolean equals(Object o) {
+		if (!(o instanceof BTreePageId)) {
+			return false;
+		}
+
+		BTreePageId other = (BTreePageId) o;
+		return other.tableId == tableId && other.pgNo == pgNo;
+	}
+
+
+	/**
+	 * @return the index file id and page number, in the order the
+	 * constructor takes them
+	 */
+	public int[] serialize() {
+		return new int[] {tableId, pgNo};
+	}
+
+}
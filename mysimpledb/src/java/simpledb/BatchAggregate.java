@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the aggregation of the batch execution mode: MIN, MAX,
+ * SUM, AVG or COUNT of a field, grouped by at most one field, like
+ * {@link Aggregate}. Each batch of the child is folded into the groups with
+ * a loop over its vectors. Group values are looked up in an open-addressing
+ * table of ints: the values of INT group fields, and the dictionary codes
+ * of STRING ones, so no Fields are created or hashed and STRING groups are
+ * decoded only when the results are.
+ */
+public class BatchAggregate implements BatchIterator {
+
+    private BatchIterator child;
+    private int afield, gfield;
+    private Aggregator.Op aop;
+    private TupleDesc td;
+
+    /** The groups: their value or its code, and the state of their aggregate. */
+    private int numGroups;
+    private int[] keys;
+    private int[] min, max, sum, count;
+
+    /** The dictionary of a STRING group field. */
+    private StringDictionary groupDict;
+
+    /** Open-addressing table from group value or code to group number + 1. */
+    private int[] tableKeys, tableGroups;
+
+    /** The next group to return, and the batch holding the results. */
+    private int nextGroup;
+    private TupleBatch out;
+
+    /**
+     * @param child  The BatchIterator that is feeding us rows.
+     * @param afield The column over which we are computing an aggregate;
+     *               only COUNT is supported over columns that are not INT
+     * @param gfield The column over which we are grouping the result, or
+     *               {@link Aggregator#NO_GROUPING}
+     * @param aop    one of MIN, MAX, SUM, AVG and COUNT
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        switch (aop) {
+            case MIN: case MAX: case SUM: case AVG:
+                if (childtd.getFieldType(afield) != Type.INT_TYPE)
+                    throw new IllegalArgumentException("only COUNT of non-INT fields");
+                break;
+            case COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+
+        String aname = Aggregate.nameOfAggregatorOp(aop) + "("
+                + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[] {Type.INT_TYPE}, new String[] {aname});
+        } else {
+            td = new TupleDesc(new Type[] {childtd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[] {childtd.getFieldName(gfield), aname});
+        }
+    }
+
+    /**
+     * @return the batch iterator this operator reads
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Reads all of the child's rows into the groups.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        numGroups = 0;
+        growGroups(16);
+        tableKeys = new int[32];
+        tableGroups = new int[32];
+        groupDict = null;
+
+        int[] groupOf = new int[TupleBatch.CAPACITY];
+        child.open();
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int rows = b.numRows();
+            if (rows == 0)
+                continue;
+
+            // find the group of every row first, then fold in the values
+            if (gfield == Aggregator.NO_GROUPING) {
+                if (numGroups == 0)
+                    addGroup(0);
+                Arrays.fill(groupOf, 0, rows, 0);
+            } else {
+                groupDict = b.dicts[gfield];
+                int[] g = b.ints[gfield];
+                for (int k = 0; k < rows; k++)
+                    groupOf[k] = group(g[b.row(k)]);
+            }
+
+            if (aop == Aggregator.Op.COUNT) {
+                for (int k = 0; k < rows; k++)
+                    count[groupOf[k]]++;
+            } else {
+                int[] a = b.ints[afield];
+                for (int k = 0; k < rows; k++) {
+                    int x = a[b.row(k)];
+                    int grp = groupOf[k];
+                    count[grp]++;
+                    sum[grp] += x;
+                    if (x < min[grp]) min[grp] = x;
+                    if (x > max[grp]) max[grp] = x;
+                }
+            }
+        }
+        child.close();
+        nextGroup = 0;
+        StringDictionary[] dicts = new StringDictionary[td.numFields()];
+        if (gfield != Aggregator.NO_GROUPING)
+            dicts[0] = groupDict;
+        out = new TupleBatch(td, dicts);
+    }
+
+    /**
+     * Returns the group of a group value or code, adding it if it is new.
+     */
+    private int group(int key) {
+        int mask = tableKeys.length - 1;
+        for (int i = IntHash.hash(key) & mask; ; i = (i + 1) & mask) {
+            if (tableGroups[i] == 0) {
+                tableKeys[i] = key;
+                tableGroups[i] = addGroup(key) + 1;
+                if (numGroups * 2 > tableKeys.length)
+                    growTable();
+                return numGroups - 1;
+            }
+            if (tableKeys[i] == key)
+                return tableGroups[i] - 1;
+        }
+    }
+
+    /**
+     * Doubles the group table.
+     */
+    private void growTable() {
+        int[] oldKeys = tableKeys, oldGroups = tableGroups;
+        tableKeys = new int[oldKeys.length * 2];
+        tableGroups = new int[oldKeys.length * 2];
+        int mask = tableKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldGroups[j] == 0)
+                continue;
+            int i = IntHash.hash(oldKeys[j]) & mask;
+            while (tableGroups[i] != 0)
+                i = (i + 1) & mask;
+            tableKeys[i] = oldKeys[j];
+            tableGroups[i] = oldGroups[j];
+        }
+    }
+
+    /**
+     * Adds a group with the given value.
+     *
+     * @return the number of the group
+     */
+    private int addGroup(int key) {
+        if (numGroups == count.length)
+            growGroups(count.length * 2);
+        keys[numGroups] = key;
+        min[numGroups] = Integer.MAX_VALUE;
+        max[numGroups] = Integer.MIN_VALUE;
+        sum[numGroups] = 0;
+        count[numGroups] = 0;
+        return numGroups++;
+    }
+
+    /**
+     * Grows the arrays of group state to hold n groups.
+     */
+    private void growGroups(int n) {
+        if (numGroups == 0) {
+            keys = new int[n];
+            min = new int[n];
+            max = new int[n];
+            sum = new int[n];
+            count = new int[n];
+        } else {
+            keys = Arrays.copyOf(keys, n);
+            min = Arrays.copyOf(min, n);
+            max = Arrays.copyOf(max, n);
+            sum = Arrays.copyOf(sum, n);
+            count = Arrays.copyOf(count, n);
+        }
+    }
+
+    /**
+     * Returns the results of the next groups.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("aggregate not opened");
+        if (nextGroup >= numGroups)
+            return null;
+        out.clear();
+        int aggCol = (gfield == Aggregator.NO_GROUPING) ? 0 : 1;
+        int[] agg = out.ints[aggCol];
+        int n = 0;
+        for (; n < TupleBatch.CAPACITY && nextGroup < numGroups; n++, nextGroup++) {
+            int grp = nextGroup;
+            if (aggCol == 1)
+                out.ints[0][n] = keys[grp];
+            switch (aop) {
+                case MIN: agg[n] = min[grp]; break;
+                case MAX: agg[n] = max[grp]; break;
+                case SUM: agg[n] = sum[grp]; break;
+                case AVG: agg[n] = sum[grp] / count[grp]; break;
+                default: agg[n] = count[grp]; break;
+            }
+        }
+        out.size = n;
+        return out;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    public void close() {
+        out = null;
+        keys = null;
+        min = max = sum = count = null;
+        tableKeys = tableGroups = null;
+        groupDict = null;
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchFilter is the select of the batch execution mode. It narrows the
+ * selection vector of each batch of its child to the rows that satisfy its
+ * predicate; an INT field compared to an INT constant is tested by a loop
+ * over its vector, without creating any Fields. A STRING field is tested on
+ * the codes of its dictionary: for EQUALS and NOT_EQUALS the constant is
+ * encoded and the codes compared; for the other operators the predicate is
+ * evaluated once per distinct value and the verdict kept by code.
+ */
+public class BatchFilter implements BatchIterator {
+
+    private Predicate p;
+    private BatchIterator child;
+
+    /** The selection vector handed out with the last batch. */
+    private int[] sel;
+
+    /**
+     * The dictionary of the field, the code of the constant in it, and the
+     * verdicts on its codes so far: 0 if not tested yet, 1 if the value
+     * satisfies the predicate, 2 if not.
+     */
+    private StringDictionary dict;
+    private int operandCode;
+    private byte[] verdicts;
+
+    /**
+     * @param p     The predicate to filter rows with
+     * @param child The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    /**
+     * @return the predicate associated with this select.
+     */
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the batch iterator this operator reads
+     */
+    public BatchIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        sel = new int[TupleBatch.CAPACITY];
+        dict = null;
+        child.open();
+    }
+
+    /**
+     * Returns the next batch of the child with a row left, with only the
+     * rows that satisfy the predicate selected.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int n;
+            if (b.dicts[p.getField()] == null && p.getOperand() instanceof IntField)
+                n = selectInts(b);
+            else if (b.dicts[p.getField()] != null && p.getOperand() instanceof StringField)
+                n = selectCodes(b);
+            else
+                n = selectFields(b);
+            if (n > 0) {
+                b.select(sel, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fills sel with the rows of b whose INT field satisfies the predicate.
+     *
+     * @return the number of rows selected
+     */
+    private int selectInts(TupleBatch b) {
+        int[] col = b.ints[p.getField()];
+        int v = ((IntField) p.getOperand()).getValue();
+        int rows = b.numRows();
+        int n = 0;
+        // a loop per operator, so the comparison is not dispatched per row
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] == v) sel[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] != v) sel[n++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] > v) sel[n++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] >= v) sel[n++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] < v) sel[n++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] <= v) sel[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
+    /**
+     * Fills sel with the rows of b whose STRING field satisfies the
+     * predicate, by the codes of their values.
+     *
+     * @return the number of rows selected
+     */
+    private int selectCodes(TupleBatch b) {
+        int[] col = b.ints[p.getField()];
+        if (b.dicts[p.getField()] != dict) {
+            dict = b.dicts[p.getField()];
+            operandCode = dict.encode(((StringField) p.getOperand()).getValue());
+            verdicts = new byte[Math.max(dict.size(), 16)];
+        }
+        int rows = b.numRows();
+        int n = 0;
+        switch (p.getOp()) {
+            case EQUALS:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] == operandCode) sel[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    if (col[r] != operandCode) sel[n++] = r;
+                }
+                break;
+            default:
+                if (verdicts.length < dict.size())
+                    verdicts = Arrays.copyOf(verdicts, Math.max(dict.size(), verdicts.length * 2));
+                for (int k = 0; k < rows; k++) {
+                    int r = b.row(k);
+                    int code = col[r];
+                    if (verdicts[code] == 0)
+                        verdicts[code] = dict.getField(code).compare(p.getOp(), p.getOperand())
+                                ? (byte) 1 : (byte) 2;
+                    if (verdicts[code] == 1) sel[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
+    /**
+     * Fills sel with the rows of b whose field satisfies the predicate,
+     * comparing Fields.
+     *
+     * @return the number of rows selected
+     */
+    private int selectFields(TupleBatch b) {
+        int rows = b.numRows();
+        int n = 0;
+        for (int k = 0; k < rows; k++) {
+            int r = b.row(k);
+            if (b.getField(p.getField(), r).compare(p.getOp(), p.getOperand()))
+                sel[n++] = r;
+        }
+        return n;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        sel = null;
+        dict = null;
+        verdicts = null;
+    }
+}
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchHashJoin is the equi-join of the batch execution mode, on a field of
+ * each child of the same type. When opened it reads the second child into
+ * column vectors and chains its rows by hash of the join field in int
+ * arrays; it then probes with the batches of the first child. The matching
+ * pairs of a batch are found first and their columns gathered afterwards, a
+ * column at a time. The rows are those of the first child followed by those
+ * of the second, like those of a {@link Join}.
+ * <p/>
+ * STRING fields are joined on their dictionary codes. When the children
+ * encode the field in different dictionaries, each probe code is looked up
+ * in the dictionary of the build side once, the first time it is seen.
+ */
+public class BatchHashJoin implements BatchIterator {
+
+    private JoinPredicate p;
+    private BatchIterator child1, child2;
+    private TupleDesc td;
+
+    /** The rows of child2, column by column, and their number. */
+    private int[][] buildInts;
+    private StringDictionary[] buildDicts;
+    private int buildSize;
+
+    /** The first build row of each bucket, and the next row of each row. */
+    private int[] head, next;
+
+    /** The batch of child1 being probed, its next row, and the next match. */
+    private TupleBatch probe;
+    private int probeRow;
+    private int chain;
+    private boolean done;
+
+    /**
+     * For a STRING join field whose probe dictionary is not the build one:
+     * the probe dictionary, and the build code of each of its codes so far,
+     * -1 if the value is not on the build side and -2 if not looked up yet.
+     */
+    private StringDictionary probeDict;
+    private int[] buildCodes;
+
+    /** The positions of the matching pairs of the batch being built. */
+    private int[] leftPos, rightRow;
+    private TupleBatch out;
+
+    /**
+     * @param p      The predicate to use to join the children; its operator
+     *               must be EQUALS and its fields of the same type
+     * @param child1 Iterator for the left(outer) relation to join, the probe
+     *               side
+     * @param child2 Iterator for the right(inner) relation to join, the
+     *               build side
+     */
+    public BatchHashJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("only equi-joins");
+        if (child1.getTupleDesc().getFieldType(p.getField1())
+                != child2.getTupleDesc().getFieldType(p.getField2()))
+            throw new IllegalArgumentException("join fields of different types");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        build();
+        child1.open();
+        leftPos = new int[TupleBatch.CAPACITY];
+        rightRow = new int[TupleBatch.CAPACITY];
+        out = new TupleBatch(td, new StringDictionary[td.numFields()]);
+        probe = null;
+        probeDict = null;
+        done = false;
+    }
+
+    /**
+     * Reads child2 into the build columns and chains its rows.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc td2 = child2.getTupleDesc();
+        int cols = td2.numFields();
+        int capacity = TupleBatch.CAPACITY;
+        buildInts = new int[cols][capacity];
+        buildDicts = new StringDictionary[cols];
+        buildSize = 0;
+
+        child2.open();
+        TupleBatch b;
+        while ((b = child2.nextBatch()) != null) {
+            int rows = b.numRows();
+            if (buildSize + rows > capacity) {
+                capacity = Math.max(capacity * 2, buildSize + rows);
+                for (int c = 0; c < cols; c++)
+                    buildInts[c] = Arrays.copyOf(buildInts[c], capacity);
+            }
+            for (int c = 0; c < cols; c++) {
+                int[] src = b.ints[c], dst = buildInts[c];
+                for (int k = 0; k < rows; k++)
+                    dst[buildSize + k] = src[b.row(k)];
+                buildDicts[c] = b.dicts[c];
+            }
+            buildSize += rows;
+        }
+        child2.close();
+
+        // a bucket per row, rounded up to a power of two
+        int buckets = Integer.highestOneBit(Math.max(buildSize, 1) * 2 - 1) * 2;
+        head = new int[buckets];
+        Arrays.fill(head, -1);
+        next = new int[buildSize];
+        int[] keys = buildInts[p.getField2()];
+        for (int r = buildSize - 1; r >= 0; r--) {
+            int bucket = IntHash.hash(keys[r]) & (buckets - 1);
+            next[r] = head[bucket];
+            head[bucket] = r;
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null)
+            throw new IllegalStateException("join not opened");
+        if (done)
+            return null;
+
+        // find the matching pairs, within one batch of child1
+        int[] keys = buildInts[p.getField2()];
+        int mask = head.length - 1;
+        int n = 0;
+        while (n < TupleBatch.CAPACITY) {
+            if (probe == null || probeRow >= probe.numRows()) {
+                if (n > 0)
+                    break;
+                probe = child1.nextBatch();
+                if (probe == null) {
+                    done = true;
+                    break;
+                }
+                probeRow = 0;
+                chain = -2;
+                continue;
+            }
+            int pos = probe.row(probeRow);
+            int key = probe.ints[p.getField1()][pos];
+            StringDictionary d = probe.dicts[p.getField1()];
+            boolean absent = false;
+            if (d != null && d != buildDicts[p.getField2()]) {
+                key = buildCode(d, key);
+                absent = key < 0;
+            }
+            if (chain == -2)
+                chain = absent ? -1 : head[IntHash.hash(key) & mask];
+            for (; chain >= 0 && n < TupleBatch.CAPACITY; chain = next[chain]) {
+                if (keys[chain] == key) {
+                    leftPos[n] = pos;
+                    rightRow[n] = chain;
+                    n++;
+                }
+            }
+            if (chain < 0) {
+                probeRow++;
+                chain = -2;
+            }
+        }
+        if (n == 0)
+            return null;
+
+        // gather their columns
+        out.clear();
+        int cols1 = child1.getTupleDesc().numFields();
+        for (int c = 0; c < cols1; c++) {
+            gather(probe.ints[c], leftPos, out.ints[c], n);
+            out.dicts[c] = probe.dicts[c];
+        }
+        for (int c = 0; c < buildInts.length; c++) {
+            gather(buildInts[c], rightRow, out.ints[cols1 + c], n);
+            out.dicts[cols1 + c] = buildDicts[c];
+        }
+        out.size = n;
+        return out;
+    }
+
+    private static void gather(int[] src, int[] pos, int[] dst, int n) {
+        for (int k = 0; k < n; k++)
+            dst[k] = src[pos[k]];
+    }
+
+    /**
+     * Returns the code in the build dictionary of the join field of a code
+     * in the probe dictionary d, or -1 if the build side does not have its
+     * value.
+     */
+    private int buildCode(StringDictionary d, int code) {
+        if (d != probeDict) {
+            probeDict = d;
+            buildCodes = new int[Math.max(d.size(), 16)];
+            Arrays.fill(buildCodes, -2);
+        }
+        if (code >= buildCodes.length) {
+            int old = buildCodes.length;
+            buildCodes = Arrays.copyOf(buildCodes, Math.max(d.size(), old * 2));
+            Arrays.fill(buildCodes, old, buildCodes.length, -2);
+        }
+        if (buildCodes[code] == -2) {
+            StringDictionary build = buildDicts[p.getField2()];
+            buildCodes[code] = build == null ? -1 : build.lookup(d.decode(code));
+        }
+        return buildCodes[code];
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        probe = null;
+        done = false;
+    }
+
+    public void close() {
+        child1.close();
+        buildInts = null;
+        buildDicts = null;
+        probeDict = null;
+        buildCodes = null;
+        head = next = null;
+        probe = null;
+        out = null;
+    }
+}
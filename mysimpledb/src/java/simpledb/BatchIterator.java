@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * BatchIterator is the interface of the operators of the batch execution
+ * mode. Where a {@link DbIterator} returns a tuple per call, a BatchIterator
+ * returns a {@link TupleBatch} of up to {@link TupleBatch#CAPACITY} rows
+ * stored column by column, so that an operator runs a tight loop over a
+ * vector instead of being called for every row.
+ * <p/>
+ * {@link RowsToBatch} and {@link BatchToRows} turn one kind of iterator into
+ * the other, so plans can mix the two.
+ */
+public interface BatchIterator {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open()
+            throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch may be empty, and it and its
+     * vectors are only valid until the next call to nextBatch, rewind or
+     * close, as the iterator may reuse them.
+     *
+     * @return the next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
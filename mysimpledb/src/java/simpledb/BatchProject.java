@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchProject is the projection of the batch execution mode. Its batches
+ * share the vectors and dictionaries of the projected columns with the
+ * batches of its child, so projecting copies no values.
+ */
+public class BatchProject implements BatchIterator {
+
+    private BatchIterator child;
+    private TupleDesc td;
+    private int[] outFields;
+
+    /**
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param child     The child operator
+     */
+    public BatchProject(ArrayList<Integer> fieldList, BatchIterator child) {
+        this.child = child;
+        TupleDesc childtd = child.getTupleDesc();
+        outFields = new int[fieldList.size()];
+        Type[] types = new Type[outFields.length];
+        String[] names = new String[outFields.length];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+            types[i] = childtd.getFieldType(outFields[i]);
+            names[i] = childtd.getFieldName(outFields[i]);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        int[][] ints = new int[outFields.length][];
+        StringDictionary[] dicts = new StringDictionary[outFields.length];
+        for (int i = 0; i < outFields.length; i++) {
+            ints[i] = b.ints[outFields[i]];
+            dicts[i] = b.dicts[outFields[i]];
+        }
+        return new TupleBatch(td, ints, dicts, b.size, b.sel, b.selSize);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
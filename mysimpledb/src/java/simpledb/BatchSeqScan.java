@@ -0,0 +1,137 @@
+package simpledb;
+
+/**
+ * BatchSeqScan is the sequential scan of the batch execution mode: it reads
+ * the tuples of a heap table in page order, copying INT fields from the page
+ * bytes straight into the vectors of its batches, and encoding STRING fields
+ * from the page bytes in a dictionary per column that the scan builds as it
+ * reads. Its rows are named like those of a {@link SeqScan}.
+ */
+public class BatchSeqScan implements BatchIterator {
+
+    private TransactionId tid;
+    private int tableid;
+    private String alias;
+    private HeapFile file;
+    private TupleDesc td;
+
+    /** The dictionary of each STRING column, kept across rewinds. */
+    private StringDictionary[] dicts;
+
+    private TupleBatch batch;
+    private boolean opened;
+
+    /** The page being read, its number, and the next slot to read on it. */
+    private HeapPage page;
+    private int pgNo;
+    private int slot;
+
+    /**
+     * Creates a sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HeapFile
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("only heap tables can be scanned in batches");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.file = (HeapFile) f;
+        this.td = new SeqScan(tid, tableid, tableAlias).getTupleDesc();
+        this.dicts = TupleBatch.newDictionaries(td);
+        this.opened = false;
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        batch = new TupleBatch(td, dicts);
+        page = null;
+        pgNo = -1;
+        slot = 0;
+        opened = true;
+    }
+
+    /**
+     * Fetches a page, reading the whole read-ahead window at its start, like
+     * the iterator of a HeapFile.
+     */
+    private HeapPage fetchPage(int pgNo, int numPages)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPageId pid = new HeapPageId(tableid, pgNo);
+        if (pgNo % BufferPool.READ_AHEAD_PAGES == 0)
+            bp.readAhead(pid, Math.min(BufferPool.READ_AHEAD_PAGES, numPages - pgNo));
+        return (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!opened)
+            throw new IllegalStateException("scan not opened");
+        int numPages = file.numPages();
+        if (page == null && pgNo >= numPages)
+            return null;
+
+        batch.clear();
+        int n = 0;
+        int numFields = td.numFields();
+        while (n < TupleBatch.CAPACITY) {
+            if (page == null) {
+                if (++pgNo >= numPages)
+                    break;
+                page = fetchPage(pgNo, numPages);
+                slot = 0;
+            }
+            // copy the used slots of the page, a field at a time
+            int i = page.nextUsedSlot(slot);
+            for (; i >= 0 && n < TupleBatch.CAPACITY; i = page.nextUsedSlot(i + 1)) {
+                for (int f = 0; f < numFields; f++) {
+                    if (dicts[f] == null)
+                        batch.ints[f][n] = page.readInt(i, f);
+                    else
+                        batch.ints[f][n] = page.encodeString(i, f, dicts[f]);
+                }
+                n++;
+            }
+            if (i < 0) {
+                page = null;
+            } else {
+                slot = i;
+            }
+        }
+        batch.size = n;
+        return (n == 0 && page == null) ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        batch = null;
+        page = null;
+        opened = false;
+    }
+}
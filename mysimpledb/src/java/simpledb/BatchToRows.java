@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * BatchToRows returns the rows of a {@link BatchIterator} a tuple at a time,
+ * so that a plan in the batch execution mode can feed the operators of the
+ * row mode. Its tuples have no RecordIds.
+ */
+public class BatchToRows extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchIterator child;
+
+    /** The batch being returned, and the index of its next row. */
+    private TupleBatch batch;
+    private int k;
+
+    /**
+     * @param child the batches to return the rows of
+     */
+    public BatchToRows(BatchIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch iterator this operator reads
+     */
+    public BatchIterator getBatchChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || k >= batch.numRows()) {
+            batch = child.nextBatch();
+            if (batch == null)
+                return null;
+            k = 0;
+        }
+        return batch.toTuple(batch.row(k++));
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        // the child is a BatchIterator
+    }
+}
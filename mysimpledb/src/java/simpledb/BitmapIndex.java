@@ -0,0 +1,572 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * BitmapIndex is an index on a field of a heap table with few distinct
+ * values, of any type. For every distinct value it keeps a
+ * {@link RoaringBitmap} of the positions of the tuples with that value,
+ * where the tuple in slot s of page p is at position
+ * p * slotsPerPage + s. A {@link BitmapScan} combines the bitmaps of
+ * several predicates with AND and OR and then reads only the pages that
+ * hold a qualifying position, in page order.
+ * <p/>
+ * The bitmaps are kept in memory, outside the buffer pool. Inserted
+ * tuples set their bits straight away, but deleted tuples do not clear
+ * them, so that a transaction that aborts after deleting tuples leaves no
+ * tuple unindexed; the index only notes their pages, whose stale bits
+ * {@link #compact()} clears once the deletes are on disk and committed.
+ * A bitmap is thus a superset of the positions of the tuples with its
+ * value, and readers must recheck the tuples they fetch;
+ * {@link BitmapScan} and {@link IndexScan} do.
+ * <p/>
+ * The bitmaps are saved to the index file by {@link #build()} and by
+ * {@link BufferPool#flushAllPages()}, stamped with the length and
+ * modification time the heap file had, like a {@link ZoneMap}.
+ * {@link #load()} ignores a file whose stamp does not match the heap file
+ * any more, in which case the index has to be rebuilt.
+ *
+ * @see BitmapScan
+ */
+public class BitmapIndex implements IndexFile {
+
+	/** Orders the fields of one type by their values. */
+	private static final Comparator<Field> VALUE_ORDER = new Comparator<Field>() {
+		public int compare(Field a, Field b) {
+			if (a.equals(b)) return 0;
+			return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+		}
+	};
+
+	/** The file the bitmaps are saved in. */
+	private File osFile;
+
+	/** The indexed table. */
+	private int tableId;
+
+	/** The indexed field of the table. */
+	private int keyField;
+
+	/** Description of the index entries. */
+	private TupleDesc td;
+
+	/** The number of slots of a page of the table. */
+	private int slotsPerPage;
+
+	/** The bitmap of each distinct value. */
+	private TreeMap<Field, RoaringBitmap> bitmaps;
+
+	/** The pages tuples were deleted from since they were last compacted. */
+	private TreeSet<Integer> deletedPages;
+
+	/** Whether the bitmaps changed since they were last saved. */
+	private boolean dirty;
+
+	/** The length and modification time of the heap file when last saved. */
+	private long savedLength, savedModified;
+
+
+	/**
+	 * Constructs an empty bitmap index on one field of a table; see
+	 * {@link #load()} and {@link #build()}. The table must be in the catalog
+	 * and stored in a HeapFile.
+	 *
+	 * @param f the file the index is saved in
+	 * @param tableId the indexed table
+	 * @param keyField the index of the indexed field
+	 */
+	public BitmapIndex(File f, int tableId, int keyField) {
+		DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+		if (!(table instanceof HeapFile)) {
+			throw new IllegalArgumentException("only heap tables can be indexed");
+		}
+		TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+		this.osFile = f;
+		this.tableId = tableId;
+		this.keyField = keyField;
+		this.td = new TupleDesc(
+				new Type[] {tableTd.getFieldType(keyField), Type.INT_TYPE, Type.INT_TYPE},
+				new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+		this.slotsPerPage = HeapPage.slotsPerPage(tableTd, ((HeapFile) table).getPageSize());
+		this.bitmaps = new TreeMap<Field, RoaringBitmap>(VALUE_ORDER);
+		this.deletedPages = new TreeSet<Integer>();
+		this.dirty = false;
+		this.savedLength = this.savedModified = -1;
+	} // end BitmapIndex(File, int, int)
+
+
+	/**
+	 * @return the file the index is saved in
+	 */
+	public File getFile() {
+		return osFile;
+	} // end getFile()
+
+
+	/**
+	 * @see DbFile#getId()
+	 */
+	public int getId() {
+		return osFile.getAbsoluteFile().hashCode();
+	} // end getId()
+
+
+	/**
+	 * Returns the TupleDesc of the index entries: the key, then the page
+	 * number and slot of the tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	} // end getTupleDesc()
+
+
+	/**
+	 * @see IndexFile#getTableId()
+	 */
+	public int getTableId() {
+		return tableId;
+	} // end getTableId()
+
+
+	/**
+	 * @see IndexFile#getKeyField()
+	 */
+	public int getKeyField() {
+		return keyField;
+	} // end getKeyField()
+
+
+	/**
+	 * @return the number of slots of a page of the table, which positions
+	 * are counted in
+	 */
+	public int getSlotsPerPage() {
+		return slotsPerPage;
+	} // end getSlotsPerPage()
+
+
+	/**
+	 * @return the number of distinct values indexed
+	 */
+	public synchronized int numValues() {
+		return bitmaps.size();
+	} // end numValues()
+
+
+	/**
+	 * A bitmap index answers predicates with any operator, by combining
+	 * the bitmaps of the values that satisfy them.
+	 */
+	public boolean supports(Predicate.Op op) {
+		return true;
+	} // end supports(Predicate.Op)
+
+
+	/**
+	 * The bitmaps are in memory, so a lookup reads no pages.
+	 */
+	public int lookupPages() {
+		return 0;
+	} // end lookupPages()
+
+
+	/**
+	 * A bitmap index has no pages.
+	 */
+	public Page readPage(PageId pid) {
+		throw new UnsupportedOperationException("bitmap indexes have no pages");
+	} // end readPage(PageId)
+
+
+	/**
+	 * A bitmap index has no pages.
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		throw new UnsupportedOperationException("bitmap indexes have no pages");
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * A bitmap index has no pages.
+	 */
+	public void writePage(Page page) throws IOException {
+		throw new UnsupportedOperationException("bitmap indexes have no pages");
+	} // end writePage(Page)
+
+
+	/**
+	 * A bitmap index has no pages.
+	 */
+	public int numPages() {
+		return 0;
+	} // end numPages()
+
+
+	/**
+	 * Returns the bitmap of the positions of the tuples t with
+	 * "t.f op key", where f is the indexed field, or a superset of it (see
+	 * above). The bitmap is a copy that later inserts do not change.
+	 *
+	 * @param op the comparison operator
+	 * @param key the value to compare the indexed field to
+	 * @return the positions of the matching tuples
+	 */
+	public synchronized RoaringBitmap lookup(Predicate.Op op, Field key) {
+		Collection<RoaringBitmap> matches;
+		switch (op) {
+		case EQUALS:
+			RoaringBitmap b = bitmaps.get(key);
+			matches = (b == null) ? Collections.<RoaringBitmap>emptyList()
+					: Collections.singletonList(b);
+			break;
+		case LESS_THAN:
+			matches = bitmaps.headMap(key, false).values();
+			break;
+		case LESS_THAN_OR_EQ:
+			matches = bitmaps.headMap(key, true).values();
+			break;
+		case GREATER_THAN:
+			matches = bitmaps.tailMap(key, false).values();
+			break;
+		case GREATER_THAN_OR_EQ:
+			matches = bitmaps.tailMap(key, true).values();
+			break;
+		default:
+			// NOT_EQUALS and LIKE: test every value
+			ArrayList<RoaringBitmap> list = new ArrayList<RoaringBitmap>();
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				if (e.getKey().compare(op, key)) {
+					list.add(e.getValue());
+				}
+			}
+			matches = list;
+		}
+
+		RoaringBitmap rv = new RoaringBitmap();
+		for (RoaringBitmap m : matches) {
+			rv = RoaringBitmap.or(rv, m);
+		}
+		return rv;
+	} // end lookup(Predicate.Op, Field)
+
+
+	/**
+	 * Sets the bit of a tuple in the bitmap of a value.
+	 */
+	private synchronized void add(Field value, int pgNo, int slot) {
+		RoaringBitmap b = bitmaps.get(value);
+		if (b == null) {
+			b = new RoaringBitmap();
+			bitmaps.put(value, b);
+		}
+		b.add(pgNo * slotsPerPage + slot);
+		dirty = true;
+	} // end add(Field, int, int)
+
+
+	/**
+	 * Notes that a tuple was deleted from a page, whose bits compact may
+	 * clear later.
+	 */
+	private synchronized void deleted(int pgNo) {
+		deletedPages.add(pgNo);
+	} // end deleted(int)
+
+
+	/**
+	 * @see IndexFile#insertEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t) {
+		RecordId rid = t.getRecordId();
+		add(t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+		return new ArrayList<Page>();
+	} // end insertEntry(TransactionId, Tuple)
+
+
+	/**
+	 * Leaves the bit of the deleted tuple set, but notes its page; see
+	 * above.
+	 *
+	 * @see IndexFile#deleteEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t) {
+		deleted(t.getRecordId().getPageId().pageNumber());
+		return new ArrayList<Page>();
+	} // end deleteEntry(TransactionId, Tuple)
+
+
+	/**
+	 * Inserts an index entry, given as a tuple of getTupleDesc().
+	 *
+	 * @see DbFile#insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) {
+		add(t.getField(0), ((IntField) t.getField(1)).getValue(),
+				((IntField) t.getField(2)).getValue());
+		return new ArrayList<Page>();
+	} // end insertTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Leaves the bit of the entry set, like deleteEntry.
+	 *
+	 * @see DbFile#deleteTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) {
+		deleted(((IntField) t.getField(1)).getValue());
+		return new ArrayList<Page>();
+	} // end deleteTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Rebuilds the bitmaps from the table and saves them. The table must
+	 * not be modified meanwhile.
+	 */
+	public synchronized void build()
+			throws IOException, DbException, TransactionAbortedException {
+		bitmaps.clear();
+		deletedPages.clear();
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			add(t.getField(keyField), t.getRecordId().getPageId().pageNumber(),
+					t.getRecordId().tupleno());
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+		save();
+	} // end build()
+
+
+	/**
+	 * Writes the bitmaps to the index file, stamped with the current length
+	 * and modification time of the heap file. The bitmaps of tuples whose
+	 * pages have not been flushed yet are saved too, which is harmless, as
+	 * bitmaps may hold too many positions.
+	 */
+	public synchronized void save() throws IOException {
+		File dataFile = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).getFile();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(osFile)));
+		try {
+			out.writeLong(dataFile.length());
+			out.writeLong(dataFile.lastModified());
+			out.writeInt(bitmaps.size());
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				e.getKey().serialize(out);
+				e.getValue().serialize(out);
+			}
+		} finally {
+			out.close();
+		}
+		dirty = false;
+		savedLength = dataFile.length();
+		savedModified = dataFile.lastModified();
+	} // end save()
+
+
+	/**
+	 * Saves the bitmaps, unless neither they nor the heap file changed
+	 * since they were last saved.
+	 */
+	synchronized void saveChanges() throws IOException {
+		File dataFile = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).getFile();
+		if (!dirty && savedLength == dataFile.length()
+				&& savedModified == dataFile.lastModified()) {
+			return;
+		}
+		save();
+	} // end saveChanges()
+
+
+	/**
+	 * Clears the bits of the positions on pages tuples were deleted from
+	 * that no longer hold a tuple with the value of the bitmap, as read
+	 * from the heap file. A page some transaction holds an exclusive lock
+	 * on may have a delete that is not committed yet, so it is left for a
+	 * later call. Called by {@link BufferPool#flushAllPages()}, once the
+	 * pages are on disk.
+	 */
+	synchronized void compact() {
+		HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+		Iterator<Integer> it = deletedPages.iterator();
+		while (it.hasNext()) {
+			int pgNo = it.next();
+			HeapPageId pid = new HeapPageId(tableId, pgNo);
+			if (Database.getBufferPool().isLockedExclusively(pid)) continue;
+
+			// a page past the end of the file was truncated, being empty
+			HeapPage page = null;
+			if (pgNo < table.numPages()) {
+				page = (HeapPage) table.readPage(pid);
+			}
+			for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+				RoaringBitmap b = e.getValue();
+				for (int slot = 0; slot < slotsPerPage; slot++) {
+					int pos = pgNo * slotsPerPage + slot;
+					if (!b.contains(pos)) continue;
+					if (page == null || !page.isSlotUsed(slot)
+							|| !page.getTuple(slot).getField(keyField).equals(e.getKey())) {
+						b.remove(pos);
+						dirty = true;
+					}
+				}
+			}
+			it.remove();
+		}
+
+		// values without tuples
+		Iterator<RoaringBitmap> bs = bitmaps.values().iterator();
+		while (bs.hasNext()) {
+			if (bs.next().isEmpty()) bs.remove();
+		}
+	} // end compact()
+
+
+	/**
+	 * Reads the bitmaps from the index file, if it exists and its stamp
+	 * matches the heap file.
+	 *
+	 * @return whether the bitmaps were read; if not, the index is empty
+	 */
+	public synchronized boolean load() {
+		bitmaps.clear();
+		deletedPages.clear();
+		File dataFile = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).getFile();
+		if (!osFile.exists()) return false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(osFile)));
+			try {
+				if (in.readLong() != dataFile.length()
+						|| in.readLong() != dataFile.lastModified()) {
+					return false;
+				}
+				int n = in.readInt();
+				Type type = td.getFieldType(0);
+				for (int i = 0; i < n; i++) {
+					Field value = type.parse(in);
+					bitmaps.put(value, RoaringBitmap.deserialize(in));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			bitmaps.clear();
+			return false;
+		} catch (ParseException e) {
+			bitmaps.clear();
+			return false;
+		}
+		dirty = false;
+		savedLength = dataFile.length();
+		savedModified = dataFile.lastModified();
+		return true;
+	} // end load()
+
+
+	/**
+	 * Returns an iterator over all entries, value by value.
+	 *
+	 * @see DbFile#iterator(TransactionId)
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new BitmapIndexIterator(null, null);
+	} // end iterator(TransactionId)
+
+
+	/**
+	 * Returns an iterator over the entries of the values that satisfy the
+	 * predicate, value by value; some may point at slots that no longer
+	 * hold a tuple with the value (see above).
+	 *
+	 * @see IndexFile#iterator(TransactionId, Predicate.Op, Field)
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+		return new BitmapIndexIterator(op, key);
+	} // end iterator(TransactionId, Predicate.Op, Field)
+
+
+	/**
+	 * Iterator over the entries of the values that satisfy a predicate, or
+	 * of all values. The bitmaps are copied when it is opened.
+	 */
+	private class BitmapIndexIterator implements DbFileIterator {
+
+		private Predicate.Op op;
+		private Field key;
+
+		/** The remaining values and their bitmaps. */
+		private Iterator<Map.Entry<Field, RoaringBitmap>> values;
+
+		/** The value being read and its positions. */
+		private Field value;
+		private RoaringBitmap.IntIterator positions;
+
+		private boolean opened;
+
+
+		private BitmapIndexIterator(Predicate.Op op, Field key) {
+			this.op = op;
+			this.key = key;
+			this.opened = false;
+		} // end BitmapIndexIterator(Predicate.Op, Field)
+
+
+		public void open() throws DbException, TransactionAbortedException {
+			TreeMap<Field, RoaringBitmap> copy = new TreeMap<Field, RoaringBitmap>(VALUE_ORDER);
+			synchronized (BitmapIndex.this) {
+				for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+					if (op == null || e.getKey().compare(op, key)) {
+						copy.put(e.getKey(), RoaringBitmap.or(new RoaringBitmap(), e.getValue()));
+					}
+				}
+			}
+			values = copy.entrySet().iterator();
+			positions = null;
+			opened = true;
+		} // end open()
+
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (!opened) return false;
+			while (positions == null || !positions.hasNext()) {
+				if (!values.hasNext()) return false;
+				Map.Entry<Field, RoaringBitmap> e = values.next();
+				value = e.getKey();
+				positions = e.getValue().iterator();
+			}
+			return true;
+		} // end hasNext()
+
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext()) throw new NoSuchElementException("no more entries");
+			int pos = positions.next();
+			Tuple t = new Tuple(td);
+			t.setField(0, value);
+			t.setField(1, new IntField(pos / slotsPerPage));
+			t.setField(2, new IntField(pos % slotsPerPage));
+			return t;
+		} // end next()
+
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		} // end rewind()
+
+
+		public void close() {
+			values = null;
+			positions = null;
+			opened = false;
+		} // end close()
+	} // end BitmapIndexIterator
+
+} // end BitmapIndex
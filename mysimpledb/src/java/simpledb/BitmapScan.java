@@ -0,0 +1,204 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan is an access method that reads the tuples of a heap table that
+ * satisfy a conjunction of disjunctions of predicates on fields with a
+ * {@link BitmapIndex}. When it is opened, it ORs the bitmaps of the
+ * predicates of each disjunction and ANDs the results, and then reads only
+ * the pages that hold a position of the resulting bitmap, in page order,
+ * returning the tuples at those positions that satisfy the predicates.
+ * Its tuples are named like those of a {@link SeqScan}.
+ */
+public class BitmapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableid;
+    private String alias;
+    private List<Predicate[]> conjuncts;
+    private BitmapIndex[][] indexes;
+    private boolean opened;
+
+    /** The positions left to read, and the number of slots per page. */
+    private RoaringBitmap.IntIterator positions;
+    private int slotsPerPage;
+
+    /** The page the last position was on. */
+    private HeapPage page;
+    private Tuple next;
+
+    /**
+     * Creates a scan of the tuples of a table that satisfy, for each array
+     * of predicates, at least one of them.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HeapFile
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     * @param conjuncts  the disjunctions to satisfy, none of them empty;
+     *                   every predicate must be on a field with a
+     *                   BitmapIndex
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+                      List<Predicate[]> conjuncts) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.conjuncts = conjuncts;
+        this.indexes = new BitmapIndex[conjuncts.size()][];
+        for (int i = 0; i < indexes.length; i++) {
+            Predicate[] any = conjuncts.get(i);
+            if (any.length == 0)
+                throw new IllegalArgumentException("empty disjunction");
+            indexes[i] = new BitmapIndex[any.length];
+            for (int j = 0; j < any.length; j++) {
+                indexes[i][j] = bitmapIndexOn(tableid, any[j].getField());
+                if (indexes[i][j] == null)
+                    throw new IllegalArgumentException("no bitmap index on field "
+                            + any[j].getField());
+            }
+        }
+        this.opened = false;
+    }
+
+    /**
+     * Returns the bitmap index on a field of a table, if there is one.
+     *
+     * @param tableid the id of the table
+     * @param field   the index of the field in the table's TupleDesc
+     * @return the index, or null
+     */
+    public static BitmapIndex bitmapIndexOn(int tableid, int field) {
+        for (IndexFile idx : Database.getCatalog().getIndexes(tableid)) {
+            if (idx instanceof BitmapIndex && idx.getKeyField() == field)
+                return (BitmapIndex) idx;
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the disjunctions the returned tuples satisfy, over the fields
+     * of the table
+     */
+    public List<Predicate[]> getConjuncts() {
+        return conjuncts;
+    }
+
+    /**
+     * Computes the positions of the tuples that may qualify.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        RoaringBitmap rows = null;
+        for (int i = 0; i < indexes.length; i++) {
+            Predicate[] any = conjuncts.get(i);
+            RoaringBitmap b = indexes[i][0].lookup(any[0].getOp(), any[0].getOperand());
+            for (int j = 1; j < any.length; j++) {
+                b = RoaringBitmap.or(b,
+                        indexes[i][j].lookup(any[j].getOp(), any[j].getOperand()));
+            }
+            rows = (rows == null) ? b : RoaringBitmap.and(rows, b);
+        }
+        if (rows == null)
+            throw new DbException("no predicates to scan for");
+        positions = rows.iterator();
+        slotsPerPage = indexes[0][0].getSlotsPerPage();
+        page = null;
+        next = null;
+        opened = true;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed by the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[td.numFields()];
+        String[] fieldAr = new String[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+            fieldAr[i] = alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * @return whether t satisfies every disjunction
+     */
+    private boolean matches(Tuple t) {
+        for (Predicate[] any : conjuncts) {
+            boolean ok = false;
+            for (int j = 0; j < any.length && !ok; j++)
+                ok = any[j].filter(t);
+            if (!ok)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the tuples at the remaining positions, fetching each page once.
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        int numPages = Database.getCatalog().getDatabaseFile(tableid).numPages();
+        while (positions.hasNext()) {
+            int pos = positions.next();
+            int pgNo = pos / slotsPerPage;
+            if (pgNo >= numPages)
+                return null;    // positions are in increasing order
+            if (page == null || page.getId().pageNumber() != pgNo)
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(tableid, pgNo), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(pos % slotsPerPage);
+            if (t != null && matches(t))
+                return t;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!opened)
+            return false;
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples");
+        Tuple rv = next;
+        next = null;
+        return rv;
+    }
+
+    public void close() {
+        positions = null;
+        page = null;
+        next = null;
+        opened = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
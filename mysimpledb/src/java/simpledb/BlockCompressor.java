@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * BlockCompressor is a small, fast LZ77 block codec in the style of LZ4.
+ * A compressed block is a sequence of sequences, each made of:
+ * <pre>
+ *   token      one byte: literal count (high 4 bits), match length - 4
+ *              (low 4 bits); a nibble of 15 continues in extra bytes
+ *   [extra]    more literal count bytes, each added, until one is < 255
+ *   literals   copied verbatim
+ *   offset     two bytes, little endian: distance back to the match
+ *   [extra]    more match length bytes, like the literal count
+ * </pre>
+ * The last sequence has literals only. Matches are found with a single
+ * hash table of 4-byte prefixes, trading some ratio for speed.
+ *
+ * @see PageCodec
+ */
+public class BlockCompressor {
+
+	/** Shortest match worth encoding. */
+	private static final int MIN_MATCH = 4;
+
+	/** Farthest back a match can start. */
+	private static final int MAX_OFFSET = 65535;
+
+	/** log2 of the number of entries of the match finder's hash table. */
+	private static final int HASH_BITS = 12;
+
+	/** The last bytes of the input are always emitted as literals. */
+	private static final int LAST_LITERALS = 5;
+
+
+	/** Not instantiable. */
+	private BlockCompressor() {}
+
+
+	/**
+	 * Compresses src[0, len).
+	 *
+	 * @param src the bytes to compress
+	 * @param len the number of bytes of src to compress
+	 * @return the compressed block
+	 */
+	public static byte[] compress(byte[] src, int len) {
+		// worst case: everything literal, plus length bytes and a token
+		byte[] dst = new byte[len + len / 255 + 16];
+		int[] table = new int[1 << HASH_BITS];
+		Arrays.fill(table, -1);
+
+		int dp = 0;
+		int anchor = 0;		// start of pending literals
+		int sp = 0;
+		int limit = len - LAST_LITERALS;
+		while (sp < limit - MIN_MATCH) {
+			int h = hash(src, sp);
+			int ref = table[h];
+			table[h] = sp;
+			if (ref < 0 || sp - ref > MAX_OFFSET || !prefixEquals(src, ref, sp)) {
+				sp++;
+				continue;
+			}
+
+			// extend the match as far as it goes
+			int matchLen = MIN_MATCH;
+			while (sp + matchLen < limit && src[ref + matchLen] == src[sp + matchLen]) {
+				matchLen++;
+			}
+
+			dp = writeSequence(dst, dp, src, anchor, sp - anchor,
+							   sp - ref, matchLen);
+			sp += matchLen;
+			anchor = sp;
+		}
+
+		// trailing literals
+		dp = writeSequence(dst, dp, src, anchor, len - anchor, 0, 0);
+		return Arrays.copyOf(dst, dp);
+	} // end compress(byte[], int)
+
+
+	/**
+	 * Decompresses a block produced by {@link #compress}.
+	 *
+	 * @param src the compressed block
+	 * @param rawLen the length of the uncompressed data
+	 * @return the uncompressed data
+	 * @throws IllegalArgumentException if the block is corrupt
+	 */
+	public static byte[] decompress(byte[] src, int rawLen) {
+		byte[] dst = new byte[rawLen];
+		int sp = 0;
+		int dp = 0;
+		try {
+			while (sp < src.length) {
+				int token = src[sp++] & 0xff;
+
+				// literals
+				int litLen = token >>> 4;
+				if (litLen == 15) {
+					int b;
+					do {
+						b = src[sp++] & 0xff;
+						litLen += b;
+					} while (b == 255);
+				}
+				System.arraycopy(src, sp, dst, dp, litLen);
+				sp += litLen;
+				dp += litLen;
+				if (sp == src.length) break;	// last sequence
+
+				// match, which may overlap its own output
+				int offset = (src[sp] & 0xff) | ((src[sp + 1] & 0xff) << 8);
+				sp += 2;
+				int matchLen = (token & 0x0f);
+				if (matchLen == 15) {
+					int b;
+					do {
+						b = src[sp++] & 0xff;
+						matchLen += b;
+					} while (b == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = dp - offset;
+				if (offset == 0 || ref < 0) {
+					throw new IllegalArgumentException("corrupt block");
+				}
+				for (int i = 0; i < matchLen; i++) {
+					dst[dp++] = dst[ref++];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("corrupt block");
+		}
+		if (dp != rawLen) {
+			throw new IllegalArgumentException("corrupt block");
+		}
+		return dst;
+	} // end decompress(byte[], int)
+
+
+	/**
+	 * Writes one sequence; a matchLen of 0 writes a literals-only (final)
+	 * sequence.
+	 *
+	 * @return the new output position
+	 */
+	private static int writeSequence(byte[] dst, int dp, byte[] src,
+									 int litStart, int litLen,
+									 int offset, int matchLen) {
+		int tokenPos = dp++;
+		int token = Math.min(litLen, 15) << 4;
+		if (litLen >= 15) dp = writeLength(dst, dp, litLen - 15);
+		System.arraycopy(src, litStart, dst, dp, litLen);
+		dp += litLen;
+
+		if (matchLen > 0) {
+			dst[dp++] = (byte) offset;
+			dst[dp++] = (byte) (offset >>> 8);
+			int ml = matchLen - MIN_MATCH;
+			token |= Math.min(ml, 15);
+			if (ml >= 15) dp = writeLength(dst, dp, ml - 15);
+		}
+		dst[tokenPos] = (byte) token;
+		return dp;
+	} // end writeSequence(byte[], int, byte[], int, int, int, int)
+
+
+	/**
+	 * Writes the continuation bytes of a length.
+	 */
+	private static int writeLength(byte[] dst, int dp, int len) {
+		while (len >= 255) {
+			dst[dp++] = (byte) 255;
+			len -= 255;
+		}
+		dst[dp++] = (byte) len;
+		return dp;
+	} // end writeLength(byte[], int, int)
+
+
+	private static int hash(byte[] b, int i) {
+		int v = (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8)
+				| ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+		return (v * -1640531535) >>> (32 - HASH_BITS);
+	} // end hash(byte[], int)
+
+
+	private static boolean prefixEquals(byte[] b, int i, int j) {
+		return b[i] == b[j] && b[i + 1] == b[j + 1]
+				&& b[i + 2] == b[j + 2] && b[i + 3] == b[j + 3];
+	} // end prefixEquals(byte[], int, int)
+
+} // end BlockCompressor
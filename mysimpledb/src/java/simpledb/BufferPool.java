@@ -3,6 +3,8 @@ package simpledb;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,7 +22,8 @@ import java.util.Set;
 public class BufferPool {
 
     /**
-     * Bytes per page, including header.
+     * Bytes per page, including header, of tables that do not set their own
+     * page size; also the size of a frame of the buffer pool.
      */
     public static final int PAGE_SIZE = 4096;
 
@@ -34,21 +37,41 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
     
-    /** Number of maximum pages in buffer. */
+    /**
+     * Maximum number of pages fetched by a single read-ahead request.
+     */
+    public static final int READ_AHEAD_PAGES = 8;
+    
+    /**
+     * Number of frames in buffer; a page larger than a frame takes several.
+     */
     public final int numPages;
     
     /** Buffer pool. */
     private Map<PageId, Page> buffer;
     
+    /** Number of frames the pages in buffer take. */
+    private int framesUsed;
+    
     /** Array for time when each page entered pool. */
     private Map<PageId, Long> pageTime;
     
+    /**
+     * Pages being read from disk outside the pool's monitor; getPage waits
+     * for them to arrive rather than reading them again.
+     */
+    private Set<PageId> loading;
+    
+    /** Number of frames held for the pages being read. */
+    private int framesReserved;
+    
     /** Lock manager for concurrency. */
     private LockManager lm;
     
     
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages of the default
+     * page size, or fewer larger ones.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
@@ -58,6 +81,9 @@ public class BufferPool {
         this.numPages = numPages;
         buffer = new HashMap<PageId, Page>();
         pageTime = new HashMap<PageId, Long>();
+        loading = new HashSet<PageId>();
+        framesUsed = 0;
+        framesReserved = 0;
         lm = new LockManager();
     } // end BufferPool(int)
 
@@ -108,34 +134,222 @@ public class BufferPool {
     	}
     	
         
-    	// find page in buffer if exists
-    	if (buffer.containsKey(pid)) {
-    		pageTime.put(pid, System.currentTimeMillis());
-    		return buffer.get(pid);
+    	// the lock is held; look the page up and reserve its frames under
+    	// the pool's monitor, but read it outside, so that the workers of a
+    	// parallel scan read their pages at the same time
+    	DbFile dbfile;
+    	int frames;
+    	synchronized (this) {
+    		while (loading.contains(pid)) {
+    			awaitLoad();
+    		}
+    		
+    		// find page in buffer if exists
+    		if (buffer.containsKey(pid)) {
+    			pageTime.put(pid, System.currentTimeMillis());
+    			return buffer.get(pid);
+    		}
+    		
+    		// DNE, put in buffer, evict if necessary
+    		Catalog ctlg = Database.getCatalog();
+    		dbfile = ctlg.getDatabaseFile(pid.getTableId());
+    		
+    		// evict until the page's frames are free; a page larger than
+    		// the whole pool still gets in once the pool is empty
+    		frames = framesOf(dbfile);
+    		while (!buffer.isEmpty()
+    				&& framesInUse() + framesReserved + frames > numPages) {
+    			evictPage();
+    		}
+    		loading.add(pid);
+    		framesReserved += frames;
     	}
     	
-    	// DNE, put in buffer, evict if necessary
-    	Catalog ctlg = Database.getCatalog();
-    	DbFile dbfile = ctlg.getDatabaseFile(pid.getTableId());
+    	// read page, put in buffer
+    	Page rv = null;
+    	try {
+    		rv = dbfile.readPage(pid);
+    	} finally {
+    		synchronized (this) {
+    			loading.remove(pid);
+    			framesReserved -= frames;
+    			if (rv != null) {
+    				cachePage(rv);
+    				pageTime.put(pid, System.currentTimeMillis());
+    			}
+    			notifyAll();
+    		}
+    	}
+    	return rv;
+    } // end getPage(TransactionId, PageId, Permissions)
+
+    
+    /**
+     * Brings up to count consecutive pages, starting at first, into the
+     * buffer pool with a single multi-page read, so that a sequential scan
+     * finds them cached when it calls {@link #getPage}. No locks are
+     * acquired; getPage still locks each page when it is actually used.
+     * <p/>
+     * Pages already in the buffer pool, or being read, end the request,
+     * since pages past a cached one are likely to have been read ahead
+     * already. The request is also capped at half of the pool, so
+     * read-ahead cannot flush out the working set of other transactions.
+     * Like getPage, the frames are reserved under the pool's monitor and
+     * the pages read outside it.
+     *
+     * @param first the id of the first page to read ahead
+     * @param count the number of consecutive pages wanted
+     * @return the number of pages actually read
+     */
+    public int readAhead(PageId first, int count) {
+    	DbFile dbfile = Database.getCatalog().getDatabaseFile(first.getTableId());
+    	int frames = framesOf(dbfile);
+    	count = Math.min(count, Math.max(numPages / 2 / frames, 1));
     	
-    	// evict if max capacity
-    	if (buffer.size() >= numPages) {
-    		evictPage();
+    	int start, toRead;
+    	synchronized (this) {
+    		// skip the leading pages that are cached, stop at the next cached one
+    		start = first.pageNumber();
+    		int end = start + count;
+    		while (start < end && isPresent(pageIdAt(first, start))) {
+    			start++;
+    		}
+    		int stop = start;
+    		while (stop < end && !isPresent(pageIdAt(first, stop))) {
+    			stop++;
+    		}
+    		toRead = stop - start;
+    		
+    		// make room; read fewer pages rather than fail if only dirty
+    		// pages are left
+    		while (toRead > 0
+    				&& framesInUse() + framesReserved + toRead * frames > numPages) {
+    			try {
+    				evictPage();
+    			} catch (DbException e) {
+    				toRead = (numPages - framesInUse() - framesReserved) / frames;
+    			}
+    		}
+    		if (toRead <= 0) return 0;
+    		for (int pgNo = start; pgNo < start + toRead; pgNo++) {
+    			loading.add(pageIdAt(first, pgNo));
+    		}
+    		framesReserved += toRead * frames;
     	}
     	
-    	assert buffer.size() < numPages;	// test size before
+    	// read all of the missing pages at once
+    	ArrayList<Page> pages = null;
+    	try {
+    		pages = dbfile.readPages(pageIdAt(first, start), toRead);
+    	} catch (IllegalArgumentException e) {
+    		// file shrank meanwhile, e.g. by a vacuum
+    	} finally {
+    		synchronized (this) {
+    			framesReserved -= toRead * frames;
+    			long now = System.currentTimeMillis();
+    			for (int i = 0; i < toRead; i++) {
+    				// a page discarded meanwhile is not cached
+    				PageId pid = pageIdAt(first, start + i);
+    				if (loading.remove(pid) && pages != null) {
+    					cachePage(pages.get(i));
+    					pageTime.put(pid, now);
+    				}
+    			}
+    			notifyAll();
+    		}
+    	}
     	
-    	// read page, put in buffer
-    	Page rv = dbfile.readPage(pid);
+    	return (pages == null) ? 0 : toRead;
+    } // end readAhead(PageId, int)
+    
+    
+    /**
+     * Returns whether a page is cached or being read.
+     */
+    private boolean isPresent(PageId pid) {
+    	return buffer.containsKey(pid) || loading.contains(pid);
+    } // end isPresent(PageId)
+    
+    
+    /**
+     * Waits, under the pool's monitor, until a page being read arrives.
+     */
+    private void awaitLoad() {
+    	try {
+    		wait();
+    	} catch (InterruptedException e) {}
+    } // end awaitLoad()
+    
+    
+    /**
+     * Returns the number of frames a page of pageSize bytes takes.
+     */
+    private static int framesFor(int pageSize) {
+    	return Math.max(1, (pageSize + getPageSize() - 1) / getPageSize());
+    } // end framesFor(int)
+    
+    
+    /**
+     * Returns the number of frames each page of a file takes; only heap
+     * files set their own page size.
+     */
+    private static int framesOf(DbFile f) {
+    	return (f instanceof HeapFile) ? framesFor(((HeapFile) f).getPageSize()) : 1;
+    } // end framesOf(DbFile)
+    
+    
+    /**
+     * Returns the number of frames a cached page takes.
+     */
+    private static int framesOf(Page p) {
+    	return (p instanceof HeapPage) ? framesFor(((HeapPage) p).getPageSize()) : 1;
+    } // end framesOf(Page)
+    
+    
+    /**
+     * Returns the number of frames the cached pages take.
+     */
+    private int framesInUse() {
     	synchronized (this.buffer) {
-    		buffer.put(pid, rv);
+    		return framesUsed;
     	}
-    	pageTime.put(pid, System.currentTimeMillis());
-    	
-    	assert buffer.size() <= numPages;	// test size after
-    	
-    	return rv;
-    } // end getPage(TransactionId, PageId, Permissions)
+    } // end framesInUse()
+    
+    
+    /**
+     * Puts a page in the buffer, replacing the cached version if any, and
+     * counts its frames.
+     */
+    private void cachePage(Page p) {
+    	synchronized (this.buffer) {
+    		Page old = buffer.put(p.getId(), p);
+    		framesUsed += framesOf(p) - (old == null ? 0 : framesOf(old));
+    	}
+    } // end cachePage(Page)
+    
+    
+    /**
+     * Removes a page from the buffer, if it is there, and uncounts its
+     * frames.
+     */
+    private void uncachePage(PageId pid) {
+    	synchronized (this.buffer) {
+    		Page old = buffer.remove(pid);
+    		if (old != null) framesUsed -= framesOf(old);
+    	}
+    } // end uncachePage(PageId)
+    
+    
+    /**
+     * Builds the id of page pgNo of the same table (and column) as pid.
+     */
+    private static PageId pageIdAt(PageId pid, int pgNo) {
+    	if (pid instanceof ColumnPageId) {
+    		return new ColumnPageId(pid.getTableId(),
+    				((ColumnPageId) pid).getColumn(), pgNo);
+    	}
+    	return new HeapPageId(pid.getTableId(), pgNo);
+    } // end pageIdAt(PageId, int)
 
     
     /**
@@ -170,27 +384,47 @@ public class BufferPool {
     } // end holdsLock(TransactionId, PageId)
 
     
+    /**
+     * Return true if some transaction has an exclusive lock on the specified
+     * page, so the page may have changes that are not committed yet
+     */
+    public boolean isLockedExclusively(PageId p) {
+        return lm.isLockedExclusively(p);
+    } // end isLockedExclusively(PageId)
+
+    
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p/>
+     * On commit, the pages the transaction modified are flushed, logging
+     * their before-images, and then take their current contents as their
+     * new before-images. Only pages the transaction holds an exclusive
+     * lock on can have been modified, so the pages it only read are left
+     * alone.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
             throws IOException {
-    	Set<PageId> keySet = buffer.keySet();
+    	// copied, as discarding pages removes them from the buffer
+    	ArrayList<PageId> keySet;
+    	synchronized (this) {
+    		keySet = new ArrayList<PageId>(buffer.keySet());
+    	}
         for (PageId pid : keySet) {
         	Page p = buffer.get(pid);
-        	if (commit && holdsLock(tid, pid)) {
-        		p.setBeforeImage();
-        	}
+        	if (p == null) continue;		// evicted meanwhile
         	
         	TransactionId tidDirtied = p.isDirty();
         	if (tidDirtied != null && tid.equals(p.isDirty())) {
         		if (commit) flushPage(pid);
         		else discardPage(pid);
         	}
+        	if (commit && lm.holdsExclusiveLock(tid, pid)) {
+        		p.setBeforeImage();
+        	}
         }
         
         lm.releaseAllLocks(tid);
@@ -205,6 +439,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
      * been dirtied so that future requests see up-to-date pages.
+     * <p/>
+     * The tuple is also added to the indexes on the table.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -218,13 +454,50 @@ public class BufferPool {
         ArrayList<Page> modified = f.insertTuple(tid, t);
         for (Page p : modified) {
         	p.markDirty(true, tid);		// mark modified page dirty
-        	synchronized (this.buffer) {
-        		buffer.put(p.getId(), p);	// update cached version(s)
-        	}
+        	cachePage(p);				// update cached version(s)
         }
+        insertIndexEntries(tid, tableId, t);
     } // end insertTuple(TransactionId, int, Tuple)
 
     
+    /**
+     * Adds the entries for a tuple of a table, which has its RecordId set,
+     * to the indexes on the table, and marks the index pages modified dirty.
+     *
+     * @param tid     the transaction adding the tuple
+     * @param tableId the table the tuple was added to
+     * @param t       the tuple
+     */
+    void insertIndexEntries(TransactionId tid, int tableId, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile idx : Database.getCatalog().getIndexes(tableId)) {
+        	for (Page p : idx.insertEntry(tid, t)) {
+        		p.markDirty(true, tid);
+        		cachePage(p);
+        	}
+        }
+    } // end insertIndexEntries(TransactionId, int, Tuple)
+
+    
+    /**
+     * Removes the entries for a tuple, which still has its RecordId set,
+     * from the indexes on its table, and marks the index pages modified dirty.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t   the tuple
+     */
+    void deleteIndexEntries(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int tableId = t.getRecordId().getPageId().getTableId();
+        for (IndexFile idx : Database.getCatalog().getIndexes(tableId)) {
+        	for (Page p : idx.deleteEntry(tid, t)) {
+        		p.markDirty(true, tid);
+        		cachePage(p);
+        	}
+        }
+    } // end deleteIndexEntries(TransactionId, Tuple)
+
+    
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -233,6 +506,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have
      * been dirtied so that future requests see up-to-date pages.
+     * <p/>
+     * The tuple is also removed from the indexes on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
@@ -243,31 +518,52 @@ public class BufferPool {
     	ArrayList<Page> plist = null;
     	int tableId = t.getRecordId().getPageId().getTableId();
     	DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+    	deleteIndexEntries(tid, t);
     	plist = f.deleteTuple(tid, t);
     	
     	// mark dirty bit
     	if (plist == null) {
     		throw new DbException("could not delete tuple");
     	}
-    	Page p = plist.get(0);
-    	p.markDirty(true, tid);
-    	
-    	// update cached version(s)
-    	synchronized (this.buffer) {
-    		buffer.put(p.getId(), p);
-    	}    	
+    	for (Page p : plist) {
+    		p.markDirty(true, tid);
+    		
+    		// update cached version(s)
+    		cachePage(p);
+    	}
     } // end deleteTuple(TransactionId, Tuple)
 
     
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
-     * break simpledb if running in NO STEAL mode.
+     * break simpledb if running in NO STEAL mode. Also saves the zone maps
+     * of the heap files of the catalog, which pages written since they were
+     * last saved have changed, stamps their B+ tree and hash indexes
+     * as matching them, and compacts and saves their bitmap indexes.
      */
     public synchronized void flushAllPages() throws IOException {
     	for (PageId pid : buffer.keySet()) {
     		flushPage(pid);
         }
+    	Catalog c = Database.getCatalog();
+    	Iterator<Integer> tables = c.tableIdIterator();
+    	while (tables.hasNext()) {
+    		int tableId = tables.next();
+    		DbFile f = c.getDatabaseFile(tableId);
+    		if (!(f instanceof HeapFile)) continue;
+    		((HeapFile) f).getZoneMap().save();
+    		for (IndexFile idx : c.getIndexes(tableId)) {
+    			if (idx instanceof BTreeFile) {
+    				((BTreeFile) idx).markCurrent();
+    			} else if (idx instanceof HashIndexFile) {
+    				((HashIndexFile) idx).markCurrent();
+    			} else if (idx instanceof BitmapIndex) {
+    				((BitmapIndex) idx).compact();
+    				((BitmapIndex) idx).saveChanges();
+    			}
+    		}
+    	}
     } // end flushAllPages()
 
     
@@ -278,11 +574,46 @@ public class BufferPool {
      * cache.
      */
     public synchronized void discardPage(PageId pid) {
-        buffer.remove(pid);
+        uncachePage(pid);
         pageTime.remove(pid);
+        if (loading.remove(pid)) notifyAll();
     } // end discardPage(PageId)
 
     
+    /**
+     * Remove all pages of a table numbered fromPgNo or higher from the
+     * buffer pool, without writing them out. Used when the file
+     * underlying the table is rewritten or truncated behind the buffer
+     * pool's back.
+     * 
+     * @param tableId the table whose pages to discard
+     * @param fromPgNo the first page number to discard
+     * @throws DbException if one of the pages is dirty; none is discarded
+     */
+    public synchronized void discardPages(int tableId, int fromPgNo)
+    		throws DbException {
+    	ArrayList<PageId> toDiscard = new ArrayList<PageId>();
+    	for (Map.Entry<PageId, Page> e : buffer.entrySet()) {
+    		PageId pid = e.getKey();
+    		if (pid.getTableId() == tableId && pid.pageNumber() >= fromPgNo) {
+    			if (e.getValue().isDirty() != null) {
+    				throw new DbException("page " + pid.pageNumber()
+    						+ " was changed by " + e.getValue().isDirty());
+    			}
+    			toDiscard.add(pid);
+    		}
+    	}
+    	for (PageId pid : loading) {
+    		if (pid.getTableId() == tableId && pid.pageNumber() >= fromPgNo) {
+    			toDiscard.add(pid);
+    		}
+    	}
+    	for (PageId pid : toDiscard) {
+    		discardPage(pid);
+    	}
+    } // end discardPages(int, int)
+
+    
     /**
      * Flushes a certain page to disk
      *
@@ -346,7 +677,7 @@ public class BufferPool {
     	try {
     		flushPage(earliestPidNotDirty);							// try flushing
     		pageTime.remove(earliestPidNotDirty);
-    		buffer.remove(earliestPidNotDirty);
+    		uncachePage(earliestPidNotDirty);
     	} catch (IOException ioe) {
     		throw new DbException("could not evict page");	// throw exception if fail
     	}
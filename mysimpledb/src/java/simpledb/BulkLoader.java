@@ -0,0 +1,409 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader is a direct-path loader for heap files. It parses a delimited
+ * text file in parallel chunks, builds complete HeapPage images in worker
+ * threads, writes the pages to the output file sequentially and registers
+ * the resulting table in the Catalog.
+ * <p/>
+ * Unlike {@link Insert}, the loader bypasses the buffer pool, the lock
+ * manager and the log: the table being loaded must not be in use by any
+ * transaction while the load is running, and a load that fails midway
+ * leaves a partial file behind rather than being rolled back.
+ * <p/>
+ * The input format is the one accepted by {@link HeapFileEncoder}: one tuple
+ * per line, fields separated by a separator character. Each chunk of the
+ * input is packed into its own pages, so the output may hold up to one
+ * partially filled page per chunk.
+ *
+ * @see HeapFileEncoder
+ * @see HeapPage
+ */
+public class BulkLoader {
+
+	/** Target size (in bytes of input text) of a chunk handed to a worker. */
+	static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/** Description of the tuples being loaded. */
+	private final TupleDesc td;
+
+	/** Field separator of the input file. */
+	private final char fieldSeparator;
+
+	/** Bytes per page of the output file. */
+	private final int pageSize;
+
+	/** Number of tuple slots on each page. */
+	private final int numSlots;
+
+	/** Number of header bytes on each page. */
+	private final int headerSize;
+
+	/** Size (in bytes of input text) of the chunks handed to workers. */
+	private final int chunkSize;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param td the TupleDesc of the table being loaded
+	 * @param fieldSeparator the character separating fields on a line
+	 * @param pageSize the number of bytes per page in the output file
+	 */
+	public BulkLoader(TupleDesc td, char fieldSeparator, int pageSize) {
+		this(td, fieldSeparator, pageSize, CHUNK_SIZE);
+	} // end BulkLoader(TupleDesc, char, int)
+
+
+	/**
+	 * Constructor with an explicit chunk size; used for testing.
+	 */
+	BulkLoader(TupleDesc td, char fieldSeparator, int pageSize, int chunkSize) {
+		this.td = td;
+		this.fieldSeparator = fieldSeparator;
+		this.pageSize = pageSize;
+		this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+		this.headerSize = (int) Math.ceil(numSlots / 8.0);
+		this.chunkSize = chunkSize;
+	} // end BulkLoader(TupleDesc, char, int, int)
+
+
+	/**
+	 * Loads a delimited text file into a new heap file with pages of the
+	 * buffer pool's page size and registers it in the Catalog, using one
+	 * worker thread per available processor.
+	 *
+	 * @param inFile the text file to load
+	 * @param outFile the heap file to create (overwritten if it exists)
+	 * @param td the TupleDesc of the table
+	 * @param fieldSeparator the character separating fields on a line
+	 * @param tableName the name to register the table under
+	 * @param pkeyField the primary key field of the table, or ""
+	 * @return the loaded HeapFile
+	 * @throws IOException if the input can't be read or the output written
+	 */
+	public static HeapFile load(File inFile, File outFile, TupleDesc td,
+								char fieldSeparator, String tableName,
+								String pkeyField) throws IOException {
+		return load(inFile, outFile, td, fieldSeparator, tableName, pkeyField,
+					BufferPool.getPageSize());
+	} // end load(File, File, TupleDesc, char, String, String)
+
+
+	/**
+	 * Loads a delimited text file into a new heap file with pages of the
+	 * given size and registers it in the Catalog, using one worker thread
+	 * per available processor.
+	 *
+	 * @param inFile the text file to load
+	 * @param outFile the heap file to create (overwritten if it exists)
+	 * @param td the TupleDesc of the table
+	 * @param fieldSeparator the character separating fields on a line
+	 * @param tableName the name to register the table under
+	 * @param pkeyField the primary key field of the table, or ""
+	 * @param pageSize the number of bytes per page of the heap file
+	 * @return the loaded HeapFile
+	 * @throws IOException if the input can't be read or the output written
+	 */
+	public static HeapFile load(File inFile, File outFile, TupleDesc td,
+								char fieldSeparator, String tableName,
+								String pkeyField, int pageSize)
+			throws IOException {
+		BulkLoader loader = new BulkLoader(td, fieldSeparator, pageSize);
+		loader.loadFile(inFile, outFile,
+						Runtime.getRuntime().availableProcessors());
+
+		HeapFile hf = new HeapFile(outFile, td, pageSize);
+		Database.getCatalog().addTable(hf, tableName, pkeyField);
+		return hf;
+	} // end load(File, File, TupleDesc, char, String, String, int)
+
+
+	/**
+	 * Parses inFile with numThreads workers and writes the resulting pages
+	 * to outFile. Chunks are handed out in file order and their pages are
+	 * written in the same order, so at most a few chunks are held in memory
+	 * at any time.
+	 *
+	 * @param inFile the text file to load
+	 * @param outFile the heap file to create (overwritten if it exists)
+	 * @param numThreads the number of parser threads to use
+	 * @return the number of tuples loaded
+	 * @throws IOException if the input can't be read or the output written
+	 */
+	public long loadFile(File inFile, File outFile, int numThreads)
+			throws IOException {
+		if (numThreads < 1) numThreads = 1;
+
+		// discard any pages of a previous version of the table
+		try {
+			Database.getBufferPool().discardPages(
+					outFile.getAbsoluteFile().hashCode(), 0);
+		} catch (DbException e) {
+			throw new IOException("table in use: " + e.getMessage());
+		}
+
+		RandomAccessFile in = new RandomAccessFile(inFile, "r");
+		FileOutputStream out = new FileOutputStream(outFile);
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		long tuples = 0;
+		long pagesWritten = 0;
+		try {
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			List<long[]> chunks = splitIntoChunks(inChannel);
+
+			// keep a bounded number of chunks in flight, in file order
+			LinkedList<Future<ChunkResult>> inFlight
+				= new LinkedList<Future<ChunkResult>>();
+			int nextChunk = 0;
+			while (nextChunk < chunks.size() || !inFlight.isEmpty()) {
+				while (nextChunk < chunks.size()
+						&& inFlight.size() < numThreads * 2) {
+					long[] c = chunks.get(nextChunk++);
+					inFlight.add(pool.submit(new ChunkParser(
+							inChannel.map(FileChannel.MapMode.READ_ONLY,
+										  c[0], c[1] - c[0]))));
+				}
+
+				ChunkResult result = inFlight.removeFirst().get();
+				tuples += result.numTuples;
+				pagesWritten += writePages(outChannel, result.pages);
+			}
+
+			// an empty table still gets one (empty) page
+			if (pagesWritten == 0) {
+				ArrayList<byte[]> empty = new ArrayList<byte[]>();
+				empty.add(new byte[pageSize]);
+				writePages(outChannel, empty);
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("bulk load interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("bulk load failed: " + e.getCause());
+		} finally {
+			pool.shutdownNow();
+			in.close();
+			out.close();
+		}
+
+		return tuples;
+	} // end loadFile(File, File, int)
+
+
+	/**
+	 * Splits the input into [start, end) byte ranges of roughly chunkSize
+	 * bytes, each ending just after a newline (or at end of file).
+	 */
+	private List<long[]> splitIntoChunks(FileChannel in) throws IOException {
+		List<long[]> rv = new ArrayList<long[]>();
+		long size = in.size();
+		long start = 0;
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		while (start < size) {
+			long end = Math.min(start + chunkSize, size);
+
+			// move end forward to just past the next newline
+			boolean found = false;
+			while (end < size && !found) {
+				probe.clear();
+				int n = in.read(probe, end);
+				for (int i = 0; i < n; i++) {
+					if (probe.get(i) == '\n') {
+						end += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if (!found) end += n;
+			}
+
+			rv.add(new long[] {start, end});
+			start = end;
+		}
+		return rv;
+	} // end splitIntoChunks(FileChannel)
+
+
+	/**
+	 * Appends full page images to the output with one gathering write.
+	 *
+	 * @return the number of pages written
+	 */
+	private int writePages(FileChannel out, List<byte[]> pages)
+			throws IOException {
+		ByteBuffer[] bufs = new ByteBuffer[pages.size()];
+		long remaining = 0;
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = ByteBuffer.wrap(pages.get(i));
+			remaining += bufs[i].remaining();
+		}
+		while (remaining > 0) {
+			remaining -= out.write(bufs);
+		}
+		return bufs.length;
+	} // end writePages(FileChannel, List<byte[]>)
+
+
+	/** Pages and tuple count produced from one chunk. */
+	private static class ChunkResult {
+		final List<byte[]> pages;
+		final long numTuples;
+
+		ChunkResult(List<byte[]> pages, long numTuples) {
+			this.pages = pages;
+			this.numTuples = numTuples;
+		}
+	} // end ChunkResult
+
+
+	/**
+	 * Worker task: parses the lines of one chunk straight into page images,
+	 * with the same layout the HeapPage constructor expects.
+	 */
+	private class ChunkParser implements Callable<ChunkResult> {
+
+		/** The bytes of the chunk. */
+		private final MappedByteBuffer input;
+
+		/** Pages built so far; the last one is being filled. */
+		private final List<byte[]> pages = new ArrayList<byte[]>();
+
+		/** Current page. */
+		private ByteBuffer page;
+
+		/** Next free slot on the current page. */
+		private int slot;
+
+		/** Scratch space holding the current field. */
+		private byte[] field = new byte[Type.STRING_LEN + 64];
+
+
+		ChunkParser(MappedByteBuffer input) {
+			this.input = input;
+		}
+
+
+		public ChunkResult call() {
+			long numTuples = 0;
+			int fieldNo = 0;
+			int len = 0;
+			boolean lineEmpty = true;
+
+			while (input.hasRemaining()) {
+				byte c = input.get();
+				if (c == '\r') continue;	// ignore Windows line endings
+
+				if (c == fieldSeparator || c == '\n') {
+					if (c == '\n' && lineEmpty) continue;	// skip blank lines
+
+					if (fieldNo == 0) startTuple();
+					if (fieldNo < td.numFields()) writeField(fieldNo, len);
+					fieldNo++;
+					len = 0;
+
+					if (c == '\n') {
+						numTuples++;
+						fieldNo = 0;
+						lineEmpty = true;
+					}
+				} else {
+					if (len == field.length) {
+						field = Arrays.copyOf(field, field.length * 2);
+					}
+					field[len++] = c;
+					lineEmpty = false;
+				}
+			}
+
+			// last line of the file may lack a newline
+			if (!lineEmpty) {
+				if (fieldNo == 0) startTuple();
+				if (fieldNo < td.numFields()) writeField(fieldNo, len);
+				numTuples++;
+			}
+
+			return new ChunkResult(pages, numTuples);
+		} // end call()
+
+
+		/**
+		 * Claims the next slot, starting a new page if the current one is
+		 * full, and marks it used in the page header.
+		 */
+		private void startTuple() {
+			if (page == null || slot == numSlots) {
+				byte[] data = new byte[pageSize];
+				pages.add(data);
+				page = ByteBuffer.wrap(data);
+				slot = 0;
+			}
+
+			int headerByte = page.get(slot / 8) | (1 << (slot % 8));
+			page.put(slot / 8, (byte) headerByte);
+			page.position(headerSize + slot * td.getSize());
+			slot++;
+		} // end startTuple()
+
+
+		/**
+		 * Serializes the first len bytes of the scratch field as field
+		 * fieldNo of the current tuple.
+		 */
+		private void writeField(int fieldNo, int len) {
+			// trim whitespace
+			int start = 0;
+			while (start < len && field[start] <= ' ') start++;
+			while (len > start && field[len - 1] <= ' ') len--;
+
+			if (td.getFieldType(fieldNo) == Type.INT_TYPE) {
+				page.putInt(parseInt(start, len));
+			} else {
+				int strLen = Math.min(len - start, Type.STRING_LEN);
+				page.putInt(strLen);
+				page.put(field, start, strLen);
+				// rest of the field stays zero-padded
+				page.position(page.position() + Type.STRING_LEN - strLen);
+			}
+		} // end writeField(int, int)
+
+
+		/**
+		 * Parses field[start, end) as a decimal integer, printing it and
+		 * storing 0 if it is malformed.
+		 */
+		private int parseInt(int start, int end) {
+			boolean negative = start < end && field[start] == '-';
+			int i = negative || (start < end && field[start] == '+')
+					? start + 1 : start;
+			if (i == end) {
+				System.out.println("BAD LINE : " + new String(field, start, end - start));
+				return 0;
+			}
+
+			long v = 0;
+			for (; i < end; i++) {
+				int d = field[i] - '0';
+				if (d < 0 || d > 9 || v > Integer.MAX_VALUE + 1L) {
+					System.out.println("BAD LINE : " + new String(field, start, end - start));
+					return 0;
+				}
+				v = v * 10 + d;
+			}
+			if (v > (negative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE)) {
+				System.out.println("BAD LINE : " + new String(field, start, end - start));
+				return 0;
+			}
+			return (int) (negative ? -v : v);
+		} // end parseInt(int, int)
+
+	} // end ChunkParser
+
+} // end BulkLoader
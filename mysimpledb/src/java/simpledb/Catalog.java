@@ -23,6 +23,9 @@ public class Catalog {
 	
 	/** Map to store the name of the primary fields of the tables, if any. */
 	private Map<String, String> pFieldTableMap;
+	
+	/** Map to store the indexes; index file ids as keys. */
+	private Map<Integer, IndexFile> indexMap;
 
     /**
      * Constructor.
@@ -31,6 +34,7 @@ public class Catalog {
     public Catalog() {
         tableMap = new HashMap<String, DbFile>();
         pFieldTableMap = new HashMap<String, String>();
+        indexMap = new HashMap<Integer, IndexFile>();
     } // end Catalog()
 
     
@@ -102,6 +106,40 @@ public class Catalog {
     } // end addTable(DbFile)
 
     
+    /**
+     * Add an index on a table that is already in the catalog. From then on,
+     * tuples inserted into or deleted from the table through the buffer pool
+     * are also inserted into or deleted from the index, and the index's
+     * pages can be found through getDatabaseFile like a table's.
+     * 
+     * @param index the index to add
+     */
+    public void addIndex(IndexFile index) {
+    	if (index == null)
+    		throw new NullPointerException("null parameter");
+    	
+    	indexMap.put(index.getId(), index);
+    } // end addIndex(IndexFile)
+
+    
+    /**
+     * Returns the indexes on a table.
+     * 
+     * @param tableid id of the indexed table
+     * @return the indexes on the table; empty if there are none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+    	List<IndexFile> rv = new ArrayList<IndexFile>();
+    	for (IndexFile idx : indexMap.values()) {
+    		if (idx.getTableId() == tableid) {
+    			rv.add(idx);
+    		}
+    	}
+    	
+    	return rv;
+    } // end getIndexes(int)
+
+    
     /**
      * Return the id of the table with a specified name,
      *
@@ -128,6 +166,9 @@ public class Catalog {
         		return t.getTupleDesc();
         	}
         }
+        if (indexMap.containsKey(tableid)) {
+        	return indexMap.get(tableid).getTupleDesc();
+        }
         
         throw new NoSuchElementException("table with specified table id DNE");
     } // end getTupleDesc(int)
@@ -135,10 +176,11 @@ public class Catalog {
     
     /**
      * Returns the DbFile that can be used to read the contents of the
-     * specified table.
+     * specified table, or the specified index.
      *
      * @param tableid The id of the table, as specified by the DbFile.getId()
-     *                function passed to addTable
+     *                function passed to addTable, or of an index added with
+     *                addIndex
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
     	for (DbFile t : tableMap.values()) {
@@ -146,6 +188,9 @@ public class Catalog {
         		return t;
         	}
         }
+        if (indexMap.containsKey(tableid)) {
+        	return indexMap.get(tableid);
+        }
         
         throw new NoSuchElementException("table with specified table id DNE");
     } // end getDatabaseFile(int)
@@ -209,11 +254,29 @@ public class Catalog {
     public void clear() {
         tableMap.clear();
         pFieldTableMap.clear();
+        indexMap.clear();
     } // end clear()
 
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table is stored in a HeapFile unless its field list is followed by
+     * a storage format: "slotted" for a SlottedHeapFile, "compressed" for a
+     * CompressedHeapFile, "column" for a ColumnFile. A HeapFile's format may
+     * be followed by its page size, one of "4k", "8k", "16k" or "64k", as
+     * in "heap 64k"; otherwise it has the buffer pool's page size.
+     * <p/>
+     * A field may be annotated "pk" (the primary key), "index", or both.
+     * If it is an INT field of a table stored in a heap file, the primary
+     * key gets a hash index, kept in name.field.hash next to the table, and
+     * an "index" field a B+ tree index, kept in name.field.idx. An index is
+     * built from the table unless its stamp shows it matches the table's
+     * file, see {@link IndexStamp}; so it is rebuilt if the table's file
+     * was replaced, e.g. by a loader, or not flushed with the index.
+     * <p/>
+     * A field of any type of a heap table may also be annotated "bitmap",
+     * for a bitmap index kept in name.field.bmp; it is rebuilt whenever the
+     * table changed since the index was saved.
      *
      * @param catalogFile
      */
@@ -224,7 +287,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [storage]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -232,6 +295,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> hashed = new ArrayList<String>();
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -243,11 +309,16 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk")) {
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            hashed.add(primaryKey);
+                        } else if (els2[i].trim().equals("index")) {
+                            indexed.add(els2[0].trim());
+                        } else if (els2[i].trim().equals("bitmap")) {
+                            bitmapped.add(els2[0].trim());
+                        } else {
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -255,18 +326,105 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+
+                // optional storage format and page size after the field list
+                String[] storageEls = line.substring(line.indexOf(")") + 1).trim().toLowerCase().split("\\s+");
+                String storage = storageEls[0];
+                int pageSize = 0;
+                if (storageEls.length > 1) {
+                    pageSize = parsePageSize(storageEls[1]);
+                    if (storageEls.length > 2 || pageSize == 0 || !storage.equals("heap")) {
+                        System.out.println("Invalid page size for " + name + ": " + storageEls[1]);
+                        System.exit(0);
+                        return;
+                    }
+                }
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (storage.equals("") || storage.equals("heap")) {
+                    try {
+                        tabHf = new HeapFile(dataFile, t, pageSize);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Invalid file for " + name + ": " + e.getMessage());
+                        System.exit(0);
+                        return;
+                    }
+                } else if (storage.equals("slotted")) {
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                } else if (storage.equals("compressed")) {
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                } else if (storage.equals("column")) {
+                    tabHf = new ColumnFile(dataFile, t);
+                } else {
+                    System.out.println("Unknown storage format " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
+                
+                // hash and B+ tree indexes on INT fields of heap tables
+                for (String field : hashed) {
+                    int keyField = t.fieldNameToIndex(field);
+                    if (!(tabHf instanceof HeapFile) || t.getFieldType(keyField) != Type.INT_TYPE)
+                        continue;
+                    HashIndexFile idx = new HashIndexFile(new File(baseFolder + "/" + name + "." + field + ".hash"),
+                            tabHf.getId(), keyField);
+                    if (!idx.isCurrent())
+                        idx.build();
+                    addIndex(idx);
+                    System.out.println("Added hash index on " + name + "." + field);
+                }
+                for (String field : indexed) {
+                    int keyField = t.fieldNameToIndex(field);
+                    if (!(tabHf instanceof HeapFile) || t.getFieldType(keyField) != Type.INT_TYPE)
+                        continue;
+                    BTreeFile idx = new BTreeFile(new File(baseFolder + "/" + name + "." + field + ".idx"),
+                            tabHf.getId(), keyField);
+                    if (!idx.isCurrent())
+                        idx.build();
+                    addIndex(idx);
+                    System.out.println("Added index on " + name + "." + field);
+                }
+                for (String field : bitmapped) {
+                    if (!(tabHf instanceof HeapFile))
+                        continue;
+                    BitmapIndex idx = new BitmapIndex(new File(baseFolder + "/" + name + "." + field + ".bmp"),
+                            tabHf.getId(), t.fieldNameToIndex(field));
+                    if (!idx.load())
+                        idx.build();
+                    addIndex(idx);
+                    System.out.println("Added bitmap index on " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
         }
     } // end loadSchema(String)
     
+    
+    /**
+     * Parses a page size of a schema file.
+     * 
+     * @param s one of "4k", "8k", "16k" or "64k"
+     * @return the page size in bytes, or 0 if s is not a page size
+     */
+    static int parsePageSize(String s) {
+    	if (s.equals("4k") || s.equals("8k") || s.equals("16k") || s.equals("64k")) {
+    		return Integer.parseInt(s.substring(0, s.length() - 1)) * 1024;
+    	}
+    	return 0;
+    } // end parsePageSize(String)
+    
 } // end Catalog
 
@@ -0,0 +1,438 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is a column-oriented DbFile: each field of the TupleDesc is
+ * stored in its own file of {@link ColumnPage}s, next to the file the table
+ * is named after (column i of table.dat lives in table.dat.i). A scan that
+ * needs only some of the columns reads only their pages, see
+ * {@link #iterator(TransactionId, int[])} and {@link ColumnScan}.
+ * <p/>
+ * Rows are numbered from 0. Row r is stored in slot r % n of page r / n of
+ * every column, where n is the number of values of that column's type per
+ * page; a row is live if its slot is in use. Rows are inserted into the
+ * first free row, so deletes leave holes that later inserts fill. A
+ * RecordId holds the row number, and the first page of column 0 holding
+ * the row.
+ *
+ * @see ColumnPage
+ * @see ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+	/** File the table is named after; column files are next to it. */
+	private File baseFile;
+
+	/** Description of tuples stored in this table. */
+	private TupleDesc td;
+
+	/** Held while pages are appended to the column files. */
+	private final Object lengthLatch = new Object();
+
+
+	/**
+	 * Constructs a column file for the table named after f.
+	 *
+	 * @param f the file the table is named after
+	 * @param td the description of the tuples in this table
+	 */
+	public ColumnFile(File f, TupleDesc td) {
+		this.baseFile = f;
+		this.td = td;
+	} // end ColumnFile(File, TupleDesc)
+
+
+	/**
+	 * @return the file the table is named after
+	 */
+	public File getFile() {
+		return baseFile;
+	} // end getFile()
+
+
+	/**
+	 * @return the file storing column i
+	 */
+	public File getColumnFile(int i) {
+		return new File(baseFile.getPath() + "." + i);
+	} // end getColumnFile(int)
+
+
+	/**
+	 * @see DbFile#getId()
+	 */
+	public int getId() {
+		return baseFile.getAbsoluteFile().hashCode();
+	} // end getId()
+
+
+	/**
+	 * @see DbFile#getTupleDesc()
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	} // end getTupleDesc()
+
+
+	/**
+	 * @return the number of rows a page of column i holds
+	 */
+	private int rowsPerPage(int i) {
+		return ColumnPage.slotsPerPage(td.getFieldType(i));
+	} // end rowsPerPage(int)
+
+
+	/**
+	 * @return the number of pages of column i
+	 */
+	public int numPages(int i) {
+		return (int) (getColumnFile(i).length() / BufferPool.getPageSize());
+	} // end numPages(int)
+
+
+	/**
+	 * Returns the number of pages of all columns together.
+	 */
+	public int numPages() {
+		int n = 0;
+		for (int i = 0; i < td.numFields(); i++) {
+			n += numPages(i);
+		}
+		return n;
+	} // end numPages()
+
+
+	/**
+	 * @see DbFile#readPage(PageId)
+	 */
+	public Page readPage(PageId pid) {
+		return readPages(pid, 1).get(0);
+	} // end readPage(PageId)
+
+
+	/**
+	 * Reads count consecutive pages of the column of first.
+	 *
+	 * @see DbFile#readPages(PageId, int)
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		ColumnPageId cpid = (ColumnPageId) first;
+		int col = cpid.getColumn();
+		int ps = BufferPool.getPageSize();
+		if (count < 1 || cpid.pageNumber() < 0
+				|| cpid.pageNumber() + count > numPages(col)) {
+			throw new IllegalArgumentException("page(s) not in file");
+		}
+
+		ArrayList<Page> rv = new ArrayList<Page>(count);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(getColumnFile(col), "r");
+			try {
+				byte[] data = new byte[ps * count];
+				raf.seek((long) cpid.pageNumber() * ps);
+				raf.readFully(data);
+				for (int i = 0; i < count; i++) {
+					rv.add(new ColumnPage(new ColumnPageId(getId(), col,
+							cpid.pageNumber() + i),
+							Arrays.copyOfRange(data, i * ps, (i + 1) * ps)));
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("error when reading file");
+		}
+		return rv;
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * @see DbFile#writePage(Page)
+	 */
+	public void writePage(Page page) throws IOException {
+		ColumnPageId cpid = (ColumnPageId) page.getId();
+		RandomAccessFile raf = new RandomAccessFile(
+				getColumnFile(cpid.getColumn()), "rw");
+		raf.seek((long) cpid.pageNumber() * BufferPool.getPageSize());
+		raf.write(page.getPageData());
+		raf.close();
+	} // end writePage(Page)
+
+
+	/**
+	 * Stores t in the first free row, appending pages to the columns that
+	 * need them.
+	 *
+	 * @see DbFile#insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!td.equals(t.getTupleDesc())) {
+			throw new DbException("TupleDesc mismatch");
+		}
+		BufferPool bp = Database.getBufferPool();
+
+		// find a free row in column 0, checking with a read lock first;
+		// the row is claimed under the write lock
+		int row = -1;
+		for (int pgNo = 0; pgNo < numPages(0) && row < 0; pgNo++) {
+			ColumnPageId pid = new ColumnPageId(getId(), 0, pgNo);
+			ColumnPage page = (ColumnPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+			if (page.firstEmptySlot() >= 0) {
+				page = (ColumnPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+				int slot = page.firstEmptySlot();
+				if (slot >= 0) row = pgNo * rowsPerPage(0) + slot;
+			} else if (bp.holdsLock(tid, pid) && page.isDirty() == null) {
+				bp.releasePage(tid, pid);
+			}
+		}
+		// none free: append a page to column 0 and claim a row on it
+		// under its write lock, which other inserters then wait for
+		while (row < 0) {
+			ColumnPage page;
+			synchronized (lengthLatch) {
+				int pgNo = numPages(0);
+				appendEmptyPage(0);
+				page = (ColumnPage) bp.getPage(tid,
+						new ColumnPageId(getId(), 0, pgNo), Permissions.READ_WRITE);
+			}
+			int slot = page.firstEmptySlot();
+			if (slot >= 0) row = page.getId().pageNumber() * rowsPerPage(0) + slot;
+		}
+
+		// store each field on its column's page, appending pages as needed
+		ArrayList<Page> rv = new ArrayList<Page>();
+		for (int i = 0; i < td.numFields(); i++) {
+			int pgNo = row / rowsPerPage(i);
+			synchronized (lengthLatch) {
+				while (numPages(i) <= pgNo) {
+					appendEmptyPage(i);
+				}
+			}
+			ColumnPage page = (ColumnPage) bp.getPage(tid,
+					new ColumnPageId(getId(), i, pgNo), Permissions.READ_WRITE);
+			page.setValue(row % rowsPerPage(i), t.getField(i));
+			rv.add(page);
+		}
+
+		t.setRecordId(recordId(row));
+		return rv;
+	} // end insertTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Appends an empty page to the file of column i.
+	 */
+	private void appendEmptyPage(int i) throws IOException {
+		FileOutputStream out = new FileOutputStream(getColumnFile(i), true);
+		out.write(ColumnPage.createEmptyPageData());
+		out.close();
+	} // end appendEmptyPage(int)
+
+
+	/**
+	 * @return the RecordId of row
+	 */
+	private RecordId recordId(int row) {
+		return new RecordId(new ColumnPageId(getId(), 0, row / rowsPerPage(0)), row);
+	} // end recordId(int)
+
+
+	/**
+	 * Marks the row of t free in every column.
+	 *
+	 * @see DbFile#deleteTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || rid.getPageId().getTableId() != getId()) {
+			throw new DbException("tuple not member of file");
+		}
+
+		int row = rid.tupleno();
+		ArrayList<Page> rv = new ArrayList<Page>();
+		for (int i = 0; i < td.numFields(); i++) {
+			int pgNo = row / rowsPerPage(i);
+			if (pgNo >= numPages(i)) {
+				throw new DbException("tuple slot already empty");
+			}
+			ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+					new ColumnPageId(getId(), i, pgNo), Permissions.READ_WRITE);
+			int slot = row % rowsPerPage(i);
+			if (!page.isSlotUsed(slot)) {
+				throw new DbException("tuple slot already empty");
+			}
+			page.clearValue(slot);
+			rv.add(page);
+		}
+		return rv;
+	} // end deleteTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Returns an iterator over all columns of all rows.
+	 *
+	 * @see DbFile#iterator(TransactionId)
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		int[] all = new int[td.numFields()];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		return iterator(tid, all);
+	} // end iterator(TransactionId)
+
+
+	/**
+	 * Returns an iterator over some columns of all rows; only the pages of
+	 * those columns are read. The returned tuples hold the given columns, in
+	 * the given order, and are described by {@link #getTupleDesc(int[])}.
+	 *
+	 * @param tid the transaction the scan is part of
+	 * @param columns the indexes of the columns to read; must not be empty
+	 * @return an iterator over the rows of the table
+	 */
+	public DbFileIterator iterator(TransactionId tid, int[] columns) {
+		if (columns.length == 0) {
+			throw new IllegalArgumentException("no columns to scan");
+		}
+		return new ColumnFileIterator(tid, columns);
+	} // end iterator(TransactionId, int[])
+
+
+	/**
+	 * @return the description of tuples holding the given columns
+	 */
+	public TupleDesc getTupleDesc(int[] columns) {
+		if (columns.length == td.numFields()) {
+			boolean identity = true;
+			for (int i = 0; i < columns.length; i++) {
+				identity &= columns[i] == i;
+			}
+			if (identity) return td;
+		}
+
+		Type[] types = new Type[columns.length];
+		String[] names = new String[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			types[i] = td.getFieldType(columns[i]);
+			names[i] = td.getFieldName(columns[i]);
+		}
+		return new TupleDesc(types, names);
+	} // end getTupleDesc(int[])
+
+
+	/**
+	 * Iterates over the rows of the file in row order, reading the pages
+	 * of the projected columns only.
+	 */
+	private class ColumnFileIterator implements DbFileIterator {
+
+		private TransactionId tid;
+
+		/** Columns to read, in output order. */
+		private int[] columns;
+
+		/** Description of the returned tuples. */
+		private TupleDesc outTd;
+
+		/** Current page of each projected column. */
+		private ColumnPage[] pages;
+
+		/** Next row to look at; -1 if not opened. */
+		private int row = -1;
+
+		/** Number of rows the projected columns have room for. */
+		private int numRows;
+
+		/** Next tuple to return, if already found. */
+		private Tuple next;
+
+
+		private ColumnFileIterator(TransactionId tid, int[] columns) {
+			this.tid = tid;
+			this.columns = columns;
+			this.outTd = getTupleDesc(columns);
+		}
+
+
+		public void open() throws DbException, TransactionAbortedException {
+			pages = new ColumnPage[columns.length];
+			row = 0;
+
+			// every column has pages for every live row
+			numRows = Integer.MAX_VALUE;
+			for (int col : columns) {
+				numRows = Math.min(numRows, numPages(col) * rowsPerPage(col));
+			}
+			next = null;
+		} // end open()
+
+
+		/**
+		 * Makes sure pages[k] holds row, fetching the column's next page
+		 * (and reading ahead) when the row is past the current one.
+		 */
+		private ColumnPage pageFor(int k, int row)
+				throws DbException, TransactionAbortedException {
+			int col = columns[k];
+			int pgNo = row / rowsPerPage(col);
+			if (pages[k] == null || pages[k].getId().pageNumber() != pgNo) {
+				BufferPool bp = Database.getBufferPool();
+				ColumnPageId pid = new ColumnPageId(getId(), col, pgNo);
+				if (pgNo % BufferPool.READ_AHEAD_PAGES == 0) {
+					bp.readAhead(pid, Math.min(BufferPool.READ_AHEAD_PAGES,
+											   numPages(col) - pgNo));
+				}
+				pages[k] = (ColumnPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+			}
+			return pages[k];
+		} // end pageFor(int, int)
+
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (row < 0) return false;
+			while (next == null && row < numRows) {
+				int r = row++;
+
+				// the first projected column tells whether the row is live
+				if (!pageFor(0, r).isSlotUsed(r % rowsPerPage(columns[0]))) continue;
+
+				Tuple t = new Tuple(outTd);
+				for (int k = 0; k < columns.length; k++) {
+					t.setField(k, pageFor(k, r).getValue(r % rowsPerPage(columns[k])));
+				}
+				t.setRecordId(recordId(r));
+				next = t;
+			}
+			return next != null;
+		} // end hasNext()
+
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext()) throw new NoSuchElementException("no more tuples");
+			Tuple rv = next;
+			next = null;
+			return rv;
+		} // end next()
+
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		} // end rewind()
+
+
+		public void close() {
+			pages = null;
+			row = -1;
+			next = null;
+		} // end close()
+
+	} // end ColumnFileIterator
+
+} // end ColumnFile
@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * ColumnPage stores the values of one column for a run of consecutive rows
+ * of a {@link ColumnFile}. The format mirrors {@link HeapPage}: a header
+ * bitmap marking the slots in use, followed by fixed-size slots that each
+ * hold one field. The number of slots is
+ * floor((page size * 8) / (field size * 8 + 1)).
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+	final ColumnPageId pid;
+	final Type type;
+	final byte[] header;
+	final Field[] values;
+	final int numSlots;
+
+	/**
+	 * The before-image, taken on the first change after setBeforeImage;
+	 * null while the page is unchanged.
+	 */
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	private TransactionId lastTrnsctnToDirty;
+
+
+	/**
+	 * Creates a ColumnPage from a set of bytes of data read from disk.
+	 *
+	 * @param id the id of this page
+	 * @param data the contents of the page
+	 */
+	public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.type = Database.getCatalog().getTupleDesc(id.getTableId())
+				.getFieldType(id.getColumn());
+		this.numSlots = slotsPerPage(type);
+		this.lastTrnsctnToDirty = null;
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		header = new byte[(int) Math.ceil(numSlots / 8.0)];
+		dis.readFully(header);
+
+		values = new Field[numSlots];
+		try {
+			for (int i = 0; i < numSlots; i++) {
+				if (isSlotUsed(i)) {
+					values[i] = type.parse(dis);
+				} else {
+					dis.skipBytes(type.getLen());
+				}
+			}
+		} catch (java.text.ParseException e) {
+			throw new IOException("parsing error!");
+		}
+		dis.close();
+	} // end ColumnPage(ColumnPageId, byte[])
+
+
+	/**
+	 * @return the number of values of the given type that fit on a page
+	 */
+	public static int slotsPerPage(Type type) {
+		return (BufferPool.getPageSize() * 8) / (type.getLen() * 8 + 1);
+	} // end slotsPerPage(Type)
+
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public ColumnPage getBeforeImage() {
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData != null ? oldData : getPageData();
+			}
+			return new ColumnPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	} // end getBeforeImage()
+
+
+	/**
+	 * Takes the current contents as the before-image, by dropping the saved
+	 * one.
+	 */
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = null;
+		}
+	} // end setBeforeImage()
+
+
+	/**
+	 * Saves the contents of the page for the before-image, unless they have
+	 * been saved since the before-image was last set. Called before the
+	 * page is changed.
+	 */
+	private void saveBeforeImage() {
+		synchronized (oldDataLock) {
+			if (oldData == null) oldData = getPageData();
+		}
+	} // end saveBeforeImage()
+
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public ColumnPageId getId() {
+		return pid;
+	} // end getId()
+
+
+	/**
+	 * Generates a byte array representing the contents of this page, which
+	 * the ColumnPage constructor turns back into an identical page.
+	 */
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.write(header);
+			byte[] empty = new byte[type.getLen()];
+			for (int i = 0; i < numSlots; i++) {
+				if (isSlotUsed(i)) {
+					values[i].serialize(dos);
+				} else {
+					dos.write(empty);
+				}
+			}
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	} // end getPageData()
+
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * ColumnPage.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];	// all 0
+	} // end createEmptyPageData()
+
+
+	/**
+	 * @return the value in slot i, or null if the slot is empty
+	 */
+	public Field getValue(int i) {
+		return isSlotUsed(i) ? values[i] : null;
+	} // end getValue(int)
+
+
+	/**
+	 * Stores a value in slot i and marks the slot used.
+	 *
+	 * @throws DbException if slot i is already used
+	 */
+	public void setValue(int i, Field f) throws DbException {
+		if (isSlotUsed(i)) {
+			throw new DbException("slot " + i + " already used");
+		}
+		saveBeforeImage();
+		values[i] = f;
+		header[i / 8] |= (byte) (1 << (i % 8));
+	} // end setValue(int, Field)
+
+
+	/**
+	 * Marks slot i empty.
+	 */
+	public void clearValue(int i) {
+		saveBeforeImage();
+		values[i] = null;
+		header[i / 8] &= (byte) ~(1 << (i % 8));
+	} // end clearValue(int)
+
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		if (i < 0 || i >= numSlots) return false;
+		return ((header[i / 8] >>> (i % 8)) & 1) == 1;
+	} // end isSlotUsed(int)
+
+
+	/**
+	 * @return the first empty slot on this page, or -1 if the page is full
+	 */
+	public int firstEmptySlot() {
+		for (int i = 0; i < numSlots; i++) {
+			if (!isSlotUsed(i)) return i;
+		}
+		return -1;
+	} // end firstEmptySlot()
+
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		lastTrnsctnToDirty = dirty ? tid : null;
+	} // end markDirty(boolean, TransactionId)
+
+
+	public TransactionId isDirty() {
+		return lastTrnsctnToDirty;
+	} // end isDirty()
+
+} // end ColumnPage
@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * Unique identifier for ColumnPage objects: a page of one column of a
+ * {@link ColumnFile}.
+ */
+public class ColumnPageId implements PageId {
+
+	private int tableId;
+
+	private int column;
+
+	private int pgNo;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableId the table the page belongs to
+	 * @param column the index of the column the page stores
+	 * @param pgNo the number of the page within the column
+	 */
+	public ColumnPageId(int tableId, int column, int pgNo) {
+		this.tableId = tableId;
+		this.column = column;
+		this.pgNo = pgNo;
+	}
+
+
+	public int getTableId() {
+		return tableId;
+	}
+
+
+	/**
+	 * @return the index of the column the page stores
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+
+	public int pageNumber() {
+		return pgNo;
+	}
+
+
+	public int hashCode() {
+		return (tableId * 31 + column) * 31 + pgNo;
+	}
+
+
+	public boolean equals(Object o) {
+		if (!(o instanceof ColumnPageId)) {
+			return false;
+		}
+
+		ColumnPageId other = (ColumnPageId) o;
+		return other.tableId == tableId && other.column == column
+				&& other.pgNo == pgNo;
+	}
+
+
+	/**
+	 * @return the table id, column and page number, in the order the
+	 * constructor takes them
+	 */
+	public int[] serialize() {
+		return new int[] {tableId, column, pgNo};
+	}
+
+}
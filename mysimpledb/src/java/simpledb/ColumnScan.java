@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan of a {@link ColumnFile} that reads only
+ * some of its columns. Its tuples hold just those columns, named like the
+ * fields of a {@link SeqScan} (tableAlias.fieldName), so operators that look
+ * fields up by name work on either scan.
+ */
+public class ColumnScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private int tableid;
+    private String alias;
+    private ColumnFile file;
+    private int[] columns;
+    private DbFileIterator it;
+
+    /**
+     * Creates a scan over some columns of a column-stored table.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a ColumnFile.
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     * @param columns    the indexes of the columns to read, in output order;
+     *                   must not be empty
+     */
+    public ColumnScan(TransactionId tid, int tableid, String tableAlias,
+                      int[] columns) {
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.columns = columns;
+        this.file = (ColumnFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.it = file.iterator(tid, columns);
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the indexes of the columns this operator reads
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the scanned columns, with field names
+     * prefixed by the table alias.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = file.getTupleDesc();
+        Type[] typeAr = new Type[columns.length];
+        String[] fieldAr = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            typeAr[i] = td.getFieldType(columns[i]);
+            fieldAr[i] = alias + "." + td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        it.rewind();
+    }
+}
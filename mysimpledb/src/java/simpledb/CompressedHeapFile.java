@@ -0,0 +1,286 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are compressed on disk with
+ * a {@link PageCodec}. Pages are decompressed by readPage into ordinary
+ * {@link HeapPage}s, so the buffer pool and all operators work with them
+ * unchanged, and compressed again by writePage.
+ * <p/>
+ * Compressed pages vary in size, so they cannot be updated in place. The
+ * file is a log of page records instead:
+ * <pre>
+ *   int  page number
+ *   int  length of the encoded page
+ *   byte[] the encoded page
+ * </pre>
+ * writePage appends a new record for the page, and the latest record of a
+ * page wins. The page directory (page number to record position) is
+ * rebuilt by reading the record headers when the file is first used, and
+ * the file is rewritten without stale records once they take up more than
+ * half of it.
+ *
+ * @see PageCodec
+ */
+public class CompressedHeapFile extends HeapFile {
+
+	/** Bytes of a record header. */
+	private static final int RECORD_HEADER = 8;
+
+	/** Files smaller than this are never rewritten to reclaim space. */
+	private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+	/** Encodes and decodes pages. */
+	private PageCodec codec;
+
+	/** File offset of the latest record of each page; null until loaded. */
+	private ArrayList<Long> offsets;
+
+	/** Encoded length of the latest record of each page. */
+	private ArrayList<Integer> lengths;
+
+	/** Bytes of the file taken by the latest records of all pages. */
+	private long liveBytes;
+
+
+	/**
+	 * Constructs a compressed heap file backed by the specified file.
+	 *
+	 * @param f the file that stores the compressed pages
+	 * @param td the description of the tuples in this file
+	 */
+	public CompressedHeapFile(File f, TupleDesc td) {
+		super(f, td);
+	} // end CompressedHeapFile(File, TupleDesc)
+
+
+	/**
+	 * Writes a heap file's pages to a new compressed file, and returns it.
+	 * The new file is not added to the catalog.
+	 *
+	 * @param heapFile an uncompressed heap file
+	 * @param out the compressed file to create (overwritten if it exists)
+	 * @param td the description of the tuples in heapFile
+	 * @return the compressed file
+	 * @throws IOException if heapFile can't be read or out written
+	 */
+	public static CompressedHeapFile compress(File heapFile, File out,
+											  TupleDesc td) throws IOException {
+		int ps = BufferPool.getPageSize();
+		PageCodec codec = new PageCodec(td, ps);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(heapFile)));
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(out)));
+		try {
+			long numPages = heapFile.length() / ps;
+			byte[] page = new byte[ps];
+			for (int pgNo = 0; pgNo < numPages; pgNo++) {
+				in.readFully(page);
+				byte[] enc = codec.encode(page);
+				dos.writeInt(pgNo);
+				dos.writeInt(enc.length);
+				dos.write(enc);
+			}
+		} finally {
+			in.close();
+			dos.close();
+		}
+		return new CompressedHeapFile(out, td);
+	} // end compress(File, File, TupleDesc)
+
+
+	/**
+	 * Builds the page directory from the record headers, if not done yet.
+	 */
+	private void loadDirectory() {
+		if (offsets != null) return;
+
+		codec = new PageCodec(getTupleDesc(), BufferPool.getPageSize());
+		offsets = new ArrayList<Long>();
+		lengths = new ArrayList<Integer>();
+		liveBytes = 0;
+		if (!getFile().exists()) return;
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+			try {
+				long pos = 0;
+				long end = raf.length();
+				while (pos + RECORD_HEADER <= end) {
+					raf.seek(pos);
+					int pgNo = raf.readInt();
+					int len = raf.readInt();
+					if (pos + RECORD_HEADER + len > end) break;	// torn write
+					setRecord(pgNo, pos, len);
+					pos += RECORD_HEADER + len;
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("error when reading file");
+		}
+	} // end loadDirectory()
+
+
+	/**
+	 * Points the directory entry of page pgNo at a new record.
+	 */
+	private void setRecord(int pgNo, long offset, int len) {
+		while (offsets.size() <= pgNo) {
+			offsets.add(null);
+			lengths.add(0);
+		}
+		if (offsets.get(pgNo) != null) {
+			liveBytes -= RECORD_HEADER + lengths.get(pgNo);
+		}
+		offsets.set(pgNo, offset);
+		lengths.set(pgNo, len);
+		liveBytes += RECORD_HEADER + len;
+	} // end setRecord(int, long, int)
+
+
+	/**
+	 * @see DbFile#readPage(PageId)
+	 */
+	public Page readPage(PageId pid) {
+		return readPages(pid, 1).get(0);
+	} // end readPage(PageId)
+
+
+	/**
+	 * Reads and decompresses count consecutive pages.
+	 *
+	 * @see DbFile#readPages(PageId, int)
+	 */
+	public synchronized ArrayList<Page> readPages(PageId first, int count) {
+		loadDirectory();
+		int firstPgNo = first.pageNumber();
+		if (count < 1 || firstPgNo < 0 || firstPgNo + count > numPages()) {
+			throw new IllegalArgumentException("page(s) not in file");
+		}
+
+		ArrayList<Page> rv = new ArrayList<Page>(count);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(getFile(), "r");
+			try {
+				for (int pgNo = firstPgNo; pgNo < firstPgNo + count; pgNo++) {
+					byte[] data;
+					if (offsets.get(pgNo) == null) {
+						data = HeapPage.createEmptyPageData();	// never written
+					} else {
+						byte[] enc = new byte[lengths.get(pgNo)];
+						raf.seek(offsets.get(pgNo) + RECORD_HEADER);
+						raf.readFully(enc);
+						data = codec.decode(enc);
+					}
+					rv.add(new HeapPage(new HeapPageId(getId(), pgNo), data));
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("error when reading file");
+		}
+		return rv;
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * Compresses a page and appends it to the file as the page's latest
+	 * record.
+	 *
+	 * @see DbFile#writePage(Page)
+	 */
+	public synchronized void writePage(Page page) throws IOException {
+		loadDirectory();
+		getZoneMap().forget(page.getId().pageNumber());
+		byte[] enc = codec.encode(page.getPageData());
+
+		RandomAccessFile raf = new RandomAccessFile(getFile(), "rw");
+		long pos;
+		try {
+			pos = raf.length();
+			raf.seek(pos);
+			raf.writeInt(page.getId().pageNumber());
+			raf.writeInt(enc.length);
+			raf.write(enc);
+		} finally {
+			raf.close();
+		}
+		setRecord(page.getId().pageNumber(), pos, enc.length);
+
+		long size = getFile().length();
+		if (size > MIN_COMPACT_SIZE && size > 2 * liveBytes) {
+			rewrite(numPages());
+		}
+		pageWritten(page);
+	} // end writePage(Page)
+
+
+	/**
+	 * Returns the number of pages in this file.
+	 */
+	public synchronized int numPages() {
+		loadDirectory();
+		return offsets.size();
+	} // end numPages()
+
+
+	/**
+	 * Drops the pages from numPages on.
+	 */
+	protected synchronized void truncatePages(int numPages) throws IOException {
+		loadDirectory();
+		rewrite(numPages);
+	} // end truncatePages(int)
+
+
+	/**
+	 * Rewrites the file with only the latest records of its first numPages
+	 * pages, and swaps it in for the old file.
+	 */
+	private void rewrite(int numPages) throws IOException {
+		File tmp = new File(getFile().getPath() + ".tmp");
+		RandomAccessFile in = new RandomAccessFile(getFile(), "r");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		ArrayList<Long> newOffsets = new ArrayList<Long>();
+		long pos = 0;
+		try {
+			for (int pgNo = 0; pgNo < Math.min(numPages, offsets.size()); pgNo++) {
+				if (offsets.get(pgNo) == null) {
+					newOffsets.add(null);
+					continue;
+				}
+				byte[] enc = new byte[lengths.get(pgNo)];
+				in.seek(offsets.get(pgNo) + RECORD_HEADER);
+				in.readFully(enc);
+				out.writeInt(pgNo);
+				out.writeInt(enc.length);
+				out.write(enc);
+				newOffsets.add(pos);
+				pos += RECORD_HEADER + enc.length;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+
+		if (!tmp.renameTo(getFile())) {
+			// rename over an existing file fails on some platforms
+			if (!getFile().delete() || !tmp.renameTo(getFile())) {
+				throw new IOException("could not replace " + getFile());
+			}
+		}
+		offsets = newOffsets;
+		while (lengths.size() > offsets.size()) {
+			lengths.remove(lengths.size() - 1);
+		}
+		liveBytes = pos;
+	} // end rewrite(int)
+
+} // end CompressedHeapFile
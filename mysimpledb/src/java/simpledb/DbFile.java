@@ -19,6 +19,24 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read count consecutive pages from disk, starting at the specified page,
+     * with as few I/O calls as possible. Used by the buffer pool for scans
+     * and read-ahead.
+     *
+     * @param first the id of the first page to read
+     * @param count the number of consecutive pages to read
+     * @return the pages read, in page number order
+     * @throws IllegalArgumentException if any of the pages do not exist in
+     *                                  this file.
+     */
+    public ArrayList<Page> readPages(PageId first, int count);
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+
     /**
      * Push the specified page to disk.
      *
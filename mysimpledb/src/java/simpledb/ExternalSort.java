@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child in ascending order of one
+ * field, like an ascending {@link OrderBy}, without holding more tuples in
+ * memory than fit in its memory budget (see {@link #setMemoryBudget}).
+ * <p/>
+ * When opened it reads the child a memory-full at a time, sorts each
+ * memory-full and writes it to a {@link SpillFile} as a sorted run, and
+ * then merges the runs, {@link #MERGE_FANIN} at a time, until one run is
+ * left. If the whole child fits in memory, it is sorted there and nothing
+ * is written; if the child is already in order (see {@link #isSorted}), it
+ * is not sorted again. Once sorted, the tuples can be read again from any
+ * position with {@link #seek}, and {@link #rewind} does not sort again.
+ */
+public class ExternalSort implements DbIterator {
+
+	/** Serialization. */
+	private static final long serialVersionUID = 1L;
+	
+	/** The number of runs merged at once. */
+	public static final int MERGE_FANIN = 64;
+	
+	/** The tuples to sort. */
+	private final DbIterator child;
+	
+	/** The field the tuples are sorted by. */
+	private final int field;
+	
+	/** The number of bytes of tuples the sort holds in memory. */
+	private long memoryBudget;
+	
+	/** The sorted tuples, when they fit in memory, and the next to return. */
+	private transient ArrayList<Tuple> sorted;
+	private transient int pos;
+	
+	/** The sorted tuples, when they did not fit in memory. */
+	private transient SpillFile file;
+	
+	
+    /**
+     * Creates a sort of the tuples of child by a field.
+     *
+     * @param field the field to sort by, in ascending order
+     * @param child the tuples to sort
+     */
+    public ExternalSort(int field, DbIterator child) {
+    	this.child = child;
+    	this.field = field;
+    	this.memoryBudget = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
+    } // end ExternalSort(int, DbIterator)
+
+    
+    /**
+     * @return the field the tuples are sorted by
+     */
+    public int getSortField() {
+        return field;
+    } // end getSortField()
+
+    
+    /**
+     * Sets the number of bytes of tuples the sort holds in memory; beyond
+     * it, the sort spills to disk.
+     */
+    public void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    } // end setMemoryBudget(long)
+
+    
+    /**
+     * Returns whether an iterator returns its tuples in ascending order of a
+     * field: an ascending {@link OrderBy} or an ExternalSort by the field,
+     * an {@link IndexScan} of a {@link BTreeFile} on the field, a
+     * {@link SortMergeJoin} on the field of its first child, or a
+     * {@link Filter} of any of these.
+     *
+     * @param it    the iterator
+     * @param field a field of the tuples of it
+     */
+    public static boolean isSorted(DbIterator it, int field) {
+    	if (it instanceof OrderBy) {
+    		OrderBy o = (OrderBy) it;
+    		return o.isASC() && o.getOrderByField() == field;
+    	} else if (it instanceof ExternalSort) {
+    		return ((ExternalSort) it).field == field;
+    	} else if (it instanceof IndexScan) {
+    		IndexFile index = ((IndexScan) it).getIndex();
+    		return index instanceof BTreeFile && index.getKeyField() == field;
+    	} else if (it instanceof SortMergeJoin) {
+    		return ((SortMergeJoin) it).getJoinPredicate().getField1() == field;
+    	} else if (it instanceof Filter) {
+    		return isSorted(((Filter) it).getChildren()[0], field);
+    	}
+    	return false;
+    } // end isSorted(DbIterator, int)
+
+    
+    public void open() throws DbException, TransactionAbortedException {
+    	close();
+    	child.open();
+    	long maxResident = Math.max(1, memoryBudget
+    			/ (child.getTupleDesc().getSize() + HashEquiJoin.TUPLE_OVERHEAD));
+    	boolean inOrder = isSorted(child, field);
+    	Comparator<Tuple> cmp = new TupleComparator(field, true);
+
+    	ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    	ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    	while (child.hasNext()) {
+    		if (tuples.size() >= maxResident) {
+    			if (inOrder) {
+    				// the tuples in memory and the rest of the child are one run
+    				SpillFile run = new SpillFile(child.getTupleDesc());
+    				for (Tuple t : tuples) {
+    					run.add(t);
+    				}
+    				tuples.clear();
+    				while (child.hasNext()) {
+    					run.add(child.next());
+    				}
+    				runs.add(run);
+    				break;
+    			}
+    			runs.add(writeRun(tuples, cmp));
+    		}
+    		tuples.add(child.next());
+    	}
+
+    	if (runs.isEmpty()) {
+    		if (!inOrder) {
+    			Collections.sort(tuples, cmp);
+    		}
+    		sorted = tuples;
+    		pos = 0;
+    		return;
+    	}
+    	if (!tuples.isEmpty()) {
+    		runs.add(writeRun(tuples, cmp));
+    	}
+    	while (runs.size() > 1) {
+    		ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+    		for (int i = 0; i < runs.size(); i += MERGE_FANIN) {
+    			merged.add(merge(runs.subList(i, Math.min(i + MERGE_FANIN, runs.size())), cmp));
+    		}
+    		runs = merged;
+    	}
+    	file = runs.get(0);
+    	file.open();
+    } // end open()
+
+    
+    /**
+     * Sorts the tuples, writes them to a new run and clears them.
+     */
+    private SpillFile writeRun(ArrayList<Tuple> tuples, Comparator<Tuple> cmp)
+            throws DbException {
+    	Collections.sort(tuples, cmp);
+    	SpillFile run = new SpillFile(child.getTupleDesc());
+    	for (Tuple t : tuples) {
+    		run.add(t);
+    	}
+    	tuples.clear();
+    	return run;
+    } // end writeRun(ArrayList<Tuple>, Comparator<Tuple>)
+
+    
+    /**
+     * Merges sorted runs into one and deletes them. Of equal tuples, those
+     * of earlier runs come first, so the sort is stable.
+     */
+    private SpillFile merge(List<SpillFile> runs, final Comparator<Tuple> cmp)
+            throws DbException {
+    	final Tuple[] heads = new Tuple[runs.size()];
+    	PriorityQueue<Integer> queue = new PriorityQueue<Integer>(runs.size(),
+    			new Comparator<Integer>() {
+    				public int compare(Integer a, Integer b) {
+    					int c = cmp.compare(heads[a], heads[b]);
+    					return (c != 0) ? c : a - b;
+    				}
+    			});
+    	for (int i = 0; i < runs.size(); i++) {
+    		runs.get(i).open();
+    		if (runs.get(i).hasNext()) {
+    			heads[i] = runs.get(i).next();
+    			queue.add(i);
+    		}
+    	}
+
+    	SpillFile out = new SpillFile(child.getTupleDesc());
+    	while (!queue.isEmpty()) {
+    		int i = queue.poll();
+    		out.add(heads[i]);
+    		if (runs.get(i).hasNext()) {
+    			heads[i] = runs.get(i).next();
+    			queue.add(i);
+    		}
+    	}
+    	for (SpillFile run : runs) {
+    		run.delete();
+    	}
+    	return out;
+    } // end merge(List<SpillFile>, Comparator<Tuple>)
+
+    
+    /**
+     * @return the number of tuples, once the iterator is open
+     */
+    public int size() {
+        return (sorted != null) ? sorted.size() : file.size();
+    } // end size()
+
+    
+    /**
+     * Continues reading the sorted tuples from the i-th one, counting from 0.
+     */
+    public void seek(int i) throws DbException {
+    	if (sorted != null) {
+    		pos = i;
+    	} else if (file != null) {
+    		file.seek(i);
+    	} else {
+    		throw new IllegalStateException("sort not opened");
+    	}
+    } // end seek(int)
+
+    
+    public boolean hasNext() {
+    	if (sorted != null) {
+    		return pos < sorted.size();
+    	} else if (file != null) {
+    		return file.hasNext();
+    	}
+    	throw new IllegalStateException("sort not opened");
+    } // end hasNext()
+
+    
+    public Tuple next() throws DbException {
+    	if (!hasNext()) {
+    		throw new NoSuchElementException();
+    	}
+    	return (sorted != null) ? sorted.get(pos++) : file.next();
+    } // end next()
+
+    
+    public void rewind() throws DbException {
+        seek(0);
+    } // end rewind()
+
+    
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    } // end getTupleDesc()
+
+    
+    public void close() {
+    	child.close();
+    	sorted = null;
+    	if (file != null) {
+    		file.delete();
+    		file = null;
+    	}
+    } // end close()
+} // end ExternalSort
@@ -13,6 +13,9 @@ public class Filter extends Operator {
     /** Predicate associated with this select. */
     private Predicate p;
     
+    /** The predicate compiled for the child's tuples, while open. */
+    private transient PredicateCompiler.TupleTest test;
+    
     /** Child iterator/previous operator in pipeline. */
     private DbIterator child;
     
@@ -59,6 +62,7 @@ public class Filter extends Operator {
      */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+    	test = PredicateCompiler.compile(p, child.getTupleDesc());
     	child.open();
     	super.open();
         opened = true;
@@ -90,6 +94,7 @@ public class Filter extends Operator {
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
      * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * The predicate is tested in its compiled form (see {@link PredicateCompiler}).
      *
      * @return The next tuple that passes the filter, or null if there are no
      * more tuples
@@ -104,7 +109,7 @@ public class Filter extends Operator {
         // get next tuple
         while (child.hasNext()) {
         	next = child.next();
-        	if (p.filter(next)) return next;	// filter tuple
+        	if (test.test(next)) return next;	// filter tuple
         }
         
         return null;
@@ -3,71 +3,450 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equi-join by hashing: when opened
+ * it reads one child, the build side, into a hash table on its join field,
+ * and then looks the join value of each tuple of the other child, the probe
+ * side, up in the table. The build side is the child with the smaller
+ * estimated cardinality (see {@link #setChildCardinalities}), or the second
+ * child when there are no estimates.
+ * <p/>
+ * INT join fields are hashed in an open-addressing table of ints, read with
+ * {@link Tuple#getInt}, so no IntFields are created or boxed; other fields
+ * are hashed as Fields.
+ * <p/>
+ * The join is a hybrid hash join: when the build side does not fit in its
+ * memory budget (see {@link #setMemoryBudget}), both sides are partitioned
+ * by a hash of the join value into {@link #FANOUT} partitions. Partitions
+ * of the build side are written to {@link SpillFile}s, largest first, until
+ * the rest fits in memory, and the tuples of the probe side whose partition
+ * was written out are written out as well. Once the probe side has been
+ * read, each pair of partitions on disk is joined by another hash join,
+ * with another hash function, which partitions it again if need be. A pair
+ * that cannot be split, or is still too large after {@link #MAX_LEVELS}
+ * levels, is joined a memory-full of build tuples at a time.
  */
 public class HashEquiJoin extends Operator {
 
+	/** Serialization. */
     private static final long serialVersionUID = 1L;
 
+    /** Predicate on which the 2 child is joined. */
+    private JoinPredicate p;
+
+    /** Children iterator of this join. */
+    private DbIterator[] children;
+
+    /** TupleDesc of the joined tuples. */
+    private TupleDesc td;
+
+    /** Estimated cardinalities of the children, or 0 if unknown. */
+    private int card1, card2;
+
+    /** Flag for whether the iterator is open. */
+    private boolean opened;
+
+    /** The default number of bytes of build tuples a join holds in memory. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    /** The number of partitions the sides are split into when they spill. */
+    public static final int FANOUT = 16;
+
+    /** The number of times a partition is split again at most. */
+    public static final int MAX_LEVELS = 4;
+
+    /** A guess at the bytes a tuple in memory takes besides its fields. */
+    static final int TUPLE_OVERHEAD = 64;
+
+    /** The number of bytes of build tuples this join holds in memory. */
+    private long memoryBudget;
+
+    /** How many times the tuples of this join have been partitioned. */
+    private int level;
+
+    /** Whether the first child is the build side, while open. */
+    private transient boolean buildLeft;
+
+    /** The tuples of the build side, and the next tuple with the same key. */
+    private transient Tuple[] build;
+    private transient int[] next;
+
+    /**
+     * For INT join fields: open-addressing table of the distinct build keys
+     * and, for each, its first build tuple + 1 (0 for a free slot).
+     */
+    private transient int[] intKeys, intHeads;
+
+    /** For other join fields: the first build tuple of each key. */
+    private transient HashMap<Field, Integer> fieldHeads;
+
+    /** The probe tuple being matched, and its next matching build tuple. */
+    private transient Tuple probe;
+    private transient int chain;
+
+    /**
+     * When the build side spilled: the partitions of each side on disk, null
+     * for those in memory; the number of build tuples; the join of the pair
+     * of partitions being joined; and the next partition to join.
+     */
+    private transient SpillFile[] buildSpills, probeSpills;
+    private transient int buildTotal;
+    private transient HashEquiJoin spilled;
+    private transient int nextPartition;
+
+    /**
+     * Whether the build side is joined a chunk at a time, and the first
+     * tuple of the next chunk, or null if the chunk in memory is the last.
+     */
+    private transient boolean chunked;
+    private transient Tuple pending;
+
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
      *
-     * @param p      The predicate to use to join the children
+     * @param p      The predicate to use to join the children; its operator
+     *               must be EQUALS and its fields of the same type
      * @param child1 Iterator for the left(outer) relation to join
      * @param child2 Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-    	throw new UnsupportedOperationException();
-        // some code goes here
-    }
+    	if (p.getOperator() != Predicate.Op.EQUALS) {
+    		throw new IllegalArgumentException("not an equi-join");
+    	} else if (child1.getTupleDesc().getFieldType(p.getField1())
+    			!= child2.getTupleDesc().getFieldType(p.getField2())) {
+    		throw new IllegalArgumentException("join fields of different types");
+    	}
+    	this.p = p;
+    	children = new DbIterator[] {child1, child2};
+    	td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    	card1 = card2 = 0;
+    	memoryBudget = DEFAULT_MEMORY_BUDGET;
+    	level = 0;
+    	opened = false;
+    } // end HashEquiJoin(JoinPredicate, DbIterator, DbIterator)
+
 
+    /**
+     * @return the predicate associated with this join
+     */
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
-    }
+        return p;
+    } // end getJoinPredicate()
 
-    public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
-    }
 
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     * name.
+     */
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
-    }
+    	return children[0].getTupleDesc().getFieldName(p.getField1());
+    } // end getJoinField1Name()
+
 
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     * name.
+     */
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
-    }
+    	return children[1].getTupleDesc().getFieldName(p.getField2());
+    } // end getJoinField2Name()
+
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    } // end getTupleDesc()
+
+
+    /**
+     * Sets the estimated cardinalities of the children, from which the
+     * build side is chosen when the join is next opened.
+     *
+     * @param card1 the estimated number of tuples of the first child, or 0
+     *              if unknown
+     * @param card2 the estimated number of tuples of the second child, or 0
+     *              if unknown
+     */
+    public void setChildCardinalities(int card1, int card2) {
+    	this.card1 = card1;
+    	this.card2 = card2;
+    } // end setChildCardinalities(int, int)
+
+
+    /**
+     * Sets the number of bytes of build tuples the join holds in memory;
+     * beyond it, the join spills to disk.
+     */
+    public void setMemoryBudget(long bytes) {
+    	memoryBudget = bytes;
+    } // end setMemoryBudget(long)
+
+
+    /**
+     * @return whether the first child is hashed rather than the second
+     */
+    boolean buildsLeft() {
+    	return card1 > 0 && card2 > 0 && card1 < card2;
+    } // end buildsLeft()
+
 
+    /**
+     * Opens the iterator and reads the build side into the hash table, or
+     * partitions it.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
-    }
+        super.open();
+        dropSpills();
+        children[0].open();
+        children[1].open();
+        buildLeft = buildsLeft();
+        build();
+        probe = null;
+        opened = true;
+    } // end open()
+
+
+    /**
+     * Deletes the partitions on disk and forgets the chunk to read next.
+     */
+    private void dropSpills() {
+    	if (spilled != null) {
+    		spilled.close();
+    		spilled = null;
+    	}
+    	if (buildSpills != null) {
+    		for (int i = 0; i < FANOUT; i++) {
+    			if (buildSpills[i] != null) buildSpills[i].delete();
+    			if (probeSpills[i] != null) probeSpills[i].delete();
+    		}
+    		buildSpills = probeSpills = null;
+    	}
+    	nextPartition = 0;
+    	chunked = false;
+    	pending = null;
+    } // end dropSpills()
+
+
+    /**
+     * Reads the build side, or its next chunk, into memory and chains its
+     * tuples by key; if it does not fit, partitions it.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+    	DbIterator child = children[buildLeft ? 0 : 1];
+    	long maxResident = Math.max(1, memoryBudget
+    			/ (child.getTupleDesc().getSize() + TUPLE_OVERHEAD));
+    	ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    	if (pending != null) {
+    		tuples.add(pending);
+    		pending = null;
+    	}
+    	while (child.hasNext()) {
+    		Tuple t = child.next();
+    		if (tuples.size() >= maxResident) {
+    			if (level >= MAX_LEVELS) {
+    				chunked = true;
+    				pending = t;
+    				break;
+    			}
+    			tuples = partition(tuples, t, maxResident);
+    			break;
+    		}
+    		tuples.add(t);
+    	}
+    	index(tuples);
+    } // end build()
+
+
+    /**
+     * Partitions the build side, of which the tuples read so far are given,
+     * and writes partitions to disk until the rest fits in memory.
+     *
+     * @return the build tuples left in memory
+     */
+    private ArrayList<Tuple> partition(ArrayList<Tuple> tuples, Tuple t, long maxResident)
+    		throws DbException, TransactionAbortedException {
+    	DbIterator child = children[buildLeft ? 0 : 1];
+    	int f = buildLeft ? p.getField1() : p.getField2();
+    	buildSpills = new SpillFile[FANOUT];
+    	probeSpills = new SpillFile[FANOUT];
+    	ArrayList<ArrayList<Tuple>> parts = new ArrayList<ArrayList<Tuple>>();
+    	for (int i = 0; i < FANOUT; i++) {
+    		parts.add(new ArrayList<Tuple>());
+    	}
+    	
+    	long resident = 0;
+    	buildTotal = 0;
+    	int k = 0;
+    	while (t != null) {
+    		buildTotal++;
+    		int part = partitionOf(t, f);
+    		if (buildSpills[part] != null) {
+    			buildSpills[part].add(t);
+    		} else {
+    			parts.get(part).add(t);
+    			if (++resident > maxResident) {
+    				resident -= spillLargest(parts, child.getTupleDesc());
+    			}
+    		}
+    		
+    		// the tuples read already, then the rest of the child
+    		if (k < tuples.size()) {
+    			t = tuples.set(k++, null);
+    		} else if (child.hasNext()) {
+    			t = child.next();
+    		} else {
+    			t = null;
+    		}
+    	}
+    	
+    	ArrayList<Tuple> rv = new ArrayList<Tuple>();
+    	for (ArrayList<Tuple> part : parts) {
+    		rv.addAll(part);
+    	}
+    	return rv;
+    } // end partition(ArrayList<Tuple>, Tuple, long)
+
+
+    /**
+     * Writes the largest partition of the build side in memory to disk.
+     *
+     * @return the number of tuples written
+     */
+    private int spillLargest(ArrayList<ArrayList<Tuple>> parts, TupleDesc td)
+    		throws DbException {
+    	int largest = 0;
+    	for (int i = 1; i < FANOUT; i++) {
+    		if (parts.get(i).size() > parts.get(largest).size()) {
+    			largest = i;
+    		}
+    	}
+    	ArrayList<Tuple> part = parts.get(largest);
+    	buildSpills[largest] = new SpillFile(td);
+    	for (Tuple t : part) {
+    		buildSpills[largest].add(t);
+    	}
+    	int rv = part.size();
+    	part.clear();
+    	return rv;
+    } // end spillLargest(ArrayList<ArrayList<Tuple>>, TupleDesc)
+
+
+    /**
+     * Returns the partition of a tuple by its join field f, with a hash
+     * function that depends on the level of the join.
+     */
+    private int partitionOf(Tuple t, int f) {
+    	int h = (t.getTupleDesc().getFieldType(f) == Type.INT_TYPE)
+    			? t.getInt(f) : t.getField(f).hashCode();
+    	h = IntHash.hash(h + (level + 1) * 0x61C88647);
+    	return (h >>> 8) % FANOUT;
+    } // end partitionOf(Tuple, int)
+
+
+    /**
+     * Chains the build tuples in memory by key.
+     */
+    private void index(ArrayList<Tuple> tuples) {
+    	int f = buildLeft ? p.getField1() : p.getField2();
+    	int n = tuples.size();
+    	build = tuples.toArray(new Tuple[n]);
+    	next = new int[n];
+
+    	// chain from the last tuple back, so that each chain is in order
+    	if (children[buildLeft ? 0 : 1].getTupleDesc().getFieldType(f) == Type.INT_TYPE) {
+    		int slots = Integer.highestOneBit(Math.max(n, 1) * 2 - 1) * 2;
+    		intKeys = new int[slots];
+    		intHeads = new int[slots];
+    		for (int r = n - 1; r >= 0; r--) {
+    			int i = intSlot(build[r].getInt(f));
+    			intKeys[i] = build[r].getInt(f);
+    			next[r] = intHeads[i] - 1;
+    			intHeads[i] = r + 1;
+    		}
+    		fieldHeads = null;
+    	} else {
+    		fieldHeads = new HashMap<Field, Integer>();
+    		for (int r = n - 1; r >= 0; r--) {
+    			Integer head = fieldHeads.put(build[r].getField(f), r);
+    			next[r] = (head == null) ? -1 : head;
+    		}
+    		intKeys = intHeads = null;
+    	}
+    } // end index(ArrayList<Tuple>)
+
+
+    /**
+     * Returns the slot of the INT table that holds key, or the free slot
+     * where it would go.
+     */
+    private int intSlot(int key) {
+    	int mask = intKeys.length - 1;
+    	int i = IntHash.hash(key) & mask;
+    	while (intHeads[i] != 0 && intKeys[i] != key) {
+    		i = (i + 1) & mask;
+    	}
+    	return i;
+    } // end intSlot(int)
+
+
+    /**
+     * Returns the first build tuple with the join value of a probe tuple,
+     * or -1 if there is none.
+     */
+    private int lookup(Tuple t) {
+    	int f = buildLeft ? p.getField2() : p.getField1();
+    	if (fieldHeads == null) {
+    		return intHeads[intSlot(t.getInt(f))] - 1;
+    	}
+    	Integer head = fieldHeads.get(t.getField(f));
+    	return (head == null) ? -1 : head;
+    } // end lookup(Tuple)
+
 
     public void close() {
-        // some code goes here
-    }
+        super.close();
+        children[0].close();
+        children[1].close();
+        dropSpills();
+        build = null;
+        next = null;
+        intKeys = intHeads = null;
+        fieldHeads = null;
+        probe = null;
+        opened = false;
+    } // end close()
+
 
+    /**
+     * Rewinds the iterator. If the whole build side is in memory, the hash
+     * table is kept and only the probe side is read again; otherwise both
+     * sides are.
+     *
+     * @throws DbException if iterator not opened.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
-    }
+        if (!opened) {
+        	throw new DbException("iterator not opened");
+        }
+        if (buildSpills == null && !chunked) {
+        	children[buildLeft ? 1 : 0].rewind();
+        } else {
+        	dropSpills();
+        	children[0].rewind();
+        	children[1].rewind();
+        	build();
+        }
+        probe = null;
+    } // end rewind()
 
-    transient Iterator<Tuple> listIt = null;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
-     * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
-     * <p/>
-     * Note that the tuples returned from this particular implementation of Join
-     * are simply the concatenation of joining tuples from the left and right
-     * relation. Therefore, there will be two copies of the join attribute in
-     * the results. (Removing such duplicate columns can be done with an
-     * additional projection operator if needed.)
+     * more tuples: the concatenation of a tuple of the first child and one
+     * of the second with the same join value, like those of {@link Join}.
+     * Therefore, there will be two copies of the join attribute in the
+     * results.
      * <p/>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
@@ -76,19 +455,90 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
-    }
+        if (!opened) throw new DbException("iterator not opened");
+
+        DbIterator probeChild = children[buildLeft ? 1 : 0];
+        int f = buildLeft ? p.getField2() : p.getField1();
+        while (true) {
+        	if (probe != null && chain >= 0) {
+        		Tuple t = build[chain];
+        		chain = next[chain];
+        		return buildLeft ? Tuple.join(td, t, probe) : Tuple.join(td, probe, t);
+        	}
+        	if (probeChild.hasNext()) {
+        		probe = probeChild.next();
+        		chain = -1;
+        		if (buildSpills != null) {
+        			int part = partitionOf(probe, f);
+        			if (buildSpills[part] != null) {
+        				// its matches are on disk: join it with them later
+        				if (probeSpills[part] == null) {
+        					probeSpills[part] = new SpillFile(probeChild.getTupleDesc());
+        				}
+        				probeSpills[part].add(probe);
+        				continue;
+        			}
+        		}
+        		chain = lookup(probe);
+        		continue;
+        	}
+        	probe = null;
+        	if (pending != null) {
+        		// join the next chunk of the build side with all of the probe side
+        		build();
+        		probeChild.rewind();
+        		continue;
+        	}
+        	return (buildSpills == null) ? null : fetchSpilled();
+        }
+    } // end fetchNext()
+
+
+    /**
+     * Returns the next tuple of the joins of the pairs of partitions on
+     * disk, or null if there are no more.
+     */
+    private Tuple fetchSpilled() throws TransactionAbortedException, DbException {
+    	while (true) {
+    		if (spilled != null) {
+    			if (spilled.hasNext()) {
+    				return spilled.next();
+    			}
+    			spilled.close();
+    			spilled = null;
+    			buildSpills[nextPartition - 1].delete();
+    			probeSpills[nextPartition - 1].delete();
+    		}
+    		if (nextPartition >= FANOUT) {
+    			return null;
+    		}
+    		int part = nextPartition++;
+    		if (buildSpills[part] == null || probeSpills[part] == null) {
+    			continue;
+    		}
+    		
+    		SpillFile b = buildSpills[part];
+    		SpillFile pr = probeSpills[part];
+    		spilled = buildLeft ? new HashEquiJoin(p, b, pr) : new HashEquiJoin(p, pr, b);
+    		spilled.memoryBudget = memoryBudget;
+    		// a partition that did not get smaller will not by splitting again
+    		spilled.level = (b.size() == buildTotal) ? MAX_LEVELS : level + 1;
+    		spilled.setChildCardinalities(buildLeft ? b.size() : pr.size(),
+    									  buildLeft ? pr.size() : b.size());
+    		spilled.open();
+    	}
+    } // end fetchSpilled()
+
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
-    }
+        return children;
+    } // end getChildren()
+
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
-    }
-
-}
+        this.children = children;
+        td = TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
+    } // end setChildren(DbIterator[])
+} // end HashEquiJoin
@@ -0,0 +1,740 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a linear hashing index on an INT_TYPE field of a heap
+ * table, for equality lookups. Its entries are (key, page number, slot)
+ * triples, like those of a {@link BTreeFile}, kept in buckets of one
+ * primary page and a chain of overflow pages.
+ * <p/>
+ * With level L and split pointer s, the index has 2^L + s buckets: a key
+ * with hash h is in bucket h mod 2^L, or h mod 2^(L+1) if that is below s.
+ * Whenever an insert has to chain an overflow page, bucket s is split:
+ * its entries are shared between it and the new bucket s + 2^L, and s moves
+ * on (to 0 again, with L one higher, once it reaches 2^L). The index thus
+ * grows one bucket at a time and a lookup reads a bucket's primary page,
+ * plus its few overflow pages, whatever its size.
+ * <p/>
+ * Buckets are numbered in generations: generation 0 is bucket 0 and
+ * generation g &gt; 0 is buckets 2^(g-1) to 2^g - 1, whose primary pages
+ * are reserved all at once at the end of the file when the generation's
+ * first bucket is created. The META page (page 0) holds the first page of
+ * each generation, so the primary page of any bucket is found without
+ * reading other pages, and overflow pages, which are appended to the file
+ * in between, never move. Overflow pages that splits empty are kept on a
+ * free list for reuse.
+ * <p/>
+ * All pages are read and modified through the buffer pool, so index
+ * updates are locked, logged and rolled back with the table updates of
+ * the same transaction. The index does not shrink when entries are
+ * deleted.
+ *
+ * @see IndexScan
+ */
+public class HashIndexFile implements IndexFile {
+
+	/** Fill factor of the buckets built by {@link #build()}. */
+	private static final double FILL_FACTOR = 0.75;
+
+	/** Underlying OS file. */
+	private File osFile;
+
+	/** The indexed table. */
+	private int tableId;
+
+	/** The indexed field of the table. */
+	private int keyField;
+
+	/** Description of the index entries. */
+	private TupleDesc td;
+
+	/** Whether the index matches the table on disk. */
+	private IndexStamp stamp;
+
+
+	/**
+	 * Constructs the index on one field of a table. The table must be in the
+	 * catalog and stored in a HeapFile; if f is empty, the index is empty
+	 * until {@link #build()} is called or entries are inserted.
+	 *
+	 * @param f the file that stores the index
+	 * @param tableId the indexed table
+	 * @param keyField the index of the indexed field, which must be an
+	 *                 INT_TYPE field
+	 */
+	public HashIndexFile(File f, int tableId, int keyField) {
+		if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+			throw new IllegalArgumentException("only heap tables can be indexed");
+		}
+		TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+		if (tableTd.getFieldType(keyField) != Type.INT_TYPE) {
+			throw new IllegalArgumentException("hash index keys must be INT_TYPE");
+		}
+		this.osFile = f;
+		this.tableId = tableId;
+		this.keyField = keyField;
+		this.td = new TupleDesc(
+				new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+				new String[] {tableTd.getFieldName(keyField), "page", "slot"});
+		this.stamp = new IndexStamp(f, tableId);
+	} // end HashIndexFile(File, int, int)
+
+
+	/**
+	 * @return the file backing this index on disk
+	 */
+	public File getFile() {
+		return osFile;
+	} // end getFile()
+
+
+	/**
+	 * @see DbFile#getId()
+	 */
+	public int getId() {
+		return osFile.getAbsoluteFile().hashCode();
+	} // end getId()
+
+
+	/**
+	 * Returns the TupleDesc of the index entries: the key, then the page
+	 * number and slot of the tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	} // end getTupleDesc()
+
+
+	/**
+	 * @see IndexFile#getTableId()
+	 */
+	public int getTableId() {
+		return tableId;
+	} // end getTableId()
+
+
+	/**
+	 * @see IndexFile#getKeyField()
+	 */
+	public int getKeyField() {
+		return keyField;
+	} // end getKeyField()
+
+
+	/**
+	 * A hash index only answers equality predicates.
+	 */
+	public boolean supports(Predicate.Op op) {
+		return op == Predicate.Op.EQUALS;
+	} // end supports(Predicate.Op)
+
+
+	/**
+	 * A lookup reads the META page and the primary page of a bucket.
+	 */
+	public int lookupPages() {
+		return 2;
+	} // end lookupPages()
+
+
+	/**
+	 * @see DbFile#readPage(PageId)
+	 */
+	public Page readPage(PageId pid) {
+		return readPages(pid, 1).get(0);
+	} // end readPage(PageId)
+
+
+	/**
+	 * @see DbFile#readPages(PageId, int)
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		int ps = BufferPool.getPageSize();
+		if (count < 1 || first.pageNumber() < 0
+				|| first.pageNumber() + count > numPages()) {
+			throw new IllegalArgumentException("page(s) not in file");
+		}
+
+		ArrayList<Page> rv = new ArrayList<Page>(count);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(osFile, "r");
+			try {
+				byte[] data = new byte[ps * count];
+				raf.seek((long) first.pageNumber() * ps);
+				raf.readFully(data);
+				for (int i = 0; i < count; i++) {
+					rv.add(new HashPage(new HashPageId(getId(),
+							first.pageNumber() + i),
+							Arrays.copyOfRange(data, i * ps, (i + 1) * ps)));
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("error when reading file");
+		}
+		return rv;
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * @see DbFile#writePage(Page)
+	 */
+	public void writePage(Page page) throws IOException {
+		stamp.invalidate();
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+		raf.write(page.getPageData());
+		raf.close();
+	} // end writePage(Page)
+
+
+	/**
+	 * Returns the number of pages in this index.
+	 */
+	public int numPages() {
+		return (int) (osFile.length() / BufferPool.getPageSize());
+	} // end numPages()
+
+
+	/**
+	 * @return whether the index is known to match its table, i.e., it was
+	 *         built or flushed after the table's file last changed
+	 */
+	public boolean isCurrent() {
+		return numPages() > 0 && stamp.matches();
+	} // end isCurrent()
+
+
+	/**
+	 * Records that the index matches its table as it is on disk; called
+	 * once the buffer pool has flushed all pages.
+	 */
+	public void markCurrent() throws IOException {
+		stamp.write();
+	} // end markCurrent()
+
+
+	/**
+	 * Mixes the bits of a key, so that the low bits used to pick a bucket
+	 * depend on all of them.
+	 */
+	static int hash(int key) {
+		int h = key;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	} // end hash(int)
+
+
+	/**
+	 * @return the generation of a bucket
+	 */
+	private static int generation(int bucket) {
+		return bucket == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(bucket);
+	} // end generation(int)
+
+
+	/**
+	 * @return the first bucket of a generation
+	 */
+	private static int firstBucket(int g) {
+		return g == 0 ? 0 : 1 << (g - 1);
+	} // end firstBucket(int)
+
+
+	/**
+	 * @return the bucket that holds the entries with the given key
+	 */
+	private static int bucketOf(HashPage meta, int key) {
+		int h = hash(key);
+		int b = h & ((1 << meta.getLevel()) - 1);
+		if (b < meta.getSplit()) {
+			b = h & ((1 << (meta.getLevel() + 1)) - 1);
+		}
+		return b;
+	} // end bucketOf(HashPage, int)
+
+
+	/**
+	 * @return the number of the primary page of a bucket
+	 */
+	private static int pageOf(HashPage meta, int bucket) {
+		int g = generation(bucket);
+		return meta.getGenerationStart(g) + bucket - firstBucket(g);
+	} // end pageOf(HashPage, int)
+
+
+	/**
+	 * Writes the META page and the empty bucket 0 if the file is empty.
+	 */
+	private synchronized void init() throws IOException {
+		if (numPages() > 0) return;
+		HashPage meta = new HashPage(new HashPageId(getId(), 0),
+				HashPage.createEmptyPageData());
+		meta.initMeta(1);
+		writePage(meta);
+		HashPage bucket = new HashPage(new HashPageId(getId(), 1),
+				HashPage.createEmptyPageData());
+		bucket.initBucket(-1);
+		writePage(bucket);
+	} // end init()
+
+
+	/**
+	 * Appends FREE pages to the file.
+	 *
+	 * @param count the number of pages to append
+	 * @return the number of the first new page
+	 */
+	private synchronized int appendPages(int count) throws IOException {
+		int pgNo = numPages();
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.setLength((long) (pgNo + count) * BufferPool.getPageSize());
+		raf.close();
+		return pgNo;
+	} // end appendPages(int)
+
+
+	/**
+	 * Fetches a page of this index through the buffer pool.
+	 */
+	private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+			throws DbException, TransactionAbortedException {
+		return (HashPage) Database.getBufferPool().getPage(tid,
+				new HashPageId(getId(), pgNo), perm);
+	} // end getPage(TransactionId, int, Permissions)
+
+
+	/**
+	 * Takes a page off the free list, or appends one to the file if the
+	 * list is empty. The caller sets the page up.
+	 *
+	 * @param meta the META page, locked for writing
+	 */
+	private HashPage allocatePage(TransactionId tid, HashPage meta)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = meta.getFree();
+		if (pgNo < 0) {
+			return getPage(tid, appendPages(1), Permissions.READ_WRITE);
+		}
+		HashPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+		meta.setFree(page.getNext());
+		return page;
+	} // end allocatePage(TransactionId, HashPage)
+
+
+	/**
+	 * @see IndexFile#insertEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return insert(tid, ((IntField) t.getField(keyField)).getValue(),
+				rid.getPageId().pageNumber(), rid.tupleno());
+	} // end insertEntry(TransactionId, Tuple)
+
+
+	/**
+	 * @see IndexFile#deleteEntry(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		RecordId rid = t.getRecordId();
+		return delete(tid, ((IntField) t.getField(keyField)).getValue(),
+				rid.getPageId().pageNumber(), rid.tupleno());
+	} // end deleteEntry(TransactionId, Tuple)
+
+
+	/**
+	 * Inserts an index entry, given as a tuple of getTupleDesc().
+	 *
+	 * @see DbFile#insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		return insert(tid, ((IntField) t.getField(0)).getValue(),
+				((IntField) t.getField(1)).getValue(),
+				((IntField) t.getField(2)).getValue());
+	} // end insertTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Deletes an index entry, given as a tuple of getTupleDesc().
+	 *
+	 * @see DbFile#deleteTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		try {
+			return delete(tid, ((IntField) t.getField(0)).getValue(),
+					((IntField) t.getField(1)).getValue(),
+					((IntField) t.getField(2)).getValue());
+		} catch (IOException e) {
+			throw new DbException("could not initialize index: " + e.getMessage());
+		}
+	} // end deleteTuple(TransactionId, Tuple)
+
+
+	/**
+	 * Inserts the entry (key, pg, slot) on the first page of its bucket
+	 * with room. If there is none, an overflow page is chained to the
+	 * bucket and the next bucket in line is split.
+	 *
+	 * @return the pages modified
+	 */
+	private ArrayList<Page> insert(TransactionId tid, int key, int pg, int slot)
+			throws DbException, IOException, TransactionAbortedException {
+		init();
+		HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+		HashPage page = getPage(tid, pageOf(meta, bucketOf(meta, key)),
+				Permissions.READ_ONLY);
+		while (page.isFull() && page.getNext() >= 0) {
+			page = getPage(tid, page.getNext(), Permissions.READ_ONLY);
+		}
+		page = getPage(tid, page.getId().pageNumber(), Permissions.READ_WRITE);
+
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		dirtied.add(page);
+		if (!page.isFull()) {
+			page.append(key, pg, slot);
+			return dirtied;
+		}
+
+		// the bucket overflows
+		meta = getPage(tid, 0, Permissions.READ_WRITE);
+		dirtied.add(meta);
+		HashPage overflow = allocatePage(tid, meta);
+		dirtied.add(overflow);
+		overflow.initBucket(-1);
+		overflow.append(key, pg, slot);
+		page.setNext(overflow.getId().pageNumber());
+		split(tid, meta, dirtied);
+		return dirtied;
+	} // end insert(TransactionId, int, int, int)
+
+
+	/**
+	 * Splits the bucket the split pointer is at and advances the pointer.
+	 *
+	 * @param meta the META page, locked for writing
+	 * @param dirtied receives the pages modified
+	 */
+	private void split(TransactionId tid, HashPage meta, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int level = meta.getLevel();
+		int split = meta.getSplit();
+		if (level + 1 >= HashPage.maxGenerations()) {
+			return;		// cannot locate more buckets; chains just grow
+		}
+		int newBucket = split + (1 << level);
+		if (split == 0) {
+			// the first bucket of a new generation
+			meta.setGenerationStart(level + 1, appendPages(1 << level));
+		}
+
+		// take the entries off the old bucket's pages
+		ArrayList<HashPage> oldChain = new ArrayList<HashPage>();
+		ArrayList<int[]> stay = new ArrayList<int[]>();
+		ArrayList<int[]> move = new ArrayList<int[]>();
+		int mask = (1 << (level + 1)) - 1;
+		for (int pgNo = pageOf(meta, split); pgNo >= 0; ) {
+			HashPage page = getPage(tid, pgNo, Permissions.READ_WRITE);
+			dirtied.add(page);
+			oldChain.add(page);
+			for (int i = 0; i < page.size(); i++) {
+				int[] e = {page.getKey(i), page.getPage(i), page.getSlot(i)};
+				if ((hash(e[0]) & mask) == split) {
+					stay.add(e);
+				} else {
+					move.add(e);
+				}
+			}
+			pgNo = page.getNext();
+		}
+
+		// refill the old bucket first, so that the pages it frees can be
+		// reused by the new one
+		fill(tid, meta, oldChain, stay, dirtied);
+		ArrayList<HashPage> newChain = new ArrayList<HashPage>();
+		HashPage first = getPage(tid, pageOf(meta, newBucket), Permissions.READ_WRITE);
+		dirtied.add(first);
+		newChain.add(first);
+		fill(tid, meta, newChain, move, dirtied);
+
+		split++;
+		if (split == 1 << level) {
+			level++;
+			split = 0;
+		}
+		meta.setLevel(level, split);
+	} // end split(TransactionId, HashPage, ArrayList<Page>)
+
+
+	/**
+	 * Rewrites a bucket: its entries are packed into the pages of the
+	 * chain, which is lengthened with allocated pages or shortened by
+	 * putting its last pages on the free list as needed.
+	 *
+	 * @param meta the META page, locked for writing
+	 * @param chain the bucket's pages, locked for writing, primary first
+	 * @param entries the entries of the bucket
+	 * @param dirtied receives the pages modified
+	 */
+	private void fill(TransactionId tid, HashPage meta, ArrayList<HashPage> chain,
+			ArrayList<int[]> entries, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int cap = HashPage.capacity();
+		int needed = Math.max(1, (entries.size() + cap - 1) / cap);
+		while (chain.size() < needed) {
+			HashPage page = allocatePage(tid, meta);
+			dirtied.add(page);
+			chain.add(page);
+		}
+		while (chain.size() > needed) {
+			HashPage page = chain.remove(chain.size() - 1);
+			page.initFree(meta.getFree());
+			meta.setFree(page.getId().pageNumber());
+		}
+		for (int i = 0; i < needed; i++) {
+			HashPage page = chain.get(i);
+			page.initBucket(i + 1 < needed ? chain.get(i + 1).getId().pageNumber() : -1);
+			for (int j = i * cap; j < Math.min((i + 1) * cap, entries.size()); j++) {
+				int[] e = entries.get(j);
+				page.append(e[0], e[1], e[2]);
+			}
+		}
+	} // end fill(TransactionId, HashPage, ArrayList<HashPage>, ArrayList<int[]>, ArrayList<Page>)
+
+
+	/**
+	 * Deletes the entry (key, pg, slot).
+	 *
+	 * @return the pages modified
+	 * @throws DbException if there is no such entry
+	 */
+	private ArrayList<Page> delete(TransactionId tid, int key, int pg, int slot)
+			throws DbException, IOException, TransactionAbortedException {
+		init();
+		HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+		for (int pgNo = pageOf(meta, bucketOf(meta, key)); pgNo >= 0; ) {
+			HashPage page = getPage(tid, pgNo, Permissions.READ_ONLY);
+			int i = page.find(key, pg, slot);
+			if (i >= 0) {
+				page = getPage(tid, pgNo, Permissions.READ_WRITE);
+				page.removeEntry(i);
+				ArrayList<Page> dirtied = new ArrayList<Page>();
+				dirtied.add(page);
+				return dirtied;
+			}
+			pgNo = page.getNext();
+		}
+		throw new DbException("no index entry for tuple");
+	} // end delete(TransactionId, int, int, int)
+
+
+	/**
+	 * Rebuilds the index from the table: the entries of all tuples are
+	 * hashed into enough buckets to fill them to FILL_FACTOR, and the
+	 * buckets are written in bucket order. The pages are written straight
+	 * to the file, so the index and the table must not be in use meanwhile.
+	 */
+	public synchronized void build()
+			throws IOException, DbException, TransactionAbortedException {
+		// collect the entries of the table's tuples
+		ArrayList<int[]> entries = new ArrayList<int[]>();
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			entries.add(new int[] {((IntField) t.getField(keyField)).getValue(),
+					t.getRecordId().getPageId().pageNumber(),
+					t.getRecordId().tupleno()});
+		}
+		it.close();
+		Database.getBufferPool().transactionComplete(tid);
+
+		// the number of buckets, as a level and a split pointer
+		int cap = HashPage.capacity();
+		int buckets = Math.max(1, (int) Math.ceil(entries.size() / (cap * FILL_FACTOR)));
+		int level = Math.min(31 - Integer.numberOfLeadingZeros(buckets),
+				HashPage.maxGenerations() - 2);
+		int split = Math.min(buckets - (1 << level), (1 << level) - 1);
+
+		Database.getBufferPool().discardPages(getId(), 0);
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.setLength(0);
+		raf.close();
+
+		// bucket b is on page b + 1: the generations are laid out in order,
+		// the last one in full even if only some of its buckets are used
+		HashPage meta = new HashPage(new HashPageId(getId(), 0),
+				HashPage.createEmptyPageData());
+		meta.initMeta(1);
+		meta.setLevel(level, split);
+		int lastGen = (split > 0) ? level + 1 : level;
+		for (int g = 1; g <= lastGen; g++) {
+			meta.setGenerationStart(g, 1 + firstBucket(g));
+		}
+		int nextFree = 1 + (1 << lastGen);
+		appendPages(nextFree);
+
+		ArrayList<ArrayList<int[]>> perBucket = new ArrayList<ArrayList<int[]>>();
+		int numBuckets = (1 << level) + split;
+		for (int b = 0; b < numBuckets; b++) {
+			perBucket.add(new ArrayList<int[]>());
+		}
+		for (int[] e : entries) {
+			perBucket.get(bucketOf(meta, e[0])).add(e);
+		}
+
+		// write the buckets, with overflow pages after the generations
+		for (int b = 0; b < numBuckets; b++) {
+			ArrayList<int[]> bucket = perBucket.get(b);
+			int pages = Math.max(1, (bucket.size() + cap - 1) / cap);
+			int pgNo = pageOf(meta, b);
+			for (int i = 0; i < pages; i++) {
+				int next = (i + 1 < pages) ? nextFree++ : -1;
+				HashPage page = new HashPage(new HashPageId(getId(), pgNo),
+						HashPage.createEmptyPageData());
+				page.initBucket(next);
+				for (int j = i * cap; j < Math.min((i + 1) * cap, bucket.size()); j++) {
+					int[] e = bucket.get(j);
+					page.append(e[0], e[1], e[2]);
+				}
+				writePage(page);
+				pgNo = next;
+			}
+		}
+		writePage(meta);
+		stamp.write();
+	} // end build()
+
+
+	/**
+	 * Returns an iterator over all entries, bucket by bucket.
+	 *
+	 * @see DbFile#iterator(TransactionId)
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new HashIndexFileIterator(tid, false, 0);
+	} // end iterator(TransactionId)
+
+
+	/**
+	 * @see IndexFile#iterator(TransactionId, Predicate.Op, Field)
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+		if (!supports(op)) {
+			throw new UnsupportedOperationException("hash index cannot answer " + op);
+		}
+		return new HashIndexFileIterator(tid, true, ((IntField) key).getValue());
+	} // end iterator(TransactionId, Predicate.Op, Field)
+
+
+	/**
+	 * Iterator over the entries of all buckets, or over the entries with a
+	 * given key in its bucket. The matching entries of a page are copied
+	 * when the iterator reaches it, so the transaction may delete entries
+	 * while it iterates.
+	 */
+	private class HashIndexFileIterator implements DbFileIterator {
+
+		private TransactionId tid;
+		private boolean lookup;
+		private int key;
+
+		/** The bucket being read and the last bucket to read. */
+		private int bucket, lastBucket;
+
+		/** The next page of the bucket, or -1. */
+		private int pgNo;
+
+		/** The matching entries of the last page read. */
+		private ArrayList<Tuple> entries;
+		private Iterator<Tuple> entryIt;
+
+		private boolean opened;
+
+
+		private HashIndexFileIterator(TransactionId tid, boolean lookup, int key) {
+			this.tid = tid;
+			this.lookup = lookup;
+			this.key = key;
+			this.entries = new ArrayList<Tuple>();
+			this.opened = false;
+		} // end HashIndexFileIterator(TransactionId, boolean, int)
+
+
+		public void open() throws DbException, TransactionAbortedException {
+			try {
+				init();
+			} catch (IOException e) {
+				throw new DbException("could not initialize index: " + e.getMessage());
+			}
+			HashPage meta = getPage(tid, 0, Permissions.READ_ONLY);
+			if (lookup) {
+				bucket = lastBucket = bucketOf(meta, key);
+			} else {
+				bucket = 0;
+				lastBucket = (1 << meta.getLevel()) + meta.getSplit() - 1;
+			}
+			pgNo = pageOf(meta, bucket);
+			entries.clear();
+			entryIt = entries.iterator();
+			opened = true;
+		} // end open()
+
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (!opened) return false;
+			while (!entryIt.hasNext()) {
+				if (pgNo < 0) {
+					if (bucket == lastBucket) return false;
+					bucket++;
+					pgNo = pageOf(getPage(tid, 0, Permissions.READ_ONLY), bucket);
+				}
+				HashPage page = getPage(tid, pgNo, Permissions.READ_ONLY);
+				entries.clear();
+				for (int i = 0; i < page.size(); i++) {
+					if (lookup && page.getKey(i) != key) continue;
+					Tuple t = new Tuple(td);
+					t.setField(0, new IntField(page.getKey(i)));
+					t.setField(1, new IntField(page.getPage(i)));
+					t.setField(2, new IntField(page.getSlot(i)));
+					entries.add(t);
+				}
+				entryIt = entries.iterator();
+				pgNo = page.getNext();
+			}
+			return true;
+		} // end hasNext()
+
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext()) throw new NoSuchElementException("no more entries");
+			return entryIt.next();
+		} // end next()
+
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		} // end rewind()
+
+
+		public void close() {
+			entries.clear();
+			entryIt = entries.iterator();
+			opened = false;
+		} // end close()
+	} // end HashIndexFileIterator
+
+} // end HashIndexFile
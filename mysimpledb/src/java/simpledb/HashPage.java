@@ -0,0 +1,394 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage is a page of a {@link HashIndexFile}. Index entries are
+ * (key, page number, slot) triples that point at a tuple of the indexed
+ * table, like those of a {@link BTreePage}, but they are kept in no
+ * particular order.
+ * <p/>
+ * Every page starts with a kind byte, then:
+ * <ul>
+ * <li>META (page 0 only): the int level, the int next bucket to split, the
+ * int number of the first FREE page on the free list (-1 if it is empty),
+ * then maxGenerations() int page numbers, the first page of each
+ * generation of buckets (see HashIndexFile);</li>
+ * <li>BUCKET: an int entry count n, the int number of the next overflow
+ * page of the bucket (-1 for the last page), then n entries of three ints
+ * each;</li>
+ * <li>FREE: an unused int, then the int number of the next page on the
+ * free list.</li>
+ * </ul>
+ * A page of all zeroes is a FREE page that is not on the free list.
+ *
+ * @see HashIndexFile
+ */
+public class HashPage implements Page {
+
+	static final byte FREE = 0;
+	static final byte META = 1;
+	static final byte BUCKET = 2;
+
+	/** Generations needed for 2^31 buckets. */
+	private static final int MAX_GENERATIONS = 33;
+
+	/** Size of the kind byte and the two ints that follow it. */
+	private static final int HEADER_SIZE = 9;
+
+	final HashPageId pid;
+
+	private byte kind;
+
+	/** BUCKET: number of entries. META: the level. */
+	private int n;
+
+	/** BUCKET: next overflow page. FREE: next free page. META: next split. */
+	private int link;
+
+	/** META: the head of the free list. */
+	private int free;
+
+	/** META: the first page of each generation. */
+	private final int[] genStart;
+
+	/** BUCKET: the entries. */
+	private final int[] keys, pages, slots;
+
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	private TransactionId lastTrnsctnToDirty;
+
+
+	/**
+	 * Creates a HashPage from a set of bytes of data read from disk.
+	 *
+	 * @param id the id of this page
+	 * @param data the contents of the page
+	 */
+	public HashPage(HashPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.lastTrnsctnToDirty = null;
+
+		keys = new int[capacity()];
+		pages = new int[capacity()];
+		slots = new int[capacity()];
+		genStart = new int[maxGenerations()];
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		kind = dis.readByte();
+		n = dis.readInt();
+		link = dis.readInt();
+		if (kind == META) {
+			free = dis.readInt();
+			for (int g = 0; g < genStart.length; g++) {
+				genStart[g] = dis.readInt();
+			}
+		} else if (kind == BUCKET) {
+			for (int i = 0; i < n; i++) {
+				keys[i] = dis.readInt();
+				pages[i] = dis.readInt();
+				slots[i] = dis.readInt();
+			}
+		}
+		dis.close();
+
+		setBeforeImage();
+	} // end HashPage(HashPageId, byte[])
+
+
+	/**
+	 * @return the number of entries that fit on a bucket page
+	 */
+	public static int capacity() {
+		return (BufferPool.getPageSize() - HEADER_SIZE) / 12;
+	} // end capacity()
+
+
+	/**
+	 * @return the number of generations of buckets the META page can
+	 * locate; small pages hold fewer
+	 */
+	public static int maxGenerations() {
+		return Math.min(MAX_GENERATIONS, (BufferPool.getPageSize() - HEADER_SIZE - 4) / 4);
+	} // end maxGenerations()
+
+
+	/**
+	 * Static method to generate a byte array corresponding to a FREE page.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];	// all 0
+	} // end createEmptyPageData()
+
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public HashPage getBeforeImage() {
+		try {
+			byte[] oldDataRef = null;
+			synchronized (oldDataLock) {
+				oldDataRef = oldData;
+			}
+			return new HashPage(pid, oldDataRef);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	} // end getBeforeImage()
+
+
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = getPageData().clone();
+		}
+	} // end setBeforeImage()
+
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashPageId getId() {
+		return pid;
+	} // end getId()
+
+
+	/**
+	 * Generates a byte array representing the contents of this page, which
+	 * the HashPage constructor turns back into an identical page.
+	 */
+	public byte[] getPageData() {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+		DataOutputStream dos = new DataOutputStream(baos);
+		try {
+			dos.writeByte(kind);
+			dos.writeInt(n);
+			dos.writeInt(link);
+			if (kind == META) {
+				dos.writeInt(free);
+				for (int g = 0; g < genStart.length; g++) {
+					dos.writeInt(genStart[g]);
+				}
+			} else if (kind == BUCKET) {
+				for (int i = 0; i < n; i++) {
+					dos.writeInt(keys[i]);
+					dos.writeInt(pages[i]);
+					dos.writeInt(slots[i]);
+				}
+			}
+			dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+			dos.flush();
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
+		return baos.toByteArray();
+	} // end getPageData()
+
+
+	/**
+	 * @return the kind of this page: FREE, META or BUCKET
+	 */
+	public byte getKind() {
+		return kind;
+	} // end getKind()
+
+
+	/**
+	 * Turns this page into the META page of an index with a single bucket.
+	 *
+	 * @param firstBucket the page of bucket 0
+	 */
+	void initMeta(int firstBucket) {
+		kind = META;
+		n = 0;
+		link = 0;
+		free = -1;
+		for (int g = 0; g < genStart.length; g++) {
+			genStart[g] = 0;
+		}
+		genStart[0] = firstBucket;
+	} // end initMeta(int)
+
+
+	/**
+	 * Turns this page into an empty bucket page.
+	 *
+	 * @param next the number of the next overflow page, or -1
+	 */
+	void initBucket(int next) {
+		kind = BUCKET;
+		n = 0;
+		link = next;
+	} // end initBucket(int)
+
+
+	/**
+	 * Turns this page into a FREE page on the free list.
+	 *
+	 * @param next the number of the next free page, or -1
+	 */
+	void initFree(int next) {
+		kind = FREE;
+		n = 0;
+		link = next;
+	} // end initFree(int)
+
+
+	/**
+	 * @return META: the level, i.e., the index has between 2^level and
+	 * 2^(level+1) buckets
+	 */
+	public int getLevel() {
+		return n;
+	} // end getLevel()
+
+
+	/**
+	 * @return META: the next bucket to split
+	 */
+	public int getSplit() {
+		return link;
+	} // end getSplit()
+
+
+	/**
+	 * Sets the level and the next bucket to split of the META page.
+	 */
+	void setLevel(int level, int split) {
+		n = level;
+		link = split;
+	} // end setLevel(int, int)
+
+
+	/**
+	 * @return META: the first page on the free list, or -1
+	 */
+	public int getFree() {
+		return free;
+	} // end getFree()
+
+
+	/**
+	 * Sets the first page on the free list of the META page.
+	 */
+	void setFree(int pgNo) {
+		free = pgNo;
+	} // end setFree(int)
+
+
+	/**
+	 * @return META: the page of the first bucket of generation g
+	 */
+	public int getGenerationStart(int g) {
+		return genStart[g];
+	} // end getGenerationStart(int)
+
+
+	/**
+	 * Sets the page of the first bucket of generation g of the META page.
+	 */
+	void setGenerationStart(int g, int pgNo) {
+		genStart[g] = pgNo;
+	} // end setGenerationStart(int, int)
+
+
+	/**
+	 * @return BUCKET: the next overflow page, or -1. FREE: the next page on
+	 * the free list, or -1.
+	 */
+	public int getNext() {
+		return link;
+	} // end getNext()
+
+
+	/**
+	 * Sets the next overflow page of a BUCKET page.
+	 */
+	void setNext(int next) {
+		link = next;
+	} // end setNext(int)
+
+
+	/**
+	 * @return BUCKET: the number of entries
+	 */
+	public int size() {
+		return n;
+	} // end size()
+
+
+	/**
+	 * @return whether another entry does not fit on this page
+	 */
+	public boolean isFull() {
+		return n >= capacity();
+	} // end isFull()
+
+
+	public int getKey(int i) {
+		return keys[i];
+	} // end getKey(int)
+
+
+	public int getPage(int i) {
+		return pages[i];
+	} // end getPage(int)
+
+
+	public int getSlot(int i) {
+		return slots[i];
+	} // end getSlot(int)
+
+
+	/**
+	 * BUCKET: returns the position of an entry, or -1 if it is not on this
+	 * page.
+	 */
+	public int find(int key, int pg, int slot) {
+		for (int i = 0; i < n; i++) {
+			if (keys[i] == key && pages[i] == pg && slots[i] == slot) {
+				return i;
+			}
+		}
+		return -1;
+	} // end find(int, int, int)
+
+
+	/**
+	 * BUCKET: adds an entry after the last one. The page must not be full.
+	 */
+	void append(int key, int pg, int slot) {
+		keys[n] = key;
+		pages[n] = pg;
+		slots[n] = slot;
+		n++;
+	} // end append(int, int, int)
+
+
+	/**
+	 * BUCKET: removes entry i; the entries after it move up by one.
+	 */
+	void removeEntry(int i) {
+		System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+		System.arraycopy(pages, i + 1, pages, i, n - i - 1);
+		System.arraycopy(slots, i + 1, slots, i, n - i - 1);
+		n--;
+	} // end removeEntry(int)
+
+
+	public void markDirty(boolean dirty, TransactionId tid) {
+		lastTrnsctnToDirty = dirty ? tid : null;
+	} // end markDirty(boolean, TransactionId)
+
+
+	public TransactionId isDirty() {
+		return lastTrnsctnToDirty;
+	} // end isDirty()
+
+} // end HashPage
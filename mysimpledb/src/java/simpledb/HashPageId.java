@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Unique identifier for HashPage objects: a page of a {@link HashIndexFile}.
+ */
+public class HashPageId implements PageId {
+
+	private int tableId;
+
+	private int pgNo;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tableId the id of the index file the page belongs to
+	 * @param pgNo the number of the page within the index file
+	 */
+	public HashPageId(int tableId, int pgNo) {
+		this.tableId = tableId;
+		this.pgNo = pgNo;
+	}
+
+
+	public int getTableId() {
+		return tableId;
+	}
+
+
+	public int pageNumber() {
+		return pgNo;
+	}
+
+
+	public int hashCode() {
+		return tableId * 31 + pgNo;
+	}
+
+
+	public boolean equals(Object o) {
+		if (!(o instanceof HashPageId)) {
+			return false;
+		}
+
+		HashPageId other = (HashPageId) o;
+		return other.tableId == tableId && other.pgNo == pgNo;
+	}
+
+
+	/**
+	 * @return the index file id and page number, in the order the
+	 * constructor takes them
+	 */
+	public int[] serialize() {
+		return new int[] {tableId, pgNo};
+	}
+
+}
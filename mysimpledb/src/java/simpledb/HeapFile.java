@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -21,17 +23,53 @@ public class HeapFile implements DbFile {
 	/** Description of tuples stored in this table/heapfile. */
 	private TupleDesc td;
 	
+	/** Per-page bounds of the INT_TYPE fields, for skipping pages. */
+	private ZoneMap zoneMap;
+	
+	/** Bytes per page, or 0 for the buffer pool's page size. */
+	private final int pageSize;
+	
+	/**
+	 * Held while the file grows by a page or is truncated, so that a page
+	 * being appended is never cut off.
+	 */
+	private final Object lengthLatch = new Object();
+	
 	
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file, with pages of
+     * the buffer pool's page size.
      *
      * @param f the file that stores the on-disk backing store for this heap
      *          file.
      */
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, 0);
+    } // end HeapFile(File, TupleDesc)
+
+    
+    /**
+     * Constructs a heap file backed by the specified file, with pages of
+     * its own size.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     * @param pageSize the number of bytes per page, or 0 for the buffer
+     *          pool's page size
+     * @throws IllegalArgumentException if pageSize is given and f is not a
+     *          whole number of pages of that size
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+    	if (pageSize < 0) throw new IllegalArgumentException("negative page size");
+    	if (pageSize > 0 && f.length() % pageSize != 0) {
+    		throw new IllegalArgumentException(f + " is not a whole number of "
+    				+ pageSize + "-byte pages");
+    	}
     	osFile = f;
         this.td = td;
-    } // end HeapFile(File, TupleDesc)
+        this.pageSize = pageSize;
+        this.zoneMap = new ZoneMap(f, td);
+    } // end HeapFile(File, TupleDesc, int)
 
     
     /**
@@ -44,6 +82,26 @@ public class HeapFile implements DbFile {
     } // end getFile()
 
     
+    /**
+     * Returns the zone map of this HeapFile.
+     *
+     * @return the zone map of this HeapFile.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    } // end getZoneMap()
+
+    
+    /**
+     * Returns the number of bytes per page of this HeapFile.
+     *
+     * @return the number of bytes per page of this HeapFile.
+     */
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    } // end getPageSize()
+
+    
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -72,50 +130,127 @@ public class HeapFile implements DbFile {
     * @see DbFile#readPage(PageId)
     */
     public Page readPage(PageId pid) {
-    	int ps = BufferPool.getPageSize();
-    	int offset = pid.pageNumber() * ps;
+    	return readPageRange(pid, 1).get(0);
+    } // end readPage(PageId)
+
+    
+    /**
+     * @see DbFile#readPages(PageId, int)
+     */
+    public ArrayList<Page> readPages(PageId first, int count) {
+    	return readPageRange(first, count);
+    } // end readPages(PageId, int)
+    
+    
+    /**
+     * Reads count consecutive pages of this file and decodes them.
+     */
+    private ArrayList<Page> readPageRange(PageId first, int count) {
+    	int firstPgNo = first.pageNumber();
+    	if (count < 1 || firstPgNo < 0 || firstPgNo + count > numPages()) {
+    		throw new IllegalArgumentException("page(s) not in file");
+    	}
+    	
+    	byte[][] frames = readPageBytes(osFile, getPageSize(), firstPgNo, count);
+    	ArrayList<Page> rv = new ArrayList<Page>(count);
+    	try {
+    		for (int i = 0; i < count; i++) {
+    			HeapPageId hpid = new HeapPageId(getId(), firstPgNo + i);
+    			rv.add(new HeapPage(hpid, frames[i]));
+    		}
+    	} catch (IOException ioe) {
+    		throw new IllegalArgumentException("error when reading file");
+    	}
+    	return rv;
+    } // end readPageRange(PageId, int)
+    
+    
+    /**
+     * Reads count consecutive pages of a file with a single scattering
+     * read, one buffer per page, so a scan pays for one seek and one system
+     * call instead of count of them.
+     *
+     * @param file the file to read
+     * @param pageSize the size of a page of the file
+     * @param firstPgNo the number of the first page to read
+     * @param count the number of pages to read
+     * @return the bytes of each page
+     * @throws IllegalArgumentException if the pages cannot be read
+     */
+    static byte[][] readPageBytes(File file, int pageSize, int firstPgNo, int count) {
+    	// one frame per page, filled by one vectored read
+    	ByteBuffer[] frames = new ByteBuffer[count];
+    	for (int i = 0; i < count; i++) {
+    		frames[i] = ByteBuffer.allocate(pageSize);
+    	}
     	
     	// start file handling
     	try {
-    		// create stream
-    		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(osFile));
-    		
-    		// create byte array, read data
-    		byte[] data = new byte[ps];
-    		bis.skip(offset);
-    		bis.read(data, 0, ps);
-    		
-    		HeapPageId hpid = new HeapPageId(getId(), pid.pageNumber());
-    		Page page = new HeapPage(hpid, data);
-    		
-    		bis.close();
-    		return page;
+    		RandomAccessFile raf = new RandomAccessFile(file, "r");
+    		try {
+    			FileChannel fc = raf.getChannel();
+    			fc.position((long) firstPgNo * pageSize);
+    			long remaining = (long) count * pageSize;
+    			while (remaining > 0) {
+    				long read = fc.read(frames);
+    				if (read < 0) {
+    					throw new IllegalArgumentException("unexpected end of file");
+    				}
+    				remaining -= read;
+    			}
+    		} finally {
+    			raf.close();
+    		}
     	} catch (FileNotFoundException fnfe) {
     		throw new IllegalArgumentException("file not found");
     	} catch (IOException ioe) {
     		throw new IllegalArgumentException("error when reading file");
     	}
-    } // end readPage(PageId)
+    	
+    	byte[][] rv = new byte[count][];
+    	for (int i = 0; i < count; i++) {
+    		rv[i] = frames[i].array();
+    	}
+    	return rv;
+    } // end readPageBytes(File, int, int, int)
 
     
     /**
      * @see DbFile#writePage(Page)
      */
     public void writePage(Page page) throws IOException {
+        zoneMap.forget(page.getId().pageNumber());
         RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
         
-        int offset = page.getId().pageNumber() * BufferPool.getPageSize();
-        raf.skipBytes(offset);
+        raf.seek((long) page.getId().pageNumber() * getPageSize());
         raf.write(page.getPageData());
         raf.close();
+        pageWritten(page);
     } // end writePage(Page)
+    
+    
+    /**
+     * Brings the zone map up to date with a page that was just written;
+     * writePage implementations call zoneMap.forget before writing the
+     * page and this after. Only the entries in memory change: the side
+     * file is saved by {@link BufferPool#flushAllPages}, not on every page
+     * write.
+     * 
+     * @param page the page written
+     */
+    protected void pageWritten(Page page) {
+    	if (page instanceof HeapPage) {
+    		zoneMap.learn((HeapPage) page);
+    	}
+    	zoneMap.written();
+    } // end pageWritten(Page)
 
     
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) Math.ceil(osFile.length() / BufferPool.getPageSize());
+        return (int) Math.ceil(osFile.length() / getPageSize());
     } // end numPages()
     
     int pagesCreated = 0;
@@ -144,13 +279,21 @@ public class HeapFile implements DbFile {
     		// because duplicate requests would return
     		// that the lock is free. so we get the read
     		// lock no matter what.
-    		HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    		HeapPage page;
+    		try {
+    			page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    		} catch (IllegalArgumentException e) {
+    			// a vacuum cut the page off while we waited for it
+    			bp.releasePage(tid, pid);
+    			break;
+    		}
     		
     		
     		// find page with empty slot
     		if (page.getNumEmptySlots() != 0) {
     			page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
     			page.insertTuple(t);
+    			zoneMap.widen(pgNo, t);
     			rv.add(page);
     			return rv;
     		}
@@ -161,22 +304,24 @@ public class HeapFile implements DbFile {
     		}
     	}
     	
-    	// no page with empty slot! create new page
-    	HeapPageId pid = new HeapPageId(getId(), pgNo);
-    	HeapPage newpage = new HeapPage(pid, HeapPage.createEmptyPageData());
-    	
-    	// begin write out
-    	BufferedOutputStream bos = new BufferedOutputStream(
-    			new FileOutputStream(osFile, true));
-    	bos.write(newpage.getPageData());
-    	bos.flush();
-    	bos.close();
-    	
-    	// get lock on new page!
-    	newpage = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    	// no page with empty slot! create new page, at the end of the file
+    	// as it is now, and lock it before a vacuum can cut it off
+    	HeapPage newpage;
+    	synchronized (lengthLatch) {
+    		pgNo = numPages();
+    		HeapPageId pid = new HeapPageId(getId(), pgNo);
+    		newpage = new HeapPage(pid, HeapPage.createEmptyPageData(getPageSize()));
+    		
+    		// append to the file
+    		writePage(newpage);
+    		
+    		// get lock on new page!
+    		newpage = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    	}
     	
     	// insert tuple
     	newpage.insertTuple(t);
+    	zoneMap.widen(pgNo, t);
     	
     	// return modified page
     	rv.add(newpage);
@@ -205,14 +350,169 @@ public class HeapFile implements DbFile {
     } // end deleteTuple(TransactionId, Tuple)
 
     
+    /**
+     * Compacts this file while it stays online. Live tuples are moved, one
+     * source page at a time, from the end of the file into free slots of
+     * the earliest pages that have room, and the empty pages this leaves
+     * at the end of the file are then cut off.
+     * <p/>
+     * Every source page is emptied by its own short transaction, which
+     * only holds exclusive locks on the source page and the pages it
+     * fills, so the rest of the table stays readable meanwhile. A moved
+     * tuple keeps its identity: its RecordId is updated to the slot it was
+     * moved to. If a lock cannot be acquired in time (e.g. a long-running
+     * reader holds it), that move is rolled back and compaction stops
+     * there; the pages emptied so far are still reclaimed.
+     *
+     * @return the number of pages removed from the file
+     */
+    public int vacuum() throws DbException, IOException {
+    	BufferPool bp = Database.getBufferPool();
+    	
+    	// move tuples from the last page to the first pages with room
+    	int dest = 0;
+    	for (int src = numPages() - 1; src > dest; src--) {
+    		TransactionId tid = new TransactionId();
+    		try {
+    			dest = emptyPage(tid, src, dest);
+    			bp.transactionComplete(tid, true);
+    		} catch (TransactionAbortedException e) {
+    			bp.transactionComplete(tid, false);
+    			break;
+    		}
+    	}
+    	
+    	return truncate();
+    } // end vacuum()
+    
+    
+    /**
+     * Moves as many tuples as fit from page srcPgNo into free slots of the
+     * pages from destPgNo up to (not including) srcPgNo.
+     * 
+     * @return the first page that may still have free slots
+     */
+    private int emptyPage(TransactionId tid, int srcPgNo, int destPgNo)
+    		throws DbException, IOException, TransactionAbortedException {
+    	BufferPool bp = Database.getBufferPool();
+    	HeapPage src = (HeapPage) bp.getPage(tid,
+    			new HeapPageId(getId(), srcPgNo), Permissions.READ_WRITE);
+    	
+    	// take the tuples out first; the page iterator reads the header
+    	ArrayList<Tuple> toMove = new ArrayList<Tuple>();
+    	Iterator<Tuple> it = src.iterator();
+    	while (it.hasNext()) {
+    		toMove.add(it.next());
+    	}
+    	
+    	for (Tuple t : toMove) {
+    		HeapPage dest = null;
+    		while (destPgNo < srcPgNo) {
+    			// same protocol as insertTuple: check with a read lock first
+    			HeapPageId pid = new HeapPageId(getId(), destPgNo);
+    			dest = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    			if (dest.getNumEmptySlots() != 0) {
+    				dest = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    				break;
+    			}
+    			if (bp.holdsLock(tid, pid) && dest.isDirty() == null) {
+    				bp.releasePage(tid, pid);
+    			}
+    			destPgNo++;
+    		}
+    		if (destPgNo == srcPgNo) break;		// no room left before src
+    		
+    		// insertTuple points the tuple's RecordId at its new slot;
+    		// the indexes are told about the move
+    		bp.deleteIndexEntries(tid, t);
+    		src.deleteTuple(t);
+    		dest.insertTuple(t);
+    		zoneMap.widen(destPgNo, t);
+    		bp.insertIndexEntries(tid, getId(), t);
+    		src.markDirty(true, tid);
+    		dest.markDirty(true, tid);
+    	}
+    	
+    	return destPgNo;
+    } // end emptyPage(TransactionId, int, int)
+    
+    
+    /**
+     * Cuts the empty pages at the end of the file off, keeping at least
+     * one page. The pages are locked exclusively while they are removed,
+     * so no transaction is using them, and no page is appended meanwhile.
+     * A page that is still dirty is kept, with the pages before it.
+     * 
+     * @return the number of pages removed
+     */
+    private int truncate() throws DbException, IOException {
+    	BufferPool bp = Database.getBufferPool();
+    	TransactionId tid = new TransactionId();
+    	int oldNumPages, newNumPages;
+    	synchronized (lengthLatch) {
+    		oldNumPages = numPages();
+    		newNumPages = oldNumPages;
+    		try {
+    			while (newNumPages > 1) {
+    				HeapPage page = (HeapPage) bp.getPage(tid,
+    						new HeapPageId(getId(), newNumPages - 1),
+    						Permissions.READ_WRITE);
+    				if (page.isDirty() != null || page.iterator().hasNext()) break;
+    				newNumPages--;
+    			}
+    		} catch (TransactionAbortedException e) {
+    			// in use; only remove the pages locked so far
+    		}
+    		
+    		if (newNumPages < oldNumPages) {
+    			bp.discardPages(getId(), newNumPages);
+    			truncatePages(newNumPages);
+    			zoneMap.truncate(newNumPages);
+    		}
+    		bp.transactionComplete(tid, false);
+    	}
+    	
+    	return oldNumPages - newNumPages;
+    } // end truncate()
+    
+    
+    /**
+     * Shortens the file to its first numPages pages.
+     * 
+     * @param numPages the number of pages to keep
+     */
+    protected void truncatePages(int numPages) throws IOException {
+    	RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+    	raf.setLength((long) numPages * getPageSize());
+    	raf.close();
+    } // end truncatePages(int)
+    
+    
     /**
      * @see DbFile#iterator(TransactionId)
      */
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, new ArrayList<Predicate>());
     } // end iterator(TransactionId)
     
     
+    /**
+     * Returns an iterator that skips the pages which, according to the zone
+     * map, hold no tuple satisfying all of the given predicates. The tuples
+     * of the other pages are all returned; applying the predicates to them
+     * is left to the caller. Predicates added to the list later, but before
+     * the iterator is opened, are also used.
+     * 
+     * @param tid the transaction the scan runs in
+     * @param predicates predicates over the fields of this file
+     * @return an iterator over the tuples of the pages that may match
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, predicates);
+    } // end iterator(TransactionId, List<Predicate>)
+    
+    
     /**
      * Inner iterator class to iterate over all tuples in pages
      * in this HeapFile.
@@ -240,6 +540,9 @@ public class HeapFile implements DbFile {
     	/** Read only or read/write for some given instance */
     	private Permissions permission;
     	
+    	/** Pages the zone map rules out for these are skipped. */
+    	private List<Predicate> predicates;
+    	
     	/** Override default constructor. */
     	private HeapFileIterator() {}
     	
@@ -249,12 +552,15 @@ public class HeapFile implements DbFile {
     	 * 
     	 * @param tid	transaction id provided by caller
     	 * @param p		permission of the iterator
+    	 * @param predicates	predicates used to skip pages
     	 */
-    	private HeapFileIterator(TransactionId tid, Permissions p) {
-    		currPgNo = 0;
+    	private HeapFileIterator(TransactionId tid, Permissions p,
+    			List<Predicate> predicates) {
+    		currPgNo = -1;
     		opened = false;
     		this.tid = tid;
     		permission = p;
+    		this.predicates = predicates;
     	}
     	
     	
@@ -263,12 +569,11 @@ public class HeapFile implements DbFile {
     	 * Use default permission (read only).
     	 * 
     	 * @param tid 	transaction id provided by caller
-    	 * @param f		file to iterate over
-    	 * @param td	TupleDesc for the file to iterate over
+    	 * @param predicates	predicates used to skip pages
     	 */
-    	private HeapFileIterator(TransactionId tid) {
-    		this(tid, Permissions.READ_ONLY);
-    	} // end HeapFileIterator(TransactionId, File, TupleDesc)
+    	private HeapFileIterator(TransactionId tid, List<Predicate> predicates) {
+    		this(tid, Permissions.READ_ONLY, predicates);
+    	} // end HeapFileIterator(TransactionId, List<Predicate>)
     	
     	
     	/**
@@ -276,15 +581,39 @@ public class HeapFile implements DbFile {
     	 * and rewind() can be called.
     	 */
     	public void open() throws DbException, TransactionAbortedException {
-    		HeapPageId hpid = new HeapPageId(getId(), currPgNo);
-    		HeapPage hp = (HeapPage) Database.getBufferPool()
-				  	.getPage(tid, hpid, permission);
-    		
-    		currPgItr = hp.iterator();
+    		zoneMap.check();
+    		currPgNo = -1;
+    		currPgItr = new ArrayList<Tuple>().iterator();
     		opened = true;
     	} // end open()
     	
     	
+    	/**
+    	 * Fetches a page through the buffer pool. At the start of every
+    	 * read-ahead window, the whole window is first brought in with one
+    	 * multi-page read.
+    	 * 
+    	 * @param pgNo number of the page to fetch
+    	 * @return the page
+    	 */
+    	private HeapPage fetchPage(int pgNo)
+    			throws DbException, TransactionAbortedException {
+    		BufferPool bp = Database.getBufferPool();
+    		HeapPageId hpid = new HeapPageId(getId(), pgNo);
+    		if (pgNo % BufferPool.READ_AHEAD_PAGES == 0) {
+    			bp.readAhead(hpid, Math.min(BufferPool.READ_AHEAD_PAGES,
+    										numPages() - pgNo));
+    		}
+    		HeapPage page = (HeapPage) bp.getPage(tid, hpid, permission);
+    		
+    		// a clean page is what is on disk, so it can fill in the zone map
+    		if (page.isDirty() == null && !zoneMap.isKnown(pgNo)) {
+    			zoneMap.learn(page);
+    		}
+    		return page;
+    	} // end fetchPage(int)
+    	
+    	
     	/**
     	 * Checks whether there are more tuples in the file that can be read.
     	 * See general contract in DbIterator.java.
@@ -293,20 +622,16 @@ public class HeapFile implements DbFile {
     	 */
     	public boolean hasNext() throws DbException, TransactionAbortedException {
     		if (!opened) return false;
-    		if (currPgItr.hasNext()) return true;
-    		
-    		currPgNo++;
     		
-    		while (currPgNo < numPages()) {
-    			HeapPage p = (HeapPage) Database.getBufferPool().getPage(
-    					tid, new HeapPageId(getId(), currPgNo), permission);
-    			
-    			currPgItr = p.iterator();
-    			if (currPgItr.hasNext()) return true;
-    			else currPgNo++;
+    		while (!currPgItr.hasNext()) {
+    			currPgNo++;
+    			if (currPgNo >= numPages()) return false;
+    			if (zoneMap.mayMatch(currPgNo, predicates)) {
+    				currPgItr = fetchPage(currPgNo).iterator();
+    			}
     		}
     		
-    		return false;
+    		return true;
     	} // end hasNext()
     	
     	
@@ -342,7 +667,7 @@ public class HeapFile implements DbFile {
     	 * See general contract in DbIterator.java.
     	 */
     	public void close() {
-    		currPgNo = 0;
+    		currPgNo = -1;
     		currPgItr = null;
     		opened = false;
     	} // end close()
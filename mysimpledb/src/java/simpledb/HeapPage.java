@@ -6,6 +6,19 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p/>
+ * A page is kept in its on-disk form, a byte array, and decodes nothing up
+ * front: a tuple is created the first time it is returned, and its fields
+ * are decoded from the bytes the first time they are read (see
+ * {@link Tuple}). Inserting a tuple writes its fields straight into the
+ * bytes of its slot, so getPageData has nothing left to serialize and
+ * returns the bytes themselves.
+ * <p/>
+ * The bytes passed to the constructor are copied before the first change.
+ * <p/>
+ * The before-image is not a copy of the page but the old contents of the
+ * slots changed since it was last set, saved when each of them is first
+ * changed. A page that is only read keeps no before-image data at all.
  *
  * @see HeapFile
  * @see BufferPool
@@ -14,12 +27,38 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    /** The size of the header, which starts the page. */
+    private final int headerSize;
+
+    /** The page in its on-disk form. */
+    private byte[] data;
+
+    /**
+     * The header bits, 64 slots to a word, slot i in bit i % 64 of word
+     * i / 64; kept in step with the header bytes of data.
+     */
+    private final long[] used;
+
+    /** The number of slots not in use. */
+    private int numEmpty;
+
+    /** Whether data is the caller's array, so it must be copied first. */
+    private boolean shared;
+
+    /**
+     * The before-image: the bytes each slot changed since the last
+     * setBeforeImage had then, or null for unchanged slots; null if no slot
+     * changed.
+     */
+    private byte[][] undoSlots;
+
+    /** Whether each slot with saved bytes was used then. */
+    private BitSet undoUsed;
+
+    private final Object undoLock = new Object();
     
     private TransactionId lastTrnsctnToDirty;
 
@@ -29,54 +68,67 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
      * <p/>
      * ceiling(no. tuple slots / 8)
      * <p/>
+     * The page size is the length of data, so pages of different tables can
+     * differ in size (see {@link HeapFile#getPageSize()}). The page keeps
+     * data, which the caller must not modify afterwards.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see HeapFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
+        this.numSlots = slotsPerPage(td, data.length);
         this.lastTrnsctnToDirty = null;
-        
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.data = data;
+        this.shared = true;
+
+        // read the header into words
+        used = new long[(numSlots + 63) / 64];
+        for (int i = 0; i < headerSize; i++) {
+        	used[i / 8] |= (data[i] & 0xFFL) << (8 * (i % 8));
+        }
+        if (numSlots % 64 != 0) {						// ignore the padding
+        	used[used.length - 1] &= (1L << numSlots) - 1;
+        }
+        numEmpty = numSlots;
+        for (long w : used) {
+        	numEmpty -= Long.bitCount(w);
         }
-        dis.close();
 
-        setBeforeImage();
+        // tuples are decoded on demand
+        tuples = new Tuple[numSlots];
+        undoSlots = null;
+        undoUsed = null;
     } // end HeapPage(HeapPageId, byte[])
 
     
     /**
-     * Retrieve the number of tuples on this page.
-     *
-     * @return the number of tuples on this page
+     * Computes the number of slots of a page of pageSize bytes of a HeapFile
+     * with the given TupleDesc; each tuple takes td.getSize() bytes plus one
+     * header bit.
      */
-    private int getNumTuples() {
-        return (int) Math.floor((BufferPool.PAGE_SIZE * 8) /
+    static int slotsPerPage(TupleDesc td, int pageSize) {
+        return (int) Math.floor((pageSize * 8) /
         					 	(td.getSize() * 8 + 1));
-    } // end getNumTuples()
+    } // end slotsPerPage(TupleDesc, int)
+
+
+    /**
+     * Returns the number of bytes of this page, header included.
+     */
+    public int getPageSize() {
+        return data.length;
+    } // end getPageSize()
 
     
     /**
@@ -94,14 +146,23 @@ public class HeapPage implements Page {
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
+     * <p/>
+     * It is rebuilt from a copy of the page with the saved slots put back.
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
+            byte[] before = data.clone();
+            synchronized (undoLock) {
+                if (undoSlots != null) {
+                    for (int i = 0; i < numSlots; i++) {
+                        if (undoSlots[i] == null) continue;
+                        System.arraycopy(undoSlots[i], 0, before, slotOffset(i),
+                                undoSlots[i].length);
+                        setBit(before, i, undoUsed.get(i));
+                    }
+                }
             }
-            return new HeapPage(pid, oldDataRef);
+            return new HeapPage(pid, before);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -111,12 +172,47 @@ public class HeapPage implements Page {
     } // end getBeforeImage()
 
     
+    /**
+     * Takes the current contents as the before-image, by dropping the saved
+     * slots.
+     */
     public void setBeforeImage() {
-        synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+        synchronized (undoLock) {
+            undoSlots = null;
+            undoUsed = null;
         }
     } // end setBeforeImage()
 
+
+    /**
+     * Saves the contents of slot i for the before-image, unless they have
+     * been saved since the before-image was last set. Called before the
+     * slot is changed.
+     */
+    private void saveSlot(int i) {
+        synchronized (undoLock) {
+            if (undoSlots == null) {
+                undoSlots = new byte[numSlots][];
+                undoUsed = new BitSet(numSlots);
+            }
+            if (undoSlots[i] == null) {
+                undoSlots[i] = Arrays.copyOfRange(data, slotOffset(i), slotOffset(i + 1));
+                undoUsed.set(i, isSlotUsed(i));
+            }
+        }
+    } // end saveSlot(int)
+
+
+    /**
+     * @return whether any slot has been saved for the before-image since it
+     * was last set
+     */
+    boolean hasSavedSlots() {
+        synchronized (undoLock) {
+            return undoSlots != null;
+        }
+    } // end hasSavedSlots()
+
     
     /**
      * @return the PageId associated with this page.
@@ -127,38 +223,38 @@ public class HeapPage implements Page {
 
     
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in used slot i, creating it over the page bytes the
+     * first time it is asked for.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new Tuple(td, data, slotOffset(i));
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
         }
+        return t;
+    } // end tupleAt(int)
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
 
-        return t;
-    } // end readNextTuple(DataInputStream, int)
+    /**
+     * @return the offset of slot i in the page bytes
+     */
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    } // end slotOffset(int)
+
+
+    /**
+     * Copies the page bytes if they are the caller's, before they are
+     * changed.
+     */
+    private void ensureWritable() {
+        if (shared) {
+            data = data.clone();
+            shared = false;
+        }
+    } // end ensureWritable()
 
     
     /**
@@ -168,70 +264,17 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p/>
+     * The page is kept in this form, so the array returned is the page's
+     * own, without copying; the caller must not modify it, and must be done
+     * with it before the page changes again (flushing and logging write it
+     * out at once).
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() -
-        		(header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     } // end getPageData()
 
     
@@ -245,10 +288,18 @@ public class HeapPage implements Page {
      * @return The returned byte array.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; // all 0
+        return createEmptyPageData(BufferPool.getPageSize());
     } // end createEmptyPageData()
 
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HeapPage of pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; // all 0
+    } // end createEmptyPageData(int)
+
     
     /**
      * Delete the specified tuple from the page;  the tuple should be updated to reflect
@@ -266,7 +317,15 @@ public class HeapPage implements Page {
         	throw new DbException("tuple slot already empty");
         }
 
-        markSlotUsed(t.getRecordId().tupleno(), false);			// mark not used
+        int slot = t.getRecordId().tupleno();
+        ensureWritable();
+        saveSlot(slot);
+        if (tuples[slot] != null) {
+        	tuples[slot].detach();						// keep its fields
+        	tuples[slot] = null;
+        }
+        markSlotUsed(slot, false);						// mark not used
+        Arrays.fill(data, slotOffset(slot), slotOffset(slot + 1), (byte) 0);
     } // end deleteTuple(Tuple)
     
     
@@ -287,10 +346,19 @@ public class HeapPage implements Page {
         }
         
         int insertPos = 0;								// find empty spot
-        for (; insertPos < numSlots; insertPos++) {
-        	if (!isSlotUsed(insertPos)) break;			// break if empty
+        for (int w = 0; w < used.length; w++) {
+        	if (used[w] != -1L) {
+        		insertPos = w * 64 + Long.numberOfTrailingZeros(~used[w]);
+        		break;
+        	}
         }
         
+        ensureWritable();
+        saveSlot(insertPos);
+        int off = slotOffset(insertPos);				// write the fields
+        for (int j = 0; j < td.numFields(); j++) {
+        	td.getFieldType(j).write(t.getField(j), data, off + td.getFieldOffset(j));
+        }
         tuples[insertPos] = t;							// insert tuple
         markSlotUsed(insertPos, true);					// mark slot used
         
@@ -320,30 +388,86 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        for (int i = 0; i < numSlots; i++) {
-        	if (!isSlotUsed(i)) {
-        		count++;
-        	}
-        }
-        return count;
+        return numEmpty;
     } // end getNumEmptySlots()
     
     
+    /**
+     * Returns the tuple in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tupleAt(i) : null;
+    } // end getTuple(int)
+
+
+    /**
+     * Reads INT field f of the tuple in used slot i straight from the page
+     * bytes.
+     */
+    int readInt(int i, int f) {
+        return Type.readInt(data, slotOffset(i) + td.getFieldOffset(f));
+    } // end readInt(int, int)
+
+
+    /**
+     * Encodes STRING field f of the tuple in slot i, which must be in use,
+     * in a dictionary, from the page bytes.
+     *
+     * @return the code of the value in d
+     */
+    int encodeString(int i, int f, StringDictionary d) {
+        return d.encode(data, slotOffset(i) + td.getFieldOffset(f));
+    } // end encodeString(int, int, StringDictionary)
+
+    
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
         if (i < 0 || i >= numSlots) return false;
         
-        int bitPos = i % 8;
-        
-        return ((header[i / 8] >>> bitPos) & 1) == 1;
+        return (used[i >>> 6] & (1L << i)) != 0;
     } // end isSlotUsed(int)
 
+
+    /**
+     * Returns the first slot at or after i that is in use, or -1 if there
+     * is none.
+     */
+    int nextUsedSlot(int i) {
+        if (i < 0) i = 0;
+        if (i >= numSlots) return -1;
+        
+        int w = i >>> 6;
+        long word = used[w] & (-1L << i);				// drop the slots before i
+        while (word == 0) {
+        	if (++w == used.length) return -1;
+        	word = used[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    } // end nextUsedSlot(int)
+
     
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page, in the header words,
+     * the free count and the header bytes.
+     */
+    private void markSlotUsed(int i, boolean value) {
+    	if (isSlotUsed(i) == value) return;
+    	
+    	if (value) {
+    		used[i >>> 6] |= 1L << i;
+    		numEmpty--;
+    	} else {
+    		used[i >>> 6] &= ~(1L << i);
+    		numEmpty++;
+    	}
+    	setBit(data, i, value);							// write through
+    } // end markSlotUsed(int, boolean)
+
+
+    /**
+     * Sets or clears the header bit of slot i in the page bytes given.
      * 
      * method:
      *   if true, create mask such that 1 is on the bit
@@ -353,7 +477,7 @@ public class HeapPage implements Page {
      *     for the bit position for tuple index i, which has 0, and
      *     bitwise-AND the mask with the header to get the new header.
      */
-    private void markSlotUsed(int i, boolean value) {
+    private static void setBit(byte[] bytes, int i, boolean value) {
     	// calculate bit position and header byte
     	int bitPos = 1 << (i % Byte.SIZE);
     	int bytePos = i / Byte.SIZE;
@@ -363,11 +487,11 @@ public class HeapPage implements Page {
     	
     	// bitwise-OR or AND depending on value
     	if (value) {
-    		header[bytePos] = (byte) (header[bytePos] | mask);
+    		bytes[bytePos] = (byte) (bytes[bytePos] | mask);
     	} else {
-    		header[bytePos] = (byte) (header[bytePos] & mask);
+    		bytes[bytePos] = (byte) (bytes[bytePos] & mask);
     	}
-    } // end markSlotUsed(int, boolean)
+    } // end setBit(byte[], int, boolean)
 
     
     /**
@@ -388,19 +512,19 @@ public class HeapPage implements Page {
     	}
     	
     	public boolean hasNext() {
-    		for (int i = index; i < numSlots; i++) {
-    			if (isSlotUsed(i)) {
-    				index = i;
-    				return true;
-    			}
+    		int i = nextUsedSlot(index);
+    		if (i < 0) {
+    			index = numSlots;
+    			return false;
     		}
-    		return false;
+    		index = i;
+    		return true;
     	}
     	
     	public Tuple next() {
     		if (!hasNext()) throw new NoSuchElementException();
     		
-    		Tuple rv = tuples[index++];
+    		Tuple rv = tupleAt(index++);
     		return rv;
     	}
     	
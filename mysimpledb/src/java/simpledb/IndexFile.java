@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The interface for index files. An index file maps the values of one
+ * field of a table to the RecordIds of the table's tuples with those
+ * values. It is a DbFile in its own right, so its pages go through the
+ * buffer pool (and hence the lock manager and the log) like a table's;
+ * its tuples are the index entries (key, page number, slot).
+ * <p/>
+ * Indexes are registered with {@link Catalog#addIndex}, after which the
+ * buffer pool keeps them up to date as tuples are inserted into and
+ * deleted from the table.
+ *
+ * @see IndexScan
+ */
+public interface IndexFile extends DbFile {
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId();
+
+	/**
+	 * @return the index of the indexed field in the table's TupleDesc
+	 */
+	public int getKeyField();
+
+	/**
+	 * @return whether iterator(TransactionId, Predicate.Op, Field) can
+	 * answer predicates with the given operator
+	 */
+	public boolean supports(Predicate.Op op);
+
+	/**
+	 * @return about how many pages of the index a lookup reads before it
+	 * reaches the first matching entry; used for cost estimates
+	 */
+	public int lookupPages();
+
+	/**
+	 * Adds the entry for a tuple that was inserted into the table.
+	 *
+	 * @param tid the transaction inserting the tuple
+	 * @param t the tuple, with its RecordId set
+	 * @return the index pages that were modified
+	 */
+	public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException;
+
+	/**
+	 * Removes the entry for a tuple that is being deleted from the table.
+	 *
+	 * @param tid the transaction deleting the tuple
+	 * @param t the tuple, with its RecordId still set
+	 * @return the index pages that were modified
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException;
+
+	/**
+	 * Returns an iterator over the entries whose keys k satisfy
+	 * "k op key".
+	 *
+	 * @param tid the transaction reading the index
+	 * @param op an operator this index supports
+	 * @param key the value to compare keys to
+	 * @return an iterator over (key, page number, slot) entry tuples
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key);
+
+} // end IndexFile
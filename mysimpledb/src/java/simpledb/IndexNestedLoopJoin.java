@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equi-join whose inner
+ * relation is a table with an index on its join field: instead of
+ * scanning the inner table for every outer tuple, it looks the outer
+ * tuple's join value up in the index.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+	/** Serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Predicate on which the 2 child is joined. */
+    private JoinPredicate p;
+
+    /** Children iterator of this join; the second is the index lookup. */
+    private DbIterator[] children;
+
+    /** TupleDesc of the joined tuples. */
+    private TupleDesc td;
+
+    /** Flag for whether the iterator is open. */
+    private boolean opened;
+
+    /** The outer tuple the inner scan is positioned on, if any. */
+    private Tuple outer;
+
+
+    /**
+     * Constructor. Accepts the children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; must be an
+     *               EQUALS predicate on the inner table's indexed field
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Index scan of the right(inner) relation; it is reopened
+     *               with the join value of each outer tuple
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, IndexScan child2) {
+    	if (p.getOperator() != Predicate.Op.EQUALS
+    			|| p.getField2() != child2.getIndex().getKeyField()) {
+    		throw new IllegalArgumentException("not an equi-join on the indexed field");
+    	}
+    	this.p = p;
+    	children = new DbIterator[] {child1, child2};
+    	td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    	opened = false;
+    	outer = null;
+    } // end IndexNestedLoopJoin(JoinPredicate, DbIterator, IndexScan)
+
+
+    /**
+     * @return the predicate associated with this join
+     */
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    } // end getJoinPredicate()
+
+
+    /**
+     * @return the index scan of the inner relation
+     */
+    public IndexScan getIndexScan() {
+    	return (IndexScan) children[1];
+    } // end getIndexScan()
+
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     * name.
+     */
+    public String getJoinField1Name() {
+    	return children[0].getTupleDesc().getFieldName(p.getField1());
+    } // end getJoinField1Name()
+
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     * name.
+     */
+    public String getJoinField2Name() {
+    	return children[1].getTupleDesc().getFieldName(p.getField2());
+    } // end getJoinField2Name()
+
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    } // end getTupleDesc()
+
+
+    /**
+     * Opens the iterator. The inner scan is opened by the first lookup.
+     */
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        children[0].open();
+        outer = null;
+        opened = true;
+    } // end open()
+
+
+    public void close() {
+        super.close();
+        children[0].close();
+        children[1].close();
+        outer = null;
+        opened = false;
+    } // end close()
+
+
+    /**
+     * Rewinds the iterator.
+     *
+     * @throws DbException if iterator not opened.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!opened) {
+        	throw new DbException("iterator not opened");
+        }
+        children[0].rewind();
+        outer = null;
+    } // end rewind()
+
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple and one of the inner
+     * tuples the index finds for its join value, like those of {@link Join}.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!opened) throw new DbException("iterator not opened");
+
+        IndexScan inner = getIndexScan();
+        while (true) {
+        	if (outer != null && inner.hasNext()) {
+        		return Tuple.join(td, outer, inner.next());
+        	}
+        	if (!children[0].hasNext()) {
+        		return null;
+        	}
+        	outer = children[0].next();
+        	inner.reopen(outer.getField(p.getField1()));
+        }
+    } // end fetchNext()
+
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children;
+    } // end getChildren()
+
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    	if (!(children[1] instanceof IndexScan)) {
+    		throw new IllegalArgumentException("the inner child must be an IndexScan");
+    	}
+        this.children = children;
+        td = TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
+    } // end setChildren(DbIterator[])
+} // end IndexNestedLoopJoin
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a heap table whose
+ * value of an indexed field satisfies a predicate, by looking them up in an
+ * {@link IndexFile} instead of reading the whole table. Its tuples are named
+ * like those of a {@link SeqScan}.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableid;
+    private String alias;
+    private IndexFile index;
+    private Predicate predicate;
+    private DbFileIterator entries;
+    private Tuple next;
+
+    /**
+     * Creates a scan of the tuples t of a table with "t.f op key", where f
+     * is the field the index is on.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     * @param index      an index on the table to scan; must support op
+     * @param op         the comparison operator
+     * @param key        the value to compare the indexed field to
+     */
+    public IndexScan(TransactionId tid, String tableAlias, IndexFile index,
+                     Predicate.Op op, Field key) {
+        this.tid = tid;
+        this.tableid = index.getTableId();
+        this.alias = tableAlias;
+        this.index = index;
+        this.predicate = new Predicate(index.getKeyField(), op, key);
+        this.entries = index.iterator(tid, op, key);
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the index this operator reads
+     */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the predicate the returned tuples satisfy, over the fields of
+     * the table
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries.open();
+        next = null;
+    }
+
+    /**
+     * Opens the scan again on the tuples whose indexed field compares to a
+     * new key; an index nested-loop join probes its inner table this way.
+     *
+     * @param key the value to compare the indexed field to
+     */
+    public void reopen(Field key) throws DbException, TransactionAbortedException {
+        entries.close();
+        predicate = new Predicate(index.getKeyField(), predicate.getOp(), key);
+        entries = index.iterator(tid, predicate.getOp(), key);
+        open();
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed by the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] typeAr = new Type[td.numFields()];
+        String[] fieldAr = new String[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+            fieldAr[i] = alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
+    /**
+     * Fetches the tuple each entry points at from its heap page.
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (entries.hasNext()) {
+            Tuple e = entries.next();
+            HeapPageId pid = new HeapPageId(tableid,
+                    ((IntField) e.getField(1)).getValue());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, pid, Permissions.READ_ONLY);
+            Tuple t = page.getTuple(((IntField) e.getField(2)).getValue());
+            if (t != null && predicate.filter(t))
+                return t;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (next == null)
+            next = fetchNext();
+        return next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples");
+        Tuple rv = next;
+        next = null;
+        return rv;
+    }
+
+    public void close() {
+        entries.close();
+        next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        entries.rewind();
+        next = null;
+    }
+}
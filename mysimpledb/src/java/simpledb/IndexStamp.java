@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * IndexStamp records, in a side file next to an index kept in the buffer
+ * pool, the length and modification time the indexed heap file had when
+ * the index was last known to match it, as the header of a
+ * {@link ZoneMap} side file does. The stamp is written when the index is
+ * built and whenever the buffer pool has flushed all pages, and deleted
+ * before the first page write after that, so an index left over from a
+ * heap file that was since replaced, or that was not flushed, is rebuilt
+ * rather than trusted.
+ *
+ * @see BTreeFile
+ * @see HashIndexFile
+ */
+class IndexStamp {
+
+	/** Size of the stamp: data file length and modification time. */
+	private static final int SIZE = 16;
+
+	/** The side file the stamp is kept in. */
+	private final File stampFile;
+
+	/** The indexed table. */
+	private final int tableId;
+
+	/** Whether the stamp may be on disk. */
+	private boolean onDisk;
+
+
+	/**
+	 * Creates the stamp of an index, kept next to the index file with
+	 * ".stamp" appended to its name.
+	 *
+	 * @param indexFile the file of the index
+	 * @param tableId the indexed table, which must be a heap table in the
+	 *                catalog
+	 */
+	IndexStamp(File indexFile, int tableId) {
+		this.stampFile = new File(indexFile.getPath() + ".stamp");
+		this.tableId = tableId;
+		this.onDisk = true;
+	} // end IndexStamp(File, int)
+
+
+	/**
+	 * @return the heap file of the indexed table
+	 */
+	private File dataFile() {
+		return ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).getFile();
+	} // end dataFile()
+
+
+	/**
+	 * @return whether the stamp is on disk and matches the heap file
+	 */
+	synchronized boolean matches() {
+		if (!stampFile.exists() || stampFile.length() != SIZE) return false;
+		File dataFile = dataFile();
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(stampFile));
+			try {
+				return in.readLong() == dataFile.length()
+						&& in.readLong() == dataFile.lastModified();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	} // end matches()
+
+
+	/**
+	 * Stamps the index with the current length and modification time of
+	 * the heap file; only called when both are on disk in full.
+	 */
+	synchronized void write() throws IOException {
+		File dataFile = dataFile();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(stampFile));
+		try {
+			out.writeLong(dataFile.length());
+			out.writeLong(dataFile.lastModified());
+		} finally {
+			out.close();
+		}
+		onDisk = true;
+	} // end write()
+
+
+	/**
+	 * Deletes the stamp, if it is on disk; called before an index page is
+	 * written.
+	 */
+	synchronized void invalidate() {
+		if (!onDisk) return;
+		stampFile.delete();
+		onDisk = false;
+	} // end invalidate()
+
+} // end IndexStamp
@@ -48,29 +48,35 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two int values the way IntFields holding them compare.
+     *
+     * @see #compare(Predicate.Op, Field)
+     */
+    public static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
 
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
 
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
 
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
 
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
 
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
         }
 
         return false;
@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * IntHash is the integer mixer of the in-memory hash tables: of the hash
+ * joins, the batch aggregate and the string dictionaries. Those tables pick
+ * a slot with the low bits of a hash, which for the ints of a column are
+ * often all alike, so they spread the bits of their keys first.
+ */
+public class IntHash {
+
+    private IntHash() {
+    }
+
+    /**
+     * Spreads the bits of an int over the low bits, for table indexes.
+     */
+    public static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -13,8 +13,8 @@ public class IntegerAggregator implements Aggregator {
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
-    // a map of groupVal -> AggregateFields
-    private HashMap<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields; the key is null without grouping
+    private HashMap<Field, AggregateFields> groups;
 
     /**
      * Aggregate constructor
@@ -32,7 +32,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfield = gbfield;
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<String, AggregateFields>();
+        this.groups = new HashMap<Field, AggregateFields>();
     }
 
     /**
@@ -42,22 +42,22 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
+        Field groupVal = null;
         if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+            groupVal = tup.getField(gbfield);
         }
         AggregateFields agg = groups.get(groupVal);
         if (agg == null)
             agg = new AggregateFields(groupVal);
 
-        int x = ((IntField) tup.getField(afield)).getValue();
+        int x = tup.getInt(afield);
 
         agg.count++;
         agg.sum += x;
         agg.min = (x < agg.min ? x : agg.min);
         agg.max = (x > agg.max ? x : agg.max);
         if (what == Op.SC_AVG)
-            agg.sumCount += ((IntField) tup.getField(afield + 1)).getValue();
+            agg.sumCount += tup.getInt(afield + 1);
 
         groups.put(groupVal, agg);
     }
@@ -89,15 +89,12 @@ public class IntegerAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
-            AggregateFields agg = groups.get(groupVal);
+        for (Map.Entry<Field, AggregateFields> e : groups.entrySet()) {
+            AggregateFields agg = e.getValue();
             Tuple tup = new Tuple(td);
 
             if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+                tup.setField(0, e.getKey());
             }
             switch (what) {
                 case MIN:
@@ -136,10 +133,10 @@ public class IntegerAggregator implements Aggregator {
      * A helper struct to store accumulated aggregate values.
      */
     private class AggregateFields {
-        public String groupVal;
+        public Field groupVal;
         public int min, max, sum, count, sumCount;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             min = Integer.MAX_VALUE;
             max = Integer.MIN_VALUE;
@@ -4,6 +4,16 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p/>
+ * It is a nested-loop join that tests every pair of tuples against the
+ * predicate, so it answers any predicate. When opened, it reads the second
+ * child into memory if it fits in the memory budget (see
+ * {@link #setMemoryBudget}), and then tests each tuple of the first child
+ * against the cached tuples, reading the second child only once. If the
+ * second child does not fit, the join is a block nested-loop join: it reads
+ * a memory-full of tuples of the first child at a time, and tests each tuple
+ * of one scan of the second child against the whole block, so the second
+ * child is read once per block rather than once per tuple of the first.
  */
 public class Join extends Operator {
 
@@ -13,6 +23,9 @@ public class Join extends Operator {
     /** Predicate on which the 2 child is joined. */
     private JoinPredicate p;
     
+    /** The predicate compiled for the children's tuples, while open. */
+    private transient PredicateCompiler.JoinTest test;
+    
     /** Children iterator of this join. */
     private DbIterator[] children;
     
@@ -22,9 +35,29 @@ public class Join extends Operator {
     private Tuple next1;
     private Tuple next2;
     
+    /** The number of bytes of tuples the join holds in memory. */
+    private long memoryBudget;
+    
+    /**
+     * The tuples of the second child, when they fit in memory, and the next
+     * one to test against next1.
+     */
+    private transient Tuple[] inner;
+    private transient int innerPos;
+    
+    /**
+     * Otherwise, the block of tuples of the first child in memory, and the
+     * next one to test against next2.
+     */
+    private transient Tuple[] block;
+    private transient int blockSize, blockPos;
+    
     private String fieldName1;
     private String fieldName2;
     
+    /** The schema of the joined tuples, computed once for all of them. */
+    private TupleDesc td;
+    
     
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -42,11 +75,13 @@ public class Join extends Operator {
         opened = false;
         next1 = null;
         next2 = null;
+        memoryBudget = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
         
         // initialize field names
         String[] fNames = getFieldNames(child1, child2);
         fieldName1 = fNames[0];
         fieldName2 = fNames[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     } // end Join(JoinPredicate, DbIterator, DbIterator)
 
     
@@ -76,27 +111,82 @@ public class Join extends Operator {
     } // end getJoinField2Name()
     
 
+    /**
+     * Sets the number of bytes of tuples the join holds in memory: the
+     * second child, if it fits, or else a block of the first.
+     */
+    public void setMemoryBudget(long bytes) {
+    	memoryBudget = bytes;
+    } // end setMemoryBudget(long)
+    
+    
+    /**
+     * @return the number of tuples of a schema that fit in the memory budget
+     */
+    private int maxResident(TupleDesc td) {
+    	return (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget
+    			/ (td.getSize() + HashEquiJoin.TUPLE_OVERHEAD)));
+    } // end maxResident(TupleDesc)
+    
+    
     /**
      * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
      * implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.merge(children[0].getTupleDesc(),
-        					   children[1].getTupleDesc());
+        return td;
     } // end getTupleDesc()
 
     
     /**
      * Opens the iterator. Call this before calling rewind()
-     * and fetchNext().
+     * and fetchNext(). Reads the second child into memory, or, if it does
+     * not fit, the first block of the first child.
      */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
+        test = PredicateCompiler.compile(p, children[0].getTupleDesc(),
+        								 children[1].getTupleDesc());
         children[0].open();
         children[1].open();
+        
+        int max = maxResident(children[1].getTupleDesc());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (children[1].hasNext() && tuples.size() <= max) {
+        	tuples.add(children[1].next());
+        }
+        if (tuples.size() <= max) {
+        	inner = tuples.toArray(new Tuple[tuples.size()]);
+        	block = null;
+        } else {
+        	tuples = null;
+        	inner = null;
+        	block = new Tuple[maxResident(children[0].getTupleDesc())];
+        	children[1].rewind();
+        	readBlock();
+        }
+        next1 = null;
+        next2 = null;
         opened = true;
     } // end open()
+    
+    
+    /**
+     * Reads the next block of the first child into memory.
+     *
+     * @return whether the block holds any tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+    	blockSize = 0;
+    	while (blockSize < block.length && children[0].hasNext()) {
+    		block[blockSize++] = children[0].next();
+    	}
+    	for (int i = blockSize; i < block.length && block[i] != null; i++) {
+    		block[i] = null;
+    	}
+    	return blockSize > 0;
+    } // end readBlock()
 
     
     /**
@@ -107,12 +197,17 @@ public class Join extends Operator {
         super.close();
         children[0].close();
         children[1].close();
+        inner = null;
+        block = null;
+        next1 = null;
+        next2 = null;
         opened = false;
     } // end close()
 
     
     /**
-     * Rewinds the iterator.
+     * Rewinds the iterator. The second child is read again only if it is not
+     * in memory.
      * 
      * @throws DbException if iterator not opened.
      */
@@ -121,7 +216,10 @@ public class Join extends Operator {
         	throw new DbException("iterator not opened");
         }
         children[0].rewind();
-        children[1].rewind();
+        if (inner == null) {
+        	children[1].rewind();
+        	readBlock();
+        }
         next1 = null;
         next2 = null;
     } // end rewind()
@@ -141,6 +239,11 @@ public class Join extends Operator {
      * <p/>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
+     * <p/>
+     * With the second child in memory, the tuples come in the order of the
+     * first child and, for each of its tuples, of the second. Otherwise they
+     * come a block of the first child at a time, in the order of the second
+     * child within a block.
      *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
@@ -148,29 +251,46 @@ public class Join extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (!opened) throw new DbException("iterator not opened");
         
-        // check for empty table
-        if (!children[0].hasNext() || !children[1].hasNext()) {
-        	if (next1 == null || next2 == null) {
-        		return null;
+        if (inner != null) {
+        	// each tuple of the first child against the cached second child
+        	while (true) {
+        		if (next1 != null) {
+        			while (innerPos < inner.length) {
+        				Tuple t = inner[innerPos++];
+        				if (test.test(next1, t)) {
+        					return Tuple.join(td, next1, t);
+        				}
+        			}
+        		}
+        		if (!children[0].hasNext()) {
+        			next1 = null;
+        			return null;
+        		}
+        		next1 = children[0].next();
+        		innerPos = 0;
+        	}
+        }
+        
+        // each tuple of a scan of the second child against the block
+        while (blockSize > 0) {
+        	if (next2 != null) {
+        		while (blockPos < blockSize) {
+        			Tuple t = block[blockPos++];
+        			if (test.test(t, next2)) {
+        				return Tuple.join(td, t, next2);
+        			}
+        		}
+        	}
+        	if (children[1].hasNext()) {
+        		next2 = children[1].next();
+        		blockPos = 0;
+        	} else {
+        		next2 = null;
+        		if (readBlock()) {
+        			children[1].rewind();
+        		}
         	}
         }
-    	
-        // look for tuple
-    	while (true) {
-    		if (next1 == null && children[0].hasNext()) {
-    			next1 = children[0].next();
-    		}
-    		while (children[1].hasNext()) {
-    			next2 = children[1].next();
-    			if (p.filter(next1, next2)) {
-    				return merge(next1, next2);
-    			}
-    		}
-    		children[1].rewind();
-    		if (children[0].hasNext()) {
-    			next1 = children[0].next();
-    		} else break;
-    	}
         return null;
     } // end fetchNext()
 
@@ -191,6 +311,8 @@ public class Join extends Operator {
         String[] fNames = getFieldNames(children[0], children[1]);
         fieldName1 = fNames[0];
         fieldName2 = fNames[1];
+        td = TupleDesc.merge(children[0].getTupleDesc(),
+        					 children[1].getTupleDesc());
     } // end setChildren(DbIterator[])
     
     
@@ -200,20 +322,4 @@ public class Join extends Operator {
     	String[] rv = {fN1, fN2};
     	return rv;
     }
-    
-    
-    private Tuple merge(Tuple t1, Tuple t2) {
-    	TupleDesc td = TupleDesc.merge(next1.getTupleDesc(),
-    			next2.getTupleDesc());
-    	Tuple rv = new Tuple(td);
-    	for (int i = 0; i < next1.getTupleDesc().numFields(); i++) {
-    		rv.setField(i, next1.getField(i));
-    	}
-    	for (int j = next1.getTupleDesc().numFields();
-    			j < td.numFields(); j++) {
-    		rv.setField(j,
-    				next2.getField(j - next1.getTupleDesc().numFields()));
-    	}
-    	return rv;
-    }
 } // end Join
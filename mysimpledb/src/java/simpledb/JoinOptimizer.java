@@ -72,19 +72,20 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (DbIterator) ct
-                        .newInstance(new Object[]{p, plan1, plan2});
-            } catch (Exception e) {
+        // merge inputs that are in order of their join fields already, and
+        // range joins, which hashing cannot answer
+        boolean sorted = ExternalSort.isSorted(plan1, t1id)
+                || ExternalSort.isSorted(plan2, t2id);
+        try {
+            if (lj.p == Predicate.Op.EQUALS && !sorted) {
+                j = new HashEquiJoin(p, plan1, plan2);
+            } else if (SortMergeJoin.supports(lj.p)) {
+                j = new SortMergeJoin(p, plan1, plan2);
+            } else {
                 j = new Join(p, plan1, plan2);
             }
-        } else {
+        } catch (IllegalArgumentException e) {
+            // fields of different types: fall back on regular join
             j = new Join(p, plan1, plan2);
         }
 
@@ -246,6 +247,9 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
     	
+    	// nothing to order (e.g. a single-table query)
+    	if (joins.isEmpty()) return joins;
+    	
     	// set up cache
     	PlanCache bestPlans = new PlanCache();
     	
@@ -214,6 +214,7 @@ public class LockManager {
 	 */
 	public synchronized boolean holdsLock(TransactionId tid, PageId p) {
 		LinkedList<LockTableEntry> entries = lockTable.get(p);
+		if (entries == null) return false;	// never locked, e.g. read ahead
 		for (LockTableEntry e : entries) {
 			if (e.tid.equals(tid) && e.isGranted) {
 				return true;
@@ -223,6 +224,45 @@ public class LockManager {
 	} // end holdsLock(TransactionId, PageId)
 	
 	
+	/**
+	 * Checks whether a given transaction holds an exclusive lock on a
+	 * given page, i.e., whether it may have modified the page.
+	 * 
+	 * @param tid TransactionId of the given transaction
+	 * @param p PageId of the page to check
+	 * @return true if tid holds an exclusive lock on p, false otherwise
+	 */
+	public synchronized boolean holdsExclusiveLock(TransactionId tid, PageId p) {
+		LinkedList<LockTableEntry> entries = lockTable.get(p);
+		if (entries == null) return false;
+		for (LockTableEntry e : entries) {
+			if (e.tid.equals(tid) && e.isGranted && e.isExclusive) {
+				return true;
+			}
+		}
+		return false;
+	} // end holdsExclusiveLock(TransactionId, PageId)
+	
+	
+	/**
+	 * Checks whether any transaction holds an exclusive lock on a given
+	 * page, i.e., whether the page may have uncommitted changes.
+	 * 
+	 * @param p PageId of the page to check
+	 * @return true if some transaction holds an exclusive lock on p
+	 */
+	public synchronized boolean isLockedExclusively(PageId p) {
+		LinkedList<LockTableEntry> entries = lockTable.get(p);
+		if (entries == null) return false;
+		for (LockTableEntry e : entries) {
+			if (e.isGranted && e.isExclusive) {
+				return true;
+			}
+		}
+		return false;
+	} // end isLockedExclusively(PageId)
+	
+	
 	/** 
 	 * Abstraction to provide better access to an entry in the
 	 * lock table.
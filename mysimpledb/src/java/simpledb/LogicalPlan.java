@@ -3,10 +3,12 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
@@ -39,6 +41,21 @@ public class LogicalPlan {
     private String query;
 //    private Query owner;
 
+    /**
+     * Number of worker threads single-table queries scan with; 1 means
+     * plans use a serial SeqScan.
+     */
+    private static int parallelism = 1;
+
+    /**
+     * Whether single-table queries over heap tables run in the batch
+     * execution mode.
+     */
+    private static boolean batchMode = false;
+
+    /** Whether the tuples of the plan must keep their RecordIds. */
+    private boolean needsRecordIds = false;
+
     /**
      * Constructor -- generate an empty logical plan
      */
@@ -53,6 +70,52 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /**
+     * Sets the number of worker threads used to scan the table of a
+     * single-table query. With more than one worker, such queries use a
+     * {@link ParallelSeqScan} that evaluates the WHERE clause (and any
+     * aggregate) in its workers.
+     *
+     * @param numWorkers the number of scan workers; 1 disables parallel scans
+     */
+    public static void setParallelism(int numWorkers) {
+        parallelism = Math.max(numWorkers, 1);
+    }
+
+    /**
+     * @return the number of worker threads used for single-table scans
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets whether single-table queries over heap tables run in the batch
+     * execution mode: the scan, the WHERE clause and any aggregate are then
+     * planned as {@link BatchIterator}s under a {@link BatchToRows}.
+     *
+     * @param enabled true to plan such queries in batches
+     */
+    public static void setBatchMode(boolean enabled) {
+        batchMode = enabled;
+    }
+
+    /**
+     * @return whether single-table queries run in the batch execution mode
+     */
+    public static boolean isBatchMode() {
+        return batchMode;
+    }
+
+    /**
+     * Requires the tuples of the plan to keep their RecordIds, as those a
+     * {@link Delete} reads must; the batch execution mode drops them, so it
+     * is not used for such a plan.
+     */
+    public void setNeedsRecordIds(boolean needed) {
+        needsRecordIds = needed;
+    }
+
     /**
      * Set the text of the query representing this logical plan.  Does NOT parse the
      * specified query -- this method is just used so that the object can print the
@@ -315,16 +378,49 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashSet<LogicalFilterNode> indexedFilters = new HashSet<LogicalFilterNode>();
 
         // while there are more relations to process
         while (tableIt.hasNext()) {
         	// get the raw table to process
             LogicalScanNode table = tableIt.next();
             
-            // try to create a SeqScan on the raw table
-            SeqScan ss = null;
+            // try to create a SeqScan on the raw table; a lone heap table
+            // is scanned in parallel if that is enabled
+            DbIterator ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                TableStats stats = baseTableStats.get(Database.getCatalog().getTableName(table.t));
+                LogicalFilterNode lookup = (stats == null) ? null
+                        : chooseIndexFilter(table, stats);
+                ArrayList<LogicalFilterNode> bitmapped = (stats == null || lookup != null)
+                        ? null : chooseBitmapFilters(table, stats);
+                if (lookup != null) {
+                    // the index answers this filter; no Filter is needed for it
+                    IndexFile idx = indexOn(table.t, lookup.fieldPureName, lookup.p);
+                    ss = new IndexScan(t, table.alias, idx, lookup.p,
+                            new IntField(Integer.parseInt(lookup.c)));
+                    indexedFilters.add(lookup);
+                } else if (bitmapped != null) {
+                    // the bitmaps answer these filters; the WHERE clause is a
+                    // conjunction, so each disjunction has a single predicate
+                    TupleDesc td = f.getTupleDesc();
+                    ArrayList<Predicate[]> conjuncts = new ArrayList<Predicate[]>();
+                    for (LogicalFilterNode lf : bitmapped) {
+                        int field = td.fieldNameToIndex(lf.fieldPureName);
+                        conjuncts.add(new Predicate[] {new Predicate(field, lf.p,
+                                filterConstant(td.getFieldType(field), lf.c))});
+                    }
+                    ss = new BitmapScan(t, f.getId(), table.alias, conjuncts);
+                    indexedFilters.addAll(bitmapped);
+                } else if (parallelism > 1 && tables.size() == 1 && joins.isEmpty()
+                        && f instanceof HeapFile)
+                    ss = new ParallelSeqScan(t, f.getId(), table.alias, parallelism);
+                else if (f instanceof ColumnFile)
+                    ss = new ColumnScan(t, f.getId(), table.alias,
+                            neededColumns(table.alias, f.getTupleDesc()));
+                else
+                    ss = new SeqScan(t, f.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -368,16 +464,38 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (indexedFilters.contains(lf)) {
+                // already applied by the IndexScan or BitmapScan
+            } else if (subplan instanceof ParallelSeqScan) {
+                ((ParallelSeqScan) subplan).addPredicate(p);
+            } else {
+                // a scan under the filters of its table can skip pages
+                DbIterator scan = subplan;
+                while (scan instanceof Filter)
+                    scan = ((Filter) scan).getChildren()[0];
+                if (scan instanceof SeqScan)
+                    ((SeqScan) scan).addPagePredicate(p);
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are indexed by the base table's fields
+            TupleDesc baseTd = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            double sel = s.estimateSelectivity(baseTd.fieldNameToIndex(lf.fieldPureName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        // estimated cardinalities of the subplans, for choosing index joins
+        HashMap<String, Integer> subplanCards = new HashMap<String, Integer>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            subplanCards.put(table.alias, (s == null) ? 1
+                    : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
@@ -415,11 +533,26 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
-            DbIterator j;
-            j = jo.instantiateJoin(lj, plan1, plan2);
+            DbIterator j = null;
+            if (!isSubqueryJoin) {
+                j = indexJoin(t, lj, plan1, plan2, subplanCards.get(t1name),
+                        subplanCards.get(t2name), jo, statsMap);
+            }
+            if (j == null)
+                j = jo.instantiateJoin(lj, plan1, plan2);
+            if (j instanceof HashEquiJoin && !isSubqueryJoin) {
+                // hash the side estimated to be smaller
+                ((HashEquiJoin) j).setChildCardinalities(subplanCards.get(t1name),
+                        subplanCards.get(t2name));
+            }
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
+                String pkey1 = Database.getCatalog().getPrimaryKey(getTableId(lj.t1Alias));
+                String pkey2 = Database.getCatalog().getPrimaryKey(getTableId(lj.t2Alias));
+                subplanCards.put(t1name, jo.estimateJoinCardinality(lj,
+                        subplanCards.get(t1name), subplanCards.get(t2name),
+                        pkey1.equals(lj.f1PureName), pkey2.equals(lj.f2PureName), statsMap));
                 subplanMap.remove(t2name);
                 equivMap.put(t2name, t1name);  //keep track of the fact that this new node contains both tables
                 //make sure anything that was equiv to lj.t2 (which we are just removed) is
@@ -492,22 +625,29 @@ public class LogicalPlan {
             }
         }
 
+        // a filtered scan of a heap table can run in batches
+        BatchIterator batch = (batchMode && !needsRecordIds) ? toBatch(t, node) : null;
+
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.fieldNameToIndex(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.fieldNameToIndex(groupByField),
-                        getAggOp(aggOp));
+                int afield = td.fieldNameToIndex(aggField);
+                int gfield = groupByField == null ? Aggregator.NO_GROUPING
+                        : td.fieldNameToIndex(groupByField);
+                if (batch != null)
+                    batch = new BatchAggregate(batch, afield, gfield, getAggOp(aggOp));
+                else
+                    node = new Aggregate(node, afield, gfield, getAggOp(aggOp));
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
+        if (batch != null)
+            node = new BatchToRows(batch);
+
         if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
@@ -515,6 +655,263 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Returns the batch-mode form of a plan that is a {@link SeqScan} of a
+     * heap table under any number of {@link Filter}s, or null for any other
+     * plan.
+     *
+     * @param t    the transaction running the plan
+     * @param plan the row-mode plan
+     */
+    private BatchIterator toBatch(TransactionId t, DbIterator plan) {
+        if (plan instanceof Filter) {
+            BatchIterator child = toBatch(t, ((Filter) plan).getChildren()[0]);
+            return (child == null) ? null
+                    : new BatchFilter(((Filter) plan).getPredicate(), child);
+        } else if (plan instanceof SeqScan) {
+            String alias = ((SeqScan) plan).getAlias();
+            int tableId = getTableId(alias);
+            if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+                return null;
+            return new BatchSeqScan(t, tableId, alias);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index on a field of a table, other than a bitmap index,
+     * that answers predicates with the given operator, if there is one; of
+     * several, the one with the cheapest lookups.
+     *
+     * @param tableId the id of the table
+     * @param field   the name of the field
+     * @param op      the operator
+     * @return the index, or null
+     */
+    private IndexFile indexOn(int tableId, String field, Predicate.Op op) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        IndexFile best = null;
+        for (IndexFile idx : Database.getCatalog().getIndexes(tableId)) {
+            // bitmap indexes are read through BitmapScans
+            if (idx instanceof BitmapIndex)
+                continue;
+            if (td.getFieldName(idx.getKeyField()).equals(field) && idx.supports(op)
+                    && (best == null || idx.lookupPages() < best.lookupPages()))
+                best = idx;
+        }
+        return best;
+    }
+
+    /**
+     * Builds an index nested-loop join for an equi-join whose inner side is
+     * a table, with an index on its join field, that is only filtered so
+     * far. It is used if probing the index once per outer tuple is
+     * estimated to cost less than the join the optimizer would instantiate
+     * otherwise (not counting the outer plan, which both read once). The
+     * filters on the inner table are then applied to the joined tuples.
+     *
+     * @param t     the transaction running the plan
+     * @param lj    the join
+     * @param plan1 the outer plan
+     * @param plan2 the inner plan
+     * @param card1 the estimated cardinality of the outer plan
+     * @param card2 the estimated cardinality of the inner plan
+     * @param jo    the join optimizer
+     * @param stats the statistics of the base tables, by table name
+     * @return the join, or null to instantiate one with jo
+     */
+    private DbIterator indexJoin(TransactionId t, LogicalJoinNode lj,
+                                 DbIterator plan1, DbIterator plan2, int card1, int card2,
+                                 JoinOptimizer jo, Map<String, TableStats> stats)
+            throws ParsingException {
+        if (lj.p != Predicate.Op.EQUALS)
+            return null;
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        DbIterator scan = plan2;
+        while (scan instanceof Filter) {
+            preds.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        if (!(scan instanceof SeqScan))
+            return null;
+        int tableId = getTableId(lj.t2Alias);
+        IndexFile idx = indexOn(tableId, lj.f2PureName, Predicate.Op.EQUALS);
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (idx == null || s == null)
+            return null;
+        TupleDesc td1 = plan1.getTupleDesc();
+        int field1;
+        try {
+            field1 = td1.fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        if (td1.getFieldType(field1) != Type.INT_TYPE)
+            return null;
+
+        double probeCost = s.estimateIndexScanCost(idx.lookupPages(),
+                1.0 / Math.max(1, s.numDistinctValues(idx.getKeyField())));
+        if ((double) card1 * probeCost
+                >= jo.estimateJoinCost(lj, card1, card2, 0, s.estimateScanCost()))
+            return null;
+
+        IndexScan inner = new IndexScan(t, lj.t2Alias, idx, Predicate.Op.EQUALS,
+                new IntField(0));
+        DbIterator j = new IndexNestedLoopJoin(new JoinPredicate(field1,
+                Predicate.Op.EQUALS, idx.getKeyField()), plan1, inner);
+        for (int i = preds.size() - 1; i >= 0; i--) {
+            Predicate p = preds.get(i);
+            j = new Filter(new Predicate(p.getField() + td1.numFields(),
+                    p.getOp(), p.getOperand()), j);
+        }
+        return j;
+    }
+
+    /**
+     * Picks the filter on a table that is best answered with an index: the
+     * one over an INT field with an index that supports its operator whose
+     * matches are the cheapest to read through the index, provided that
+     * this is estimated to cost less than scanning the table.
+     *
+     * @param table the table
+     * @param stats the statistics of the table
+     * @return the filter to answer with an IndexScan, or null to scan the
+     * table
+     */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, TableStats stats) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        LogicalFilterNode best = null;
+        double bestCost = 0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            IndexFile idx = indexOn(table.t, lf.fieldPureName, lf.p);
+            if (idx == null || td.getFieldType(idx.getKeyField()) != Type.INT_TYPE)
+                continue;
+            IntField key;
+            try {
+                key = new IntField(Integer.parseInt(lf.c));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            double cost = stats.estimateIndexScanCost(idx.lookupPages(),
+                    stats.estimateSelectivity(idx.getKeyField(), lf.p, key));
+            if (best == null || cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        if (best != null && bestCost < stats.estimateScanCost())
+            return best;
+        return null;
+    }
+
+    /**
+     * Picks the filters on a table to answer with a {@link BitmapScan}: all
+     * those on fields with a bitmap index, provided that reading the pages
+     * that hold the tuples satisfying all of them is estimated to cost less
+     * than scanning the table.
+     *
+     * @param table the table
+     * @param stats the statistics of the table
+     * @return the filters, or null to scan the table
+     */
+    private ArrayList<LogicalFilterNode> chooseBitmapFilters(LogicalScanNode table,
+                                                             TableStats stats) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<LogicalFilterNode> rv = new ArrayList<LogicalFilterNode>();
+        double sel = 1.0;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias))
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                continue;
+            }
+            Field key = filterConstant(td.getFieldType(field), lf.c);
+            if (key == null || BitmapScan.bitmapIndexOn(table.t, field) == null)
+                continue;
+            rv.add(lf);
+            sel *= stats.estimateSelectivity(field, lf.p, key);
+        }
+        if (!rv.isEmpty() && stats.estimateBitmapScanCost(sel) < stats.estimateScanCost())
+            return rv;
+        return null;
+    }
+
+    /**
+     * @return the constant of a filter as a field of the given type, or null
+     * if it is not a valid INT_TYPE value
+     */
+    private static Field filterConstant(Type type, String c) {
+        if (type == Type.STRING_TYPE)
+            return new StringField(c, Type.STRING_LEN);
+        try {
+            return new IntField(Integer.parseInt(c));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes which fields of a table the plan refers to through the given
+     * alias, so that a column-stored table only has those columns read.
+     *
+     * @param alias the alias of the table
+     * @param td    the TupleDesc of the table
+     * @return the indexes of the fields used, in increasing order; all
+     * fields for SELECT *, and the first field if none is used
+     */
+    private int[] neededColumns(String alias, TupleDesc td) {
+        TreeSet<String> names = new TreeSet<String>();
+        ArrayList<String> qualified = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                names.clear();
+                qualified.clear();
+                for (int i = 0; i < td.numFields(); i++)
+                    names.add(td.getFieldName(i));
+                break;
+            }
+            qualified.add(si.fname);
+        }
+        qualified.add(aggField);
+        qualified.add(groupByField);
+        qualified.add(oByField);
+        for (String q : qualified) {
+            if (q != null && q.startsWith(alias + "."))
+                names.add(q.substring(alias.length() + 1));
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                names.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (lj.t1Alias.equals(alias))
+                names.add(lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode) && lj.t2Alias.equals(alias))
+                names.add(lj.f2PureName);
+        }
+
+        TreeSet<Integer> cols = new TreeSet<Integer>();
+        for (String n : names) {
+            try {
+                cols.add(td.fieldNameToIndex(n));
+            } catch (NoSuchElementException e) {
+                // reported when the plan is built
+            }
+        }
+        if (cols.isEmpty())
+            cols.add(0);
+        int[] rv = new int[cols.size()];
+        int i = 0;
+        for (Integer c : cols)
+            rv[i++] = c;
+        return rv;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -27,6 +27,9 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            return updateSortMergeJoinCardinality((SortMergeJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -89,116 +92,120 @@ public class OperatorCardinality {
     private static boolean updateJoinCardinality(Join j,
                                                  Map<String, Integer> tableAliasToId,
                                                  Map<String, TableStats> tableStats) {
-
-        DbIterator[] children = j.getChildren();
-        DbIterator child1 = children[0];
-        DbIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
-
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
-        String tableAlias1 = tmp1[0];
-        String pureFieldName1 = tmp1[1];
-
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
-        String tableAlias2 = tmp2[0];
-        String pureFieldName2 = tmp2[1];
-
-        boolean child1HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias1))
-                .equals(pureFieldName1);
-        boolean child2HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias2))
-                .equals(pureFieldName2);
-
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
-                pureFieldName1, pureFieldName2, child1Card, child2Card,
-                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
-        return child1HasJoinPK || child2HasJoinPK;
+        return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getChildren(), tableAliasToId, tableStats);
     }
 
+    /**
+     * Estimates the cardinality of a hash join; the child cardinalities the
+     * planner chose its build side from are left as they are.
+     */
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
                                                          Map<String, Integer> tableAliasToId,
                                                          Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getChildren(), tableAliasToId, tableStats);
+    }
+
+    private static boolean updateSortMergeJoinCardinality(SortMergeJoin j,
+                                                          Map<String, Integer> tableAliasToId,
+                                                          Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getChildren(), tableAliasToId, tableStats);
+    }
 
-        DbIterator[] children = j.getChildren();
-        DbIterator child1 = children[0];
-        DbIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
+    /**
+     * Updates the cardinalities of the children of a join of any kind, then
+     * estimates that of the join.
+     *
+     * @param j          the join
+     * @param p          its predicate
+     * @param field1Name the name of its first join field, quantified by alias
+     * @param field2Name the name of its second join field, quantified by alias
+     * @param children   its two children
+     * @return whether either join field is a primary key of its side
+     */
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate p,
+                                                 String field1Name, String field2Name,
+                                                 DbIterator[] children,
+                                                 Map<String, Integer> tableAliasToId,
+                                                 Map<String, TableStats> tableStats) {
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = field1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+
+        String[] tmp2 = field2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
         boolean child1HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias1))
                 .equals(pureFieldName1);
-        ;
         boolean child2HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias2))
                 .equals(pureFieldName2);
-        ;
 
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        if (children[0] instanceof Operator) {
+            child1HasJoinPK = updateOperatorCardinality((Operator) children[0],
+                    tableAliasToId, tableStats) || child1HasJoinPK;
         }
-
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        if (children[1] instanceof Operator) {
+            child2HasJoinPK = updateOperatorCardinality((Operator) children[1],
+                    tableAliasToId, tableStats) || child2HasJoinPK;
         }
+        int child1Card = childCardinality(children[0], tableStats);
+        int child2Card = childCardinality(children[1], tableStats);
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                        .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                p.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    /**
+     * @return the estimated cardinality of the child of a join, once that
+     * of an operator child has been updated
+     */
+    private static int childCardinality(DbIterator child,
+                                        Map<String, TableStats> tableStats) {
+        if (child instanceof Operator) {
+            int card = ((Operator) child).getEstimatedCardinality();
+            return card > 0 ? card : 1;
+        } else if (child instanceof SeqScan) {
+            return tableStats.get(((SeqScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        } else if (child instanceof ParallelSeqScan) {
+            return tableStats.get(((ParallelSeqScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        } else if (child instanceof ColumnScan) {
+            return tableStats.get(((ColumnScan) child).getTableName())
+                    .estimateTableCardinality(1.0);
+        } else if (child instanceof IndexScan) {
+            IndexScan scan = (IndexScan) child;
+            TableStats stats = tableStats.get(scan.getTableName());
+            Predicate p = scan.getPredicate();
+            return stats.estimateTableCardinality(stats.estimateSelectivity(
+                    p.getField(), p.getOp(), p.getOperand())) + 1;
+        } else if (child instanceof BitmapScan) {
+            // a conjunction of disjunctions of predicates
+            BitmapScan scan = (BitmapScan) child;
+            TableStats stats = tableStats.get(scan.getTableName());
+            double selectivity = 1.0;
+            for (Predicate[] disjuncts : scan.getConjuncts()) {
+                double any = 0.0;
+                for (Predicate p : disjuncts) {
+                    any += stats.estimateSelectivity(p.getField(), p.getOp(),
+                            p.getOperand());
+                }
+                selectivity *= Math.min(any, 1.0);
+            }
+            return stats.estimateTableCardinality(selectivity) + 1;
+        }
+        return 1;
+    }
+
     private static boolean updateAggregateCardinality(Aggregate a,
                                                       Map<String, Integer> tableAliasToId,
                                                       Map<String, TableStats> tableStats) {
@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCodec turns the on-disk image of a {@link HeapPage} into a compact
+ * encoding and back, for {@link CompressedHeapFile}. Encoding works in two
+ * steps:
+ * <ol>
+ * <li>The page is re-laid out without padding: the header is kept, empty
+ * slots are dropped, int fields are kept as is and string fields are
+ * replaced by an index into a per-page dictionary of the distinct strings
+ * on the page, stored once each without their zero padding.</li>
+ * <li>The result is compressed with {@link BlockCompressor}.</li>
+ * </ol>
+ * Decoding restores the exact bytes HeapPage.getPageData() produced, so the
+ * in-memory pages are ordinary HeapPages.
+ */
+public class PageCodec {
+
+	/** Description of the tuples on the pages. */
+	private final TupleDesc td;
+
+	/** Bytes per (uncompressed) page. */
+	private final int pageSize;
+
+	/** Number of tuple slots on a page. */
+	private final int numSlots;
+
+	/** Number of header bytes on a page. */
+	private final int headerSize;
+
+
+	/**
+	 * Constructor.
+	 *
+	 * @param td the TupleDesc of the pages to encode
+	 * @param pageSize the size of an uncompressed page
+	 */
+	public PageCodec(TupleDesc td, int pageSize) {
+		this.td = td;
+		this.pageSize = pageSize;
+		this.numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+		this.headerSize = (int) Math.ceil(numSlots / 8.0);
+	} // end PageCodec(TupleDesc, int)
+
+
+	/**
+	 * Encodes a page image.
+	 *
+	 * @param page the bytes of a HeapPage
+	 * @return the encoded page; its first four bytes are the length of
+	 * the dictionary-encoded form, needed to decompress it
+	 */
+	public byte[] encode(byte[] page) {
+		ByteArrayOutputStream dict = new ByteArrayOutputStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(pageSize);
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+		body.write(page, 0, headerSize);
+		int off = headerSize;
+		for (int i = 0; i < numSlots; i++, off += td.getSize()) {
+			if (!isSlotUsed(page, i)) continue;
+
+			int fieldOff = off;
+			for (int j = 0; j < td.numFields(); j++) {
+				if (td.getFieldType(j) == Type.INT_TYPE) {
+					body.write(page, fieldOff, 4);
+				} else {
+					int len = Math.max(0, Math.min(readInt(page, fieldOff),
+												   Type.STRING_LEN));
+					// key on the raw bytes, one char per byte
+					String key;
+					try {
+						key = new String(page, fieldOff + 4, len, "ISO-8859-1");
+					} catch (UnsupportedEncodingException e) {
+						throw new RuntimeException(e);
+					}
+					Integer id = ids.get(key);
+					if (id == null) {
+						id = ids.size();
+						ids.put(key, id);
+						writeVarInt(dict, len);
+						dict.write(page, fieldOff + 4, len);
+					}
+					writeVarInt(body, id);
+				}
+				fieldOff += td.getFieldType(j).getLen();
+			}
+		}
+
+		ByteArrayOutputStream raw = new ByteArrayOutputStream(pageSize);
+		writeVarInt(raw, ids.size());
+		byte[] d = dict.toByteArray();
+		raw.write(d, 0, d.length);
+		byte[] b = body.toByteArray();
+		raw.write(b, 0, b.length);
+
+		byte[] rawBytes = raw.toByteArray();
+		byte[] compressed = BlockCompressor.compress(rawBytes, rawBytes.length);
+		byte[] rv = new byte[4 + compressed.length];
+		writeInt(rv, 0, rawBytes.length);
+		System.arraycopy(compressed, 0, rv, 4, compressed.length);
+		return rv;
+	} // end encode(byte[])
+
+
+	/**
+	 * Decodes a page encoded by {@link #encode}.
+	 *
+	 * @param enc the encoded page
+	 * @return the bytes of the HeapPage
+	 * @throws IllegalArgumentException if enc is corrupt
+	 */
+	public byte[] decode(byte[] enc) {
+		byte[] raw = BlockCompressor.decompress(
+				Arrays.copyOfRange(enc, 4, enc.length), readInt(enc, 0));
+		byte[] page = new byte[pageSize];
+		int[] pos = new int[] {0};
+
+		// dictionary, as offsets and lengths into raw
+		int dictSize = readVarInt(raw, pos);
+		int[] strOff = new int[dictSize];
+		int[] strLen = new int[dictSize];
+		for (int k = 0; k < dictSize; k++) {
+			strLen[k] = readVarInt(raw, pos);
+			strOff[k] = pos[0];
+			pos[0] += strLen[k];
+		}
+
+		System.arraycopy(raw, pos[0], page, 0, headerSize);
+		pos[0] += headerSize;
+		int off = headerSize;
+		for (int i = 0; i < numSlots; i++, off += td.getSize()) {
+			if (!isSlotUsed(page, i)) continue;
+
+			int fieldOff = off;
+			for (int j = 0; j < td.numFields(); j++) {
+				if (td.getFieldType(j) == Type.INT_TYPE) {
+					System.arraycopy(raw, pos[0], page, fieldOff, 4);
+					pos[0] += 4;
+				} else {
+					int id = readVarInt(raw, pos);
+					writeInt(page, fieldOff, strLen[id]);
+					System.arraycopy(raw, strOff[id], page, fieldOff + 4, strLen[id]);
+					// rest of the field stays zero-padded
+				}
+				fieldOff += td.getFieldType(j).getLen();
+			}
+		}
+		return page;
+	} // end decode(byte[])
+
+
+	private boolean isSlotUsed(byte[] page, int i) {
+		return ((page[i / 8] >>> (i % 8)) & 1) == 1;
+	} // end isSlotUsed(byte[], int)
+
+
+	private static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+				| ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+	} // end readInt(byte[], int)
+
+
+	private static void writeInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	} // end writeInt(byte[], int, int)
+
+
+	private static void writeVarInt(ByteArrayOutputStream out, int v) {
+		while ((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	} // end writeVarInt(ByteArrayOutputStream, int)
+
+
+	/**
+	 * Reads a varint at pos[0], advancing pos[0] past it.
+	 */
+	private static int readVarInt(byte[] b, int[] pos) {
+		int v = 0;
+		int shift = 0;
+		int x;
+		do {
+			x = b[pos[0]++] & 0xff;
+			v |= (x & 0x7f) << shift;
+			shift += 7;
+		} while ((x & 0x80) != 0);
+		return v;
+	} // end readVarInt(byte[], int[])
+
+} // end PageCodec
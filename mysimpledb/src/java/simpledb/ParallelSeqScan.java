@@ -0,0 +1,439 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan is a sequential scan of a HeapFile that is split across a
+ * pool of worker threads. The page range of the file is cut into morsels of
+ * MORSEL_PAGES consecutive pages; each worker repeatedly claims the next
+ * unprocessed morsel, reads its pages through the buffer pool (as part of
+ * the scan's transaction) and applies the scan's predicates to its tuples.
+ * Surviving tuples are handed to the consumer in per-morsel batches, so the
+ * order of the output is not defined.
+ * <p/>
+ * Predicates added with {@link #addPredicate} are evaluated inside the
+ * workers, and an {@link Aggregate} directly over a ParallelSeqScan computes
+ * partial aggregates inside the workers as well (see {@link #aggregate}).
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages handed to a worker at a time. */
+    static final int MORSEL_PAGES = 16;
+
+    /** Marker a worker puts on the queue when it runs out of morsels. */
+    private static final List<Tuple> END = Collections.emptyList();
+
+    private TransactionId tid;
+    private int tableid;
+    private String alias;
+    private HeapFile file;
+    private int numWorkers;
+
+    /** Predicates every returned tuple satisfies. */
+    private ArrayList<Predicate> predicates;
+
+    private transient ExecutorService pool;
+    private transient Run run;
+    private transient Iterator<Tuple> current;
+    private transient int finishedWorkers;
+    private transient boolean opened;
+
+
+    /**
+     * Constructor.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; must be stored in a HeapFile.
+     * @param tableAlias the alias of this table (see {@link SeqScan})
+     * @param numWorkers the number of worker threads to scan with
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+                           int numWorkers) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.numWorkers = Math.max(numWorkers, 1);
+        this.file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        this.predicates = new ArrayList<Predicate>();
+        this.opened = false;
+    } // end ParallelSeqScan(TransactionId, int, String, int)
+
+
+    /**
+     * Adds a predicate that is evaluated by the workers; only tuples that
+     * satisfy all added predicates are returned.
+     *
+     * @param p a predicate over the fields of the scanned table
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    } // end addPredicate(Predicate)
+
+
+    /**
+     * @return the predicates evaluated by this scan
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    } // end getPredicates()
+
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    } // end getTableName()
+
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    } // end getAlias()
+
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed by the
+     * table alias, like {@link SeqScan#getTupleDesc}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = file.getTupleDesc();
+        Type[] typeAr = new Type[td.numFields()];
+        String[] fieldAr = new String[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+            fieldAr[i] = alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    } // end getTupleDesc()
+
+
+    /**
+     * Opens the scan. Workers are only started by the first call to
+     * hasNext() or next(), so that an Aggregate over this scan can run its
+     * own workers instead.
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        file.getZoneMap().check();
+        opened = true;
+        pool = null;
+    } // end open()
+
+
+    /**
+     * Starts the workers, each of which streams its tuples into the queue
+     * of a new run. The workers only see the state of their own run, so
+     * that workers of a closed run cannot feed a later one.
+     */
+    private void start() {
+        final Run r = new Run(new ArrayBlockingQueue<List<Tuple>>(numWorkers * 4));
+        run = r;
+        current = null;
+        finishedWorkers = 0;
+        pool = Executors.newFixedThreadPool(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            pool.submit(new Runnable() {
+                public void run() {
+                    try {
+                        scanMorsels(r, new QueueSink(r));
+                    } catch (InterruptedException e) {
+                        return;		// closed; nobody is listening
+                    } catch (Exception e) {
+                        r.failure = e;
+                    }
+                    try {
+                        r.put(END);
+                    } catch (InterruptedException e) {
+                        // closed; nobody is listening
+                    }
+                }
+            });
+        }
+    } // end start()
+
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!opened) throw new IllegalStateException("iterator not opened");
+        if (pool == null) start();
+
+        while (current == null || !current.hasNext()) {
+            if (finishedWorkers == numWorkers) {
+                rethrowFailure(run.failure);
+                return false;
+            }
+            List<Tuple> batch;
+            try {
+                batch = run.queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while scanning");
+            }
+            if (batch == END) {
+                finishedWorkers++;
+            } else {
+                current = batch.iterator();
+            }
+        }
+        return true;
+    } // end hasNext()
+
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext()) throw new NoSuchElementException("no more tuples");
+        return current.next();
+    } // end next()
+
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    } // end rewind()
+
+
+    /**
+     * Closes the scan, stopping its workers and waiting for them to finish,
+     * so that none of them reads a page for the transaction after this
+     * returns.
+     */
+    public void close() {
+        if (pool != null) {
+            run.cancelled = true;
+            pool.shutdownNow();
+            // the lock manager ignores interrupts, but a lock wait times out
+            try {
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // a worker is still waiting for a page
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+        run = null;
+        current = null;
+        opened = false;
+    } // end close()
+
+
+    /**
+     * Computes an aggregate over the tuples of this scan with the workers:
+     * each worker merges the tuples of its morsels into a private partial
+     * aggregate, and the partial results are then combined. AVG is computed
+     * from partial SUM_COUNT results, COUNT by summing partial counts.
+     *
+     * @param afield the field to aggregate
+     * @param gfield the field to group by, or Aggregator.NO_GROUPING
+     * @param aop    the aggregation operator
+     * @return an iterator over the aggregate results, in the format of
+     * {@link Aggregator#iterator}, or null if aop cannot be computed from
+     * partial aggregates
+     */
+    public DbIterator aggregate(int afield, int gfield, Aggregator.Op aop)
+            throws DbException, TransactionAbortedException {
+        final Aggregator.Op partialOp;
+        Aggregator.Op finalOp;
+        switch (aop) {
+            case MIN:
+            case MAX:
+            case SUM:
+                partialOp = aop;
+                finalOp = aop;
+                break;
+            case COUNT:
+                partialOp = Aggregator.Op.COUNT;
+                finalOp = Aggregator.Op.SUM;
+                break;
+            case AVG:
+                partialOp = Aggregator.Op.SUM_COUNT;
+                finalOp = Aggregator.Op.SC_AVG;
+                break;
+            default:
+                return null;
+        }
+
+        final TupleDesc td = file.getTupleDesc();
+        final int af = afield;
+        final int gf = gfield;
+        final Type gtype = gfield == Aggregator.NO_GROUPING
+                ? null : td.getFieldType(gfield);
+
+        // each worker aggregates its morsels privately
+        final Run r = new Run(null);
+        ArrayList<Callable<Aggregator>> tasks = new ArrayList<Callable<Aggregator>>();
+        for (int i = 0; i < numWorkers; i++) {
+            tasks.add(new Callable<Aggregator>() {
+                public Aggregator call() throws Exception {
+                    final Aggregator partial;
+                    if (td.getFieldType(af) == Type.INT_TYPE) {
+                        partial = new IntegerAggregator(gf, gtype, af, partialOp);
+                    } else {
+                        partial = new StringAggregator(gf, gtype, af, partialOp);
+                    }
+                    scanMorsels(r, new Sink() {
+                        public void add(Tuple t) {
+                            partial.mergeTupleIntoGroup(t);
+                        }
+
+                        public void morselDone() {
+                        }
+                    });
+                    return partial;
+                }
+            });
+        }
+
+        // combine the partial results
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        IntegerAggregator combined = new IntegerAggregator(
+                grouped ? 0 : Aggregator.NO_GROUPING, gtype,
+                grouped ? 1 : 0, finalOp);
+        ExecutorService aggPool = Executors.newFixedThreadPool(numWorkers);
+        try {
+            for (Future<Aggregator> f : aggPool.invokeAll(tasks)) {
+                DbIterator it = f.get().iterator();
+                it.open();
+                while (it.hasNext()) {
+                    combined.mergeTupleIntoGroup(it.next());
+                }
+                it.close();
+            }
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while aggregating");
+        } catch (ExecutionException e) {
+            rethrowFailure((Exception) e.getCause());
+        } finally {
+            r.cancelled = true;
+            aggPool.shutdownNow();
+        }
+
+        return combined.iterator();
+    } // end aggregate(int, int, Aggregator.Op)
+
+
+    /**
+     * Body of a worker: claims morsels of a run until none are left, or the
+     * run is cancelled, passing the tuples that satisfy the predicates to
+     * sink.
+     */
+    private void scanMorsels(Run r, Sink sink) throws DbException,
+            TransactionAbortedException, InterruptedException {
+        BufferPool bp = Database.getBufferPool();
+        ZoneMap zoneMap = file.getZoneMap();
+        int numPages = file.numPages();
+        int tableId = file.getId();
+
+        int morsel;
+        while ((morsel = r.nextMorsel.getAndIncrement()) * MORSEL_PAGES < numPages) {
+            if (r.cancelled || Thread.interrupted()) throw new InterruptedException();
+
+            int first = morsel * MORSEL_PAGES;
+            int last = Math.min(first + MORSEL_PAGES, numPages);
+            bp.readAhead(new HeapPageId(tableId, first), last - first);
+            for (int pgNo = first; pgNo < last; pgNo++) {
+                if (!zoneMap.mayMatch(pgNo, predicates)) continue;
+                HeapPage page = (HeapPage) bp.getPage(tid,
+                        new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+                if (r.cancelled) throw new InterruptedException();
+                if (page.isDirty() == null && !zoneMap.isKnown(pgNo))
+                    zoneMap.learn(page);
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (satisfiesAll(t)) sink.add(t);
+                }
+            }
+            sink.morselDone();
+        }
+    } // end scanMorsels(Sink)
+
+
+    /**
+     * @return true if t satisfies every predicate of this scan
+     */
+    private boolean satisfiesAll(Tuple t) {
+        for (int i = 0; i < predicates.size(); i++) {
+            if (!predicates.get(i).filter(t)) return false;
+        }
+        return true;
+    } // end satisfiesAll(Tuple)
+
+
+    /**
+     * Rethrows an exception raised by a worker, if any.
+     *
+     * @param e the exception, or null
+     */
+    private void rethrowFailure(Exception e) throws DbException, TransactionAbortedException {
+        if (e == null) return;
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        } else if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        throw new DbException("parallel scan failed: " + e);
+    } // end rethrowFailure()
+
+
+    /** Receives the tuples a worker produces. */
+    private interface Sink {
+        void add(Tuple t) throws InterruptedException;
+
+        void morselDone() throws InterruptedException;
+    } // end Sink
+
+
+    /**
+     * The state the workers of one run share: the queue of batches for the
+     * consumer (null when aggregating), the next morsel to claim, whether
+     * the run was cancelled and the exception a worker failed with.
+     */
+    private static class Run {
+        final BlockingQueue<List<Tuple>> queue;
+        final AtomicInteger nextMorsel = new AtomicInteger(0);
+        volatile boolean cancelled;
+        volatile Exception failure;
+
+        Run(BlockingQueue<List<Tuple>> queue) {
+            this.queue = queue;
+        }
+
+        /**
+         * Puts a batch on the queue, waiting for room unless the run is
+         * cancelled.
+         */
+        void put(List<Tuple> batch) throws InterruptedException {
+            while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                if (cancelled) throw new InterruptedException();
+            }
+        }
+    } // end Run
+
+
+    /** Sink that hands tuples to the consumer one morsel at a time. */
+    private static class QueueSink implements Sink {
+        private final Run run;
+        private ArrayList<Tuple> batch = new ArrayList<Tuple>();
+
+        QueueSink(Run run) {
+            this.run = run;
+        }
+
+        public void add(Tuple t) {
+            batch.add(t);
+        }
+
+        public void morselDone() throws InterruptedException {
+            if (!batch.isEmpty()) {
+                run.put(batch);
+                batch = new ArrayList<Tuple>();
+            }
+        }
+    } // end QueueSink
+
+} // end ParallelSeqScan
@@ -428,6 +428,7 @@ public class Parser {
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
+        lp.setNeedsRecordIds(true);
 
         DbIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
@@ -473,6 +474,35 @@ public class Parser {
         }
     }
 
+    /**
+     * Compacts a heap table (VACUUM tableName), which SQL parsing does
+     * not know about. Runs in its own transactions, so it is refused
+     * inside a user transaction.
+     */
+    public void handleVacuumStatement(String tableName) {
+        if (inUserTrans) {
+            System.out.println("Can't vacuum inside a transaction.");
+            return;
+        }
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(tableName));
+            if (!(f instanceof HeapFile)) {
+                System.out.println("Table " + tableName + " can't be vacuumed.");
+                return;
+            }
+            int removed = ((HeapFile) f).vacuum();
+            System.out.println("Vacuumed " + tableName + ": " + removed
+                    + " pages removed.");
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + tableName);
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -502,9 +532,20 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Runs one statement. VACUUM is handled here, since ZQL can't parse
+     * it; everything else goes to the SQL parser.
+     */
     public void processNextStatement(String s) {
+        String cmd = s.trim();
+        if (cmd.toLowerCase().matches("(?s)vacuum\\s.*")) {
+            if (cmd.endsWith(";"))
+                cmd = cmd.substring(0, cmd.length() - 1);
+            handleVacuumStatement(cmd.substring(7).trim());
+            return;
+        }
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            runStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -512,6 +553,19 @@ public class Parser {
     }
 
     public void processNextStatement(InputStream is) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                bos.write(buf, 0, n);
+            processNextStatement(bos.toString("UTF-8"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void runStatement(InputStream is) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
@@ -592,11 +646,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into"};
+            "insert", "delete", "values", "into", "vacuum"};
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -606,7 +660,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-parallel numWorkers] [-batch] [-f queryFile]";
 
     protected void shutdown() {
         System.out.println("Bye");
@@ -626,6 +680,18 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected number of workers after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    LogicalPlan.setParallelism(Integer.parseInt(argv[i]));
+                    System.out.println("Scanning with " + LogicalPlan.getParallelism()
+                            + " workers.");
+                } else if (argv[i].equals("-batch")) {
+                    LogicalPlan.setBatchMode(true);
+                    System.out.println("Batch execution mode enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
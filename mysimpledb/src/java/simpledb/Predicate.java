@@ -107,6 +107,11 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
+        // INT fields are compared without decoding them
+        if (operand instanceof IntField
+                && t.getTupleDesc().getFieldType(fieldNo) == Type.INT_TYPE) {
+            return IntField.compare(t.getInt(fieldNo), op, ((IntField) operand).getValue());
+        }
         return t.getField(fieldNo).compare(op, operand);
     } // end filter(Tuple)
 
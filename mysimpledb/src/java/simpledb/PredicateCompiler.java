@@ -0,0 +1,167 @@
+package simpledb;
+
+/**
+ * PredicateCompiler turns a {@link Predicate} or {@link JoinPredicate}, once
+ * the schema of the tuples it will test is known, into an object of a class
+ * specialized for its operator and field types. A comparison of INT fields
+ * then reads the ints with {@link Tuple#getInt} and compares them with the
+ * operator of its class, instead of going through {@link Field#compare} and
+ * its switch on the operator for every tuple, and creates no Fields. Other
+ * comparisons fall back to Field.compare.
+ * <p/>
+ * The operators call their compiled tests through one interface call site
+ * each, shared by all predicate classes in use; with more than two of them
+ * loaded that call is megamorphic and is not inlined, so what is saved is
+ * the per-tuple switch and the Fields, not the call.
+ * <p/>
+ * Operators compile their predicates when they are opened.
+ */
+public class PredicateCompiler {
+
+    /**
+     * A compiled {@link Predicate}.
+     */
+    public interface TupleTest {
+        /**
+         * @return whether t satisfies the predicate
+         */
+        public boolean test(Tuple t);
+    }
+
+    /**
+     * A compiled {@link JoinPredicate}.
+     */
+    public interface JoinTest {
+        /**
+         * @return whether t1 and t2 satisfy the predicate
+         */
+        public boolean test(Tuple t1, Tuple t2);
+    }
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Compiles a predicate over tuples of a schema.
+     *
+     * @param p  the predicate
+     * @param td the schema of the tuples that will be tested
+     * @return the compiled predicate
+     */
+    public static TupleTest compile(Predicate p, TupleDesc td) {
+        final int f = p.getField();
+        final Predicate.Op op = p.getOp();
+        final Field operand = p.getOperand();
+        if (td.getFieldType(f) != Type.INT_TYPE || !(operand instanceof IntField)) {
+            return new TupleTest() {
+                public boolean test(Tuple t) {
+                    return t.getField(f).compare(op, operand);
+                }
+            };
+        }
+
+        final int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) == v;
+                    }
+                };
+            case NOT_EQUALS:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) != v;
+                    }
+                };
+            case GREATER_THAN:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) > v;
+                    }
+                };
+            case GREATER_THAN_OR_EQ:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) >= v;
+                    }
+                };
+            case LESS_THAN:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) < v;
+                    }
+                };
+            case LESS_THAN_OR_EQ:
+                return new TupleTest() {
+                    public boolean test(Tuple t) {
+                        return t.getInt(f) <= v;
+                    }
+                };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /**
+     * Compiles a join predicate over pairs of tuples of two schemas.
+     *
+     * @param p   the join predicate
+     * @param td1 the schema of the first tuple of the pairs
+     * @param td2 the schema of the second tuple of the pairs
+     * @return the compiled predicate
+     */
+    public static JoinTest compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        final int f1 = p.getField1();
+        final int f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+        if (td1.getFieldType(f1) != Type.INT_TYPE || td2.getFieldType(f2) != Type.INT_TYPE) {
+            return new JoinTest() {
+                public boolean test(Tuple t1, Tuple t2) {
+                    return t1.getField(f1).compare(op, t2.getField(f2));
+                }
+            };
+        }
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) == t2.getInt(f2);
+                    }
+                };
+            case NOT_EQUALS:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) != t2.getInt(f2);
+                    }
+                };
+            case GREATER_THAN:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) > t2.getInt(f2);
+                    }
+                };
+            case GREATER_THAN_OR_EQ:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) >= t2.getInt(f2);
+                    }
+                };
+            case LESS_THAN:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) < t2.getInt(f2);
+                    }
+                };
+            case LESS_THAN_OR_EQ:
+                return new JoinTest() {
+                    public boolean test(Tuple t1, Tuple t2) {
+                        return t1.getInt(f1) <= t2.getInt(f2);
+                    }
+                };
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+}
@@ -11,6 +11,7 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -29,6 +30,9 @@ public class Project extends Operator {
                    DbIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -59,7 +63,9 @@ public class Project extends Operator {
 
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the child
-     * operator, projecting out the fields from the tuple
+     * operator, projecting out the fields from the tuple; the projections
+     * refer to the child's tuples rather than copy their fields (see
+     * {@link Tuple#project})
      *
      * @return The next tuple, or null if there are no more tuples
      */
@@ -67,12 +73,7 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+            return t.project(td, outFields);
         }
         return null;
     }
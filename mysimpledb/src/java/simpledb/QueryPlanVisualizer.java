@@ -10,6 +10,8 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
@@ -22,12 +24,13 @@ public class QueryPlanVisualizer {
         if (root == null)
             return 0;
 
-        if (!(root instanceof Operator))
+        if (!(root instanceof Operator) || root instanceof BatchToRows)
             return 2;
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof SortMergeJoin || o instanceof IndexNestedLoopJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -64,17 +67,78 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan
+                || queryPlan instanceof ParallelSeqScan
+                || queryPlan instanceof ColumnScan
+                || queryPlan instanceof IndexScan
+                || queryPlan instanceof BitmapScan
+                || queryPlan instanceof BatchToRows) {
+            String tableName, alias;
+            String scan = SCAN, cond = "";
+            if (queryPlan instanceof SeqScan) {
+                tableName = ((SeqScan) queryPlan).getTableName();
+                alias = ((SeqScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof ColumnScan) {
+                tableName = ((ColumnScan) queryPlan).getTableName();
+                alias = ((ColumnScan) queryPlan).getAlias();
+            } else if (queryPlan instanceof IndexScan) {
+                IndexScan is = (IndexScan) queryPlan;
+                tableName = is.getTableName();
+                alias = is.getAlias();
+                Predicate p = is.getPredicate();
+                scan = "index " + SCAN;
+                cond = String.format(", %1$s%2$s%3$s",
+                        is.getTupleDesc().getFieldName(p.getField()),
+                        p.getOp(), p.getOperand());
+            } else if (queryPlan instanceof BitmapScan) {
+                BitmapScan bs = (BitmapScan) queryPlan;
+                tableName = bs.getTableName();
+                alias = bs.getAlias();
+                scan = "bitmap " + SCAN;
+                TupleDesc td = bs.getTupleDesc();
+                for (Predicate[] any : bs.getConjuncts()) {
+                    String or = "";
+                    for (Predicate p : any) {
+                        or += String.format("%1$s%2$s%3$s%4$s", or.equals("") ? "" : " OR ",
+                                td.getFieldName(p.getField()), p.getOp(), p.getOperand());
+                    }
+                    cond += ", " + or;
+                }
+            } else if (queryPlan instanceof BatchToRows) {
+                // the batch operators over the scan, from the bottom up
+                scan = "batch " + SCAN;
+                BatchIterator b = ((BatchToRows) queryPlan).getBatchChild();
+                while (true) {
+                    if (b instanceof BatchFilter) {
+                        Predicate p = ((BatchFilter) b).getPredicate();
+                        cond = String.format(", %1$s(%2$s%3$s%4$s)", SELECT,
+                                b.getTupleDesc().getFieldName(p.getField()),
+                                p.getOp(), p.getOperand()) + cond;
+                        b = ((BatchFilter) b).getChild();
+                    } else if (b instanceof BatchAggregate) {
+                        cond = ", " + GROUPBY + cond;
+                        b = ((BatchAggregate) b).getChild();
+                    } else {
+                        break;
+                    }
+                }
+                if (b instanceof BatchSeqScan) {
+                    tableName = ((BatchSeqScan) b).getTableName();
+                    alias = ((BatchSeqScan) b).getAlias();
+                } else {
+                    tableName = alias = b.getClass().getSimpleName();
+                }
+            } else {
+                tableName = ((ParallelSeqScan) queryPlan).getTableName();
+                alias = ((ParallelSeqScan) queryPlan).getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", scan, tableName + alias + cond);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -135,18 +199,30 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin
+                    || plan instanceof SortMergeJoin
+                    || plan instanceof IndexNestedLoopJoin) {
+                JoinPredicate jp;
+                String joinText;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    joinText = HASH_JOIN;
+                } else if (plan instanceof SortMergeJoin) {
+                    jp = ((SortMergeJoin) plan).getJoinPredicate();
+                    joinText = MERGE_JOIN;
+                } else {
+                    jp = ((IndexNestedLoopJoin) plan).getJoinPredicate();
+                    joinText = INDEX_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2, j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", joinText, field1
+                        + jp.getOperator() + field2, plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (joinText.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = joinText.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -155,7 +231,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - joinText.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
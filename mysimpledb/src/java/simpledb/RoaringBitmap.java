@@ -0,0 +1,558 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * RoaringBitmap is a compressed set of non-negative ints, after the Roaring
+ * bitmaps of Chambi, Lemire et al. The ints are grouped by their upper 16
+ * bits; the lower 16 bits of each group are kept in a container, a sorted
+ * array while the group has at most ARRAY_MAX members and a plain bitmap
+ * of 2^16 bits otherwise. Sparse and dense sets thus both take little
+ * space, and AND and OR work one pair of containers at a time.
+ * <p/>
+ * The results of and and or share no containers with their operands.
+ */
+public class RoaringBitmap {
+
+	/** The largest number of ints an array container holds. */
+	static final int ARRAY_MAX = 4096;
+
+	/** The upper 16 bits of the ints of each container, in increasing order. */
+	private char[] keys;
+
+	/** The containers. */
+	private Container[] containers;
+
+	/** The number of containers. */
+	private int size;
+
+
+	/**
+	 * Creates an empty bitmap.
+	 */
+	public RoaringBitmap() {
+		keys = new char[4];
+		containers = new Container[4];
+		size = 0;
+	} // end RoaringBitmap()
+
+
+	/**
+	 * Adds x to the set.
+	 *
+	 * @param x a non-negative int
+	 */
+	public void add(int x) {
+		char high = (char) (x >>> 16);
+		int i = find(high);
+		if (i >= 0) {
+			containers[i] = containers[i].add((char) x);
+		} else {
+			insert(-i - 1, high, new ArrayContainer().add((char) x));
+		}
+	} // end add(int)
+
+
+	/**
+	 * Removes x from the set.
+	 *
+	 * @param x a non-negative int
+	 */
+	public void remove(int x) {
+		int i = find((char) (x >>> 16));
+		if (i < 0) {
+			return;
+		}
+		containers[i] = containers[i].remove((char) x);
+		if (containers[i].cardinality == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			containers[--size] = null;
+		}
+	} // end remove(int)
+
+
+	/**
+	 * @return whether x is in the set
+	 */
+	public boolean contains(int x) {
+		int i = find((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	} // end contains(int)
+
+
+	/**
+	 * @return the number of ints in the set
+	 */
+	public int cardinality() {
+		int rv = 0;
+		for (int i = 0; i < size; i++) {
+			rv += containers[i].cardinality;
+		}
+		return rv;
+	} // end cardinality()
+
+
+	/**
+	 * @return whether the set is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	} // end isEmpty()
+
+
+	/**
+	 * @return the intersection of a and b
+	 */
+	public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+		RoaringBitmap rv = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Container c = a.containers[i].and(b.containers[j]);
+				if (c.cardinality > 0) {
+					rv.insert(rv.size, a.keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		return rv;
+	} // end and(RoaringBitmap, RoaringBitmap)
+
+
+	/**
+	 * @return the union of a and b
+	 */
+	public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+		RoaringBitmap rv = new RoaringBitmap();
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				rv.insert(rv.size, a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i == a.size || a.keys[i] > b.keys[j]) {
+				rv.insert(rv.size, b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				rv.insert(rv.size, a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return rv;
+	} // end or(RoaringBitmap, RoaringBitmap)
+
+
+	/**
+	 * @return an iterator over the ints in the set, in increasing order
+	 */
+	public IntIterator iterator() {
+		return new IntIterator();
+	} // end iterator()
+
+
+	/**
+	 * Writes the set to a stream in a form {@link #deserialize} reads back.
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		dos.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			dos.writeChar(keys[i]);
+			dos.writeInt(containers[i].cardinality);
+			containers[i].write(dos);
+		}
+	} // end serialize(DataOutputStream)
+
+
+	/**
+	 * Reads a set written by {@link #serialize}.
+	 */
+	public static RoaringBitmap deserialize(DataInputStream dis) throws IOException {
+		RoaringBitmap rv = new RoaringBitmap();
+		int n = dis.readInt();
+		for (int i = 0; i < n; i++) {
+			char high = dis.readChar();
+			int card = dis.readInt();
+			Container c;
+			if (card > ARRAY_MAX) {
+				BitmapContainer bc = new BitmapContainer();
+				for (int w = 0; w < bc.words.length; w++) {
+					bc.words[w] = dis.readLong();
+				}
+				c = bc;
+			} else {
+				char[] values = new char[card];
+				for (int v = 0; v < card; v++) {
+					values[v] = dis.readChar();
+				}
+				c = new ArrayContainer(values, card);
+			}
+			c.cardinality = card;
+			rv.insert(rv.size, high, c);
+		}
+		return rv;
+	} // end deserialize(DataInputStream)
+
+
+	/**
+	 * @return the position of the container for high, or (-(insertion
+	 * point) - 1) if there is none
+	 */
+	private int find(char high) {
+		return Arrays.binarySearch(keys, 0, size, high);
+	} // end find(char)
+
+
+	/**
+	 * Inserts a container at position i.
+	 */
+	private void insert(int i, char high, Container c) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = high;
+		containers[i] = c;
+		size++;
+	} // end insert(int, char, Container)
+
+
+	/**
+	 * An iterator over the ints of a bitmap, in increasing order, that does
+	 * not box them.
+	 */
+	public class IntIterator {
+
+		/** The container the next int is in. */
+		private int i = 0;
+
+		/** The next int, or -1 if there are no more. */
+		private int next = -1;
+
+		private IntIterator() {
+			advance(0);
+		} // end IntIterator()
+
+
+		public boolean hasNext() {
+			return next >= 0;
+		} // end hasNext()
+
+
+		public int next() {
+			if (next < 0) {
+				throw new NoSuchElementException();
+			}
+			int rv = next;
+			advance((rv & 0xFFFF) + 1);
+			return rv;
+		} // end next()
+
+
+		/**
+		 * Moves to the smallest int of container i or a later one whose
+		 * lower 16 bits are at least from in container i.
+		 */
+		private void advance(int from) {
+			while (i < size) {
+				int low = containers[i].nextValue(from);
+				if (low >= 0) {
+					next = (keys[i] << 16) | low;
+					return;
+				}
+				i++;
+				from = 0;
+			}
+			next = -1;
+		} // end advance(int)
+
+	} // end IntIterator
+
+
+	/**
+	 * A set of 16-bit values. Adding and removing may turn a container into
+	 * one of the other kind, so add and remove return the container that
+	 * holds the result.
+	 */
+	private static abstract class Container {
+
+		/** The number of values in the set. */
+		int cardinality;
+
+		abstract Container add(char x);
+
+		abstract Container remove(char x);
+
+		abstract boolean contains(char x);
+
+		abstract Container and(Container o);
+
+		abstract Container or(Container o);
+
+		abstract Container copy();
+
+		/**
+		 * @return the smallest value that is at least from, or -1
+		 */
+		abstract int nextValue(int from);
+
+		/** Writes the values; the cardinality is written by the caller. */
+		abstract void write(DataOutputStream dos) throws IOException;
+
+	} // end Container
+
+
+	/**
+	 * A container of at most ARRAY_MAX values, kept in a sorted array.
+	 */
+	private static final class ArrayContainer extends Container {
+
+		char[] values;
+
+		ArrayContainer() {
+			values = new char[4];
+			cardinality = 0;
+		} // end ArrayContainer()
+
+
+		ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		} // end ArrayContainer(char[], int)
+
+
+		Container add(char x) {
+			int i = Arrays.binarySearch(values, 0, cardinality, x);
+			if (i >= 0) {
+				return this;
+			}
+			if (cardinality == ARRAY_MAX) {
+				return toBitmap().add(x);
+			}
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality * 2)));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = x;
+			cardinality++;
+			return this;
+		} // end add(char)
+
+
+		Container remove(char x) {
+			int i = Arrays.binarySearch(values, 0, cardinality, x);
+			if (i >= 0) {
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+			}
+			return this;
+		} // end remove(char)
+
+
+		boolean contains(char x) {
+			return Arrays.binarySearch(values, 0, cardinality, x) >= 0;
+		} // end contains(char)
+
+
+		Container and(Container o) {
+			char[] rv = new char[cardinality];
+			int n = 0;
+			if (o instanceof ArrayContainer) {
+				ArrayContainer a = (ArrayContainer) o;
+				int i = 0, j = 0;
+				while (i < cardinality && j < a.cardinality) {
+					if (values[i] < a.values[j]) {
+						i++;
+					} else if (values[i] > a.values[j]) {
+						j++;
+					} else {
+						rv[n++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			} else {
+				for (int i = 0; i < cardinality; i++) {
+					if (o.contains(values[i])) {
+						rv[n++] = values[i];
+					}
+				}
+			}
+			return new ArrayContainer(rv, n);
+		} // end and(Container)
+
+
+		Container or(Container o) {
+			if (o instanceof BitmapContainer) {
+				return o.or(this);
+			}
+			ArrayContainer a = (ArrayContainer) o;
+			char[] rv = new char[cardinality + a.cardinality];
+			int n = 0, i = 0, j = 0;
+			while (i < cardinality || j < a.cardinality) {
+				if (j == a.cardinality || (i < cardinality && values[i] < a.values[j])) {
+					rv[n++] = values[i++];
+				} else if (i == cardinality || values[i] > a.values[j]) {
+					rv[n++] = a.values[j++];
+				} else {
+					rv[n++] = values[i++];
+					j++;
+				}
+			}
+			ArrayContainer merged = new ArrayContainer(rv, n);
+			return (n > ARRAY_MAX) ? merged.toBitmap() : merged;
+		} // end or(Container)
+
+
+		Container copy() {
+			return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+		} // end copy()
+
+
+		int nextValue(int from) {
+			if (from > 0xFFFF) {
+				return -1;
+			}
+			int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			return (i < cardinality) ? values[i] : -1;
+		} // end nextValue(int)
+
+
+		void write(DataOutputStream dos) throws IOException {
+			for (int i = 0; i < cardinality; i++) {
+				dos.writeChar(values[i]);
+			}
+		} // end write(DataOutputStream)
+
+
+		BitmapContainer toBitmap() {
+			BitmapContainer rv = new BitmapContainer();
+			for (int i = 0; i < cardinality; i++) {
+				rv.add(values[i]);
+			}
+			return rv;
+		} // end toBitmap()
+
+	} // end ArrayContainer
+
+
+	/**
+	 * A container of more than ARRAY_MAX values, kept as 2^16 bits.
+	 */
+	private static final class BitmapContainer extends Container {
+
+		final long[] words = new long[1024];
+
+		Container add(char x) {
+			long bit = 1L << x;
+			if ((words[x >>> 6] & bit) == 0) {
+				words[x >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		} // end add(char)
+
+
+		Container remove(char x) {
+			long bit = 1L << x;
+			if ((words[x >>> 6] & bit) != 0) {
+				words[x >>> 6] &= ~bit;
+				cardinality--;
+			}
+			return (cardinality > ARRAY_MAX) ? this : toArray();
+		} // end remove(char)
+
+
+		boolean contains(char x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		} // end contains(char)
+
+
+		Container and(Container o) {
+			if (o instanceof ArrayContainer) {
+				return o.and(this);
+			}
+			BitmapContainer b = (BitmapContainer) o;
+			BitmapContainer rv = new BitmapContainer();
+			for (int w = 0; w < words.length; w++) {
+				rv.words[w] = words[w] & b.words[w];
+				rv.cardinality += Long.bitCount(rv.words[w]);
+			}
+			return (rv.cardinality > ARRAY_MAX) ? rv : rv.toArray();
+		} // end and(Container)
+
+
+		Container or(Container o) {
+			BitmapContainer rv = (BitmapContainer) copy();
+			if (o instanceof ArrayContainer) {
+				ArrayContainer a = (ArrayContainer) o;
+				for (int i = 0; i < a.cardinality; i++) {
+					rv.add(a.values[i]);
+				}
+				return rv;
+			}
+			BitmapContainer b = (BitmapContainer) o;
+			rv.cardinality = 0;
+			for (int w = 0; w < words.length; w++) {
+				rv.words[w] |= b.words[w];
+				rv.cardinality += Long.bitCount(rv.words[w]);
+			}
+			return rv;
+		} // end or(Container)
+
+
+		Container copy() {
+			BitmapContainer rv = new BitmapContainer();
+			System.arraycopy(words, 0, rv.words, 0, words.length);
+			rv.cardinality = cardinality;
+			return rv;
+		} // end copy()
+
+
+		int nextValue(int from) {
+			if (from > 0xFFFF) {
+				return -1;
+			}
+			int w = from >>> 6;
+			long word = words[w] & (-1L << from);
+			while (word == 0) {
+				if (++w == words.length) {
+					return -1;
+				}
+				word = words[w];
+			}
+			return (w << 6) + Long.numberOfTrailingZeros(word);
+		} // end nextValue(int)
+
+
+		void write(DataOutputStream dos) throws IOException {
+			for (int w = 0; w < words.length; w++) {
+				dos.writeLong(words[w]);
+			}
+		} // end write(DataOutputStream)
+
+
+		ArrayContainer toArray() {
+			char[] values = new char[cardinality];
+			int n = 0;
+			for (int v = nextValue(0); v >= 0; v = nextValue(v + 1)) {
+				values[n++] = (char) v;
+			}
+			return new ArrayContainer(values, n);
+		} // end toArray()
+
+	} // end BitmapContainer
+
+} // end RoaringBitmap
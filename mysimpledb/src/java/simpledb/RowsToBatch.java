@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * RowsToBatch collects the tuples of a {@link DbIterator} into batches, so
+ * that an operator of the row mode can feed a plan in the batch execution
+ * mode. INT fields are read with {@link Tuple#getInt}, so tuples read from
+ * pages are not decoded; STRING fields are encoded in a dictionary per
+ * column.
+ */
+public class RowsToBatch implements BatchIterator {
+
+    private DbIterator child;
+    private StringDictionary[] dicts;
+    private TupleBatch batch;
+
+    /**
+     * @param child the tuples to batch
+     */
+    public RowsToBatch(DbIterator child) {
+        this.child = child;
+        this.dicts = TupleBatch.newDictionaries(child.getTupleDesc());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), dicts);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator not opened");
+        batch.clear();
+        int n = 0;
+        int numFields = batch.getTupleDesc().numFields();
+        while (n < TupleBatch.CAPACITY && child.hasNext()) {
+            Tuple t = child.next();
+            for (int f = 0; f < numFields; f++) {
+                if (dicts[f] == null)
+                    batch.ints[f][n] = t.getInt(f);
+                else
+                    batch.ints[f][n] = dicts[f].encode(((StringField) t.getField(f)).getValue());
+            }
+            n++;
+        }
+        batch.size = n;
+        return n == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -16,6 +16,7 @@ public class SeqScan implements DbIterator {
     private String alias;
     private DbFile dbf;
     private DbFileIterator dbfitr;
+    private ArrayList<Predicate> pagePredicates;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -36,7 +37,24 @@ public class SeqScan implements DbIterator {
         alias = tableAlias;
         
         dbf = Database.getCatalog().getDatabaseFile(tableid);
-        dbfitr = dbf.iterator(tid);
+        pagePredicates = new ArrayList<Predicate>();
+        if (dbf instanceof HeapFile)
+            dbfitr = ((HeapFile) dbf).iterator(tid, pagePredicates);
+        else
+            dbfitr = dbf.iterator(tid);
+    }
+
+    /**
+     * Lets the scan skip the pages of a heap file whose zone map shows that
+     * none of their tuples satisfies p. The scan still returns the other
+     * tuples whether or not they satisfy p, so p must also be applied above
+     * it, e.g. by a {@link Filter}. Must be called before the scan is opened.
+     *
+     * @param p a predicate over the fields of the scanned table
+     * @see ZoneMap
+     */
+    public void addPagePredicate(Predicate p) {
+        pagePredicates.add(p);
     }
 
     /**
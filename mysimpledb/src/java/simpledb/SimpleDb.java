@@ -5,6 +5,27 @@ import java.io.*;
 public class SimpleDb {
     public static void main(String args[])
             throws DbException, TransactionAbortedException, IOException {
+        // convert and load take an optional "-pagesize size" for the heap
+        // file they write, size being 4k, 8k, 16k or 64k as in a schema
+        int pageSize = BufferPool.getPageSize();
+        if (args[0].equals("convert") || args[0].equals("load")) {
+            for (int i = 1; i < args.length - 1; i++) {
+                if (!args[i].equals("-pagesize"))
+                    continue;
+                pageSize = Catalog.parsePageSize(args[i + 1].toLowerCase());
+                if (pageSize == 0) {
+                    System.err.println("Invalid page size " + args[i + 1]
+                            + "; use 4k, 8k, 16k or 64k");
+                    return;
+                }
+                String[] rest = new String[args.length - 2];
+                System.arraycopy(args, 0, rest, 0, i);
+                System.arraycopy(args, i + 2, rest, i, args.length - i - 2);
+                args = rest;
+                break;
+            }
+        }
+
         // convert a file
         if (args[0].equals("convert")) {
             try {
@@ -15,40 +36,67 @@ public class SimpleDb {
                 File sourceTxtFile = new File(args[1]);
                 File targetDatFile = new File(args[1].replaceAll(".txt", ".dat"));
                 int numOfAttributes = Integer.parseInt(args[2]);
-                Type[] ts = new Type[numOfAttributes];
-                char fieldSeparator = ',';
-
-                if (args.length == 3)
-                    for (int i = 0; i < numOfAttributes; i++)
-                        ts[i] = Type.INT_TYPE;
-                else {
-                    String typeString = args[3];
-                    String[] typeStringAr = typeString.split(",");
-                    if (typeStringAr.length != numOfAttributes) {
-                        System.err.println("The number of types does not agree with the number of columns");
-                        return;
-                    }
-                    int index = 0;
-                    for (String s : typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++] = Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                            ts[index++] = Type.STRING_TYPE;
-                        else {
-                            System.err.println("Unknown type " + s);
-                            return;
-                        }
-                    }
-                    if (args.length == 5)
-                        fieldSeparator = args[4].charAt(0);
-                }
+                Type[] ts = parseTypes(args.length > 3 ? args[3] : null, numOfAttributes);
+                if (ts == null)
+                    return;
+                char fieldSeparator = (args.length == 5) ? args[4].charAt(0) : ',';
 
                 HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                        pageSize, numOfAttributes, ts, fieldSeparator);
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+        } else if (args[0].equals("load")) {
+            // direct-path load of a text file into a heap file
+            if (args.length < 3 || args.length > 5) {
+                System.err.println("Unexpected number of arguments to load ");
+                return;
+            }
+            File sourceTxtFile = new File(args[1]);
+            File targetDatFile = new File(args[1].replaceAll(".txt", ".dat"));
+            int numOfAttributes = Integer.parseInt(args[2]);
+            Type[] ts = parseTypes(args.length > 3 ? args[3] : null, numOfAttributes);
+            if (ts == null)
+                return;
+            char fieldSeparator = (args.length == 5) ? args[4].charAt(0) : ',';
+
+            long start = System.currentTimeMillis();
+            String tableName = targetDatFile.getName().replaceAll(".dat", "");
+            HeapFile hf = BulkLoader.load(sourceTxtFile, targetDatFile,
+                    new TupleDesc(ts), fieldSeparator, tableName, "", pageSize);
+            System.out.println("Loaded " + hf.numPages() + " pages into "
+                    + targetDatFile + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } else if (args[0].equals("compress")) {
+            // rewrite a heap file in the compressed page format, in place
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Unexpected number of arguments to compress ");
+                return;
+            }
+            File datFile = new File(args[1]);
+            int numOfAttributes = Integer.parseInt(args[2]);
+            Type[] ts = parseTypes(args.length > 3 ? args[3] : null, numOfAttributes);
+            if (ts == null)
+                return;
+
+            // compressed tables have the buffer pool's page size, so the
+            // heap file must have it too
+            try {
+                new HeapFile(datFile, new TupleDesc(ts), BufferPool.getPageSize());
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                return;
+            }
+            long before = datFile.length();
+            File tmp = new File(args[1] + ".compressed");
+            CompressedHeapFile.compress(datFile, tmp, new TupleDesc(ts));
+            if (!datFile.delete() || !tmp.renameTo(datFile)) {
+                System.err.println("Could not replace " + datFile);
+                return;
+            }
+            System.out.println("Compressed " + datFile + " from " + before
+                    + " to " + datFile.length() + " bytes");
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -94,4 +142,36 @@ public class SimpleDb {
         }
     }
 
+    /**
+     * Parses the column types of a command line, such as "int,string,int".
+     *
+     * @param typeString      the comma-separated types, or null for all INT
+     * @param numOfAttributes the number of columns
+     * @return the types, or null, after printing why, if they are invalid
+     */
+    private static Type[] parseTypes(String typeString, int numOfAttributes) {
+        Type[] ts = new Type[numOfAttributes];
+        if (typeString == null) {
+            for (int i = 0; i < numOfAttributes; i++)
+                ts[i] = Type.INT_TYPE;
+            return ts;
+        }
+        String[] typeStringAr = typeString.split(",");
+        if (typeStringAr.length != numOfAttributes) {
+            System.err.println("The number of types does not agree with the number of columns");
+            return null;
+        }
+        for (int i = 0; i < numOfAttributes; i++) {
+            if (typeStringAr[i].toLowerCase().equals("int"))
+                ts[i] = Type.INT_TYPE;
+            else if (typeStringAr[i].toLowerCase().equals("string"))
+                ts[i] = Type.STRING_TYPE;
+            else {
+                System.err.println("Unknown type " + typeStringAr[i]);
+                return null;
+            }
+        }
+        return ts;
+    }
+
 }
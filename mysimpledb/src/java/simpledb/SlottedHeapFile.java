@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that stores tuples in no particular order on
+ * {@link SlottedHeapPage}s, which hold variable-length records. It behaves
+ * like a {@link HeapFile}, but a tuple with short strings takes only the
+ * space its values need, so the file is smaller and faster to scan.
+ *
+ * @see SlottedHeapPage
+ * @see HeapFile
+ */
+public class SlottedHeapFile implements DbFile {
+
+	/** Underlying OS file. */
+	private File osFile;
+
+	/** Description of tuples stored in this table. */
+	private TupleDesc td;
+
+
+	/**
+	 * Constructs a slotted heap file backed by the specified file.
+	 *
+	 * @param f the file that stores the on-disk backing store for this file.
+	 * @param td the description of the tuples in this file
+	 */
+	public SlottedHeapFile(File f, TupleDesc td) {
+		osFile = f;
+		this.td = td;
+	} // end SlottedHeapFile(File, TupleDesc)
+
+
+	/**
+	 * Returns the File backing this SlottedHeapFile on disk.
+	 *
+	 * @return the File backing this SlottedHeapFile on disk.
+	 */
+	public File getFile() {
+		return osFile;
+	} // end getFile()
+
+
+	/**
+	 * @see DbFile#getId()
+	 */
+	public int getId() {
+		return osFile.getAbsoluteFile().hashCode();
+	} // end getId()
+
+
+	/**
+	 * @see DbFile#getTupleDesc()
+	 */
+	public TupleDesc getTupleDesc() {
+		return td;
+	} // end getTupleDesc()
+
+
+	/**
+	 * @see DbFile#readPage(PageId)
+	 */
+	public Page readPage(PageId pid) {
+		return readPages(pid, 1).get(0);
+	} // end readPage(PageId)
+
+
+	/**
+	 * Reads count consecutive pages with a single scattering read (see
+	 * {@link HeapFile#readPageBytes}).
+	 *
+	 * @see DbFile#readPages(PageId, int)
+	 */
+	public ArrayList<Page> readPages(PageId first, int count) {
+		int ps = BufferPool.getPageSize();
+		int firstPgNo = first.pageNumber();
+		if (count < 1 || firstPgNo < 0 || firstPgNo + count > numPages()) {
+			throw new IllegalArgumentException("page(s) not in file");
+		}
+
+		byte[][] frames = HeapFile.readPageBytes(osFile, ps, firstPgNo, count);
+		ArrayList<Page> rv = new ArrayList<Page>(count);
+		for (int i = 0; i < count; i++) {
+			HeapPageId hpid = new HeapPageId(getId(), firstPgNo + i);
+			rv.add(new SlottedHeapPage(hpid, frames[i]));
+		}
+		return rv;
+	} // end readPages(PageId, int)
+
+
+	/**
+	 * @see DbFile#writePage(Page)
+	 */
+	public void writePage(Page page) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(osFile, "rw");
+		raf.seek((long) page.getId().pageNumber() * BufferPool.getPageSize());
+		raf.write(page.getPageData());
+		raf.close();
+	} // end writePage(Page)
+
+
+	/**
+	 * Returns the number of pages in this file.
+	 */
+	public int numPages() {
+		return (int) (osFile.length() / BufferPool.getPageSize());
+	} // end numPages()
+
+
+	/**
+	 * Inserts t into the first page it fits on, appending a new page if
+	 * there is none.
+	 *
+	 * @see DbFile#insertTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if (!td.equals(t.getTupleDesc())) {
+			throw new DbException("TupleDesc mismatch");
+		}
+
+		BufferPool bp = Database.getBufferPool();
+		ArrayList<Page> rv = new ArrayList<Page>();
+
+		// look for a page with room, checking with a read lock first
+		int pgNo = 0;
+		for (; pgNo < numPages(); pgNo++) {
+			HeapPageId pid = new HeapPageId(getId(), pgNo);
+			SlottedHeapPage page = (SlottedHeapPage) bp.getPage(tid, pid,
+					Permissions.READ_ONLY);
+			if (page.fits(t)) {
+				page = (SlottedHeapPage) bp.getPage(tid, pid,
+						Permissions.READ_WRITE);
+				page.insertTuple(t);
+				rv.add(page);
+				return rv;
+			}
+
+			if (bp.holdsLock(tid, pid) && page.isDirty() == null) {
+				bp.releasePage(tid, pid);
+			}
+		}
+
+		// no page with room: append an empty one
+		HeapPageId pid = new HeapPageId(getId(), pgNo);
+		BufferedOutputStream bos = new BufferedOutputStream(
+				new FileOutputStream(osFile, true));
+		bos.write(SlottedHeapPage.createEmptyPageData());
+		bos.close();
+
+		SlottedHeapPage newpage = (SlottedHeapPage) bp.getPage(tid, pid,
+				Permissions.READ_WRITE);
+		newpage.insertTuple(t);
+		rv.add(newpage);
+		return rv;
+	} // end insertTuple(TransactionId, Tuple)
+
+
+	/**
+	 * @see DbFile#deleteTuple(TransactionId, Tuple)
+	 */
+	public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		if (t.getRecordId() == null
+				|| getId() != t.getRecordId().getPageId().getTableId()) {
+			throw new DbException("tuple not member of file");
+		}
+
+		SlottedHeapPage page = (SlottedHeapPage) Database.getBufferPool()
+				.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		page.deleteTuple(t);
+
+		ArrayList<Page> rv = new ArrayList<Page>();
+		rv.add(page);
+		return rv;
+	} // end deleteTuple(TransactionId, Tuple)
+
+
+	/**
+	 * @see DbFile#iterator(TransactionId)
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new SlottedHeapFileIterator(tid);
+	} // end iterator(TransactionId)
+
+
+	/**
+	 * Iterates over the tuples of all pages of the file in page order,
+	 * reading ahead like the HeapFile iterator does.
+	 */
+	private class SlottedHeapFileIterator implements DbFileIterator {
+
+		/** Current page number in the file. */
+		private int currPgNo;
+
+		/** Iterator of current page; null if not opened. */
+		private Iterator<Tuple> currPgItr;
+
+		/** Transaction id given by caller. */
+		private TransactionId tid;
+
+
+		private SlottedHeapFileIterator(TransactionId tid) {
+			this.tid = tid;
+		}
+
+
+		public void open() throws DbException, TransactionAbortedException {
+			currPgNo = 0;
+			if (numPages() > 0) {
+				currPgItr = fetchPage(currPgNo).iterator();
+			} else {
+				currPgItr = new ArrayList<Tuple>().iterator();
+			}
+		} // end open()
+
+
+		/**
+		 * Fetches a page through the buffer pool, reading ahead at the
+		 * start of every read-ahead window.
+		 */
+		private SlottedHeapPage fetchPage(int pgNo)
+				throws DbException, TransactionAbortedException {
+			BufferPool bp = Database.getBufferPool();
+			HeapPageId hpid = new HeapPageId(getId(), pgNo);
+			if (pgNo % BufferPool.READ_AHEAD_PAGES == 0) {
+				bp.readAhead(hpid, Math.min(BufferPool.READ_AHEAD_PAGES,
+											numPages() - pgNo));
+			}
+			return (SlottedHeapPage) bp.getPage(tid, hpid, Permissions.READ_ONLY);
+		} // end fetchPage(int)
+
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (currPgItr == null) return false;
+			while (!currPgItr.hasNext()) {
+				if (++currPgNo >= numPages()) return false;
+				currPgItr = fetchPage(currPgNo).iterator();
+			}
+			return true;
+		} // end hasNext()
+
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext()) throw new NoSuchElementException("no more tuples");
+			return currPgItr.next();
+		} // end next()
+
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		} // end rewind()
+
+
+		public void close() {
+			currPgItr = null;
+		} // end close()
+
+	} // end SlottedHeapFileIterator
+
+} // end SlottedHeapFile
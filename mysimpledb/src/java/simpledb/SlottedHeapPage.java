@@ -0,0 +1,358 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a page of a {@link SlottedHeapFile}. Unlike a
+ * {@link HeapPage}, which gives every tuple a fixed-size slot, it stores
+ * variable-length records: a string field takes only as many bytes as its
+ * value, so tables with short strings pack many more tuples per page.
+ * <p/>
+ * The layout of a page is:
+ * <pre>
+ *   0: short   n, the number of entries in the slot directory
+ *   2: short   offset of the start of the record area
+ *   4: n entries of (short offset, short length), one per slot;
+ *      offset 0 marks an empty slot
+ *      ... free space ...
+ *      records, packed against the end of the page
+ * </pre>
+ * An int field is stored as 4 bytes, a string field as a one-byte length
+ * followed by the bytes of the string (at most Type.STRING_LEN of them).
+ * <p/>
+ * Slot numbers are stable: deleting a tuple empties its slot, which a later
+ * insert may reuse, so RecordIds of the other tuples never change. The
+ * records themselves are repacked every time the page is serialized, so
+ * deletes never leave fragmented free space behind.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements Page {
+
+	/** Bytes of the fixed page header. */
+	static final int HEADER_SIZE = 4;
+
+	/** Bytes of one slot directory entry. */
+	static final int SLOT_SIZE = 4;
+
+	final HeapPageId pid;
+	final TupleDesc td;
+
+	/** Tuples by slot number; null for empty slots. */
+	final ArrayList<Tuple> tuples;
+
+	/** Bytes of the page in use by the header, directory and records. */
+	private int usedBytes;
+
+	/**
+	 * The before-image, taken on the first change after setBeforeImage;
+	 * null while the page is unchanged.
+	 */
+	byte[] oldData;
+	private final Object oldDataLock = new Object();
+
+	private TransactionId lastTrnsctnToDirty;
+
+
+	/**
+	 * Creates a SlottedHeapPage from a set of bytes of data read from disk,
+	 * in the format described above. A page of all zeroes is empty.
+	 *
+	 * @param id the id of this page
+	 * @param data the contents of the page
+	 */
+	public SlottedHeapPage(HeapPageId id, byte[] data) {
+		this.pid = id;
+		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.lastTrnsctnToDirty = null;
+
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		int numSlots = buf.getShort(0) & 0xffff;
+		tuples = new ArrayList<Tuple>(numSlots);
+		usedBytes = HEADER_SIZE + numSlots * SLOT_SIZE;
+		for (int i = 0; i < numSlots; i++) {
+			int offset = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+			int length = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+			if (offset == 0) {
+				tuples.add(null);
+				continue;
+			}
+
+			buf.position(offset);
+			Tuple t = readRecord(buf);
+			t.setRecordId(new RecordId(pid, i));
+			tuples.add(t);
+			usedBytes += length;
+		}
+	} // end SlottedHeapPage(HeapPageId, byte[])
+
+
+	/**
+	 * Decodes the record at the position of buf.
+	 */
+	private Tuple readRecord(ByteBuffer buf) {
+		Tuple t = new Tuple(td);
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.INT_TYPE) {
+				t.setField(j, new IntField(buf.getInt()));
+			} else {
+				byte[] bs = new byte[buf.get() & 0xff];
+				buf.get(bs);
+				t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+			}
+		}
+		return t;
+	} // end readRecord(ByteBuffer)
+
+
+	/**
+	 * Encodes t as a record at the position of buf.
+	 */
+	private static void writeRecord(ByteBuffer buf, Tuple t) {
+		TupleDesc td = t.getTupleDesc();
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.INT_TYPE) {
+				buf.putInt(((IntField) t.getField(j)).getValue());
+			} else {
+				byte[] bs = stringBytes(t.getField(j));
+				buf.put((byte) bs.length);
+				buf.put(bs);
+			}
+		}
+	} // end writeRecord(ByteBuffer, Tuple)
+
+
+	/**
+	 * @return the stored bytes of a string field, cut to the maximum length
+	 */
+	private static byte[] stringBytes(Field f) {
+		byte[] bs = ((StringField) f).getValue().getBytes();
+		int max = Math.min(Type.STRING_LEN, 255);
+		return bs.length <= max ? bs : Arrays.copyOf(bs, max);
+	} // end stringBytes(Field)
+
+
+	/**
+	 * Returns the number of bytes the record of t takes on a page, not
+	 * counting its slot directory entry.
+	 *
+	 * @param t the tuple
+	 * @return the size of the record of t
+	 */
+	public static int recordSize(Tuple t) {
+		TupleDesc td = t.getTupleDesc();
+		int size = 0;
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getFieldType(j) == Type.INT_TYPE) {
+				size += Type.INT_TYPE.getLen();
+			} else {
+				size += 1 + stringBytes(t.getField(j)).length;
+			}
+		}
+		return size;
+	} // end recordSize(Tuple)
+
+
+	/**
+	 * Return a view of this page before it was modified
+	 * -- used by recovery
+	 */
+	public SlottedHeapPage getBeforeImage() {
+		byte[] oldDataRef = null;
+		synchronized (oldDataLock) {
+			oldDataRef = oldData != null ? oldData : getPageData();
+		}
+		return new SlottedHeapPage(pid, oldDataRef);
+	} // end getBeforeImage()
+
+
+	/**
+	 * Takes the current contents as the before-image, by dropping the saved
+	 * one.
+	 */
+	public void setBeforeImage() {
+		synchronized (oldDataLock) {
+			oldData = null;
+		}
+	} // end setBeforeImage()
+
+
+	/**
+	 * Saves the contents of the page for the before-image, unless they have
+	 * been saved since the before-image was last set. Called before the
+	 * page is changed.
+	 */
+	private void saveBeforeImage() {
+		synchronized (oldDataLock) {
+			if (oldData == null) oldData = getPageData();
+		}
+	} // end saveBeforeImage()
+
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HeapPageId getId() {
+		return pid;
+	} // end getId()
+
+
+	/**
+	 * Generates a byte array representing the contents of this page, with
+	 * the records packed against the end of the page in slot order.
+	 * Passing it to the SlottedHeapPage constructor produces an identical
+	 * page.
+	 *
+	 * @return A byte array correspond to the bytes of this page.
+	 */
+	public byte[] getPageData() {
+		byte[] data = new byte[BufferPool.getPageSize()];
+		ByteBuffer buf = ByteBuffer.wrap(data);
+
+		int end = data.length;
+		for (int i = 0; i < tuples.size(); i++) {
+			Tuple t = tuples.get(i);
+			if (t == null) continue;	// directory entry stays (0, 0)
+
+			int length = recordSize(t);
+			end -= length;
+			buf.position(end);
+			writeRecord(buf, t);
+			buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+			buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+		}
+		buf.putShort(0, (short) tuples.size());
+		buf.putShort(2, (short) end);
+
+		return data;
+	} // end getPageData()
+
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * SlottedHeapPage.
+	 *
+	 * @return The returned byte array.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.getPageSize()];	// no slots
+	} // end createEmptyPageData()
+
+
+	/**
+	 * Delete the specified tuple from the page; the tuple's slot becomes
+	 * empty.
+	 *
+	 * @param t The tuple to delete
+	 * @throws DbException if this tuple is not on this page, or tuple slot is
+	 *                     already empty.
+	 */
+	public void deleteTuple(Tuple t) throws DbException {
+		RecordId rid = t.getRecordId();
+		if (rid == null || !pid.equals(rid.getPageId())) {
+			throw new DbException("tuple not on this page");
+		} else if (!isSlotUsed(rid.tupleno())) {
+			throw new DbException("tuple slot already empty");
+		}
+		saveBeforeImage();
+
+		usedBytes -= recordSize(tuples.get(rid.tupleno()));
+		tuples.set(rid.tupleno(), null);
+
+		// drop empty slots at the end of the directory
+		while (!tuples.isEmpty() && tuples.get(tuples.size() - 1) == null) {
+			tuples.remove(tuples.size() - 1);
+			usedBytes -= SLOT_SIZE;
+		}
+	} // end deleteTuple(Tuple)
+
+
+	/**
+	 * Adds the specified tuple to the page, reusing an empty slot if there
+	 * is one; the tuple's RecordId is updated to its new slot.
+	 *
+	 * @param t The tuple to add.
+	 * @throws DbException if the tuple does not fit on the page or tupledesc
+	 *                     is mismatch.
+	 */
+	public void insertTuple(Tuple t) throws DbException {
+		if (!td.equals(t.getTupleDesc())) {
+			throw new DbException("TupleDesc mismatch");
+		} else if (!fits(t)) {
+			throw new DbException("not enough space on page");
+		}
+		saveBeforeImage();
+
+		int slot = tuples.indexOf(null);
+		if (slot == -1) {
+			slot = tuples.size();
+			tuples.add(t);
+			usedBytes += SLOT_SIZE;
+		} else {
+			tuples.set(slot, t);
+		}
+		usedBytes += recordSize(t);
+
+		t.setRecordId(new RecordId(pid, slot));
+	} // end insertTuple(Tuple)
+
+
+	/**
+	 * @return true if t can be inserted into this page
+	 */
+	public boolean fits(Tuple t) {
+		int needed = recordSize(t);
+		if (tuples.indexOf(null) == -1) needed += SLOT_SIZE;
+		return needed <= getFreeSpace();
+	} // end fits(Tuple)
+
+
+	/**
+	 * @return the number of unused bytes on this page
+	 */
+	public int getFreeSpace() {
+		return BufferPool.getPageSize() - usedBytes;
+	} // end getFreeSpace()
+
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		lastTrnsctnToDirty = dirty ? tid : null;
+	} // end markDirty(boolean, TransactionId)
+
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page,
+	 * or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return lastTrnsctnToDirty;
+	} // end isDirty()
+
+
+	/**
+	 * Returns true if associated slot on this page is filled.
+	 */
+	public boolean isSlotUsed(int i) {
+		return i >= 0 && i < tuples.size() && tuples.get(i) != null;
+	} // end isSlotUsed(int)
+
+
+	/**
+	 * @return an iterator over all tuples on this page
+	 * (calling remove on this iterator throws an UnsupportedOperationException)
+	 */
+	public Iterator<Tuple> iterator() {
+		ArrayList<Tuple> used = new ArrayList<Tuple>(tuples.size());
+		for (Tuple t : tuples) {
+			if (t != null) used.add(t);
+		}
+		return Collections.unmodifiableList(used).iterator();
+	} // end iterator()
+
+} // end SlottedHeapPage
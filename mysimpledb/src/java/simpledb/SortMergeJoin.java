@@ -0,0 +1,336 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children whose join fields are
+ * compared with EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+ * GREATER_THAN_OR_EQ by merging them in order of their join fields.
+ * <p/>
+ * Each child is sorted with an {@link ExternalSort}, unless it is already
+ * in order of its join field (see {@link ExternalSort#isSorted}), in which
+ * case the first child is read as it is. The second child is kept sorted,
+ * in memory or on disk, and read a tuple at a time. With both sides in
+ * order, the tuples of the second child that match a tuple of the first
+ * are a range of the sorted second child, and the ranges of successive
+ * tuples of the first child only move forward: for EQUALS it is the tuples
+ * with the same value, for LESS_THAN all tuples after the last one not
+ * greater than it, for GREATER_THAN all tuples before the first one not
+ * less than it. Each bound is therefore found by reading forward from
+ * where it was for the previous tuple, and a range is returned by seeking
+ * back to its start; only the tuple last read is held.
+ * <p/>
+ * The joined tuples come in order of the join field of the first child, so
+ * a SortMergeJoin can itself be the sorted child of another one.
+ */
+public class SortMergeJoin extends Operator {
+
+	/** Serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Predicate on which the 2 child is joined. */
+    private JoinPredicate p;
+
+    /** Children iterator of this join. */
+    private DbIterator[] children;
+
+    /** TupleDesc of the joined tuples. */
+    private TupleDesc td;
+
+    /** The number of bytes of tuples the sorts of the children hold in memory. */
+    private long memoryBudget;
+
+    /** Flag for whether the iterator is open. */
+    private boolean opened;
+
+    /** The first child in order, and the sorted second child, while open. */
+    private transient DbIterator left;
+    private transient ExternalSort right;
+
+    /** Whether the join fields are INTs, compared without Fields. */
+    private transient boolean intKeys;
+
+    /**
+     * The position in the sorted second child of the tuple it returns next,
+     * and the tuple last read from it, at position lastPos, or null.
+     */
+    private transient int readPos;
+    private transient Tuple last;
+    private transient int lastPos;
+
+    /**
+     * The tuple of the first child being matched, the range [lo, hi) of the
+     * second child that matches it, and the next tuple of the range.
+     */
+    private transient Tuple current;
+    private transient int lo, hi, pos;
+
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p      The predicate to use to join the children; its operator
+     *               must be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN
+     *               or GREATER_THAN_OR_EQ and its fields of the same type
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+    	if (!supports(p.getOperator())) {
+    		throw new IllegalArgumentException("cannot merge-join on " + p.getOperator());
+    	} else if (child1.getTupleDesc().getFieldType(p.getField1())
+    			!= child2.getTupleDesc().getFieldType(p.getField2())) {
+    		throw new IllegalArgumentException("join fields of different types");
+    	}
+    	this.p = p;
+    	children = new DbIterator[] {child1, child2};
+    	td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    	memoryBudget = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
+    	opened = false;
+    } // end SortMergeJoin(JoinPredicate, DbIterator, DbIterator)
+
+
+    /**
+     * @return whether a join predicate with operator op can be merge-joined
+     */
+    public static boolean supports(Predicate.Op op) {
+    	switch (op) {
+    	case EQUALS:
+    	case LESS_THAN:
+    	case LESS_THAN_OR_EQ:
+    	case GREATER_THAN:
+    	case GREATER_THAN_OR_EQ:
+    		return true;
+    	default:
+    		return false;
+    	}
+    } // end supports(Predicate.Op)
+
+
+    /**
+     * @return the predicate associated with this join
+     */
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    } // end getJoinPredicate()
+
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     * name.
+     */
+    public String getJoinField1Name() {
+    	return children[0].getTupleDesc().getFieldName(p.getField1());
+    } // end getJoinField1Name()
+
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     * name.
+     */
+    public String getJoinField2Name() {
+    	return children[1].getTupleDesc().getFieldName(p.getField2());
+    } // end getJoinField2Name()
+
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    } // end getTupleDesc()
+
+
+    /**
+     * Sets the number of bytes of tuples the join holds in memory, shared
+     * by the sorts of its children; beyond it, the sorts spill to disk.
+     */
+    public void setMemoryBudget(long bytes) {
+    	memoryBudget = bytes;
+    } // end setMemoryBudget(long)
+
+
+    /**
+     * Opens the iterator: sorts the children that are not in order.
+     */
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        if (ExternalSort.isSorted(children[0], p.getField1())) {
+        	left = children[0];
+        } else {
+        	ExternalSort sort = new ExternalSort(p.getField1(), children[0]);
+        	sort.setMemoryBudget(memoryBudget / 2);
+        	left = sort;
+        }
+        right = new ExternalSort(p.getField2(), children[1]);
+        right.setMemoryBudget(memoryBudget / 2);
+        left.open();
+        right.open();
+
+        intKeys = right.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
+        readPos = 0;
+        last = null;
+        restart();
+        opened = true;
+    } // end open()
+
+
+    /**
+     * Starts matching from the first tuple of each side.
+     */
+    private void restart() {
+    	current = null;
+    	lo = hi = pos = 0;
+    } // end restart()
+
+
+    public void close() {
+        super.close();
+        if (left != null) {
+        	left.close();
+        	left = null;
+        }
+        if (right != null) {
+        	right.close();
+        	right = null;
+        }
+        children[0].close();
+        children[1].close();
+        last = null;
+        current = null;
+        opened = false;
+    } // end close()
+
+
+    /**
+     * Rewinds the iterator. The sorted second child is kept, and the first
+     * one is read again, without sorting it again.
+     *
+     * @throws DbException if iterator not opened.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!opened) {
+        	throw new DbException("iterator not opened");
+        }
+        left.rewind();
+        restart();
+    } // end rewind()
+
+
+    /**
+     * Returns the i-th tuple of the sorted second child. Reading the tuples
+     * in order reads the child in order; going back to an earlier tuple
+     * seeks back to it.
+     */
+    private Tuple rightAt(int i) throws DbException {
+    	if (last != null && lastPos == i) {
+    		return last;
+    	}
+    	if (readPos != i) {
+    		right.seek(i);
+    	}
+    	last = right.next();
+    	lastPos = i;
+    	readPos = i + 1;
+    	return last;
+    } // end rightAt(int)
+
+
+    /**
+     * Compares the join value of a tuple of the first child with that of a
+     * tuple of the second.
+     *
+     * @return a negative number, zero, or a positive number as the first is
+     * less than, equal to, or greater than the second
+     */
+    private int compare(Tuple t, Tuple r) {
+    	if (intKeys) {
+    		int a = t.getInt(p.getField1());
+    		int b = r.getInt(p.getField2());
+    		return (a < b) ? -1 : (a == b) ? 0 : 1;
+    	}
+    	Field a = t.getField(p.getField1());
+    	Field b = r.getField(p.getField2());
+    	if (a.compare(Predicate.Op.EQUALS, b)) {
+    		return 0;
+    	}
+    	return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : -1;
+    } // end compare(Tuple, Tuple)
+
+
+    /**
+     * Moves a bound over the sorted second child forward past the tuples
+     * less than t, or, with orEqual, not greater than t.
+     */
+    private int advance(int i, Tuple t, boolean orEqual) throws DbException {
+    	int n = right.size();
+    	while (i < n) {
+    		int c = compare(t, rightAt(i));
+    		if (c < 0 || (c == 0 && !orEqual)) {
+    			break;
+    		}
+    		i++;
+    	}
+    	return i;
+    } // end advance(int, Tuple, boolean)
+
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of a tuple of the first child and one
+     * of the second that satisfy the predicate, like those of {@link Join}.
+     * For EQUALS, there will be two copies of the join attribute in the
+     * results.
+     * <p/>
+     * The tuples are returned in order of the join field of the first child
+     * and, for each of its tuples, in order of the join field of the second.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!opened) throw new DbException("iterator not opened");
+
+        while (true) {
+        	if (current != null && pos < hi) {
+        		return Tuple.join(td, current, rightAt(pos++));
+        	}
+        	if (!left.hasNext()) {
+        		return null;
+        	}
+        	current = left.next();
+        	switch (p.getOperator()) {
+        	case EQUALS:
+        		lo = advance(lo, current, false);
+        		hi = advance(Math.max(lo, hi), current, true);
+        		break;
+        	case LESS_THAN:
+        		lo = advance(lo, current, true);
+        		hi = right.size();
+        		break;
+        	case LESS_THAN_OR_EQ:
+        		lo = advance(lo, current, false);
+        		hi = right.size();
+        		break;
+        	case GREATER_THAN:
+        		hi = advance(hi, current, false);
+        		break;
+        	default:
+        		hi = advance(hi, current, true);
+        	}
+        	pos = lo;
+        }
+    } // end fetchNext()
+
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children;
+    } // end getChildren()
+
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children;
+        td = TupleDesc.merge(children[0].getTupleDesc(), children[1].getTupleDesc());
+    } // end setChildren(DbIterator[])
+} // end SortMergeJoin
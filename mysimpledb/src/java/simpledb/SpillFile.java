@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SpillFile is a temporary file of tuples, for operators that hold more
+ * tuples than fit in memory. Tuples are appended with {@link #add} and then
+ * read back in the same order as a {@link DbIterator}; once it is opened no
+ * more tuples can be added. Each tuple is stored in the fixed-size form a
+ * {@link HeapPage} stores it in, and the tuples read back decode their
+ * fields from it when they are first read.
+ * <p/>
+ * The file is deleted by {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile implements DbIterator {
+
+	/** Serialization. */
+	private static final long serialVersionUID = 1L;
+	
+	/** Schema of the tuples in the file. */
+	private final TupleDesc td;
+	
+	/** The temporary file. */
+	private final File file;
+	
+	/** The stream tuples are added to, until the file is first opened. */
+	private transient DataOutputStream out;
+	
+	/** The stream tuples are read from, while open. */
+	private transient DataInputStream in;
+	
+	/** The number of tuples in the file, and of those read since opened. */
+	private int size;
+	private int read;
+	
+	
+    /**
+     * Creates an empty temporary file for tuples of a schema.
+     *
+     * @param td the schema of the tuples
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+    	this.td = td;
+    	try {
+    		file = File.createTempFile("spill", ".tmp");
+    		file.deleteOnExit();
+    		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    	} catch (IOException e) {
+    		throw new DbException("could not create spill file: " + e.getMessage());
+    	}
+    	size = 0;
+    } // end SpillFile(TupleDesc)
+
+    
+    /**
+     * Appends a tuple to the file.
+     *
+     * @param t a tuple of the file's schema, with all of its fields set
+     */
+    public void add(Tuple t) throws DbException {
+    	if (out == null) {
+    		throw new IllegalStateException("spill file already read");
+    	}
+    	try {
+    		for (int i = 0; i < td.numFields(); i++) {
+    			t.getField(i).serialize(out);
+    		}
+    	} catch (IOException e) {
+    		throw new DbException("could not write spill file: " + e.getMessage());
+    	}
+    	size++;
+    } // end add(Tuple)
+
+    
+    /**
+     * @return the number of tuples in the file
+     */
+    public int size() {
+        return size;
+    } // end size()
+
+    
+    /**
+     * Finishes writing, if that is not done yet, and starts reading the
+     * tuples from the first one.
+     */
+    public void open() throws DbException {
+    	try {
+    		if (out != null) {
+    			out.close();
+    			out = null;
+    		}
+    		close();
+    		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    	} catch (IOException e) {
+    		throw new DbException("could not read spill file: " + e.getMessage());
+    	}
+    	read = 0;
+    } // end open()
+
+    
+    public boolean hasNext() {
+    	if (in == null) {
+    		throw new IllegalStateException("spill file not opened");
+    	}
+    	return read < size;
+    } // end hasNext()
+
+    
+    public Tuple next() throws DbException {
+    	if (!hasNext()) {
+    		throw new NoSuchElementException();
+    	}
+    	byte[] data = new byte[td.getSize()];
+    	try {
+    		in.readFully(data);
+    	} catch (IOException e) {
+    		throw new DbException("could not read spill file: " + e.getMessage());
+    	}
+    	read++;
+    	return new Tuple(td, data, 0);
+    } // end next()
+
+    
+    public void rewind() throws DbException {
+        open();
+    } // end rewind()
+
+    
+    /**
+     * Starts reading the tuples from the i-th one, counting from 0. Since
+     * all tuples have the same size, this skips to its offset rather than
+     * reading the tuples before it, and it only goes back to the start of
+     * the file to seek backwards.
+     */
+    public void seek(int i) throws DbException {
+    	if (i < 0 || i > size) {
+    		throw new NoSuchElementException("no tuple " + i + " in spill file");
+    	}
+    	if (in == null || i < read) {
+    		open();
+    	}
+    	long skip = (long) (i - read) * td.getSize();
+    	try {
+    		while (skip > 0) {
+    			long n = in.skip(skip);
+    			if (n <= 0) {
+    				throw new IOException("end of file");
+    			}
+    			skip -= n;
+    		}
+    	} catch (IOException e) {
+    		throw new DbException("could not read spill file: " + e.getMessage());
+    	}
+    	read = i;
+    } // end seek(int)
+
+    
+    public TupleDesc getTupleDesc() {
+        return td;
+    } // end getTupleDesc()
+
+    
+    public void close() {
+    	if (in != null) {
+    		try {
+    			in.close();
+    		} catch (IOException e) {
+    			// nothing was written, so nothing is lost
+    		}
+    		in = null;
+    	}
+    } // end close()
+
+    
+    /**
+     * Closes the file and deletes it.
+     */
+    public void delete() {
+    	try {
+    		if (out != null) {
+    			out.close();
+    		}
+    	} catch (IOException e) {
+    		// the file is deleted anyway
+    	}
+    	out = null;
+    	close();
+    	file.delete();
+    } // end delete()
+} // end SpillFile
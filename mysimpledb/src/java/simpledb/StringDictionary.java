@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StringDictionary assigns the distinct values of a STRING column small int
+ * codes, 0, 1, 2, ... in the order they are first seen, so that the
+ * operators of the batch execution mode can filter, group and join STRING
+ * columns on ints and turn the codes back into strings only for their
+ * output. A dictionary is built as the column is read: a value is looked up
+ * by its bytes as they are stored on a page (see {@link Type#write}), so
+ * reading a value that was seen before creates no String.
+ * <p/>
+ * Codes are only comparable between columns that share a dictionary.
+ */
+public class StringDictionary {
+
+    /** The bytes of each value, and their hash, by code. */
+    private byte[][] values;
+    private int[] hashes;
+
+    /** Each value as a field, created when it is first decoded. */
+    private StringField[] fields;
+
+    private int size;
+
+    /** Open-addressing table from hash of a value to its code + 1. */
+    private int[] table;
+
+    public StringDictionary() {
+        values = new byte[16][];
+        hashes = new int[16];
+        fields = new StringField[16];
+        table = new int[32];
+        size = 0;
+    }
+
+    /**
+     * @return the number of values in the dictionary; their codes are
+     * those below it
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the code of a STRING field as it is stored in page bytes,
+     * adding its value if it is new.
+     *
+     * @param data   bytes holding a STRING field in the form
+     *               {@link Type#write} writes
+     * @param offset the offset of the field in data
+     */
+    public int encode(byte[] data, int offset) {
+        int len = Math.max(0, Math.min(Type.readInt(data, offset), Type.STRING_LEN));
+        return encode(data, offset + 4, len);
+    }
+
+    /**
+     * Returns the code of a string, adding it if it is new. The string is
+     * cut to {@link Type#STRING_LEN} characters, like a StringField.
+     */
+    public int encode(String s) {
+        byte[] b = bytesOf(s);
+        return encode(b, 0, b.length);
+    }
+
+    /**
+     * Returns the code of a string, or -1 if it is not in the dictionary.
+     */
+    public int lookup(String s) {
+        byte[] b = bytesOf(s);
+        return find(b, 0, b.length, hash(b, 0, b.length));
+    }
+
+    /**
+     * @param code a code of this dictionary
+     * @return the string it stands for
+     */
+    public String decode(int code) {
+        return getField(code).getValue();
+    }
+
+    /**
+     * @param code a code of this dictionary
+     * @return the string it stands for, as a field
+     */
+    public StringField getField(int code) {
+        if (code < 0 || code >= size)
+            throw new NoSuchElementException("no value with code " + code);
+        StringField f = fields[code];
+        if (f == null) {
+            f = new StringField(new String(values[code]), Type.STRING_LEN);
+            fields[code] = f;
+        }
+        return f;
+    }
+
+    /**
+     * The bytes a StringField of s is stored as: the low byte of each of
+     * its chars, like {@link Type#write}.
+     */
+    private static byte[] bytesOf(String s) {
+        byte[] b = new byte[Math.min(s.length(), Type.STRING_LEN)];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
+    private static int hash(byte[] data, int offset, int len) {
+        int h = len;
+        for (int i = 0; i < len; i++)
+            h = 31 * h + data[offset + i];
+        return IntHash.hash(h);
+    }
+
+    /**
+     * Returns the code of the value in data[offset, offset + len), or -1.
+     */
+    private int find(byte[] data, int offset, int len, int h) {
+        int mask = table.length - 1;
+        for (int i = h & mask; table[i] != 0; i = (i + 1) & mask) {
+            int code = table[i] - 1;
+            if (hashes[code] == h && equal(values[code], data, offset, len))
+                return code;
+        }
+        return -1;
+    }
+
+    private static boolean equal(byte[] value, byte[] data, int offset, int len) {
+        if (value.length != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (value[i] != data[offset + i])
+                return false;
+        }
+        return true;
+    }
+
+    private int encode(byte[] data, int offset, int len) {
+        int h = hash(data, offset, len);
+        int code = find(data, offset, len, h);
+        if (code >= 0)
+            return code;
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            fields = Arrays.copyOf(fields, size * 2);
+        }
+        code = size++;
+        values[code] = Arrays.copyOfRange(data, offset, offset + len);
+        hashes[code] = h;
+        if (size * 2 > table.length) {
+            // double the table and put every value back
+            table = new int[table.length * 2];
+            for (int c = 0; c < size; c++)
+                table[slotFor(hashes[c])] = c + 1;
+        } else {
+            table[slotFor(h)] = code + 1;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the first free slot of the table for a hash.
+     */
+    private int slotFor(int h) {
+        int mask = table.length - 1;
+        int i = h & mask;
+        while (table[i] != 0)
+            i = (i + 1) & mask;
+        return i;
+    }
+}
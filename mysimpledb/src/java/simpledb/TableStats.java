@@ -81,6 +81,7 @@ public class TableStats {
     
     private int numTuples;
     private int scanIOCost;
+    private int ioCostPerPage;
     private int[] distinctValues;
     private Object[] histograms;
 
@@ -100,7 +101,8 @@ public class TableStats {
     	int numFields = td.numFields();
     	
     	// set up instance variables
-    	scanIOCost = ((HeapFile) f).numPages() * ioCostPerPage;
+    	scanIOCost = f.numPages() * ioCostPerPage;
+    	this.ioCostPerPage = ioCostPerPage;
     	numTuples = 0;
     	distinctValues = new int[numFields];
     	histograms = createHistograms(td, iter);
@@ -186,7 +188,8 @@ public class TableStats {
 		    			int v = ((IntField) f).getValue();
 		    			if (v > maxs[i]) {
 		    				maxs[i] = v;
-		    			} else if (v < mins[i]) {
+		    			}
+		    			if (v < mins[i]) {
 		    				mins[i] = v;
 		    			}
 		    		}
@@ -227,6 +230,40 @@ public class TableStats {
     } // end estimateScanCost()
 
     
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate with
+     * selectivity selectivityFactor through an index: the page reads to
+     * find the first entry, then one page read per matching tuple, as the
+     * table is not assumed to be ordered by the indexed field.
+     *
+     * @param lookupPages the pages read to find the first entry, see
+     *                    {@link IndexFile#lookupPages()}
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(int lookupPages, double selectivityFactor) {
+        return (lookupPages + estimateTableCardinality(selectivityFactor))
+                * (double) ioCostPerPage;
+    } // end estimateIndexScanCost(int, double)
+
+    
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates with
+     * selectivity selectivityFactor through bitmap indexes, which read each
+     * page holding a matching tuple once: with the k matching tuples spread
+     * at random over the n pages of the table, about n(1 - (1 - 1/n)^k)
+     * pages (Cardenas' formula).
+     *
+     * @return The estimated cost of the bitmap scan.
+     * @see BitmapScan
+     */
+    public double estimateBitmapScanCost(double selectivityFactor) {
+        if (scanIOCost == 0) return 0;
+        double pages = scanIOCost / (double) ioCostPerPage;
+        int k = estimateTableCardinality(selectivityFactor);
+        return pages * (1 - Math.pow(1 - 1 / pages, k)) * ioCostPerPage;
+    } // end estimateBitmapScanCost(double)
+
+    
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -253,7 +290,6 @@ public class TableStats {
      * @return The number of distinct values of the field.
      */
     public int numDistinctValues(int field) {
-    	System.out.println(distinctValues[field]);
         return distinctValues[field];
     } // end numDistinctValues(int)
 
@@ -1,11 +1,20 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p/>
+ * A tuple read from a page may instead refer to the serialized tuple on the
+ * page, and decode each field from it the first time it is read; its INT
+ * fields can also be read with {@link #getInt} without decoding them. A
+ * projection of a tuple may likewise refer to the fields of the tuple it
+ * was projected from (see {@link #project}), and the result of a join to
+ * the two tuples it joins (see {@link #join}).
  */
 public class Tuple implements Serializable {
 
@@ -20,6 +29,21 @@ public class Tuple implements Serializable {
     
     /** An array of fields in the tuple. */
     private Field[] fieldAr;
+    
+    /** Bytes holding the fields not decoded yet, or null. */
+    private byte[] data;
+    
+    /** Offset of the serialized tuple in data. */
+    private int offset;
+    
+    /** The tuple this one is a projection of, or null. */
+    private Tuple source;
+    
+    /** The field of source each field of this tuple is. */
+    private int[] sourceFields;
+    
+    /** The tuples this one is the concatenation of, or null. */
+    private Tuple left, right;
 
     
     /**
@@ -35,6 +59,22 @@ public class Tuple implements Serializable {
         this.rid = null;
         this.fieldAr = new Field[td.numFields()];
     } // end Tuple(TupleDesc)
+    
+    
+    /**
+     * Create a tuple whose fields are decoded from data, where the tuple is
+     * stored as {@link HeapPage} stores it, when they are first read. The
+     * bytes must not change while the tuple is in use.
+     *
+     * @param td the schema of this tuple
+     * @param data the bytes holding the tuple
+     * @param offset the offset of the tuple in data
+     */
+    Tuple(TupleDesc td, byte[] data, int offset) {
+    	this(td);
+    	this.data = data;
+    	this.offset = offset;
+    } // end Tuple(TupleDesc, byte[], int)
 
     
     /**
@@ -95,10 +135,104 @@ public class Tuple implements Serializable {
         	throw new RuntimeException("invalid index");
         }
     	
+    	if (fieldAr[i] == null) {
+    		if (data != null) {
+    			fieldAr[i] = td.getFieldType(i).parse(data, offset + td.getFieldOffset(i));
+    		} else if (source != null) {
+    			fieldAr[i] = source.getField(sourceFields[i]);
+    		} else if (left != null) {
+    			int n1 = left.fieldAr.length;
+    			fieldAr[i] = (i < n1) ? left.getField(i) : right.getField(i - n1);
+    		}
+    	}
     	return fieldAr[i];
     } // end getField(int)
 
     
+    /**
+     * Returns the value of an INT field, read straight from the page if the
+     * field has not been decoded, so that no IntField is created.
+     * 
+     * @param i field index to return. Must be a valid index of an INT field
+     *          that is set.
+     * @return the value of the ith field
+     */
+    public int getInt(int i) {
+    	if (i < 0 || i >= fieldAr.length) {
+        	throw new RuntimeException("invalid index");
+        } else if (td.getFieldType(i) != Type.INT_TYPE) {
+        	throw new RuntimeException("not an INT field");
+        }
+    	
+    	if (fieldAr[i] == null) {
+    		if (data != null) {
+    			return Type.readInt(data, offset + td.getFieldOffset(i));
+    		} else if (source != null) {
+    			return source.getInt(sourceFields[i]);
+    		} else if (left != null) {
+    			int n1 = left.fieldAr.length;
+    			return (i < n1) ? left.getInt(i) : right.getInt(i - n1);
+    		}
+    		throw new NullPointerException("field not set");
+    	}
+    	return ((IntField) fieldAr[i]).getValue();
+    } // end getInt(int)
+
+    
+    /**
+     * Returns the projection of this tuple onto some of its fields, with
+     * the same RecordId. The projection refers to this tuple for the fields
+     * not decoded yet instead of copying them.
+     * 
+     * @param td the schema of the projection
+     * @param fields the field of this tuple each field of the projection is
+     * @return the projection
+     */
+    public Tuple project(TupleDesc td, int[] fields) {
+    	if (td.numFields() != fields.length) {
+    		throw new RuntimeException("invalid number of fields");
+    	}
+    	
+    	Tuple rv = new Tuple(td);
+    	for (int i = 0; i < fields.length; i++) {
+    		if (!td.getFieldType(i).equals(this.td.getFieldType(fields[i]))) {
+    			throw new RuntimeException("types do not agree");
+    		}
+    		rv.fieldAr[i] = fieldAr[fields[i]];
+    	}
+    	if (data != null || source != null || left != null) {
+    		rv.source = this;
+    		rv.sourceFields = fields;
+    	}
+    	rv.rid = rid;
+    	return rv;
+    } // end project(TupleDesc, int[])
+
+    
+    /**
+     * Returns the concatenation of two tuples, the fields of t1 followed by
+     * those of t2, as a join outputs it. The result refers to t1 and t2 and
+     * reads its fields from them, so no fields are copied until they are
+     * read; the schema is passed in so that a join can compute it once.
+     * 
+     * @param td the schema of the result, the merge of the schemas of t1
+     *           and t2 (see {@link TupleDesc#merge})
+     * @param t1 the first tuple
+     * @param t2 the second tuple
+     * @return the concatenation, with no RecordId
+     */
+    public static Tuple join(TupleDesc td, Tuple t1, Tuple t2) {
+    	if (td.numFields() != t1.fieldAr.length + t2.fieldAr.length) {
+    		throw new RuntimeException("invalid number of fields");
+    	}
+    	
+    	Tuple rv = new Tuple(td);
+    	rv.left = t1;
+    	rv.right = t2;
+    	return rv;
+    } // end join(TupleDesc, Tuple, Tuple)
+
+    
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -110,19 +244,47 @@ public class Tuple implements Serializable {
     public String toString() {
         String str = "";
         for (int i = 0; i < fieldAr.length; i++) {
-        	if (Type.INT_TYPE.equals(fieldAr[i].getType())) {
-        		if (fieldAr[i] != null) {
-        			str += ((IntField) fieldAr[i]).getValue() + " ";
+        	Field f = getField(i);
+        	if (Type.INT_TYPE.equals(td.getFieldType(i))) {
+        		if (f != null) {
+        			str += ((IntField) f).getValue() + " ";
         		} else str += "   ";
         		
         	} else {
-        		if (fieldAr[i] != null) {
-        			str += ((StringField) fieldAr[i]).getValue() + " ";
+        		if (f != null) {
+        			str += ((StringField) f).getValue() + " ";
         		} else str += "   ";
         	}
         }
         
         return str;
     } // end toString()
+    
+    
+    /**
+     * Decodes the fields not decoded yet and drops the reference to the
+     * bytes or tuples they were read from, e.g. before the bytes change.
+     */
+    void detach() {
+    	if (data == null && source == null && left == null) return;
+    	for (int i = 0; i < fieldAr.length; i++) {
+    		getField(i);
+    	}
+    	data = null;
+    	source = null;
+    	sourceFields = null;
+    	left = null;
+    	right = null;
+    } // end detach()
+    
+    
+    /**
+     * Decodes all fields before serializing, so the page bytes are not
+     * written along.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	detach();
+    	out.defaultWriteObject();
+    } // end writeObject(ObjectOutputStream)
 
 } // end Tuple
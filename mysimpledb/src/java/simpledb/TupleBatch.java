@@ -0,0 +1,181 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to {@link #CAPACITY} rows of a schema column by
+ * column, as the operators of the batch execution mode exchange them (see
+ * {@link BatchIterator}). Every column is an int vector: INT columns hold
+ * their values, and STRING columns the codes of their values in a
+ * {@link StringDictionary}, so operators compare, hash and copy ints
+ * whatever the type of a column. A column has the same dictionary in every
+ * batch of an iterator, and values are decoded only by {@link #getField}.
+ * <p/>
+ * A selection vector lists the rows of the batch that are in it, in
+ * increasing order, so that a filter can drop rows without moving the
+ * others; without one, every row is in the batch. Rows carry no RecordIds.
+ */
+public class TupleBatch {
+
+    /** The number of rows a batch holds at most. */
+    public static final int CAPACITY = 1024;
+
+    private final TupleDesc td;
+
+    /** The vector of each column. */
+    final int[][] ints;
+
+    /** The dictionary of each STRING column, or null for INT columns. */
+    final StringDictionary[] dicts;
+
+    /** The number of rows filled in. */
+    int size;
+
+    /** The rows in the batch, or null for all of them. */
+    int[] sel;
+
+    /** The number of rows in sel. */
+    int selSize;
+
+    /**
+     * Creates an empty batch with vectors of {@link #CAPACITY} rows, and a
+     * new dictionary for each STRING column.
+     *
+     * @param td the schema of the rows
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, newDictionaries(td));
+    }
+
+    /**
+     * Creates an empty batch with vectors of {@link #CAPACITY} rows.
+     *
+     * @param td    the schema of the rows
+     * @param dicts the dictionary of each STRING column, null for INT
+     *              columns; the batch shares them
+     */
+    public TupleBatch(TupleDesc td, StringDictionary[] dicts) {
+        this.td = td;
+        this.ints = new int[td.numFields()][CAPACITY];
+        this.dicts = dicts;
+        clear();
+    }
+
+    /**
+     * Creates a batch over the given vectors and dictionaries, which it
+     * shares.
+     */
+    TupleBatch(TupleDesc td, int[][] ints, StringDictionary[] dicts, int size,
+               int[] sel, int selSize) {
+        this.td = td;
+        this.ints = ints;
+        this.dicts = dicts;
+        this.size = size;
+        this.sel = sel;
+        this.selSize = selSize;
+    }
+
+    /**
+     * @return a new dictionary for each STRING column of td, and null for
+     * its INT columns
+     */
+    public static StringDictionary[] newDictionaries(TupleDesc td) {
+        StringDictionary[] dicts = new StringDictionary[td.numFields()];
+        for (int i = 0; i < dicts.length; i++) {
+            if (td.getFieldType(i) != Type.INT_TYPE)
+                dicts[i] = new StringDictionary();
+        }
+        return dicts;
+    }
+
+    /**
+     * @return the schema of the rows
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Empties the batch, keeping its vectors.
+     */
+    public void clear() {
+        size = 0;
+        sel = null;
+        selSize = 0;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int numRows() {
+        return sel == null ? size : selSize;
+    }
+
+    /**
+     * @param k the index of a row in the batch, below {@link #numRows()}
+     * @return the position of the kth row in the vectors
+     */
+    public int row(int k) {
+        return sel == null ? k : sel[k];
+    }
+
+    /**
+     * @param col an INT column
+     * @return the vector of the column, indexed by position
+     */
+    public int[] getIntColumn(int col) {
+        if (dicts[col] != null)
+            throw new RuntimeException("not an INT column");
+        return ints[col];
+    }
+
+    /**
+     * @param col a STRING column
+     * @return the codes of the column in its dictionary, indexed by position
+     */
+    public int[] getCodes(int col) {
+        if (dicts[col] == null)
+            throw new RuntimeException("not a STRING column");
+        return ints[col];
+    }
+
+    /**
+     * @param col a column
+     * @return the dictionary of the column, or null if it is an INT column
+     */
+    public StringDictionary getDictionary(int col) {
+        return dicts[col];
+    }
+
+    /**
+     * @param col a column
+     * @param pos a position in the vectors, e.g. from {@link #row}
+     * @return the value at pos of the column, as a Field
+     */
+    public Field getField(int col, int pos) {
+        if (dicts[col] != null)
+            return dicts[col].getField(ints[col][pos]);
+        return new IntField(ints[col][pos]);
+    }
+
+    /**
+     * Keeps only the given rows in the batch.
+     *
+     * @param sel   positions in the vectors, in increasing order
+     * @param count the number of positions in sel
+     */
+    void select(int[] sel, int count) {
+        this.sel = sel;
+        this.selSize = count;
+    }
+
+    /**
+     * Returns the row at a position as a Tuple.
+     *
+     * @param pos a position in the vectors, e.g. from {@link #row}
+     */
+    public Tuple toTuple(int pos) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i, pos));
+        return t;
+    }
+}
@@ -53,6 +53,9 @@ public class TupleDesc implements Serializable {
     
     /** Size (in bytes) of this TupleDesc. */
     private int size;
+    
+    /** Offset (in bytes) of each field in a serialized tuple. */
+    private int[] offsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -74,9 +77,11 @@ public class TupleDesc implements Serializable {
         
         // initialize
         itemAr = new TDItem[typeAr.length];
+        offsets = new int[typeAr.length];
         size = 0;
         for (int i = 0; i < itemAr.length; i++) {
-        	// calculate size
+        	// calculate offset and size
+        	offsets[i] = size;
         	size += typeAr[i].getLen();
         	
         	if (fieldAr[i] == null) {
@@ -108,10 +113,12 @@ public class TupleDesc implements Serializable {
     	this.itemAr = new TDItem[itemAr.length];
     	System.arraycopy(itemAr, 0, this.itemAr, 0, itemAr.length);
     	
-    	// calculate size
+    	// calculate offsets and size
+    	offsets = new int[itemAr.length];
     	size = 0;
-    	for (TDItem item : itemAr) {
-    		size += item.fieldType.getLen();
+    	for (int i = 0; i < itemAr.length; i++) {
+    		offsets[i] = size;
+    		size += itemAr[i].fieldType.getLen();
     	}
     	
     } // end TupleDesc(TDItem[])
@@ -185,6 +192,17 @@ public class TupleDesc implements Serializable {
     public int getSize() {
         return size;
     } // end getSize()
+    
+    
+    /**
+     * @param i index of the field. It must be a valid index.
+     * @return the offset (in bytes) of the ith field in a tuple with this
+     * TupleDesc as it is stored on disk, i.e., the sum of the sizes of the
+     * fields before it.
+     */
+    public int getFieldOffset(int i) {
+    	return offsets[i];
+    } // end getFieldOffset(int)
 
     
     /**
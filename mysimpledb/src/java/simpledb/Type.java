@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            writeInt(data, offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,24 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.max(0, Math.min(readInt(data, offset), STRING_LEN));
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, byte[] data, int offset) {
+            // like StringField.serialize: the low byte of each char
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), STRING_LEN);
+            writeInt(data, offset, len);
+            for (int i = 0; i < len; i++) {
+                data[offset + 4 + i] = (byte) s.charAt(i);
+            }
+            Arrays.fill(data, offset + 4 + len, offset + 4 + STRING_LEN, (byte) 0);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -60,4 +89,41 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param data   bytes holding a field of this type in the form
+     *               {@link Field#serialize} writes
+     * @param offset the offset of the field in data
+     * @return a Field object of the same type as this object that has contents
+     * read from data.
+     */
+    public abstract Field parse(byte[] data, int offset);
+
+    /**
+     * Writes a field of this type into data, in the form
+     * {@link Field#serialize} writes.
+     *
+     * @param f      the field, which must be of this type
+     * @param data   the bytes to write to
+     * @param offset the offset of the field in data
+     */
+    public abstract void write(Field f, byte[] data, int offset);
+
+    /**
+     * @return the big-endian int at offset in data, as DataInputStream reads it
+     */
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Writes v at offset in data, big-endian, as DataOutputStream writes it.
+     */
+    static void writeInt(byte[] data, int offset, int v) {
+        data[offset] = (byte) (v >>> 24);
+        data[offset + 1] = (byte) (v >>> 16);
+        data[offset + 2] = (byte) (v >>> 8);
+        data[offset + 3] = (byte) v;
+    }
+
 }
@@ -0,0 +1,408 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a {@link HeapFile}, the number of tuples
+ * on the page and the minimum and maximum value of each INT_TYPE field on
+ * it. A scan with predicates consults it to skip the pages none of whose
+ * tuples can satisfy them. (SimpleDB fields are never null, so no null
+ * counts are kept.)
+ * <p/>
+ * An entry never understates what the page may hold: it is recomputed
+ * exactly whenever the page is written to disk, widened when a tuple is
+ * inserted into the page, and left alone when one is deleted (the next
+ * write of the page narrows it again). Pages without an entry are never
+ * skipped; scans fill entries in from the clean pages they read.
+ * <p/>
+ * The entries are saved in a side file next to the heap file, named like
+ * it with ".zm" appended. Its header records the length and modification
+ * time the heap file had when the side file was last saved, so a side
+ * file left over from a heap file that was since replaced by other means
+ * is ignored, and a valid flag, which is cleared on disk before the first
+ * page write after a save, so a side file is never trusted for pages
+ * written after it. The header is followed by one fixed-size record per
+ * page: an int tuple count (-1 for no entry) and an int (min, max) pair
+ * per INT_TYPE field.
+ *
+ * @see HeapFile#iterator(TransactionId, List)
+ */
+public class ZoneMap {
+
+	/**
+	 * Size of the side file header: data file length, modification time
+	 * and valid flag.
+	 */
+	private static final int HEADER_SIZE = 20;
+
+	/** Offset of the valid flag in the side file header. */
+	private static final int VALID_OFFSET = 16;
+
+	/** Tuple count of a page without an entry. */
+	private static final int UNKNOWN = -1;
+
+	/** The heap file described. */
+	private final File dataFile;
+
+	/** The side file the entries are saved in. */
+	private final File zmFile;
+
+	/** Index into an entry's (min, max) pairs for each field, or -1. */
+	private final int[] slotOf;
+
+	/** Number of INT_TYPE fields. */
+	private final int numInts;
+
+	/** Tuple count of each page, or UNKNOWN. */
+	private int[] counts;
+
+	/** numInts (min, max) pairs per page. */
+	private int[] bounds;
+
+	/** Pages whose entries changed since the side file was last saved. */
+	private final BitSet dirty;
+
+	/** Whether the side file has been read. */
+	private boolean loaded;
+
+	/** Whether the side file on disk is marked valid. */
+	private boolean onDisk;
+
+	/** Length of the heap file the entries describe. */
+	private long stampLength;
+
+	/** Modification time of the heap file the entries describe. */
+	private long stampModified;
+
+
+	/**
+	 * Creates the zone map of a heap file. The side file is read on first use.
+	 *
+	 * @param dataFile the file backing the heap file
+	 * @param td the TupleDesc of the heap file
+	 */
+	public ZoneMap(File dataFile, TupleDesc td) {
+		this.dataFile = dataFile;
+		this.zmFile = new File(dataFile.getPath() + ".zm");
+		this.slotOf = new int[td.numFields()];
+		int n = 0;
+		for (int i = 0; i < slotOf.length; i++) {
+			slotOf[i] = (td.getFieldType(i) == Type.INT_TYPE) ? n++ : -1;
+		}
+		this.numInts = n;
+		this.counts = new int[0];
+		this.bounds = new int[0];
+		this.dirty = new BitSet();
+		this.loaded = false;
+		this.onDisk = false;
+	} // end ZoneMap(File, TupleDesc)
+
+
+	/**
+	 * @return the side file the entries are saved in
+	 */
+	public File getFile() {
+		return zmFile;
+	} // end getFile()
+
+
+	/**
+	 * Decides whether page pgNo may hold a tuple that satisfies all of the
+	 * given predicates. Predicates on fields other than INT_TYPE ones, and
+	 * LIKE predicates, never rule a page out.
+	 *
+	 * @param pgNo the page number
+	 * @param predicates predicates over the fields of the heap file
+	 * @return false if no tuple on the page can satisfy all predicates
+	 */
+	public synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+		load();
+		if (pgNo >= counts.length || counts[pgNo] == UNKNOWN) return true;
+		if (counts[pgNo] == 0) return false;
+
+		for (int i = 0; i < predicates.size(); i++) {
+			Predicate p = predicates.get(i);
+			int slot = slotOf[p.getField()];
+			if (slot < 0 || !(p.getOperand() instanceof IntField)) continue;
+
+			int v = ((IntField) p.getOperand()).getValue();
+			int min = bounds[(pgNo * numInts + slot) * 2];
+			int max = bounds[(pgNo * numInts + slot) * 2 + 1];
+			boolean may;
+			switch (p.getOp()) {
+			case EQUALS:				may = min <= v && v <= max; break;
+			case NOT_EQUALS:			may = min != v || max != v; break;
+			case GREATER_THAN:			may = max > v; break;
+			case GREATER_THAN_OR_EQ:	may = max >= v; break;
+			case LESS_THAN:				may = min < v; break;
+			case LESS_THAN_OR_EQ:		may = min <= v; break;
+			default:					may = true;
+			}
+			if (!may) return false;
+		}
+		return true;
+	} // end mayMatch(int, List<Predicate>)
+
+
+	/**
+	 * @return whether page pgNo has an entry
+	 */
+	public synchronized boolean isKnown(int pgNo) {
+		load();
+		return pgNo < counts.length && counts[pgNo] != UNKNOWN;
+	} // end isKnown(int)
+
+
+	/**
+	 * Sets the entry of a page to describe exactly the tuples on it. Must
+	 * only be given pages whose contents match the disk, i.e., clean ones.
+	 *
+	 * @param page the page
+	 */
+	public synchronized void learn(HeapPage page) {
+		load();
+		int pgNo = page.getId().pageNumber();
+		ensureCapacity(pgNo + 1);
+
+		int count = 0;
+		int base = pgNo * numInts * 2;
+		for (int k = 0; k < numInts; k++) {
+			bounds[base + 2 * k] = Integer.MAX_VALUE;
+			bounds[base + 2 * k + 1] = Integer.MIN_VALUE;
+		}
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext()) {
+			include(pgNo, it.next());
+			count++;
+		}
+		counts[pgNo] = count;
+		dirty.set(pgNo);
+	} // end learn(HeapPage)
+
+
+	/**
+	 * Widens the entry of page pgNo, if it has one, to cover a tuple
+	 * inserted into it.
+	 *
+	 * @param pgNo the page number
+	 * @param t the inserted tuple
+	 */
+	public synchronized void widen(int pgNo, Tuple t) {
+		load();
+		if (pgNo >= counts.length || counts[pgNo] == UNKNOWN) return;
+		include(pgNo, t);
+		counts[pgNo]++;
+		dirty.set(pgNo);
+	} // end widen(int, Tuple)
+
+
+	/**
+	 * Drops the entry of page pgNo; called before the page is written.
+	 * The first call after a save marks the side file invalid, so a side
+	 * file never describes a stale page.
+	 *
+	 * @param pgNo the page number
+	 */
+	public synchronized void forget(int pgNo) {
+		load();
+		if (onDisk) invalidate();
+		if (pgNo >= counts.length || counts[pgNo] == UNKNOWN) return;
+		counts[pgNo] = UNKNOWN;
+		dirty.set(pgNo);
+	} // end forget(int)
+
+
+	/**
+	 * Notes that the heap file was just written through this zone map, so
+	 * the entries describe its new length and modification time. Only the
+	 * entries in memory are updated; the side file takes the new stamp at
+	 * the next {@link #save}, and until then no longer matches the heap file.
+	 */
+	public synchronized void written() {
+		load();
+		stamp();
+	} // end written()
+
+
+	/**
+	 * Drops the entries of the pages from pgNo on; called when the heap
+	 * file is truncated.
+	 *
+	 * @param pgNo the first page removed
+	 */
+	public synchronized void truncate(int pgNo) {
+		load();
+		if (pgNo < counts.length) {
+			counts = Arrays.copyOf(counts, pgNo);
+			bounds = Arrays.copyOf(bounds, pgNo * numInts * 2);
+		}
+		dirty.clear();
+		dirty.set(0, counts.length);
+		zmFile.delete();		// rewritten whole by the next save
+		onDisk = false;
+	} // end truncate(int)
+
+
+	/**
+	 * Drops all entries if the heap file changed since they were last
+	 * saved without going through this zone map, e.g. because it was
+	 * replaced by a loader. Scans call this before they start.
+	 */
+	public synchronized void check() {
+		load();
+		if (dataFile.length() != stampLength
+				|| dataFile.lastModified() != stampModified) {
+			counts = new int[0];
+			bounds = new int[0];
+			dirty.clear();
+			zmFile.delete();
+			onDisk = false;
+			stamp();
+		}
+	} // end check()
+
+
+	/**
+	 * Writes the changed entries to the side file, stamped with the current
+	 * length and modification time of the heap file, and marks it valid.
+	 * Failures are ignored; the side file is then just not up to date and
+	 * will be dropped.
+	 */
+	public synchronized void save() {
+		if (!loaded || (dirty.isEmpty() && onDisk)) return;
+		if (!zmFile.exists()) {
+			dirty.set(0, counts.length);	// write every record
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(zmFile, "rw");
+			try {
+				// each run of consecutive changed records is written at once
+				int recordSize = 4 + 8 * numInts;
+				for (int first = dirty.nextSetBit(0); first >= 0;
+						first = dirty.nextSetBit(first)) {
+					int end = dirty.nextClearBit(first);
+					ByteBuffer buf = ByteBuffer.allocate((end - first) * recordSize);
+					for (int pgNo = first; pgNo < end; pgNo++) {
+						buf.putInt(counts[pgNo]);
+						for (int j = 0; j < numInts * 2; j++) {
+							buf.putInt(bounds[pgNo * numInts * 2 + j]);
+						}
+					}
+					raf.seek(HEADER_SIZE + (long) first * recordSize);
+					raf.write(buf.array());
+					first = end;
+				}
+				raf.setLength(HEADER_SIZE + (long) counts.length * recordSize);
+				stamp();
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putLong(stampLength);
+				header.putLong(stampModified);
+				header.putInt(1);
+				raf.seek(0);
+				raf.write(header.array());
+			} finally {
+				raf.close();
+			}
+			dirty.clear();
+			onDisk = true;
+		} catch (IOException e) {
+			zmFile.delete();
+		}
+	} // end save()
+
+
+	/**
+	 * Clears the valid flag of the side file, or deletes it if that fails.
+	 */
+	private void invalidate() {
+		onDisk = false;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(zmFile, "rw");
+			try {
+				raf.seek(VALID_OFFSET);
+				raf.writeInt(0);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			zmFile.delete();
+		}
+	} // end invalidate()
+
+
+	/**
+	 * Reads the side file if that has not been done yet, or drops all
+	 * entries if it does not match the heap file.
+	 */
+	private void load() {
+		if (loaded) return;
+		loaded = true;
+		stamp();
+		if (!zmFile.exists()) return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(zmFile)));
+			try {
+				if (in.readLong() != stampLength
+						|| in.readLong() != stampModified
+						|| in.readInt() == 0) {
+					in.close();
+					zmFile.delete();	// stale, or from another heap file
+					return;
+				}
+				int recordSize = 4 + 8 * numInts;
+				int n = (int) ((zmFile.length() - HEADER_SIZE) / recordSize);
+				ensureCapacity(n);
+				for (int pgNo = 0; pgNo < n; pgNo++) {
+					counts[pgNo] = in.readInt();
+					for (int j = 0; j < numInts * 2; j++) {
+						bounds[pgNo * numInts * 2 + j] = in.readInt();
+					}
+				}
+				onDisk = true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Arrays.fill(counts, UNKNOWN);
+		}
+	} // end load()
+
+
+	/**
+	 * Records the current length and modification time of the heap file.
+	 */
+	private void stamp() {
+		stampLength = dataFile.length();
+		stampModified = dataFile.lastModified();
+	} // end stamp()
+
+
+	/**
+	 * Makes room for entries of the first n pages; new entries are unknown.
+	 */
+	private void ensureCapacity(int n) {
+		if (n <= counts.length) return;
+		int old = counts.length;
+		counts = Arrays.copyOf(counts, n);
+		Arrays.fill(counts, old, n, UNKNOWN);
+		bounds = Arrays.copyOf(bounds, n * numInts * 2);
+	} // end ensureCapacity(int)
+
+
+	/**
+	 * Widens the bounds of page pgNo to cover t's INT_TYPE fields.
+	 */
+	private void include(int pgNo, Tuple t) {
+		for (int i = 0; i < slotOf.length; i++) {
+			if (slotOf[i] < 0) continue;
+			int v = ((IntField) t.getField(i)).getValue();
+			int at = (pgNo * numInts + slotOf[i]) * 2;
+			if (v < bounds[at]) bounds[at] = v;
+			if (v > bounds[at + 1]) bounds[at + 1] = v;
+		}
+	} // end include(int, Tuple)
+
+} // end ZoneMap
@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private int savedPageSize;
+    private BTreeFile index;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // small pages, so that a few thousand entries make a deep tree
+        savedPageSize = BufferPool.getPageSize();
+        BufferPool.setPageSize(128);
+        Database.resetBufferPool(10000);
+
+        File table = File.createTempFile("btree", ".dat");
+        table.deleteOnExit();
+        HeapFile hf = new HeapFile(table, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        File f = File.createTempFile("btree", ".idx");
+        f.deleteOnExit();
+        new File(f.getPath() + ".stamp").deleteOnExit();
+        index = new BTreeFile(f, hf.getId(), 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    @After
+    public void tearDown() {
+        BufferPool.setPageSize(savedPageSize);
+    }
+
+    private Tuple entry(int key, int pg, int slot) {
+        Tuple t = new Tuple(index.getTupleDesc());
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(pg));
+        t.setField(2, new IntField(slot));
+        return t;
+    }
+
+    private ArrayList<int[]> read(DbFileIterator it) throws Exception {
+        ArrayList<int[]> rv = new ArrayList<int[]>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rv.add(new int[]{((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue(),
+                    ((IntField) t.getField(2)).getValue()});
+        }
+        it.close();
+        return rv;
+    }
+
+    private int count(TransactionId tid, Predicate.Op op, int key,
+                      ArrayList<int[]> entries) throws Exception {
+        int n = read(index.iterator(tid, op, new IntField(key))).size();
+        int expected = 0;
+        for (int[] e : entries) {
+            if (new IntField(e[0]).compare(op, new IntField(key))) expected++;
+        }
+        assertEquals(expected, n);
+        return n;
+    }
+
+    /**
+     * Entries with many duplicate keys, inserted in random order, come back
+     * sorted; range lookups find exactly the matching ones, before and
+     * after deletes, and after the pages are read back from disk.
+     */
+    @Test
+    public void insertLookupDelete() throws Exception {
+        Random rand = new Random(7);
+        ArrayList<int[]> entries = new ArrayList<int[]>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            int[] e = {rand.nextInt(300), i / 10, i % 10};
+            entries.add(e);
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(e[0], e[1], e[2]));
+        }
+        Collections.sort(entries, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return BTreePage.compare(a[0], a[1], a[2], b[0], b[1], b[2]);
+            }
+        });
+
+        ArrayList<int[]> all = read(index.iterator(tid));
+        assertEquals(entries.size(), all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertArrayEquals(entries.get(i), all.get(i));
+        }
+        assertTrue(count(tid, Predicate.Op.EQUALS, 150, entries) > 0);
+        count(tid, Predicate.Op.LESS_THAN, 20, entries);
+        count(tid, Predicate.Op.LESS_THAN_OR_EQ, 20, entries);
+        count(tid, Predicate.Op.GREATER_THAN, 280, entries);
+        count(tid, Predicate.Op.GREATER_THAN_OR_EQ, 0, entries);
+        assertEquals(0, count(tid, Predicate.Op.EQUALS, 1000, entries));
+
+        // delete every other entry
+        ArrayList<int[]> kept = new ArrayList<int[]>();
+        for (int i = 0; i < entries.size(); i++) {
+            int[] e = entries.get(i);
+            if (i % 2 == 0) {
+                for (Page p : index.deleteTuple(tid, entry(e[0], e[1], e[2])))
+                    p.markDirty(true, tid);
+            } else {
+                kept.add(e);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // read back from disk
+        Database.resetBufferPool(10000);
+        tid = new TransactionId();
+        assertEquals(kept.size(), read(index.iterator(tid)).size());
+        for (int key = 0; key < 300; key += 37) {
+            count(tid, Predicate.Op.EQUALS, key, kept);
+        }
+        count(tid, Predicate.Op.GREATER_THAN, 150, kept);
+        try {
+            index.deleteTuple(tid, entry(-1, 0, 0));
+            fail("deleted an entry that is not there");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Entries inserted by an aborted transaction are gone afterwards.
+     */
+    @Test
+    public void abortRollsBackSplits() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(i, 0, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 20; i < 500; i++) {
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(i, 0, i));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(20, read(index.iterator(tid)).size());
+        Database.getBufferPool().insertTuple(tid, index.getId(), entry(1000, 0, 0));
+        assertEquals(1, read(index.iterator(tid, Predicate.Op.GREATER_THAN,
+                new IntField(19))).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File input;
+
+    /**
+     * Write a text file with random rows to load.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random();
+        input = File.createTempFile("bulk", ".txt");
+        input.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(input));
+        for (int i = 0; i < 3000; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(r.nextInt() % 100000);
+            tuple.add(i);
+            tuples.add(tuple);
+            bw.write(tuple.get(0) + "," + tuple.get(1) + "\n");
+        }
+        bw.close();
+    }
+
+    /**
+     * Loading with many small chunks and several threads produces the same
+     * tuples as the input, and the table is registered in the catalog.
+     */
+    @Test
+    public void loadInParallelChunks() throws Exception {
+        File output = File.createTempFile("bulk", ".dat");
+        output.deleteOnExit();
+        TupleDesc td = Utility.getTupleDesc(2);
+
+        BulkLoader loader = new BulkLoader(td, ',', BufferPool.getPageSize(), 1000);
+        assertEquals(3000, loader.loadFile(input, output, 4));
+
+        HeapFile hf = new HeapFile(output, td);
+        Database.getCatalog().addTable(hf, "bulk");
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * The static entry point registers the loaded table.
+     */
+    @Test
+    public void loadRegistersTable() throws Exception {
+        File output = File.createTempFile("bulk", ".dat");
+        output.deleteOnExit();
+        HeapFile hf = BulkLoader.load(input, output, Utility.getTupleDesc(2),
+                ',', "loaded", "");
+
+        assertEquals(hf.getId(), Database.getCatalog().getTableId("loaded"));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A table can be loaded with pages of its own size.
+     */
+    @Test
+    public void loadWithPageSize() throws Exception {
+        File output = File.createTempFile("bulk", ".dat");
+        output.deleteOnExit();
+        HeapFile hf = BulkLoader.load(input, output, Utility.getTupleDesc(2),
+                ',', "loaded", "", 16 * 1024);
+
+        assertEquals(16 * 1024, hf.getPageSize());
+        assertEquals(0, output.length() % (16 * 1024));
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -73,6 +78,75 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /** Writes a two-column table whose first column counts up from first. */
+    private void writeTable(File f, int first, int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = first; i < first + rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i);
+            tuples.add(t);
+        }
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    }
+
+    /** Counts the entries of key in idx. */
+    private int lookup(IndexFile idx, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = idx.iterator(tid, Predicate.Op.EQUALS, new IntField(key));
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * The indexes of a schema's table are rebuilt when the table's file
+     * was replaced after they were built.
+     */
+    @Test
+    public void indexesRebuiltForReplacedTable() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("t (a int pk, b int index)\n");
+        w.close();
+        File data = new File(dir, "t.dat");
+        try {
+            writeTable(data, 0, 1000);
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            int tableId = Database.getCatalog().getTableId("t");
+            List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+            assertEquals(2, indexes.size());
+            for (IndexFile idx : indexes) {
+                assertEquals(1, lookup(idx, 500));
+            }
+
+            // replaced behind the indexes' back, as a loader does
+            writeTable(data, 10000, 2000);
+            Database.reset();
+            Database.getCatalog().loadSchema(schema.getAbsolutePath());
+            tableId = Database.getCatalog().getTableId("t");
+            indexes = Database.getCatalog().getIndexes(tableId);
+            for (IndexFile idx : indexes) {
+                assertEquals(0, lookup(idx, 500));
+                assertEquals(1, lookup(idx, 11500));
+                if (idx instanceof BTreeFile) assertTrue(((BTreeFile) idx).isCurrent());
+                else assertTrue(((HashIndexFile) idx).isCurrent());
+            }
+        } finally {
+            for (File f : dir.listFiles()) f.delete();
+            dir.delete();
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private ColumnFile cf;
+
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[]{"id", "name", "score"});
+        File f = File.createTempFile("col", ".dat");
+        f.deleteOnExit();
+        cf = new ColumnFile(f, td);
+        for (int i = 0; i < td.numFields(); i++)
+            cf.getColumnFile(i).deleteOnExit();
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int id) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField("name" + id, Type.STRING_LEN));
+        t.setField(2, new IntField(id * 10));
+        return t;
+    }
+
+    private void insert(int n) throws Exception {
+        // commit in batches so the dirty pages fit in the buffer pool
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && i % 500 == 0) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            Database.getBufferPool().insertTuple(tid, cf.getId(), makeTuple(i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The before-image is the page as read until the first change, and the
+     * page as it was then until the before-image is set again.
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        ColumnPageId pid = new ColumnPageId(cf.getId(), 0, 0);
+        ColumnPage page = new ColumnPage(pid, ColumnPage.createEmptyPageData());
+        page.setValue(0, new IntField(1));
+        byte[] read = page.getPageData();
+        page = new ColumnPage(pid, read);
+        assertArrayEquals(read, page.getBeforeImage().getPageData());
+
+        page.setValue(1, new IntField(2));
+        page.clearValue(0);
+        assertArrayEquals(read, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] set = page.getPageData();
+        page.clearValue(1);
+        assertArrayEquals(set, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Inserted tuples come back whole, and a deleted row's slot is reused.
+     */
+    @Test
+    public void insertDeleteScan() throws Exception {
+        int n = 1000;
+        insert(n);
+        assertTrue(cf.numPages(1) > cf.numPages(0));
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        assertEquals(0, ((IntField) first.getField(0)).getValue());
+        Database.getBufferPool().deleteTuple(tid, first);
+        it.close();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), makeTuple(n));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        it = cf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[n + 1];
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertEquals(id * 10, ((IntField) t.getField(2)).getValue());
+            if (count == 0) assertEquals(n, id);   // took over row 0
+            assertFalse(seen[id]);
+            seen[id] = true;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+        assertFalse(seen[0]);
+    }
+
+    /**
+     * A scan of one column reads only that column's pages.
+     */
+    @Test
+    public void projectedScan() throws Exception {
+        int n = 2000;
+        insert(n);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "c", new int[]{2});
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("c.score", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        long sum = 0;
+        int count = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(0)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(n, count);
+        assertEquals(10L * n * (n - 1) / 2, sum);
+        for (int i = 0; i < cf.numPages(1); i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid,
+                    new ColumnPageId(cf.getId(), 1, i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void abort(TransactionId tid) {
+        try {
+            Database.getBufferPool().transactionComplete(tid, false);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Concurrent inserters that all append rows never claim the same row.
+     */
+    @Test
+    public void concurrentAppends() throws Exception {
+        final int threads = 8;
+        final int perThread = 300;
+        final Exception[] failure = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; w++) {
+            final int base = w * perThread;
+            workers[w] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            Database.getBufferPool().insertTuple(tid, cf.getId(),
+                                    makeTuple(base + i));
+                            Database.getBufferPool().transactionComplete(tid);
+                        } catch (TransactionAbortedException e) {
+                            // deadlock on a lock upgrade; try again
+                            abort(tid);
+                            i--;
+                        } catch (Exception e) {
+                            abort(tid);
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                            return;
+                        }
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        for (Thread t : workers) t.join();
+        if (failure[0] != null) throw failure[0];
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[threads * perThread];
+        int count = 0;
+        while (it.hasNext()) {
+            int id = ((IntField) it.next().getField(0)).getValue();
+            assertFalse(seen[id]);
+            seen[id] = true;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(threads * perThread, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final String[] GENRES = {"Drama", "Comedy", "Horror",
+            "Documentary", "Thriller", "Romance"};
+
+    private TupleDesc td;
+
+    @Before
+    public void setUp() {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+                new String[]{"mid", "genre"});
+    }
+
+    private Tuple makeTuple(int id, String genre) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(genre, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * The block codec restores its input exactly, including overlapping
+     * matches and incompressible data.
+     */
+    @Test
+    public void blockRoundTrip() {
+        byte[] text = new byte[10000];
+        for (int i = 0; i < text.length; i++) text[i] = (byte) "abcab".charAt(i % 5);
+        byte[] c = BlockCompressor.compress(text, text.length);
+        assertTrue(c.length < text.length / 20);
+        assertTrue(Arrays.equals(text, BlockCompressor.decompress(c, text.length)));
+
+        byte[] noise = new byte[5000];
+        new Random(42).nextBytes(noise);
+        c = BlockCompressor.compress(noise, noise.length);
+        assertTrue(Arrays.equals(noise, BlockCompressor.decompress(c, noise.length)));
+
+        c = BlockCompressor.compress(new byte[0], 0);
+        assertEquals(0, BlockCompressor.decompress(c, 0).length);
+    }
+
+    /**
+     * A string-heavy table shrinks severalfold, and inserts, deletes and
+     * scans work on the compressed file.
+     */
+    @Test
+    public void compressAndUpdate() throws Exception {
+        // write an uncompressed table first
+        File heap = File.createTempFile("genre", ".dat");
+        heap.deleteOnExit();
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        int n = 500;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    makeTuple(i, GENRES[i % GENRES.length]));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        File out = File.createTempFile("genre", ".cdat");
+        out.deleteOnExit();
+        CompressedHeapFile cf = CompressedHeapFile.compress(heap, out, td);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), cf.numPages());
+        assertTrue(out.length() * 5 < heap.length());
+
+        // delete the first tuple and add another, then scan
+        tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), makeTuple(n, "Western"));
+        Database.getBufferPool().transactionComplete(tid);
+
+        CompressedHeapFile reopened = new CompressedHeapFile(out, td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        it = reopened.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[n + 1];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            String genre = ((StringField) t.getField(1)).getValue();
+            assertEquals(id == n ? "Western" : GENRES[id % GENRES.length], genre);
+            assertFalse(seen[id]);
+            seen[id] = true;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(seen[0]);
+        for (int i = 1; i <= n; i++) assertTrue(seen[i]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8,
+                        -3, 9});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7,
+                        3, 9, 9,
+                        -3, 0, 0});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        3, 4, 3, 9, 9,
+                        5, 6, 5, 6, 7,
+                        -3, 9, -3, 0, 0});
+    }
+
+    private int count(DbIterator it) throws Exception {
+        it.rewind();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+        assertEquals(pred, op.getJoinPredicate());
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getNext(), hashing either child
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        assertFalse(op.buildsLeft());
+        op.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+        assertEquals(5, count(op));
+        op.close();
+
+        op.setChildCardinalities(5, 7);
+        assertTrue(op.buildsLeft());
+        op.open();
+        eqJoin.rewind();
+        TestUtil.matchAllTuples(eqJoin, op);
+        assertEquals(5, count(op));
+        op.close();
+    }
+
+    /**
+     * Unit test for HashEquiJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        Tuple expected = eqJoin.next();
+        Tuple actual = op.next();
+        assertTrue(TestUtil.compareTuples(expected, actual));
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getNext() on STRING join fields
+     */
+    @Test
+    public void stringJoin() throws Exception {
+        DbIterator s1 = TestUtil.createTupleList(2,
+                new Object[]{"a", 1, "b", 2, "c", 3});
+        DbIterator s2 = TestUtil.createTupleList(1,
+                new Object[]{"b", "c", "c", "d"});
+        DbIterator expected = TestUtil.createTupleList(3,
+                new Object[]{"b", 2, "b", "c", 3, "c"});
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, s1, s2);
+        op.open();
+        TestUtil.matchAllTuples(expected, op);
+        assertEquals(3, count(op));
+    }
+
+    /** The rows of an iterator as sorted strings. */
+    private List<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> rv = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next().toString());
+        it.close();
+        Collections.sort(rv);
+        return rv;
+    }
+
+    /** Tuples of two INT fields, the first i % keys and the second i. */
+    private DbIterator keyed(int n, int keys) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = i % keys;
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * With a build side larger than the memory budget, the join spills
+     * partitions to disk and still returns what a nested-loop join returns,
+     * also when rewound, with either side built, and when every tuple has
+     * the same key.
+     */
+    @Test
+    public void spill() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        // room for about 40 tuples of two INTs
+        long budget = 40 * (Utility.getTupleDesc(2).getSize() + 64);
+
+        List<String> expected = rows(new Join(pred, keyed(700, 300), keyed(2000, 250)));
+        HashEquiJoin op = new HashEquiJoin(pred, keyed(700, 300), keyed(2000, 250));
+        op.setMemoryBudget(budget);
+        assertEquals(expected, rows(op));
+        op.setChildCardinalities(700, 2000);
+        assertEquals(expected, rows(op));
+
+        op.open();
+        op.next();
+        assertEquals(expected.size(), count(op));
+        op.close();
+
+        // a single key cannot be split: it is joined a chunk at a time
+        expected = rows(new Join(pred, keyed(30, 1), keyed(500, 1)));
+        assertEquals(15000, expected.size());
+        op = new HashEquiJoin(pred, keyed(30, 1), keyed(500, 1));
+        op.setMemoryBudget(budget);
+        assertEquals(expected, rows(op));
+    }
+
+    /**
+     * Only equi-joins of fields of the same type are hash joins.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void notEquiJoin() {
+        new HashEquiJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
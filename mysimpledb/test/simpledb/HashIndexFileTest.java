@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private int savedPageSize;
+    private HeapFile table;
+    private HashIndexFile index;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // small pages, so that a few thousand entries need many splits
+        savedPageSize = BufferPool.getPageSize();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(10000);
+
+        File f = File.createTempFile("hash", ".dat");
+        f.deleteOnExit();
+        table = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        f = File.createTempFile("hash", ".idx");
+        f.deleteOnExit();
+        new File(f.getPath() + ".stamp").deleteOnExit();
+        index = new HashIndexFile(f, table.getId(), 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    @After
+    public void tearDown() {
+        BufferPool.setPageSize(savedPageSize);
+    }
+
+    private Tuple entry(int key, int pg, int slot) {
+        Tuple t = new Tuple(index.getTupleDesc());
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(pg));
+        t.setField(2, new IntField(slot));
+        return t;
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Checks that lookups of every key find exactly its entries. */
+    private void checkLookups(TransactionId tid, int[] keyCounts) throws Exception {
+        for (int key = 0; key < keyCounts.length; key++) {
+            DbFileIterator it = index.iterator(tid, Predicate.Op.EQUALS, new IntField(key));
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                assertEquals(key, ((IntField) it.next().getField(0)).getValue());
+                n++;
+            }
+            it.close();
+            assertEquals(keyCounts[key], n);
+        }
+    }
+
+    /**
+     * Entries inserted one by one, which splits buckets many times, are all
+     * found by lookups and by a full scan, before and after deletes and
+     * after the pages are read back from disk.
+     */
+    @Test
+    public void insertLookupDelete() throws Exception {
+        Random rand = new Random(11);
+        int[] keyCounts = new int[1000];
+        ArrayList<int[]> entries = new ArrayList<int[]>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4000; i++) {
+            int[] e = {rand.nextInt(keyCounts.length), i / 10, i % 10};
+            entries.add(e);
+            keyCounts[e[0]]++;
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(e[0], e[1], e[2]));
+        }
+        assertTrue(index.numPages() > 4000 / HashPage.capacity());
+        assertEquals(entries.size(), count(index.iterator(tid)));
+        checkLookups(tid, keyCounts);
+
+        // delete every other entry
+        for (int i = 0; i < entries.size(); i += 2) {
+            int[] e = entries.get(i);
+            for (Page p : index.deleteTuple(tid, entry(e[0], e[1], e[2])))
+                p.markDirty(true, tid);
+            keyCounts[e[0]]--;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // read back from disk
+        Database.resetBufferPool(10000);
+        tid = new TransactionId();
+        assertEquals(entries.size() / 2, count(index.iterator(tid)));
+        checkLookups(tid, keyCounts);
+        try {
+            index.deleteTuple(tid, entry(-1, 0, 0));
+            fail("deleted an entry that is not there");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Entries inserted, and buckets split, by an aborted transaction are
+     * gone afterwards, and the index keeps working.
+     */
+    @Test
+    public void abortRollsBackSplits() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20; i++) {
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(i, 0, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        for (int i = 20; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(i, 0, i));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(20, count(index.iterator(tid)));
+        for (int i = 1000; i < 1500; i++) {
+            Database.getBufferPool().insertTuple(tid, index.getId(), entry(i, 1, i));
+        }
+        assertEquals(520, count(index.iterator(tid)));
+        assertEquals(1, count(index.iterator(tid, Predicate.Op.EQUALS, new IntField(1234))));
+        assertEquals(0, count(index.iterator(tid, Predicate.Op.EQUALS, new IntField(500))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * build() indexes every tuple of the table.
+     */
+    @Test
+    public void build() throws Exception {
+        // heap pages always have the default size
+        BufferPool.setPageSize(savedPageSize);
+        int[] keyCounts = new int[3000];
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 20000; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(i % keyCounts.length));
+            t.setField(1, new IntField(i));
+            keyCounts[i % keyCounts.length]++;
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        index.build();
+        tid = new TransactionId();
+        assertEquals(20000, count(index.iterator(tid)));
+        checkLookups(tid, keyCounts);
+
+        // the built index grows on from there
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        keyCounts[7]++;
+        checkLookups(tid, keyCounts);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
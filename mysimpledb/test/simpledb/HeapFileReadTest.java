@@ -80,6 +80,32 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1200,
+                null, null);
+        assertEquals(3, threePageFile.numPages());
+
+        ArrayList<Page> pages = threePageFile.readPages(
+                new HeapPageId(threePageFile.getId(), 1), 2);
+        assertEquals(2, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            HeapPageId pid = new HeapPageId(threePageFile.getId(), i + 1);
+            assertEquals(pid, pages.get(i).getId());
+            assertArrayEquals(threePageFile.readPage(pid).getPageData(),
+                    pages.get(i).getPageData());
+        }
+
+        try {
+            threePageFile.readPages(new HeapPageId(threePageFile.getId(), 2), 2);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
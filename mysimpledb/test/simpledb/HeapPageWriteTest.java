@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -130,6 +134,175 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Inserts fill the lowest free slot, and the header written to the page
+     * data reads back as the same slots in use.
+     */
+    @Test
+    public void headerWrittenThrough() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple a = it.next();
+        for (int i = 0; i < 5; i++) it.next();
+        Tuple b = it.next();
+        int slotA = a.getRecordId().tupleno(), slotB = b.getRecordId().tupleno();
+        page.deleteTuple(b);
+        page.deleteTuple(a);
+
+        Tuple t = Utility.getHeapTuple(new int[] {7, 7});
+        page.insertTuple(t);
+        assertEquals(slotA, t.getRecordId().tupleno());
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertTrue(read.isSlotUsed(slotA));
+        assertTrue(!read.isSlotUsed(slotB));
+        for (int i = 0; i < 600; i++)
+            assertEquals(page.isSlotUsed(i), read.isSlotUsed(i));
+    }
+
+    /**
+     * A tuple handed out before its slot is deleted keeps its fields, though
+     * they were never decoded from the page bytes before the delete, and the
+     * slot is then reused.
+     */
+    @Test
+    public void deletedTupleKeepsFields() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage copy = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+
+        // fill the page, so its bytes are its own and the slot deleted below
+        // is the only free one
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(Utility.getHeapTuple(new int[] {-4, -4}));
+        Tuple t = page.iterator().next();
+        int slot = t.getRecordId().tupleno();
+        String expected = copy.getTuple(slot).toString();
+
+        page.deleteTuple(t);
+        Tuple replacement = Utility.getHeapTuple(new int[] {-5, -5});
+        page.insertTuple(replacement);
+        assertEquals(slot, replacement.getRecordId().tupleno());
+        assertEquals(expected, t.toString());
+    }
+
+    /**
+     * The page copies the caller's bytes before its first change, so the
+     * caller's array is left as it was, and tuples taken before the change
+     * keep reading the old bytes.
+     */
+    @Test
+    public void copyOnWrite() throws Exception {
+        byte[] bytes = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, bytes);
+        ArrayList<Tuple> before = new ArrayList<Tuple>();
+        ArrayList<String> expected = new ArrayList<String>();
+        HeapPage copy = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            before.add(t);
+            expected.add(copy.getTuple(t.getRecordId().tupleno()).toString());
+        }
+
+        page.deleteTuple(before.get(1));
+        page.insertTuple(Utility.getHeapTuple(new int[] {-1, -1}));
+        page.insertTuple(Utility.getHeapTuple(new int[] {-2, -2}));
+        assertNotSame(bytes, page.getPageData());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, bytes);
+        for (int i = 0; i < before.size(); i++)
+            assertEquals(expected.get(i), before.get(i).toString());
+    }
+
+    /**
+     * After inserts and deletes, the page data reads back as the same page.
+     */
+    @Test
+    public void pageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        it.next();
+        page.deleteTuple(it.next());
+        for (int i = 0; i < 5; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[] {i, -i}));
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        Iterator<Tuple> a = page.iterator();
+        Iterator<Tuple> b = read.iterator();
+        while (a.hasNext()) {
+            Tuple x = a.next();
+            Tuple y = b.next();
+            assertEquals(x.getRecordId(), y.getRecordId());
+            assertEquals(x.toString(), y.toString());
+        }
+        assertFalse(b.hasNext());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+    }
+
+    /**
+     * A slot inserted into and then deleted again is put back in the
+     * before-image as it was.
+     */
+    @Test
+    public void beforeImageInsertThenDelete() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple t = Utility.getHeapTuple(new int[] {7, 8});
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A slot deleted from and then reused by an insert is put back in the
+     * before-image as it was.
+     */
+    @Test
+    public void beforeImageDeleteThenInsert() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple old = page.iterator().next();
+        page.deleteTuple(old);
+        Tuple t = Utility.getHeapTuple(new int[] {7, 8});
+        page.insertTuple(t);
+        assertEquals(old.getRecordId(), t.getRecordId());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Setting the before-image drops the saved slots, so the before-image is
+     * the page as it is then.
+     */
+    @Test
+    public void setBeforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        assertTrue(page.hasSavedSlots());
+        page.setBeforeImage();
+        assertFalse(page.hasSavedSlots());
+        byte[] set = page.getPageData().clone();
+        assertArrayEquals(set, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        assertArrayEquals(set, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Reading a page saves nothing for its before-image.
+     */
+    @Test
+    public void beforeImageReadOnly() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            it.next().toString();
+        assertFalse(page.hasSavedSlots());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -617,4 +617,28 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Estimating the cardinalities of a plan for display keeps the build
+     * side the planner chose for a hash join, and counts the tuples of
+     * parallel scans.
+     */
+    @Test
+    public void hashJoinBuildSideKept() {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin j = new HashEquiJoin(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new ParallelSeqScan(tid, tableId1, "ta", 2),
+                new ParallelSeqScan(tid, tableId2, "tb", 2));
+        j.setChildCardinalities(1000, 10000);
+        Assert.assertTrue(j.buildsLeft());
+
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("ta", tableId1);
+        aliases.put("tb", tableId2);
+        OperatorCardinality.updateOperatorCardinality(j, aliases,
+                TableStats.getStatsMap());
+        Assert.assertTrue(j.buildsLeft());
+        Assert.assertTrue(j.getEstimatedCardinality() > 1);
+    }
 }
@@ -111,6 +111,76 @@ public class JoinTest extends SimpleDbTestBase {
         TestUtil.matchAllTuples(eqJoin, op);
     }
 
+    /**
+     * Passes the tuples of a child through, counting how often it is
+     * rewound.
+     */
+    private static class RewindCounter implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final DbIterator child;
+        int rewinds = 0;
+
+        RewindCounter(DbIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            rewinds++;
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+        }
+    }
+
+    /**
+     * Unit test for Join.getNext() with a second child that does not fit in
+     * memory, joined a block of the first child at a time
+     */
+    @Test
+    public void blockJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        RewindCounter inner = new RewindCounter(scan2);
+        Join op = new Join(pred, scan1, inner);
+        // room for two tuples of either child
+        op.setMemoryBudget(2 * (Utility.getTupleDesc(width2).getSize()
+                + HashEquiJoin.TUPLE_OVERHEAD));
+        op.open();
+        gtJoin.open();
+        TestUtil.matchAllTuples(gtJoin, op);
+        for (int pass = 0; pass < 2; pass++) {
+            // the four tuples of the first child are two blocks, so the
+            // second child is read twice, rather than once per tuple
+            inner.rewinds = 0;
+            op.rewind();
+            int n = 0;
+            while (op.hasNext()) {
+                assertNotNull(op.next());
+                n++;
+            }
+            assertEquals(11, n);
+            assertEquals(2, inner.rewinds);
+        }
+        op.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    /**
+     * Compiled predicates agree with Predicate.filter, for every operator,
+     * on INT and STRING fields.
+     */
+    @Test
+    public void compilePredicate() {
+        TupleDesc ints = Utility.getTupleDesc(2);
+        TupleDesc strings = new TupleDesc(new Type[] {Type.STRING_TYPE});
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v = -1; v <= 1; v++) {
+                Predicate p = new Predicate(1, op, new IntField(v));
+                PredicateCompiler.TupleTest test = PredicateCompiler.compile(p, ints);
+                Predicate ps = new Predicate(0, op, new StringField("b" + v, Type.STRING_LEN));
+                PredicateCompiler.TupleTest stest = PredicateCompiler.compile(ps, strings);
+                for (int x = -2; x <= 2; x++) {
+                    Tuple t = Utility.getHeapTuple(new int[] {0, x});
+                    assertEquals(op + " " + v, p.filter(t), test.test(t));
+
+                    Tuple s = new Tuple(strings);
+                    s.setField(0, new StringField("b" + x, Type.STRING_LEN));
+                    assertEquals(op + " " + v, ps.filter(s), stest.test(s));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiled join predicates agree with JoinPredicate.filter, for every
+     * operator.
+     */
+    @Test
+    public void compileJoinPredicate() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            JoinPredicate p = new JoinPredicate(1, op, 0);
+            PredicateCompiler.JoinTest test = PredicateCompiler.compile(p, td, td);
+            for (int x = -1; x <= 1; x++) {
+                for (int y = -1; y <= 1; y++) {
+                    Tuple t1 = Utility.getHeapTuple(new int[] {7, x});
+                    Tuple t2 = Utility.getHeapTuple(new int[] {y, 7});
+                    assertEquals(op.toString(), p.filter(t1, t2), test.test(t1, t2));
+                }
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
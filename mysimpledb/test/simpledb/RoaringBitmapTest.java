@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class RoaringBitmapTest {
+
+    /**
+     * A bitmap of n random ints below max, with its contents in a BitSet.
+     */
+    private RoaringBitmap random(Random r, int n, int max, BitSet expected) {
+        RoaringBitmap rv = new RoaringBitmap();
+        for (int i = 0; i < n; i++) {
+            int x = r.nextInt(max);
+            rv.add(x);
+            expected.set(x);
+        }
+        return rv;
+    }
+
+    private void check(BitSet expected, RoaringBitmap b) {
+        assertEquals(expected.cardinality(), b.cardinality());
+        RoaringBitmap.IntIterator it = b.iterator();
+        for (int x = expected.nextSetBit(0); x >= 0; x = expected.nextSetBit(x + 1)) {
+            assertTrue(it.hasNext());
+            assertEquals(x, it.next());
+            assertTrue(b.contains(x));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * AND, OR and iteration agree with a BitSet, for sparse sets (array
+     * containers), dense ones (bitmap containers) and mixes of both.
+     */
+    @Test
+    public void andOrIterate() {
+        Random r = new Random(42);
+        int[][] shapes = {{100, 1 << 20}, {20000, 1 << 17}, {60000, 1 << 16}, {3000, 70000}};
+        for (int[] a : shapes) {
+            for (int[] b : shapes) {
+                BitSet ea = new BitSet(), eb = new BitSet();
+                RoaringBitmap ra = random(r, a[0], a[1], ea);
+                RoaringBitmap rb = random(r, b[0], b[1], eb);
+                check(ea, ra);
+
+                BitSet and = (BitSet) ea.clone();
+                and.and(eb);
+                check(and, RoaringBitmap.and(ra, rb));
+                BitSet or = (BitSet) ea.clone();
+                or.or(eb);
+                check(or, RoaringBitmap.or(ra, rb));
+            }
+        }
+        assertTrue(new RoaringBitmap().isEmpty());
+        assertFalse(new RoaringBitmap().iterator().hasNext());
+    }
+
+    /**
+     * The result of OR does not change when its operands do.
+     */
+    @Test
+    public void orCopies() {
+        RoaringBitmap a = new RoaringBitmap();
+        a.add(1);
+        RoaringBitmap b = RoaringBitmap.or(a, new RoaringBitmap());
+        a.add(2);
+        assertFalse(b.contains(2));
+        assertEquals(1, b.cardinality());
+    }
+
+    /**
+     * Removing ints agrees with a BitSet, including bitmap containers that
+     * shrink into array containers and containers that become empty.
+     */
+    @Test
+    public void remove() {
+        Random r = new Random(11);
+        BitSet expected = new BitSet();
+        RoaringBitmap b = random(r, 20000, 1 << 17, expected);
+        for (int i = 0; i < 30000; i++) {
+            int x = r.nextInt(1 << 17);
+            b.remove(x);
+            expected.clear(x);
+        }
+        check(expected, b);
+        for (int x = expected.nextSetBit(0); x >= 0; x = expected.nextSetBit(x + 1)) {
+            b.remove(x);
+        }
+        assertTrue(b.isEmpty());
+        expected.clear();
+        b.add(5);
+        expected.set(5);
+        check(expected, b);
+    }
+
+    /**
+     * A bitmap reads back from its serialized form unchanged.
+     */
+    @Test
+    public void serialize() throws Exception {
+        BitSet expected = new BitSet();
+        RoaringBitmap b = random(new Random(7), 30000, 200000, expected);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        b.serialize(new DataOutputStream(baos));
+        RoaringBitmap read = RoaringBitmap.deserialize(new DataInputStream(
+                new ByteArrayInputStream(baos.toByteArray())));
+        check(expected, read);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RoaringBitmapTest.class);
+    }
+}
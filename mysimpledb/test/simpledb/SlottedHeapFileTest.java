@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private SlottedHeapFile sf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+                new String[]{"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        sf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * A page written out and read back holds the same tuples in the same
+     * slots, including an empty slot left by a delete.
+     */
+    @Test
+    public void pageRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        Tuple a = makeTuple(1, "ann");
+        Tuple b = makeTuple(2, "bob");
+        Tuple c = makeTuple(3, "");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        page.deleteTuple(b);
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertFalse(copy.isSlotUsed(1));
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        Iterator<Tuple> it = copy.iterator();
+        Tuple t = it.next();
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        assertEquals("ann", ((StringField) t.getField(1)).getValue());
+        t = it.next();
+        assertEquals(new RecordId(pid, 2), t.getRecordId());
+        assertEquals(3, ((IntField) t.getField(0)).getValue());
+        assertFalse(it.hasNext());
+
+        // the empty slot is reused
+        page.insertTuple(b);
+        assertEquals(1, b.getRecordId().tupleno());
+    }
+
+    /**
+     * The before-image is the page as read until the first change, and the
+     * page as it was then until the before-image is set again.
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        page.insertTuple(makeTuple(1, "ann"));
+        byte[] read = page.getPageData();
+        page = new SlottedHeapPage(pid, read);
+        assertArrayEquals(read, page.getBeforeImage().getPageData());
+
+        page.insertTuple(makeTuple(2, "bob"));
+        page.insertTuple(makeTuple(3, "cy"));
+        assertArrayEquals(read, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] set = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(set, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * Short strings pack far more tuples per page than fixed-size slots.
+     */
+    @Test
+    public void packsShortStrings() throws Exception {
+        TransactionId tid = new TransactionId();
+        int n = 2000;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), makeTuple(i, "name" + i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        int heapSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int heapPages = (n + heapSlots - 1) / heapSlots;
+        assertTrue(sf.numPages() * 4 <= heapPages);
+
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            assertFalse(seen[id]);
+            seen[id] = true;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+            Predicate.Op.GREATER_THAN_OR_EQ};
+
+    /** The rows of an iterator as sorted strings. */
+    private List<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> rv = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next().toString());
+        it.close();
+        Collections.sort(rv);
+        return rv;
+    }
+
+    /**
+     * Tuples of two INT fields, the first a scrambled value in [-keys/2,
+     * keys/2) and the second i.
+     */
+    private DbIterator keyed(int n, int keys) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (i * 7919) % keys - keys / 2;
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 1);
+        SortMergeJoin op = new SortMergeJoin(pred, keyed(3, 3), keyed(4, 4));
+        assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+        assertEquals(pred, op.getJoinPredicate());
+    }
+
+    /**
+     * For each operator, the join returns what a nested-loop join returns,
+     * in order of the join field of the first child.
+     */
+    @Test
+    public void eachOp() throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            List<String> expected = rows(new Join(pred, keyed(60, 20), keyed(45, 15)));
+            SortMergeJoin smj = new SortMergeJoin(pred, keyed(60, 20), keyed(45, 15));
+            assertEquals(op.toString(), expected, rows(smj));
+
+            smj.open();
+            int last = Integer.MIN_VALUE;
+            while (smj.hasNext()) {
+                Tuple t = smj.next();
+                assertTrue(pred.filter(t, t.project(Utility.getTupleDesc(2), new int[] {2, 3})));
+                assertTrue(t.getInt(0) >= last);
+                last = t.getInt(0);
+            }
+            smj.close();
+        }
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, keyed(30, 10), keyed(20, 10));
+        op.open();
+        ArrayList<String> first = new ArrayList<String>();
+        while (op.hasNext())
+            first.add(op.next().toString());
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+        ArrayList<String> second = new ArrayList<String>();
+        while (op.hasNext())
+            second.add(op.next().toString());
+        assertEquals(first, second);
+        op.close();
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext() on STRING join fields
+     */
+    @Test
+    public void stringJoin() throws Exception {
+        DbIterator s1 = TestUtil.createTupleList(2,
+                new Object[]{"c", 3, "a", 1, "b", 2});
+        DbIterator s2 = TestUtil.createTupleList(1,
+                new Object[]{"d", "b", "c", "c"});
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, s1, s2);
+        op.open();
+        TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+                new Object[]{"b", 2, "b", "c", 3, "c", "c", 3, "c"}), op);
+        op.close();
+
+        pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        assertEquals(rows(new Join(pred, s1, s2)),
+                rows(new SortMergeJoin(pred, s1, s2)));
+    }
+
+    /**
+     * With children larger than the memory budget, both are sorted on disk
+     * and the join still returns what a nested-loop join returns.
+     */
+    @Test
+    public void externalSort() throws Exception {
+        // room for about 20 tuples of two INTs on each side
+        long budget = 40 * (Utility.getTupleDesc(2).getSize() + HashEquiJoin.TUPLE_OVERHEAD);
+
+        ExternalSort sort = new ExternalSort(0, keyed(5000, 1000));
+        sort.setMemoryBudget(budget / 2);
+        sort.open();
+        assertEquals(5000, sort.size());
+        int last = Integer.MIN_VALUE;
+        for (int i = 0; i < 5000; i++) {
+            int v = sort.next().getInt(0);
+            assertTrue(v >= last);
+            last = v;
+        }
+        assertFalse(sort.hasNext());
+        sort.seek(1234);
+        Tuple t = sort.next();
+        sort.rewind();
+        for (int i = 0; i < 1234; i++)
+            sort.next();
+        assertTrue(TestUtil.compareTuples(t, sort.next()));
+        sort.close();
+
+        for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN}) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            List<String> expected = rows(new Join(pred, keyed(300, 100), keyed(900, 300)));
+            SortMergeJoin smj = new SortMergeJoin(pred, keyed(300, 100), keyed(900, 300));
+            smj.setMemoryBudget(budget);
+            assertEquals(expected, rows(smj));
+        }
+    }
+
+    /**
+     * With STRING join fields and children larger than the memory budget,
+     * runs of equal keys on disk are read again for each tuple that matches
+     * them.
+     */
+    @Test
+    public void externalStringJoin() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        long budget = 40 * (td.getSize() + HashEquiJoin.TUPLE_OVERHEAD);
+        Object[] left = new Object[2 * 200];
+        for (int i = 0; i < 200; i++) {
+            left[2 * i] = "k" + (i * 31 % 50);
+            left[2 * i + 1] = i;
+        }
+        Object[] right = new Object[2 * 600];
+        for (int i = 0; i < 600; i++) {
+            right[2 * i] = "k" + (i * 7 % 60);
+            right[2 * i + 1] = i;
+        }
+        for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN_OR_EQ}) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            List<String> expected = rows(new Join(pred,
+                    TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+            SortMergeJoin smj = new SortMergeJoin(pred,
+                    TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+            smj.setMemoryBudget(budget);
+            assertEquals(op.toString(), expected, rows(smj));
+        }
+    }
+
+    /**
+     * A child that is in order of its join field already is recognized as
+     * such, and the join of it is the same.
+     */
+    @Test
+    public void sortedInput() throws Exception {
+        DbIterator ordered = new OrderBy(0, true, keyed(50, 10));
+        assertTrue(ExternalSort.isSorted(ordered, 0));
+        assertFalse(ExternalSort.isSorted(ordered, 1));
+        assertFalse(ExternalSort.isSorted(new OrderBy(0, false, keyed(50, 10)), 0));
+        assertTrue(ExternalSort.isSorted(new Filter(
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3)), ordered), 0));
+
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+        SortMergeJoin smj = new SortMergeJoin(pred, ordered, keyed(40, 8));
+        assertTrue(ExternalSort.isSorted(smj, 0));
+        assertEquals(rows(new Join(pred, keyed(50, 10), keyed(40, 8))), rows(smj));
+    }
+
+    /**
+     * Only the operators that order the join fields are merge joins.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void notEquals() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                keyed(3, 3), keyed(3, 3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
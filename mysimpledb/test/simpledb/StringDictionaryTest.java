@@ -0,0 +1,57 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    /**
+     * Values get codes in the order they are first seen, and decode back to
+     * themselves, also after the dictionary grows.
+     */
+    @Test
+    public void encodeDecode() {
+        StringDictionary d = new StringDictionary();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, d.encode("v" + i));
+        for (int i = 999; i >= 0; i--)
+            assertEquals(i, d.encode("v" + i));
+        assertEquals(1000, d.size());
+        assertEquals("v17", d.decode(17));
+        assertEquals(new StringField("v17", Type.STRING_LEN), d.getField(17));
+        assertSame(d.getField(17), d.getField(17));
+        assertEquals(3, d.lookup("v3"));
+        assertEquals(-1, d.lookup("w3"));
+        assertEquals(1000, d.size());
+    }
+
+    /**
+     * A STRING field read from page bytes gets the code of its string.
+     */
+    @Test
+    public void encodeBytes() {
+        StringDictionary d = new StringDictionary();
+        int empty = d.encode("");
+        int abc = d.encode("abc");
+        byte[] data = new byte[10 + Type.STRING_TYPE.getLen()];
+        Type.STRING_TYPE.write(new StringField("abc", Type.STRING_LEN), data, 10);
+        assertEquals(abc, d.encode(data, 10));
+        Type.STRING_TYPE.write(new StringField("", Type.STRING_LEN), data, 10);
+        assertEquals(empty, d.encode(data, 10));
+        Type.STRING_TYPE.write(new StringField("abcd", Type.STRING_LEN), data, 10);
+        assertEquals(2, d.encode(data, 10));
+        assertEquals("abcd", d.decode(2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
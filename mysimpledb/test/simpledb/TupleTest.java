@@ -81,6 +81,69 @@ public class TupleTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.project() on a tuple read from
+     * page bytes
+     */
+    @Test
+    public void readFromBytes() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        byte[] data = new byte[4 + td.getSize()];
+        for (int i = 0; i < 3; i++)
+            Type.writeInt(data, 4 + td.getFieldOffset(i), 10 * i + 1);
+        Tuple tup = new Tuple(td, data, 4);
+        tup.setRecordId(new RecordId(new HeapPageId(0, 0), 3));
+        assertEquals(21, tup.getInt(2));
+        tup.setField(1, new IntField(99));
+        assertEquals(99, tup.getInt(1));
+
+        Tuple proj = tup.project(Utility.getTupleDesc(2), new int[] {2, 1});
+        assertEquals(tup.getRecordId(), proj.getRecordId());
+        assertEquals(21, proj.getInt(0));
+        assertEquals(new IntField(99), proj.getField(1));
+
+        // once the source lets go of the bytes, the projection keeps its values
+        tup.detach();
+        java.util.Arrays.fill(data, (byte) 0);
+        assertEquals(new IntField(21), proj.getField(0));
+        assertEquals(1, tup.getInt(0));
+
+        try {
+            tup.project(Utility.getTupleDesc(1), new int[] {0, 1});
+            Assert.fail("projection onto a schema of another width");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for Tuple.join()
+     */
+    @Test
+    public void join() {
+        Tuple t1 = Utility.getHeapTuple(new int[] {1, 2});
+        Tuple t2 = Utility.getHeapTuple(new int[] {3, 4, 5});
+        TupleDesc td = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
+        Tuple joined = Tuple.join(td, t1, t2);
+        assertSame(td, joined.getTupleDesc());
+        assertNull(joined.getRecordId());
+        assertEquals(2, joined.getInt(1));
+        assertEquals(new IntField(3), joined.getField(2));
+        assertEquals(5, joined.getInt(4));
+        assertEquals("1 2 3 4 5 ", joined.toString());
+
+        Tuple proj = joined.project(Utility.getTupleDesc(2), new int[] {4, 0});
+        assertEquals(5, proj.getInt(0));
+        assertEquals(1, proj.getInt(1));
+
+        try {
+            Tuple.join(td, t1, t1);
+            Assert.fail("join into a schema of another width");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
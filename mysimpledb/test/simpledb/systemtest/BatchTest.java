@@ -0,0 +1,283 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class BatchTest extends SimpleDbTestBase {
+
+    /**
+     * A scan, filter and projection in batches return what the row
+     * operators return, also across pages and batches.
+     */
+    @Test
+    public void testScanFilterProject() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        SystemTestUtil.matchTuples(new BatchToRows(new BatchSeqScan(tid, f.getId(), "t")),
+                tuples);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 30 && t.get(0) != 5)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(1))));
+        }
+        BatchIterator plan = new BatchFilter(
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(5)),
+                new BatchFilter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+                        new BatchSeqScan(tid, f.getId(), "t")));
+        plan = new BatchProject(new ArrayList<Integer>(Arrays.asList(2, 1)), plan);
+        SystemTestUtil.matchTuples(new BatchToRows(plan), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Aggregates in batches, with and without grouping, on INT and STRING
+     * group fields.
+     */
+    @Test
+    public void testAggregate() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 3000, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        // grouped by an INT with many values, so the group table grows
+        Map<Integer, Integer> sums = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer s = sums.get(t.get(0));
+            sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet())
+            expected.add(new ArrayList<Integer>(Arrays.asList(e.getKey(), e.getValue())));
+        SystemTestUtil.matchTuples(new BatchToRows(new BatchAggregate(
+                new BatchSeqScan(tid, f.getId(), "t"), 1, 0, Aggregator.Op.SUM)), expected);
+
+        int min = Integer.MAX_VALUE;
+        for (ArrayList<Integer> t : tuples)
+            min = Math.min(min, t.get(1));
+        expected.clear();
+        expected.add(new ArrayList<Integer>(Arrays.asList(min)));
+        SystemTestUtil.matchTuples(new BatchToRows(new BatchAggregate(
+                new BatchSeqScan(tid, f.getId(), "t"), 1, Aggregator.NO_GROUPING,
+                Aggregator.Op.MIN)), expected);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // grouped by a STRING, from row operators
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE});
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("g" + (i % 3), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            rows.add(t);
+        }
+        BatchAggregate agg = new BatchAggregate(new RowsToBatch(new TupleIterator(td, rows)),
+                1, 0, Aggregator.Op.COUNT);
+        agg.open();
+        TupleBatch b = agg.nextBatch();
+        assertEquals(3, b.numRows());
+        for (int k = 0; k < 3; k++)
+            assertEquals(new IntField(1000), b.getField(1, b.row(k)));
+        assertNull(agg.nextBatch());
+        agg.close();
+    }
+
+    private ArrayList<ArrayList<Integer>> join(ArrayList<ArrayList<Integer>> left,
+                                              ArrayList<ArrayList<Integer>> right) {
+        ArrayList<ArrayList<Integer>> rv = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> l : left) {
+            for (ArrayList<Integer> r : right) {
+                if (l.get(0).equals(r.get(0))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(l);
+                    t.addAll(r);
+                    rv.add(t);
+                }
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * A hash join in batches returns every matching pair, also when one
+     * probe row matches more rows than a batch holds.
+     */
+    @Test
+    public void testHashJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> left = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> right = new ArrayList<ArrayList<Integer>>();
+        HeapFile l = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, left);
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, 400, 100, null, right);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SystemTestUtil.matchTuples(new BatchToRows(new BatchHashJoin(p,
+                new BatchSeqScan(tid, l.getId(), "l"), new BatchSeqScan(tid, r.getId(), "r"))),
+                join(left, right));
+
+        // every right row has key 7
+        Map<Integer, Integer> sevens = new HashMap<Integer, Integer>();
+        sevens.put(0, 7);
+        HeapFile dup = SystemTestUtil.createRandomHeapFile(2, 1500, 100, sevens, right);
+        l = SystemTestUtil.createRandomHeapFile(2, 40, 10, null, left);
+        SystemTestUtil.matchTuples(new BatchToRows(new BatchHashJoin(p,
+                new BatchSeqScan(tid, l.getId(), "l"), new BatchSeqScan(tid, dup.getId(), "r"))),
+                join(left, right));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Collects the rows of a plan as Strings. */
+    private ArrayList<String> rows(BatchIterator plan) throws Exception {
+        ArrayList<String> rv = new ArrayList<String>();
+        BatchToRows it = new BatchToRows(plan);
+        it.open();
+        while (it.hasNext())
+            rv.add(it.next().toString());
+        it.close();
+        return rv;
+    }
+
+    /**
+     * STRING columns read from pages are filtered, grouped and joined on
+     * their dictionary codes, also with another dictionary on the other side
+     * of a join, and come out as the strings they were.
+     */
+    @Test
+    public void testStrings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"s", "i"});
+        File file = File.createTempFile("strings", ".dat");
+        file.deleteOnExit();
+        HeapFile f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("k" + (i % 10), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+
+        ArrayList<String> eq = rows(new BatchFilter(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("k3", Type.STRING_LEN)), new BatchSeqScan(tid, f.getId(), "t")));
+        assertEquals(100, eq.size());
+        for (String r : eq)
+            assertTrue(r, r.startsWith("k3 "));
+        assertEquals(0, rows(new BatchFilter(new Predicate(0, Predicate.Op.EQUALS,
+                new StringField("x", Type.STRING_LEN)), new BatchSeqScan(tid, f.getId(), "t"))).size());
+        assertEquals(900, rows(new BatchFilter(new Predicate(0, Predicate.Op.NOT_EQUALS,
+                new StringField("k3", Type.STRING_LEN)), new BatchSeqScan(tid, f.getId(), "t"))).size());
+        assertEquals(300, rows(new BatchFilter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new StringField("k3", Type.STRING_LEN)), new BatchSeqScan(tid, f.getId(), "t"))).size());
+
+        ArrayList<String> counts = rows(new BatchAggregate(new BatchSeqScan(tid, f.getId(), "t"),
+                1, 0, Aggregator.Op.COUNT));
+        assertEquals(10, counts.size());
+        for (int k = 0; k < 10; k++)
+            assertTrue(counts.contains("k" + k + " 100 "));
+
+        // the other side has its own dictionary, with its values in another order
+        TupleDesc keys = new TupleDesc(new Type[] {Type.STRING_TYPE});
+        ArrayList<Tuple> other = new ArrayList<Tuple>();
+        for (String k : new String[] {"z", "k7", "k2"}) {
+            Tuple t = new Tuple(keys);
+            t.setField(0, new StringField(k, Type.STRING_LEN));
+            other.add(t);
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> joined = rows(new BatchHashJoin(p,
+                new BatchSeqScan(tid, f.getId(), "t"), new RowsToBatch(new TupleIterator(keys, other))));
+        assertEquals(200, joined.size());
+        for (String r : joined)
+            assertTrue(r, r.startsWith("k7 ") && r.endsWith(" k7 ")
+                    || r.startsWith("k2 ") && r.endsWith(" k2 "));
+        joined = rows(new BatchHashJoin(p,
+                new RowsToBatch(new TupleIterator(keys, other)), new BatchSeqScan(tid, f.getId(), "t")));
+        assertEquals(200, joined.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Plans a query with the planner in or out of the batch execution mode.
+     */
+    private DbIterator plan(TransactionId tid, String sql, Map<String, TableStats> stats,
+                            boolean batch) throws Exception {
+        LogicalPlan.setBatchMode(batch);
+        try {
+            return new Parser().generateLogicalPlan(tid, sql).physicalPlan(tid, stats, false);
+        } finally {
+            LogicalPlan.setBatchMode(false);
+        }
+    }
+
+    /**
+     * In the batch execution mode, the planner runs single-table queries
+     * over a heap table in batches, and they return what the row plans
+     * return.
+     */
+    @Test
+    public void testPlannedQueries() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "batched");
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("batched", new TableStats(f.getId(), 1000));
+        TransactionId tid = new TransactionId();
+
+        String[] queries = {
+                "SELECT c2, c1 FROM batched WHERE c1 < 30 AND c0 > 5;",
+                "SELECT c0, SUM(c1) FROM batched WHERE c2 > 50 GROUP BY c0;",
+                "SELECT COUNT(c1) FROM batched b WHERE b.c0 = 7;",
+                "SELECT c0 FROM batched WHERE c1 < 10 ORDER BY c0;"};
+        for (String sql : queries) {
+            DbIterator batched = plan(tid, sql, stats, true);
+            DbIterator node = ((Operator) batched).getChildren()[0];
+            if (node instanceof OrderBy)
+                node = ((Operator) node).getChildren()[0];
+            assertTrue(sql, node instanceof BatchToRows);
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            DbIterator rows = plan(tid, sql, stats, false);
+            rows.open();
+            while (rows.hasNext())
+                expected.add(SystemTestUtil.tupleToList(rows.next()));
+            rows.close();
+            assertFalse(expected.isEmpty());
+            SystemTestUtil.matchTuples(batched, expected);
+
+            // the plan can be shown
+            OperatorCardinality.updateOperatorCardinality((Operator) batched,
+                    new HashMap<String, Integer>(), stats);
+            String tree = new QueryPlanVisualizer().getQueryPlanTree(batched);
+            assertTrue(tree, tree.contains("batch scan(batched"));
+        }
+
+        // the tuples a Delete reads keep their RecordIds
+        LogicalPlan.setBatchMode(true);
+        try {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(f.getId(), "batched");
+            lp.addFilter("batched.c0", Predicate.Op.EQUALS, "3");
+            lp.addProjectField("null.*", null);
+            lp.setNeedsRecordIds(true);
+            DbIterator scan = lp.physicalPlan(tid, stats, false);
+            assertFalse(scan instanceof BatchToRows);
+            scan.open();
+            assertNotNull(scan.next().getRecordId());
+            scan.close();
+        } finally {
+            LogicalPlan.setBatchMode(false);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class BitmapScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 5000;
+    private final static int MAX_VALUE = 10;
+
+    /** Builds a bitmap index on a field of f and registers it. */
+    private BitmapIndex addIndex(HeapFile f, int field) throws Exception {
+        File file = File.createTempFile("bitmap", ".bmp");
+        file.deleteOnExit();
+        BitmapIndex idx = new BitmapIndex(file, f.getId(), field);
+        idx.build();
+        Database.getCatalog().addIndex(idx);
+        return idx;
+    }
+
+    /** c0 = 3 AND (c1 = 5 OR c1 > 7) */
+    private List<Predicate[]> conjuncts() {
+        List<Predicate[]> rv = new ArrayList<Predicate[]>();
+        rv.add(new Predicate[] {new Predicate(0, Predicate.Op.EQUALS, new IntField(3))});
+        rv.add(new Predicate[] {new Predicate(1, Predicate.Op.EQUALS, new IntField(5)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(7))});
+        return rv;
+    }
+
+    private ArrayList<ArrayList<Integer>> select(ArrayList<ArrayList<Integer>> tuples) {
+        ArrayList<ArrayList<Integer>> rv = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 3 && (t.get(1) == 5 || t.get(1) > 7))
+                rv.add(t);
+        }
+        return rv;
+    }
+
+    private void check(HeapFile f, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BitmapScan(tid, f.getId(), "t", conjuncts()),
+                select(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan returns exactly the tuples that satisfy its predicates, also
+     * after tuples are inserted and deleted, and after a transaction that
+     * deleted tuples aborts.
+     */
+    @Test
+    public void testScanStaysInSync() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples);
+        addIndex(f, 0);
+        addIndex(f, 1);
+        check(f, tuples);
+
+        // delete the tuples with c2 even, then insert some that qualify
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(2)).getValue() % 2 == 0) toDelete.add(t);
+            else kept.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = 0; i < 20; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(3));
+            t.setField(1, new IntField(5 + i % 5));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            kept.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        check(f, kept);
+
+        // deletes that are rolled back leave the tuples found
+        tid = new TransactionId();
+        scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        toDelete.clear();
+        while (scan.hasNext())
+            toDelete.add(scan.next());
+        scan.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        check(f, kept);
+    }
+
+    /** The number of positions of the tuples with c0 = v, per the index. */
+    private int count(BitmapIndex idx, int v) {
+        return idx.lookup(Predicate.Op.EQUALS, new IntField(v)).cardinality();
+    }
+
+    /**
+     * Flushing all pages clears the bits of committed deletes, but not on
+     * pages with deletes that may still be rolled back, and saves the
+     * index.
+     */
+    @Test
+    public void testFlushCompactsAndSaves() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples);
+        BitmapIndex idx = addIndex(f, 0);
+        int threes = count(idx, 3);
+        int fours = count(idx, 4);
+        assertTrue(threes > 0 && fours > 0);
+
+        // delete the tuples with c0 = 3 and commit
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        Tuple four = null;
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int v = ((IntField) t.getField(0)).getValue();
+            if (v == 3) toDelete.add(t);
+            else if (v == 4 && four == null) four = t;
+        }
+        scan.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(threes, count(idx, 3));
+
+        // a delete that is not committed yet keeps its bit
+        TransactionId pending = new TransactionId();
+        Database.getBufferPool().deleteTuple(pending, four);
+        PageId locked = four.getRecordId().getPageId();
+        int lockedThrees = 0;
+        for (Tuple t : toDelete) {
+            if (t.getRecordId().getPageId().equals(locked)) lockedThrees++;
+        }
+        Database.getBufferPool().flushAllPages();
+        assertEquals(lockedThrees, count(idx, 3));
+        assertEquals(fours, count(idx, 4));
+        BitmapIndex loaded = new BitmapIndex(idx.getFile(), f.getId(), 0);
+        assertTrue(loaded.load());
+        assertEquals(lockedThrees, count(loaded, 3));
+
+        Database.getBufferPool().transactionComplete(pending);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, count(idx, 3));
+        assertEquals(fours - 1, count(idx, 4));
+        assertTrue(loaded.load());
+        assertEquals(fours - 1, count(loaded, 4));
+    }
+
+    /**
+     * String fields can be indexed, and a saved index is only loaded back
+     * while the table is unchanged.
+     */
+    @Test
+    public void testStringKeysAndSaveLoad() throws Exception {
+        File file = File.createTempFile("genres", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE},
+                new String[] {"mid", "genre"});
+        HeapFile f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BitmapIndex idx = addIndex(f, 1);
+
+        String[] genres = {"drama", "comedy", "horror", "western"};
+        ArrayList<ArrayList<Integer>> comedies = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(genres[i * i % genres.length], Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            if (genres[i * i % genres.length].equals("comedy"))
+                comedies.add(new ArrayList<Integer>(Arrays.asList(i)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, idx.numValues());    // squares mod 4 are 0 or 1
+
+        idx.save();
+        BitmapIndex loaded = new BitmapIndex(idx.getFile(), f.getId(), 1);
+        assertTrue(loaded.load());
+        assertEquals(comedies.size(), loaded.lookup(Predicate.Op.EQUALS,
+                new StringField("comedy", Type.STRING_LEN)).cardinality());
+        assertEquals(0, loaded.lookup(Predicate.Op.EQUALS,
+                new StringField("horror", Type.STRING_LEN)).cardinality());
+
+        tid = new TransactionId();
+        List<Predicate[]> conjuncts = new ArrayList<Predicate[]>();
+        conjuncts.add(new Predicate[] {new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("comedy", Type.STRING_LEN))});
+        Project mids = new Project(new ArrayList<Integer>(Arrays.asList(0)),
+                new Type[] {Type.INT_TYPE}, new BitmapScan(tid, f.getId(), "g", conjuncts));
+        SystemTestUtil.matchTuples(mids, comedies);
+
+        // once the table grows on disk, the saved index is stale
+        int pages = f.numPages();
+        while (f.numPages() == pages) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(-1));
+            t.setField(1, new StringField("drama", Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(new BitmapIndex(idx.getFile(), f.getId(), 1).load());
+    }
+
+    /**
+     * The planner answers a selective conjunction of filters on indexed
+     * fields with a BitmapScan, and an unselective one with a scan of the
+     * table.
+     */
+    @Test
+    public void testPlannerUsesBitmaps() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS * 4, 100, null, tuples, "c");
+        addIndex(f, 0);
+        addIndex(f, 1);
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "42");
+        lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "3");
+        lp.addFilter("t.c2", Predicate.Op.GREATER_THAN, "50");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(containsBitmapScan(plan));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 42 && t.get(1) < 3 && t.get(2) > 50) expected.add(t);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.c0", null);
+        assertFalse(containsBitmapScan(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private boolean containsBitmapScan(DbIterator plan) {
+        if (plan instanceof BitmapScan) return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (containsBitmapScan(child)) return true;
+            }
+        }
+        return false;
+    }
+}
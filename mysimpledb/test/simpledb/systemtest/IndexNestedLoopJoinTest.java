@@ -0,0 +1,144 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    private final static int CUSTOMERS = 5000;
+    private final static int ORDERS = 3000;
+
+    private ArrayList<ArrayList<Integer>> customerTuples;
+    private ArrayList<ArrayList<Integer>> orderTuples;
+    private HeapFile customers;
+    private HeapFile orders;
+    private HashIndexFile customerKey;
+
+    /**
+     * Creates customers(c0, c1) with the distinct keys c0 = 0..CUSTOMERS-1
+     * and a hash index on them, and orders(c0, c1) whose c1 refers to a
+     * customer, or to none for a few orders.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        customerTuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < CUSTOMERS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(i % 7);
+            customerTuples.add(t);
+        }
+        File f = File.createTempFile("customers", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(customerTuples, f, BufferPool.getPageSize(), 2);
+        customers = Utility.openHeapFile(2, "c", f);
+        f = File.createTempFile("customers", ".hash");
+        f.deleteOnExit();
+        new File(f.getPath() + ".stamp").deleteOnExit();
+        customerKey = new HashIndexFile(f, customers.getId(), 0);
+        customerKey.build();
+        Database.getCatalog().addIndex(customerKey);
+
+        orderTuples = new ArrayList<ArrayList<Integer>>();
+        orders = SystemTestUtil.createRandomHeapFile(2, ORDERS, CUSTOMERS + 100,
+                null, orderTuples, "c");
+    }
+
+    /** The orders joined with their customers, computed directly. */
+    private ArrayList<ArrayList<Integer>> expectedJoin(int orderC0) {
+        ArrayList<ArrayList<Integer>> rv = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : orderTuples) {
+            if (orderC0 >= 0 && o.get(0) != orderC0) continue;
+            if (o.get(1) < CUSTOMERS) {
+                ArrayList<Integer> t = new ArrayList<Integer>(o);
+                t.addAll(customerTuples.get(o.get(1)));
+                rv.add(t);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * Every order is joined with the customer the index finds for it.
+     */
+    @Test
+    public void testJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(
+                new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, orders.getId(), "o"),
+                new IndexScan(tid, "c", customerKey, Predicate.Op.EQUALS, new IntField(0)));
+        SystemTestUtil.matchTuples(join, expectedJoin(-1));
+
+        // and again after a rewind
+        join.open();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        assertEquals(expectedJoin(-1).size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner probes the index of the customers for the few orders a
+     * selective filter leaves, and answers an equality filter on the key
+     * with a lookup in the same index.
+     */
+    @Test
+    public void testPlannerUsesIndex() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(customers.getId()),
+                new TableStats(customers.getId(), 1000));
+        stats.put(Database.getCatalog().getTableName(orders.getId()),
+                new TableStats(orders.getId(), 1000));
+        int orderC0 = orderTuples.get(0).get(0);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(orders.getId(), "o");
+        lp.addScan(customers.getId(), "c");
+        lp.addFilter("o.c0", Predicate.Op.EQUALS, Integer.toString(orderC0));
+        lp.addJoin("o.c1", "c.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("o.c0", null);
+        lp.addProjectField("o.c1", null);
+        lp.addProjectField("c.c0", null);
+        lp.addProjectField("c.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, IndexNestedLoopJoin.class));
+        SystemTestUtil.matchTuples(plan, expectedJoin(orderC0));
+
+        lp = new LogicalPlan();
+        lp.addScan(customers.getId(), "c");
+        lp.addFilter("c.c0", Predicate.Op.EQUALS, "1234");
+        lp.addProjectField("c.c0", null);
+        lp.addProjectField("c.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, IndexScan.class));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(customerTuples.get(1234));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan)) return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c)) return true;
+            }
+        }
+        return false;
+    }
+}
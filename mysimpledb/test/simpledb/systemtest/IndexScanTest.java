@@ -0,0 +1,148 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class IndexScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 3000;
+    private final static int MAX_VALUE = 1000;
+
+    /** Builds a B+ tree on field 0 of f and registers it. */
+    private BTreeFile addIndex(HeapFile f) throws Exception {
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        new File(file.getPath() + ".stamp").deleteOnExit();
+        BTreeFile idx = new BTreeFile(file, f.getId(), 0);
+        idx.build();
+        Database.getCatalog().addIndex(idx);
+        return idx;
+    }
+
+    /** The tuples of tuples whose first field satisfies "op v". */
+    private ArrayList<ArrayList<Integer>> select(ArrayList<ArrayList<Integer>> tuples,
+                                                 Predicate.Op op, int v) {
+        ArrayList<ArrayList<Integer>> rv = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(v)))
+                rv.add(t);
+        }
+        return rv;
+    }
+
+    private void checkLookups(TransactionId tid, BTreeFile idx,
+                              ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ};
+        for (Predicate.Op op : ops) {
+            for (int v : new int[]{-1, 0, 17, 500, MAX_VALUE - 1, MAX_VALUE + 5}) {
+                IndexScan scan = new IndexScan(tid, "t", idx, op, new IntField(v));
+                SystemTestUtil.matchTuples(scan, select(tuples, op, v));
+            }
+        }
+    }
+
+    /**
+     * Index lookups with every supported operator return exactly the
+     * matching tuples, also after tuples are inserted and deleted through
+     * the buffer pool and after the table is vacuumed.
+     */
+    @Test
+    public void testLookupsStayInSync() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+        BTreeFile idx = addIndex(f);
+
+        TransactionId tid = new TransactionId();
+        checkLookups(tid, idx, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete the tuples with even first fields, insert a few new ones
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> kept = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) toDelete.add(t);
+            else kept.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        for (Tuple t : toDelete)
+            Database.getBufferPool().deleteTuple(tid, t);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(2 * i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            kept.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        checkLookups(tid, idx, kept);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // vacuum moves tuples; the index follows them
+        assertTrue(f.vacuum() > 0);
+        tid = new TransactionId();
+        checkLookups(tid, idx, kept);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The planner answers a selective filter on an indexed field with an
+     * IndexScan, and an unselective one with a scan of the table.
+     */
+    @Test
+    public void testPlannerChoosesIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS * 3, MAX_VALUE, null, tuples, "c");
+        addIndex(f);
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "42");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "500");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(containsIndexScan(plan));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : select(tuples, Predicate.Op.EQUALS, 42)) {
+            if (t.get(1) > 500) expected.add(t);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.c0", null);
+        assertFalse(containsIndexScan(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private boolean containsIndexScan(DbIterator plan) {
+        if (plan instanceof IndexScan) return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (containsIndexScan(child)) return true;
+            }
+        }
+        return false;
+    }
+}
@@ -52,6 +52,12 @@ public class JoinTest extends SimpleDbTestBase {
         SystemTestUtil.matchTuples(joinOp, expectedResults);
 
         joinOp.close();
+
+        // and hashing either table
+        HashEquiJoin hashOp = new HashEquiJoin(p, ss1, ss2);
+        SystemTestUtil.matchTuples(hashOp, expectedResults);
+        hashOp.setChildCardinalities(table1Rows, table2Rows + 1);
+        SystemTestUtil.matchTuples(hashOp, expectedResults);
         Database.getBufferPool().transactionComplete(tid);
     }
 
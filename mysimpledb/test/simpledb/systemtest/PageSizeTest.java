@@ -0,0 +1,150 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private final static TupleDesc TD = Utility.getTupleDesc(2);
+
+    /** Encodes tuples into a heap file with pages of pageSize bytes. */
+    private HeapFile createHeapFile(ArrayList<ArrayList<Integer>> tuples, int pageSize)
+            throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        HeapFile hf = new HeapFile(f, TD, pageSize);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private ArrayList<ArrayList<Integer>> rows(int n) {
+        ArrayList<ArrayList<Integer>> rv = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(-i);
+            rv.add(t);
+        }
+        return rv;
+    }
+
+    /**
+     * A table with 64 KB pages reads, grows and rolls back like one with
+     * pages of the default size.
+     */
+    @Test
+    public void testLargePages() throws Exception {
+        int pageSize = 64 * 1024;
+        int slots = (pageSize * 8) / (TD.getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = rows(2 * slots + 10);
+        HeapFile f = createHeapFile(tuples, pageSize);
+        assertEquals(pageSize, f.getPageSize());
+        assertEquals(3, f.numPages());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(pageSize, p.getPageSize());
+        assertEquals(0, p.getNumEmptySlots());
+
+        // fill the last page and start a new one
+        for (int i = 0; i < slots; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, i});
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, f.numPages());
+        assertEquals(4L * pageSize, f.getFile().length());
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // deletes that are rolled back leave the tuples in place; only two
+        // pages can be dirty at once, as each takes 16 of the pool's frames
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.open();
+        ArrayList<Tuple> all = new ArrayList<Tuple>();
+        while (scan.hasNext())
+            all.add(scan.next());
+        scan.close();
+        for (Tuple t : all) {
+            if (t.getRecordId().getPageId().pageNumber() < 2)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A page larger than the default size takes several frames of the
+     * buffer pool.
+     */
+    @Test
+    public void testFrames() throws Exception {
+        int pageSize = 4 * BufferPool.getPageSize();
+        int slots = (pageSize * 8) / (TD.getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = rows(5 * slots);
+        Database.resetBufferPool(8);
+        HeapFile f = createHeapFile(tuples, pageSize);
+
+        // five pages, two at a time, are read by evicting
+        SystemTestUtil.matchTuples(f, tuples);
+
+        // two dirty pages fill the pool, so a third cannot be read
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            Page p = Database.getBufferPool().getPage(tid,
+                    new HeapPageId(f.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 2),
+                    Permissions.READ_ONLY);
+            fail("expected the pool to be full");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /** A file that is not a whole number of pages is refused. */
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartialPagesRejected() throws Exception {
+        File f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows(10), f, 4096, 2);
+        new HeapFile(f, TD, 16 * 1024);
+    }
+
+    /**
+     * A schema file sets the page size of a heap table.
+     */
+    @Test
+    public void testSchemaPageSize() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("big (a int, b int) heap 16k\n");
+        w.write("small (a int, b int)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog c = Database.getCatalog();
+        HeapFile big = (HeapFile) c.getDatabaseFile(c.getTableId("big"));
+        HeapFile small = (HeapFile) c.getDatabaseFile(c.getTableId("small"));
+        assertEquals(16 * 1024, big.getPageSize());
+        assertEquals(BufferPool.getPageSize(), small.getPageSize());
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+    private final static int ROWS = 20000;
+    private final static int MAX_VALUE = 64;
+    private final static int COLUMNS = 3;
+    private final static int WORKERS = 4;
+
+    /** Scanning with several workers returns every tuple exactly once. */
+    @Test
+    public void testScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ParallelSeqScan(tid, f.getId(), "t", WORKERS), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Rewinding in the middle of a scan stops the workers of the first run
+     * before the next one starts, so no tuple is lost or returned twice.
+     */
+    @Test
+    public void testRewindMidScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+        long expectedSum = 0;
+        for (ArrayList<Integer> t : tuples) expectedSum += t.get(2);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", WORKERS);
+        scan.open();
+        for (int pass = 0; pass < 5; pass++) {
+            for (int i = 0; i < 100 * pass + 1; i++) scan.next();
+            scan.rewind();
+        }
+        int count = 0;
+        long sum = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(2)).getValue();
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        assertEquals(expectedSum, sum);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Predicates are evaluated by the workers. */
+    @Test
+    public void testPredicate() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < MAX_VALUE / 4) expected.add(t);
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", WORKERS);
+        scan.addPredicate(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 4)));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Grouped AVG over a parallel scan is combined from partial sums and counts. */
+    @Test
+    public void testAverage() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, MAX_VALUE, null, tuples);
+
+        HashMap<Integer, int[]> sums = new HashMap<Integer, int[]>();
+        for (ArrayList<Integer> t : tuples) {
+            int[] sc = sums.get(t.get(0));
+            if (sc == null) {
+                sc = new int[2];
+                sums.put(t.get(0), sc);
+            }
+            sc[0] += t.get(1);
+            sc[1]++;
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, int[]> e : sums.entrySet()) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(e.getKey());
+            row.add(e.getValue()[0] / e.getValue()[1]);
+            expected.add(row);
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", WORKERS);
+        SystemTestUtil.matchTuples(new Aggregate(scan, 1, 0, Aggregator.Op.AVG), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The buffer pool reads pages outside its monitor, so two threads
+     * fetching different pages read them at the same time.
+     */
+    @Test
+    public void testPageReadsOverlap() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, MAX_VALUE, null, null);
+        final CyclicBarrier bothReading = new CyclicBarrier(2);
+        final HeapFile f = new HeapFile(file, Utility.getTupleDesc(COLUMNS)) {
+            public Page readPage(PageId pid) {
+                try {
+                    bothReading.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException("page reads did not overlap");
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+
+        final Exception[] failure = new Exception[1];
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            final int pgNo = i;
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        Database.getBufferPool().getPage(tid,
+                                new HeapPageId(f.getId(), pgNo), Permissions.READ_ONLY);
+                        Database.getBufferPool().transactionComplete(tid);
+                    } catch (Exception e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread t : readers) t.join();
+        if (failure[0] != null) throw failure[0];
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
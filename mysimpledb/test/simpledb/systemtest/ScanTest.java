@@ -111,6 +111,12 @@ public class ScanTest extends SimpleDbTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public ArrayList<Page> readPages(PageId first, int count) {
+                readCount += count;
+                return super.readPages(first, count);
+            }
+
             public int readCount = 0;
         }
 
@@ -0,0 +1,121 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class VacuumTest extends SimpleDbTestBase {
+    private final static int ROWS = 5000;
+    private final static int COLUMNS = 2;
+
+    /**
+     * Deletes all but every tenth tuple, vacuums, and checks that the file
+     * shrank to about a tenth while every remaining tuple is still there.
+     */
+    @Test
+    public void testVacuum() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        int pagesBefore = f.numPages();
+
+        // delete 9 of every 10 tuples
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int i = 0;
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i++ % 10 == 0) expected.add(SystemTestUtil.tupleToList(t));
+            else toDelete.add(t);
+        }
+        it.close();
+        for (Tuple t : toDelete) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pagesBefore, f.numPages());
+
+        int removed = f.vacuum();
+        assertEquals(pagesBefore - f.numPages(), removed);
+        assertTrue(f.numPages() <= pagesBefore / 10 + 1);
+        SystemTestUtil.matchTuples(f, expected);
+    }
+
+    /** Moved tuples carry their new RecordId and can be deleted through it. */
+    @Test
+    public void testRecordIdsUpdated() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        // empty the first page so that tuples of the last page move there
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        Iterator<Tuple> pit = first.iterator();
+        while (pit.hasNext()) toDelete.add(pit.next());
+        for (Tuple t : toDelete) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        HeapPage last = (HeapPage) Database.getBufferPool().getPage(
+                tid, new HeapPageId(f.getId(), f.numPages() - 1), Permissions.READ_ONLY);
+        Tuple moved = last.iterator().next();
+        Database.getBufferPool().transactionComplete(tid);
+
+        f.vacuum();
+        assertEquals(0, moved.getRecordId().getPageId().pageNumber());
+
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, moved);
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertFalse(scan.next().getRecordId().equals(moved.getRecordId()));
+            count++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS - toDelete.size() - 1, count);
+    }
+
+    /** VACUUM is accepted from a query file, not only at the prompt. */
+    @Test
+    public void testVacuumStatement() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        int pagesBefore = f.numPages();
+
+        // delete every tuple but one
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+        while (it.hasNext()) toDelete.add(it.next());
+        it.close();
+        for (Tuple t : toDelete.subList(1, toDelete.size())) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        String stmt = "VACUUM " + Database.getCatalog().getTableName(f.getId()) + ";\n";
+        new Parser().processNextStatement(new ByteArrayInputStream(stmt.getBytes("UTF-8")));
+        assertTrue(f.numPages() < pagesBefore);
+        assertEquals(1, f.numPages());
+    }
+
+    /**
+     * Make test compatible with older version of ant.
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VacuumTest.class);
+    }
+}
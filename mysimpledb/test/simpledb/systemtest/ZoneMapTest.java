@@ -0,0 +1,202 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+
+import org.junit.Test;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private final static int ROWS = 5000;
+
+    /** Writes a two-column table whose first column counts up from 0. */
+    private File createClusteredFile() throws IOException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i);
+            t.add(ROWS - i);
+            tuples.add(t);
+        }
+        File f = File.createTempFile("zone", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        return f;
+    }
+
+    /** Runs a filtered scan on column 0 and returns the number of matches. */
+    private int countMatches(TransactionId tid, HeapFile f, Predicate.Op op, int v)
+            throws DbException, TransactionAbortedException {
+        Predicate p = new Predicate(0, op, new IntField(v));
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.addPagePredicate(p);
+        Filter filter = new Filter(p, scan);
+        filter.open();
+        int count = 0;
+        while (filter.hasNext()) {
+            filter.next();
+            count++;
+        }
+        filter.close();
+        return count;
+    }
+
+    /** Counts the pages of f the transaction has locked, i.e., has read. */
+    private int pagesRead(TransactionId tid, HeapFile f) {
+        int n = 0;
+        for (int i = 0; i < f.numPages(); i++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Once a scan has filled in the zone map, a range scan on the clustered
+     * column reads only the pages holding matches, and the side file lets a
+     * new HeapFile over the same data do the same.
+     */
+    @Test
+    public void testRangeScanSkipsPages() throws IOException, DbException,
+            TransactionAbortedException {
+        File file = createClusteredFile();
+        HeapFile f = Utility.openHeapFile(2, file);
+        int numPages = f.numPages();
+
+        // the first scan reads everything and learns the zone map
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS - 4900 - 1, countMatches(tid, f, Predicate.Op.GREATER_THAN, 4900));
+        assertEquals(numPages, pagesRead(tid, f));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(ROWS - 4900 - 1, countMatches(tid, f, Predicate.Op.GREATER_THAN, 4900));
+        assertTrue(pagesRead(tid, f) <= 1);
+        assertEquals(1, countMatches(tid, f, Predicate.Op.EQUALS, 2500));
+        assertTrue(pagesRead(tid, f) <= 2);
+        assertEquals(0, countMatches(tid, f, Predicate.Op.LESS_THAN, 0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // reopened from the side file
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile g = Utility.openHeapFile(2, file);
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, g, Predicate.Op.LESS_THAN, 10));
+        assertEquals(1, pagesRead(tid, g));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a side file that no longer matches the data is ignored
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() + BufferPool.getPageSize());
+        raf.close();
+        HeapFile h = Utility.openHeapFile(2, file);
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, h, Predicate.Op.LESS_THAN, 10));
+        assertEquals(h.numPages(), pagesRead(tid, h));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Scans and page writes only update the zone map in memory; the side
+     * file is brought up to date when the buffer pool flushes all pages.
+     */
+    @Test
+    public void testSideFileSavedOnFlush() throws IOException, DbException,
+            TransactionAbortedException {
+        File file = createClusteredFile();
+        File zm = new File(file.getPath() + ".zm");
+        HeapFile f = Utility.openHeapFile(2, file);
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, countMatches(tid, f, Predicate.Op.GREATER_THAN_OR_EQ, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(zm.exists());
+        Database.getBufferPool().flushAllPages();
+        byte[] saved = Files.readAllBytes(zm.toPath());
+
+        f.writePage(f.readPage(new HeapPageId(f.getId(), 0)));
+        assertEquals(saved.length, zm.length());
+        Database.getBufferPool().flushAllPages();
+        assertFalse(Arrays.equals(saved, Files.readAllBytes(zm.toPath())));
+
+        // the entries still hold for the written file, in memory and on disk
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, f, Predicate.Op.LESS_THAN, 10));
+        assertEquals(1, pagesRead(tid, f));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile g = Utility.openHeapFile(2, file);
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, g, Predicate.Op.LESS_THAN, 10));
+        assertEquals(1, pagesRead(tid, g));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The first page write after a save marks the side file invalid, so it
+     * is ignored even if the data file's length and modification time
+     * look unchanged.
+     */
+    @Test
+    public void testWriteInvalidatesSideFile() throws IOException, DbException,
+            TransactionAbortedException {
+        File file = createClusteredFile();
+        HeapFile f = Utility.openHeapFile(2, file);
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, countMatches(tid, f, Predicate.Op.GREATER_THAN_OR_EQ, 0));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        long modified = file.lastModified();
+        f.writePage(f.readPage(new HeapPageId(f.getId(), 0)));
+        assertTrue(file.setLastModified(modified));
+
+        Database.reset();
+        HeapFile g = Utility.openHeapFile(2, file);
+        tid = new TransactionId();
+        assertEquals(10, countMatches(tid, g, Predicate.Op.LESS_THAN, 10));
+        assertEquals(g.numPages(), pagesRead(tid, g));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserting a value outside a page's range widens the page's entry, so
+     * scans, including the inserting transaction's own, still find it.
+     */
+    @Test
+    public void testInsertWidensZone() throws IOException, DbException,
+            TransactionAbortedException {
+        HeapFile f = Utility.openHeapFile(2, createClusteredFile());
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, countMatches(tid, f, Predicate.Op.GREATER_THAN_OR_EQ, 0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // free a slot on the first page, then insert a large value there
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        Database.getBufferPool().deleteTuple(tid, scan.next());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(),
+                Utility.getHeapTuple(new int[]{ROWS * 10, 0}));
+        assertEquals(1, countMatches(tid, f, Predicate.Op.GREATER_THAN, ROWS));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, countMatches(tid, f, Predicate.Op.GREATER_THAN, ROWS));
+        assertEquals(1, pagesRead(tid, f));
+        assertEquals(0, countMatches(tid, f, Predicate.Op.EQUALS, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}